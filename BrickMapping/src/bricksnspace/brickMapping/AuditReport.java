@@ -0,0 +1,257 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Result of a whole catalog consistency audit (see {@link CatalogAudit}).
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class AuditReport {
+	
+	/**
+	 * Kind of problem found
+	 */
+	public enum Kind {
+		/** more mappings with same flag on same key, translation fails */
+		DUPLICATE,
+		/** a flag without rule in opposite direction (bl2ldd without ldd2bl...) */
+		ASYMMETRIC,
+		/** masterid not used as designid or blid by any mapping */
+		ORPHAN_MASTERID,
+		/** IDs with leading or trailing spaces, fixed by PartMapping.cleanup() */
+		UNTRIMMED,
+		/** more colors with same LDD, BL or LDraw ID */
+		DUPLICATE_COLOR
+	}
+	
+	
+	
+	/**
+	 * A problem in catalog, with mappings or colors involved
+	 */
+	public static final class Issue {
+		
+		private final Kind kind;
+		private final MapDirection direction;
+		private final String field;
+		private final String key;
+		private final List<PartMapping> parts;
+		private final List<BrickColor> colors;
+		
+		
+		Issue(Kind kind, MapDirection direction, String field, String key, 
+				List<PartMapping> parts, List<BrickColor> colors) {
+			
+			this.kind = kind;
+			this.direction = direction;
+			this.field = field;
+			this.key = key;
+			this.parts = parts == null ? Collections.<PartMapping>emptyList() : 
+				Collections.unmodifiableList(parts);
+			this.colors = colors == null ? Collections.<BrickColor>emptyList() : 
+				Collections.unmodifiableList(colors);
+		}
+
+
+		/** @return kind of problem */
+		public Kind getKind() {
+			return kind;
+		}
+
+
+		/** @return direction flag involved, null for colors, orphans and untrimmed IDs */
+		public MapDirection getDirection() {
+			return direction;
+		}
+
+
+		/** @return flag or column(s) involved */
+		public String getField() {
+			return field;
+		}
+
+
+		/** @return key value in conflict, or wrong value */
+		public String getKey() {
+			return key;
+		}
+
+
+		/** @return part mappings involved, by mapid */
+		public List<PartMapping> getParts() {
+			return parts;
+		}
+
+
+		/** @return colors involved, by mapid */
+		public List<BrickColor> getColors() {
+			return colors;
+		}
+		
+		
+		int firstMapid() {
+			
+			if (!parts.isEmpty())
+				return parts.get(0).getMapid();
+			if (!colors.isEmpty())
+				return colors.get(0).getMapid();
+			return 0;
+		}
+
+
+		@Override
+		public String toString() {
+			
+			StringBuilder sb = new StringBuilder();
+			sb.append(kind).append(' ').append(field).append(" '")
+				.append(key == null ? "" : key.replace('\t', '/')).append("':");
+			for (PartMapping pm : parts) {
+				sb.append("\n  ").append(pm);
+			}
+			for (BrickColor bc : colors) {
+				sb.append("\n  mapid=").append(bc.getMapid()).append(" ldd=").append(bc.getLdd())
+					.append(" bl=").append(bc.getBl()).append(" ldraw=").append(bc.getLdraw());
+			}
+			return sb.toString();
+		}
+	}
+	
+	
+	
+	private final List<Issue> issues;
+	private final EnumMap<Kind,Integer> counts;
+	private final int partCount;
+	private final int colorCount;
+	private final long nanos;
+	
+	
+	
+	AuditReport(List<Issue> issues, int partCount, int colorCount, long nanos) {
+		
+		this.issues = Collections.unmodifiableList(new ArrayList<Issue>(issues));
+		counts = new EnumMap<Kind,Integer>(Kind.class);
+		for (Kind k : Kind.values()) {
+			counts.put(k, 0);
+		}
+		for (Issue i : issues) {
+			counts.put(i.getKind(), counts.get(i.getKind())+1);
+		}
+		this.partCount = partCount;
+		this.colorCount = colorCount;
+		this.nanos = nanos;
+	}
+	
+	
+	
+	/**
+	 * @return all issues, by kind and first mapid involved
+	 */
+	public List<Issue> getIssues() {
+		return issues;
+	}
+	
+	
+	
+	/**
+	 * @param kind kind of problem
+	 * @return issues of that kind
+	 */
+	public List<Issue> getIssues(Kind kind) {
+		
+		ArrayList<Issue> l = new ArrayList<Issue>();
+		for (Issue i : issues) {
+			if (i.getKind() == kind)
+				l.add(i);
+		}
+		return l;
+	}
+	
+	
+	
+	/**
+	 * @return number of issues for every kind
+	 */
+	public Map<Kind,Integer> getCounts() {
+		return Collections.unmodifiableMap(counts);
+	}
+	
+	
+	
+	/**
+	 * @return true if no problem was found
+	 */
+	public boolean isClean() {
+		return issues.isEmpty();
+	}
+	
+	
+	
+	/**
+	 * @return number of part mappings audited
+	 */
+	public int getPartCount() {
+		return partCount;
+	}
+	
+	
+	
+	/**
+	 * @return number of colors audited
+	 */
+	public int getColorCount() {
+		return colorCount;
+	}
+	
+	
+	
+	/**
+	 * @return audit time in nanoseconds, including table read
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+	
+	
+	
+	@Override
+	public String toString() {
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Audit of %d mappings, %d colors in %.1f ms: %s", 
+				partCount, colorCount, nanos/1e6, counts));
+		for (Issue i : issues) {
+			sb.append('\n').append(i);
+		}
+		return sb.toString();
+	}
+
+}
@@ -62,10 +62,27 @@ public class BrickColor {
 
 	public static final String fieldsOrder = "ldd,bl,ldraw,r,g,b,a,inuse,metal,transparent,glitter,lddname,colgrp,notes,lastmod";
 	public static final String table = "colors";
-	private static PreparedStatement insertPS = null;
-	private static PreparedStatement updatePS = null;
+	static final String insertSQL = "INSERT INTO "+table+" " +
+			"("+fieldsOrder+") VALUES " +
+			"(?,?,?,?,?,?,?,?,?,?,?,?,?,?,NOW())";
+	static final String updateSQL = "UPDATE "+table+" SET " +
+			"ldd=?," +
+			"bl=?," +
+			"ldraw=?," +
+			"r=?," +
+			"g=?," +
+			"b=?," +
+			"a=?," +
+			"inuse=?," +
+			"metal=?," +
+			"transparent=?," +
+			"glitter=?," +
+			"lddname=?," +
+			"colgrp=?," +
+			"notes=?," +
+			"lastmod=NOW() " +
+			"WHERE mapid=?";
 	//private static PreparedStatement deletePS = null;
-	private static HashMap<Integer,BrickColor>colorMap;
 	
 	
 	@Override
@@ -143,89 +160,159 @@ public class BrickColor {
 	
 	protected static void init() throws SQLException {
 
-		Statement st = BrickMapping.db.createStatement();
-		// creates indexes to speedup search
-		st.executeUpdate("CREATE INDEX IF NOT EXISTS color_ldd ON "+table+"(ldd)");
-		st.executeUpdate("CREATE INDEX IF NOT EXISTS color_bl ON "+table+"(bl)");
-		st.executeUpdate("CREATE INDEX IF NOT EXISTS color_ldr ON "+table+"(ldraw)");
+		try (Statement st = BrickMapping.statement()) {
+			// creates indexes to speedup search
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS color_ldd ON "+table+"(ldd)");
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS color_bl ON "+table+"(bl)");
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS color_ldr ON "+table+"(ldraw)");
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS color_lastmod ON "+table+"(lastmod)");
+		}
 
 		// prepared statements
-		insertPS = BrickMapping.db.prepareStatement("INSERT INTO "+table+" " +
-				"("+fieldsOrder+") VALUES " +
-				"(?,?,?,?,?,?,?,?,?,?,?,?,?,?,NOW())" +
-				";",Statement.RETURN_GENERATED_KEYS);
-		updatePS = BrickMapping.db.prepareStatement("UPDATE "+table+" SET " +
-				"ldd=?," +
-				"bl=?," +
-				"ldraw=?," +
-				"r=?," +
-				"g=?," +
-				"b=?," +
-				"a=?," +
-				"inuse=?," +
-				"metal=?," +
-				"transparent=?," +
-				"glitter=?," +
-				"lddname=?," +
-				"colgrp=?," +
-				"notes=?," +
-				"lastmod=NOW() " +
-				"WHERE mapid=?");
-		colorMap = getAllColor();
+		refresh();
+		
+	}
+	
+	
+	
+	/**
+	 * Reloads color cache from database and publish it as a new version. 
+	 * Called automatically after changes, only needed if table is 
+	 * changed outside this library.
+	 * @throws SQLException
+	 */
+	public static synchronized void refresh() throws SQLException {
+		
+		ColorTable ct = BrickMapping.current().colors;
+		BrickMapping.publishColors(new ColorTable(getAllColor(), ct == null ? 1 : ct.version+1));
+	}
+	
+	
+	
+	/**
+	 * Keeps color cache aligned with a changed color. 
+	 * Inside an update transaction cache is reloaded on commit/rollback
+	 * @param bc inserted or updated color
+	 */
+	private static synchronized void cacheChanged(BrickColor bc) {
+		
+		ColorTable ct = BrickMapping.current().colors;
+		if (ct != null && !PartMapping.isUpdating()) 
+			BrickMapping.publishColors(ct.with(bc));
+	}
+	
+	
+	
+	/**
+	 * Current snapshot, with color cache loaded if library was 
+	 * initialized in lazy mode
+	 */
+	private static CatalogSnapshot colors() {
 		
+		CatalogSnapshot s = BrickMapping.current();
+		if (s.colors != null)
+			return s;
+		try {
+			BrickMapping.ensureColors();
+		} catch (SQLException e) {
+			throw new IllegalStateException("[BrickMapping] unable to load colors", e);
+		}
+		return BrickMapping.current();
+	}
+	
+	
+	
+	/**
+	 * @return version of color cache, changes every time a color is changed 
+	 */
+	public static long getColorVersion() {
+		return colors().colors.version;
 	}
 	
 	
 	
 	protected static void createTable() throws SQLException {
 		
-		Statement st = BrickMapping.db.createStatement();
-		st.execute("DROP TABLE IF EXISTS "+table+"; " +
-				"CREATE TABLE IF NOT EXISTS "+table+" (" +
-				"mapid INT PRIMARY KEY AUTO_INCREMENT," +
-				"ldd INT UNIQUE, " +
-				"bl INT," +
-				"ldraw INT," +
-				"r INT," +
-				"g INT," +
-				"b INT," +
-				"a INT," +
-				"inuse BOOL," +
-				"metal BOOL," +
-				"transparent BOOL," +
-				"glitter BOOL," +
-				"lddname VARCHAR(255)," +
-				"colgrp VARCHAR(64)," +
-				"notes VARCHAR(255)," +
-				"lastmod TIMESTAMP" +
-				"); COMMIT ");
+		try (Statement st = BrickMapping.statement()) {
+			st.execute("DROP TABLE IF EXISTS "+table+"; " +
+					"CREATE TABLE IF NOT EXISTS "+table+" (" +
+					"mapid INT PRIMARY KEY AUTO_INCREMENT," +
+					"ldd INT UNIQUE, " +
+					"bl INT," +
+					"ldraw INT," +
+					"r INT," +
+					"g INT," +
+					"b INT," +
+					"a INT," +
+					"inuse BOOL," +
+					"metal BOOL," +
+					"transparent BOOL," +
+					"glitter BOOL," +
+					"lddname VARCHAR(255)," +
+					"colgrp VARCHAR(64)," +
+					"notes VARCHAR(255)," +
+					"lastmod TIMESTAMP" +
+					"); COMMIT ");
+		}
+	}
+	
+	
+	/**
+	 * Sets parameters for insert query {@link #insertSQL}
+	 * @param ps statement to fill 
+	 * @throws SQLException
+	 */
+	void bindInsert(PreparedStatement ps) throws SQLException {
+		
+		ps.setInt(1, getLdd());
+		ps.setInt(2, getBl());
+		ps.setInt(3, getLdraw());
+		ps.setInt(4, getColor().getRed());
+		ps.setInt(5, getColor().getGreen());
+		ps.setInt(6, getColor().getBlue());
+		ps.setInt(7, getColor().getAlpha());
+		ps.setBoolean(8, isInProduction());
+		ps.setBoolean(9, isMetallic());
+		ps.setBoolean(10, isTransparent());
+		ps.setBoolean(11, isGlitter());
+		ps.setString(12, getLddName());
+		ps.setInt(13, getColorGroup());
+		ps.setString(14, getNotes());
+	}
+	
+	
+	
+	/**
+	 * Sets parameters for update query {@link #updateSQL}
+	 * @param ps statement to fill 
+	 * @throws SQLException
+	 */
+	void bindUpdate(PreparedStatement ps) throws SQLException {
+		
+		bindInsert(ps);
+		ps.setInt(15, getMapid());
 	}
 	
 	
 	public int insert() throws SQLException {
 
-		ResultSet rs;
+		PreparedStatement insertPS = StatementPool.get(insertSQL, true);
 		
-		insertPS.setInt(1, getLdd());
-		insertPS.setInt(2, getBl());
-		insertPS.setInt(3, getLdraw());
-		insertPS.setInt(4, getColor().getRed());
-		insertPS.setInt(5, getColor().getGreen());
-		insertPS.setInt(6, getColor().getBlue());
-		insertPS.setInt(7, getColor().getAlpha());
-		insertPS.setBoolean(8, isInProduction());
-		insertPS.setBoolean(9, isMetallic());
-		insertPS.setBoolean(10, isTransparent());
-		insertPS.setBoolean(11, isGlitter());
-		insertPS.setString(12, getLddName());
-		insertPS.setInt(13, getColorGroup());
-		insertPS.setString(14, getNotes());
-		
-		insertPS.executeUpdate();
-		
-		rs = insertPS.getGeneratedKeys();
-		rs.next();
-		setMapid(rs.getInt(1));
+		boolean local = BrickMapping.beginWrite();
+		try {
+			bindInsert(insertPS);
+			insertPS.executeUpdate();
+			
+			try (ResultSet rs = insertPS.getGeneratedKeys()) {
+				rs.next();
+				setMapid(rs.getInt(1));
+			}
+			ChangeLog.log(table, getMapid());
+			BrickMapping.commitWrite(local);
+			cacheChanged(this);
+		} finally {
+			BrickMapping.endWrite(local);
+		}
 		return getMapid();
 		
 	}
@@ -233,23 +320,18 @@ public class BrickColor {
 	
 	public void update() throws SQLException {
 
-		updatePS.setInt(1, getLdd());
-		updatePS.setInt(2, getBl());
-		updatePS.setInt(3, getLdraw());
-		updatePS.setInt(4, getColor().getRed());
-		updatePS.setInt(5, getColor().getGreen());
-		updatePS.setInt(6, getColor().getBlue());
-		updatePS.setInt(7, getColor().getAlpha());
-		updatePS.setBoolean(8, isInProduction());
-		updatePS.setBoolean(9, isMetallic());
-		updatePS.setBoolean(10, isTransparent());
-		updatePS.setBoolean(11, isGlitter());
-		updatePS.setString(12, getLddName());
-		updatePS.setInt(13, getColorGroup());
-		updatePS.setString(14, getNotes());
-		updatePS.setInt(15, getMapid());
+		PreparedStatement updatePS = StatementPool.get(updateSQL);
 		
-		updatePS.executeUpdate();
+		boolean local = BrickMapping.beginWrite();
+		try {
+			bindUpdate(updatePS);
+			updatePS.executeUpdate();
+			ChangeLog.log(table, getMapid());
+			BrickMapping.commitWrite(local);
+			cacheChanged(this);
+		} finally {
+			BrickMapping.endWrite(local);
+		}
 		
 	}
 	
@@ -257,41 +339,19 @@ public class BrickColor {
 	
 	public static ArrayList<BrickColor> get(String filterExpr) throws SQLException {
 		
-		ArrayList<BrickColor> brc = new ArrayList<BrickColor>();
-		BrickColor bc;
-		Statement st;
 		ResultSet rs;
 		
-		if (filterExpr == null) {
-			st = BrickMapping.db.createStatement();
-			rs = st.executeQuery("SELECT mapid,"+fieldsOrder+" FROM "+table+"");
-		}
-		else {
-			st = BrickMapping.db.createStatement();
-			rs = st.executeQuery("SELECT mapid," + fieldsOrder +
-				" FROM "+table+" WHERE " + filterExpr);
-		}
-		while (rs.next()) {
-			// fetch and assign rows to an Array list
-			//ldd,bl,ldraw,r,g,b,a,inuse,metal,glitter,lddname,colgrp,notes
-			bc = new BrickColor();
-			bc.setMapid(rs.getInt("mapid"));
-			bc.setLdd(rs.getInt("ldd"));
-			bc.setBl(rs.getInt("bl"));
-			bc.setLdraw(rs.getInt("ldraw"));
-			bc.setColor(new Color(rs.getInt("r"),rs.getInt("g"),rs.getInt("b"),rs.getInt("a")));
-			bc.setInProduction(rs.getBoolean("inuse"));
-			bc.setMetallic(rs.getBoolean("metal"));
-			bc.setTransparent(rs.getBoolean("transparent"));
-			bc.setGlitter(rs.getBoolean("glitter"));
-			bc.setLddName(rs.getString("lddname"));
-			bc.setColorGroup(rs.getInt("colgrp"));
-			bc.setNotes(rs.getString("notes"));
-			bc.setLastmod(rs.getTimestamp("lastmod"));
-			brc.add(bc);
+		try (Statement st = BrickMapping.statement()) {
+			if (filterExpr == null) {
+				rs = st.executeQuery("SELECT mapid,"+fieldsOrder+" FROM "+table+"");
+			}
+			else {
+				rs = st.executeQuery("SELECT mapid," + fieldsOrder +
+					" FROM "+table+" WHERE " + filterExpr);
+			}
+			// closing statement closes result set too
+			return fetch(rs);
 		}
-		return brc;
-		
 	}
 	
 	
@@ -313,13 +373,27 @@ public class BrickColor {
 	}
 	
 	
+	/**
+	 * Executes a query and reads all colors. Result set is closed, 
+	 * statement is left open for reuse
+	 * @param ps query to execute
+	 * @return colors found
+	 * @throws SQLException
+	 */
 	public static ArrayList<BrickColor> getPS(PreparedStatement ps) throws SQLException {
 		
+		try (ResultSet rs = ps.executeQuery()) {
+			return fetch(rs);
+		}
+	}
+	
+	
+	
+	private static ArrayList<BrickColor> fetch(ResultSet rs) throws SQLException {
+		
 		ArrayList<BrickColor> brc = new ArrayList<BrickColor>();
 		BrickColor bc;
-		ResultSet rs;
 		
-		rs = ps.executeQuery();
 		while (rs.next()) {
 			// fetch and assign rows to an Array list
 			//ldd,bl,ldraw,r,g,b,a,inuse,metal,glitter,lddname,colgrp,notes
@@ -340,34 +414,45 @@ public class BrickColor {
 			brc.add(bc);
 		}
 		return brc;
-		
 	}
 	
 	
 
+	/**
+	 * Checks this color against database for duplicated ids. 
+	 * For many rows use {@link BulkValidator}
+	 * @throws SQLException if color is a duplicate
+	 */
 	public void check() throws SQLException {
 		
-		Statement st;
-		ResultSet rs;
+		PreparedStatement ps;
 		
-		st = BrickMapping.db.createStatement();
-		rs = st.executeQuery("SELECT mapid,"+fieldsOrder+" FROM "+table+" " +
-				"WHERE ((ldd = "+getLdd()+" AND "+getLdd()+"!=0) " +
+		ps = StatementPool.get("SELECT ldd,bl,ldraw FROM "+table+" " +
+				"WHERE ((ldd=? AND ?!=0) " +
 				"OR " +
-				"(bl = "+getBl()+" AND "+getBl() +"!=0) " +
+				"(bl=? AND ?!=0) " +
 				"OR " +
-				"(ldraw = "+getLdraw()+" AND "+getLdraw()+"!=-1)) " +
+				"(ldraw=? AND ?!=-1)) " +
 				"AND " +
-				"mapid !="+getMapid());
-		if (rs.next()) {
-			int lddid = rs.getInt("ldd");
-			int blid = rs.getInt("bl");
-			int ldrawid = rs.getInt("ldraw");
-			throw new SQLException(
-					"Duplicated color definition. Color:\n" +
-					"Ldd="+getLdd()+" Bl="+getBl()+" LDraw="+getLdraw() +"\n" +
-					"is already defined as:\n" +
-					"Ldd="+lddid+" Bl="+blid+" LDraw="+ldrawid);
+				"mapid!=?");
+		ps.setInt(1, getLdd());
+		ps.setInt(2, getLdd());
+		ps.setInt(3, getBl());
+		ps.setInt(4, getBl());
+		ps.setInt(5, getLdraw());
+		ps.setInt(6, getLdraw());
+		ps.setInt(7, getMapid());
+		try (ResultSet rs = ps.executeQuery()) {
+			if (rs.next()) {
+				int lddid = rs.getInt("ldd");
+				int blid = rs.getInt("bl");
+				int ldrawid = rs.getInt("ldraw");
+				throw new SQLException(
+						"Duplicated color definition. Color:\n" +
+						"Ldd="+getLdd()+" Bl="+getBl()+" LDraw="+getLdraw() +"\n" +
+						"is already defined as:\n" +
+						"Ldd="+lddid+" Bl="+blid+" LDraw="+ldrawid);
+			}
 		}
 	}
 	
@@ -382,18 +467,18 @@ public class BrickColor {
 	public static Timestamp[] getLastModifyTime() throws SQLException {
 		
 		PreparedStatement ps;
-		ResultSet rs;
 		Timestamp last[] = new Timestamp[5];
 		
-		ps = BrickMapping.db.prepareStatement("SELECT FORMATDATETIME(lastmod,'yyyy-MM-dd') as datemod "+
+		ps = StatementPool.get("SELECT FORMATDATETIME(lastmod,'yyyy-MM-dd') as datemod "+
 				" FROM "+table+" GROUP BY datemod ORDER BY datemod DESC LIMIT 5");
-		rs = ps.executeQuery();
-		int i = 0;
-		while (rs.next()) {
-			last[i] = Timestamp.valueOf(rs.getString("datemod")+" 00:00:01");
-			i++;
-			if (i >= 5)
-				break;
+		try (ResultSet rs = ps.executeQuery()) {
+			int i = 0;
+			while (rs.next()) {
+				last[i] = Timestamp.valueOf(rs.getString("datemod")+" 00:00:01");
+				i++;
+				if (i >= 5)
+					break;
+			}
 		}
 		return last;
 	}
@@ -402,80 +487,74 @@ public class BrickColor {
 	public static ArrayList<BrickColor> getModifiedAfter(Timestamp lastmodified) throws SQLException {
 		
 		PreparedStatement ps;
-		ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+
+		ps = StatementPool.get("SELECT mapid,"+fieldsOrder+" FROM "+table+
 				" where lastmod>=?");
 		ps.setTimestamp(1, lastmodified);
 		return getPS(ps);
 	}
     
 
+	/**
+	 * Translates a LDD color, from color cache
+	 * @param lddid LDD color ID
+	 * @return color mapid, -1 if not found
+	 */
 	public static int getMapByLdd(int lddid) {
 		
-		ArrayList<BrickColor> bc;
-		
-		try {
-			bc = get("ldd="+lddid);
-			//System.out.println(id + " " + bc);
-			if (bc.size() >= 1) {
-				return bc.get(0).getMapid();
-			}
-			else return -1;
-		} catch (SQLException e) {
-			return -1;
-		}
+		int m = colors().getMapByLdd(lddid);
+		Metrics.color(m > 0);
+		return m;
 	}
 
 	
 	
+	/**
+	 * Translates a BrickLink color, from color cache
+	 * @param blcolor BrickLink color ID
+	 * @return color mapid, 0 if not found or not unique
+	 * @throws SQLException
+	 */
 	public static int getMapByBl(int blcolor) throws SQLException {
 		
-		PreparedStatement ps;
-		ArrayList<BrickColor> bc;
-		
-		ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+" WHERE bl=?");
-		ps.setInt(1,blcolor);
-		bc = getPS(ps);
-		if (bc.size() != 1) {
-			return 0;
-		}
-		else {
-			return bc.get(0).getMapid();
-		}
+		int m = colors().getMapByBl(blcolor);
+		Metrics.color(m > 0);
+		return m;
 	}
 	
 	
+	/**
+	 * Translates a LDraw color, from color cache
+	 * @param ldrcolor LDraw color ID
+	 * @return color mapid, 0 if not found or not unique
+	 * @throws SQLException
+	 */
 	public static int getMapByLdr(int ldrcolor) throws SQLException {
 		
-		PreparedStatement ps;
-		ArrayList<BrickColor> bc;
-		
-		ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+" WHERE ldraw=?");
-		ps.setInt(1,ldrcolor);
-		bc = getPS(ps);
-		if (bc.size() != 1) {
-			return 0;
-		}
-		else {
-			return bc.get(0).getMapid();
-		}
+		int m = colors().getMapByLdr(ldrcolor);
+		Metrics.color(m > 0);
+		return m;
 	}
 	
 	
+	/**
+	 * Color from cache. Returned object is shared, don't change it
+	 * @param mapid color mapid
+	 * @return color, or color 0 (unknown) if mapid doesn't exists
+	 */
 	public static BrickColor getColor(int mapid) {
 		
-		BrickColor bc;
-		
-		bc = colorMap.get(mapid);
-		if (bc == null) 
-			return colorMap.get(0);
-		else 
-			return bc;
+		BrickColor bc = colors().getColor(mapid);
+		Metrics.color(bc.getMapid() != 0);
+		return bc;
 	}
 	
 	
+	/**
+	 * @return mapid of all colors in cache, read only
+	 */
 	public static Set<Integer> getColorList() {
 		
-		return colorMap.keySet();
+		return colors().colors.colors.keySet();
 	}
 	
 
@@ -487,12 +566,8 @@ public class BrickColor {
 	
 	public static int countRules() {
 
-		Statement st;
-		ResultSet rs;
-		
-		try {
-			st = BrickMapping.db.createStatement();
-			rs = st.executeQuery("SELECT COUNT(*) FROM " + table);
+		try (Statement st = BrickMapping.statement();
+				ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + table)) {
 			rs.next();
 			return rs.getInt(1);
 		} catch (SQLException e) {
@@ -533,16 +608,26 @@ public class BrickColor {
 	public void updateMapping() throws SQLException {
 		
 		PreparedStatement ps;
-		ResultSet rs;
+		boolean exists;
 		
-		ps = BrickMapping.db.prepareStatement("SELECT * FROM "+table+" where mapid=?");
+		long t = Metrics.start();
+		ps = StatementPool.get("SELECT mapid FROM "+table+" where mapid=?");
 		ps.setInt(1, getMapid());
-		rs = ps.executeQuery();
-		if (rs.next()) {
-			update();
-		}
-		else {
-			insert();
+		// no other writer between check and insert/update
+		BrickMapping.lockWrite();
+		try {
+			try (ResultSet rs = ps.executeQuery()) {
+				exists = rs.next();
+			}
+			if (exists) {
+				update();
+			}
+			else {
+				insert();
+			}
+			Metrics.imported(0, 1, t);
+		} finally {
+			BrickMapping.unlockWrite();
 		}
 	}
 
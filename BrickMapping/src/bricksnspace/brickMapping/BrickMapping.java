@@ -21,12 +21,55 @@
 package bricksnspace.brickMapping;
 
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import bricksnspace.dbconnector.DBConnector;
 
 /**
  * Init functions
  * 
+ * Thread safety: after Init, all lookups and translations can be called 
+ * from many threads at the same time. Every thread uses its own prepared 
+ * statements (see {@link StatementPool}) and in-memory indexes are 
+ * immutable snapshots. Writes (insert, update, bulk import, an update 
+ * transaction from prepareUpdate to endUpdate/abortUpdate) are serialized 
+ * by a single write lock: a thread writing while another thread runs 
+ * an update transaction waits until transaction ends.
+ * 
+ * Database queries of all threads run on the single {@link DBConnector} 
+ * session, where H2 runs one statement at a time: translations from 
+ * database don't get faster with more threads, translations from 
+ * in-memory index and color lookups do (see ScalingBench in benchmarks). 
+ * An update transaction turns off autocommit for the whole session, so 
+ * until endUpdate a query from any thread sees rows written by update, 
+ * that abortUpdate can roll back. In-memory index and color cache 
+ * already loaded are changed only at end of update, and {@link ChangeLog} 
+ * skips update entries, so they never show those rows.
+ * 
+ * Startup: after schema check Init runs four steps, table indexes and 
+ * full text index, color cache, change log and optional in-memory part 
+ * index. With {@link InitMode#PARALLEL} or {@link InitMode#LAZY} they 
+ * run on background threads or on first use, see {@link #getInitTimings()}.
+ * All steps use the same database session, that runs one statement at 
+ * a time: in parallel mode only Java work of a step (building color 
+ * cache and in-memory index from rows) overlaps queries of other steps, 
+ * and total init time is about the same of eager mode. Gain is that 
+ * Init returns at once and translations work while index is loading.
+ * 
  * @author Mario Pascucci
  *
  */
@@ -34,7 +77,16 @@ public class BrickMapping {
 	
 	protected static DBConnector db;
 	private static final String DBVERCONSTANT = "MPPMVERSION";
-	private static final int DBVERSION = 1;
+	private static final int DBVERSION = 2;
+	private static final ReentrantLock writeLock = new ReentrantLock();
+	private static final AtomicReference<CatalogSnapshot> snapshot = 
+			new AtomicReference<CatalogSnapshot>(CatalogSnapshot.EMPTY);
+	// deferred init steps, null if not used
+	private static volatile InitStep partStep = null;
+	private static volatile InitStep colorStep = null;
+	private static volatile InitStep logStep = null;
+	private static volatile InitStep indexStep = null;
+	private static final Map<String,Long> timings = new LinkedHashMap<String,Long>();
 
 	
 	private BrickMapping() {
@@ -42,11 +94,248 @@ public class BrickMapping {
 	}
 	
 	
+	/**
+	 * Init library on a database, translations are queried from database
+	 * @param dbc connector to database
+	 * @throws SQLException
+	 */
 	public static void Init(DBConnector dbc) throws SQLException {
+		
+		Init(dbc, false);
+	}
+	
+	
+	
+	/**
+	 * Init library on a database
+	 * @param dbc connector to database
+	 * @param useIndex if true loads part mapping table in an in-memory 
+	 * translation index used by PartMapping.lddToBlink() and other 
+	 * translation methods
+	 * @throws SQLException
+	 */
+	public static void Init(DBConnector dbc, boolean useIndex) throws SQLException {
+		
+		Init(dbc, useIndex, InitMode.EAGER);
+	}
+	
+	
+	
+	/**
+	 * Init library on a database.
+	 * Schema check and upgrade always runs on caller thread, other steps 
+	 * run as requested by mode. In PARALLEL and LAZY mode a method 
+	 * waits only for steps it needs: translations work at once, colors 
+	 * wait for color cache, writes and full text search wait for all steps.
+	 * @param dbc connector to database
+	 * @param useIndex if true loads part mapping table in an in-memory 
+	 * translation index
+	 * @param mode how to run initialization steps
+	 * @throws SQLException
+	 */
+	public static void Init(DBConnector dbc, boolean useIndex, InitMode mode) throws SQLException {
 
 		if (dbc == null)
 			throw new IllegalArgumentException("[BrickMapping] undefined DBConnector");
+		synchronized (timings) {
+			timings.clear();
+		}
+		long t = System.nanoTime();
+		Metrics.registerMBean();
 		db = dbc;
+		snapshot.set(CatalogSnapshot.EMPTY);
+		// statements prepared on a previous connection are no longer valid 
+		StatementPool.reset();
+		checkSchema();
+		phaseDone("schema", System.nanoTime()-t);
+		
+		final InitStep parts = new InitStep("parts") {
+			@Override
+			void run() throws SQLException {
+				PartMapping.init();
+			}
+		};
+		InitStep colors = new InitStep("colors") {
+			@Override
+			void run() throws SQLException {
+				BrickColor.init();
+			}
+		};
+		InitStep log = new InitStep("changelog") {
+			@Override
+			void run() throws SQLException {
+				ChangeLog.init();
+			}
+		};
+		InitStep index = null;
+		if (useIndex) {
+			index = new InitStep("index") {
+				@Override
+				void run() throws SQLException {
+					// init of part table drops index
+					parts.ensure();
+					PartMapping.buildIndex();
+				}
+			};
+		}
+		partStep = parts;
+		colorStep = colors;
+		logStep = log;
+		indexStep = index;
+		switch (mode) {
+		case EAGER:
+			awaitInit();
+			break;
+		case PARALLEL:
+			start(parts, colors, log, index);
+			break;
+		case LAZY:
+			break;
+		}
+	}
+	
+	
+	
+	/**
+	 * Starts init steps on background daemon threads. Queries of steps 
+	 * still run one at a time on library database session
+	 */
+	private static void start(InitStep... steps) {
+		
+		ExecutorService ex = Executors.newFixedThreadPool(steps.length, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "BrickMapping-init");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		for (final InitStep s : steps) {
+			if (s == null)
+				continue;
+			s.submitted();
+			ex.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						s.ensure();
+					} catch (SQLException | RuntimeException e) {
+						// first caller that needs this step will try again
+						Logger.getGlobal().log(Level.WARNING, "[BrickMapping] init step "+s.name+" failed", e);
+					} finally {
+						// thread ends, its statements aren't reused
+						StatementPool.releaseThread();
+					}
+				}
+			});
+		}
+		// threads terminate when steps are done
+		ex.shutdown();
+	}
+	
+	
+	
+	/**
+	 * Waits until all init steps are done, running on caller thread 
+	 * steps not yet started
+	 * @throws SQLException if a step fails
+	 */
+	public static void awaitInit() throws SQLException {
+		
+		ensure(partStep);
+		ensure(colorStep);
+		ensure(logStep);
+		ensure(indexStep);
+	}
+	
+	
+	
+	private static void ensure(InitStep s) throws SQLException {
+		
+		if (s != null)
+			s.ensure();
+	}
+	
+	
+	
+	/**
+	 * Waits for table indexes and full text index
+	 * @throws SQLException
+	 */
+	static void ensureParts() throws SQLException {
+		
+		ensure(partStep);
+	}
+	
+	
+	
+	/**
+	 * Waits for color cache, loading it if needed
+	 * @throws SQLException
+	 */
+	static void ensureColors() throws SQLException {
+		
+		ensure(colorStep);
+	}
+	
+	
+	
+	/**
+	 * Snapshot for a part translation. In lazy mode first translation 
+	 * loads in-memory index, if requested. While index is loaded by a 
+	 * background thread translations are queried from database.
+	 * @return current snapshot
+	 * @throws SQLException
+	 */
+	static CatalogSnapshot forTranslation() throws SQLException {
+		
+		CatalogSnapshot s = snapshot.get();
+		InitStep idx = indexStep;
+		if (s.inMemory() || idx == null || idx.isStarted())
+			return s;
+		idx.ensure();
+		return snapshot.get();
+	}
+	
+	
+	
+	/**
+	 * Records duration of an init phase
+	 * @param phase phase name
+	 * @param nanos duration in nanoseconds
+	 */
+	static void phaseDone(String phase, long nanos) {
+		
+		synchronized (timings) {
+			timings.put(phase, nanos);
+		}
+		Logger.getGlobal().log(Level.INFO, "[BrickMapping] init "+phase+": "+(nanos/1000000)+" ms");
+	}
+	
+	
+	
+	/**
+	 * Durations of init phases of last Init: schema, parts (table and 
+	 * full text indexes), colors, changelog and index (in-memory part 
+	 * index). A deferred phase is listed only when done.
+	 * @return phase name -> duration in nanoseconds, in completion order
+	 */
+	public static Map<String,Long> getInitTimings() {
+		
+		synchronized (timings) {
+			return Collections.unmodifiableMap(new LinkedHashMap<String,Long>(timings));
+		}
+	}
+	
+	
+	
+	/**
+	 * Checks for new or old database, creates tables or upgrades schema
+	 * @throws SQLException
+	 */
+	@SuppressWarnings("fallthrough")
+	private static void checkSchema() throws SQLException {
+		
 		// checks for new or already populated database
 		if (!db.checkTable(PartMapping.table)) {
 			// is a new database
@@ -60,12 +349,237 @@ public class BrickMapping {
 				switch (db.getDbVersion(DBVERCONSTANT)) {
 				case -1:
 					upgradeFromMinus1();
+					// fall through
+				case 1:
+					upgradeFrom1();
 					break;
 				}
 			}
 		}
-		PartMapping.init();
-		BrickColor.init();
+	}
+	
+	
+	
+	/**
+	 * Init library in read-only mode from a catalog file written by 
+	 * {@link CatalogFile#export(File)}. No database is used: part 
+	 * translations, text search, autocomplete and colors are answered 
+	 * from mapped file. Methods that write or query database throw 
+	 * IllegalStateException.
+	 * @param catalog catalog file
+	 * @throws IOException if file can't be read or isn't a catalog
+	 */
+	public static void InitReadOnly(File catalog) throws IOException {
+		
+		CatalogFile cf = CatalogFile.open(catalog);
+		db = null;
+		partStep = null;
+		colorStep = null;
+		logStep = null;
+		indexStep = null;
+		StatementPool.reset();
+		snapshot.set(CatalogSnapshot.EMPTY.withFile(cf).withColors(new ColorTable(cf.getColors(), 1)));
+		PartMapping.dropIndexes();
+	}
+	
+	
+	
+	/**
+	 * @return true if library is working on a catalog file, without database
+	 */
+	public static boolean isReadOnly() {
+		return db == null && snapshot.get().file != null;
+	}
+	
+	
+	
+	/**
+	 * Current snapshot of part and color mappings, for lock-free 
+	 * translations. Loads part mapping index if library was initialized 
+	 * without it. 
+	 * @return current snapshot, a later change doesn't modify it
+	 * @throws SQLException
+	 */
+	public static CatalogSnapshot getSnapshot() throws SQLException {
+		
+		ensureColors();
+		ensure(indexStep);
+		if (!snapshot.get().inMemory())
+			PartMapping.buildIndex();
+		return snapshot.get();
+	}
+	
+	
+	
+	/**
+	 * @return current snapshot, as is
+	 */
+	static CatalogSnapshot current() {
+		return snapshot.get();
+	}
+	
+	
+	
+	/**
+	 * Publish a new snapshot with a new part index
+	 * @param parts part index, null to drop index 
+	 */
+	static void publishParts(PartMappingIndex parts) {
+		
+		CatalogSnapshot cur;
+		do {
+			cur = snapshot.get();
+		} while (!snapshot.compareAndSet(cur, cur.withParts(parts)));
+	}
+	
+	
+	
+	/**
+	 * Publish a new snapshot with a new color table
+	 * @param colors color table
+	 */
+	static void publishColors(ColorTable colors) {
+		
+		CatalogSnapshot cur;
+		do {
+			cur = snapshot.get();
+		} while (!snapshot.compareAndSet(cur, cur.withColors(colors)));
+	}
+	
+	
+	
+	/**
+	 * @return a new statement on library database, traced if 
+	 * {@link QueryTracer} is enabled. Caller must close it
+	 * @throws SQLException
+	 */
+	static Statement statement() throws SQLException {
+		
+		checkDatabase();
+		return QueryTracer.wrap(db.createStatement());
+	}
+	
+	
+	
+	/**
+	 * Prepares a statement that can't be pooled (query text changes 
+	 * at every use), traced if {@link QueryTracer} is enabled
+	 * @param sql query text
+	 * @return statement, caller must close it
+	 * @throws SQLException
+	 */
+	static PreparedStatement prepare(String sql) throws SQLException {
+		
+		checkDatabase();
+		return QueryTracer.wrap(db.prepareStatement(sql), sql);
+	}
+	
+	
+	
+	/**
+	 * Acquires write lock. Lock is reentrant, every call needs an 
+	 * {@link #unlockWrite()}
+	 */
+	static void lockWrite() throws SQLException {
+		
+		checkWritable();
+		writeLock.lock();
+	}
+	
+	
+	
+	private static void checkWritable() throws SQLException {
+		
+		checkDatabase();
+		// writes need change log, full text and color cache ready
+		awaitInit();
+	}
+	
+	
+	
+	/**
+	 * Checks library has a database, before any query
+	 * @throws IllegalStateException if library is read-only or not initialized
+	 */
+	static void checkDatabase() {
+		
+		if (db != null)
+			return;
+		if (snapshot.get().file != null)
+			throw new IllegalStateException("[BrickMapping] library is read-only, initialized " +
+					"from a catalog file without database");
+		throw new IllegalStateException("[BrickMapping] no database, library is not initialized");
+	}
+	
+	
+	
+	/**
+	 * Releases write lock, if held by current thread
+	 */
+	static void unlockWrite() {
+		
+		if (writeLock.isHeldByCurrentThread())
+			writeLock.unlock();
+	}
+	
+	
+	
+	/**
+	 * Starts an atomic write: acquires write lock and, outside an update 
+	 * transaction, opens a local transaction so a change and its 
+	 * {@link ChangeLog} entry are written together. Every call needs 
+	 * an {@link #endWrite(boolean)} in a finally block.
+	 * @return true if a local transaction was opened
+	 * @throws SQLException
+	 */
+	static boolean beginWrite() throws SQLException {
+		
+		checkWritable();
+		writeLock.lock();
+		if (PartMapping.isUpdating())
+			return false;
+		try {
+			db.autocommitDisable();
+		} catch (SQLException e) {
+			writeLock.unlock();
+			throw e;
+		}
+		return true;
+	}
+	
+	
+	
+	/**
+	 * Commits a local transaction opened by {@link #beginWrite()}
+	 * @param local value returned by beginWrite()
+	 * @throws SQLException
+	 */
+	static void commitWrite(boolean local) throws SQLException {
+		
+		if (local)
+			db.commit();
+	}
+	
+	
+	
+	/**
+	 * Ends an atomic write. A local transaction not committed is rolled back
+	 * @param local value returned by beginWrite()
+	 * @throws SQLException
+	 */
+	static void endWrite(boolean local) throws SQLException {
+		
+		try {
+			if (local) {
+				try {
+					db.rollback();
+				} finally {
+					db.autocommitEnable();
+				}
+			}
+		} finally {
+			unlockWrite();
+		}
 	}
 	
 	
@@ -77,7 +591,26 @@ public class BrickMapping {
 	 */
 	private static void upgradeFromMinus1() throws SQLException {
 		
-		db.setDbVersion(DBVERCONSTANT, DBVERSION);
+		db.setDbVersion(DBVERCONSTANT, 1);
+	}
+	
+	
+	
+	/**
+	 * Version 2: index on design ID is replaced by an index on design ID 
+	 * and decoration ID, index on primary key is dropped because primary 
+	 * key is already indexed. New indexes, and indexes on last modify time 
+	 * of parts and colors for sync queries, are created by init 
+	 * (see {@link PartMapping#init()}).
+	 * @throws SQLException
+	 */
+	private static void upgradeFrom1() throws SQLException {
+		
+		try (Statement st = statement()) {
+			st.executeUpdate("DROP INDEX IF EXISTS pm_mapid");
+			st.executeUpdate("DROP INDEX IF EXISTS pm_lddid");
+		}
+		db.setDbVersion(DBVERCONSTANT, 2);
 	}
 
 	
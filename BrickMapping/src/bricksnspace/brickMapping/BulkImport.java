@@ -0,0 +1,367 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+
+/**
+ * Bulk import of part and color mappings from an update file.
+ * 
+ * Rows are queued and written in chunks: a single query checks which 
+ * mapids already exists, then updates and inserts are sent with JDBC 
+ * batches. Rows are written in order: a batch holds only consecutive 
+ * updates or consecutive inserts, so a file that alternates new and 
+ * existing rows gives smaller batches. Part and color rows are kept in 
+ * order each on their own.
+ * 
+ * Result is the same of calling updateMapping() on every row, with one 
+ * exception: mapids of new rows are known only when their batch is sent, 
+ * so a row with the mapid given to a new row queued before it in the 
+ * same batch is inserted, where updateMapping() would update that new 
+ * row. Mapids given to rows of a batch already sent are seen as existing.
+ * 
+ * Use it inside a PartMapping.prepareUpdate()/endUpdate() transaction:
+ * <pre>
+ * pm.prepareUpdate();
+ * BulkImport bi = new BulkImport(1000);
+ * ... bi.add(new PartMapping(xsr)) for every &lt;partmap&gt; element
+ * ... bi.add(new BrickColor(xsr)) for every &lt;colormap&gt; element
+ * bi.flush();
+ * pm.endUpdate();
+ * </pre>
+ * An instance must be used by a single thread.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class BulkImport {
+	
+	public static final int DEFAULT_BATCH = 500;
+	
+	private final int batchSize;
+	private final ArrayList<PartMapping> parts;
+	private final ArrayList<BrickColor> colors;
+	private int partCount = 0;
+	private int colorCount = 0;
+	
+	
+	
+	/**
+	 * Bulk import with default batch size
+	 */
+	public BulkImport() {
+		
+		this(DEFAULT_BATCH);
+	}
+	
+	
+	
+	/**
+	 * @param batchSize number of rows sent to database in a single batch
+	 */
+	public BulkImport(int batchSize) {
+		
+		if (batchSize < 1)
+			throw new IllegalArgumentException("[BulkImport] batch size must be at least 1");
+		this.batchSize = batchSize;
+		parts = new ArrayList<PartMapping>(batchSize);
+		colors = new ArrayList<BrickColor>(batchSize);
+	}
+	
+	
+	
+	/**
+	 * Queue a part mapping for import, writes to database when batch is full
+	 * @param pm mapping to insert or update
+	 * @throws SQLException
+	 */
+	public void add(PartMapping pm) throws SQLException {
+		
+		parts.add(pm);
+		if (parts.size() >= batchSize)
+			flushParts();
+	}
+	
+	
+	
+	/**
+	 * Queue a color mapping for import, writes to database when batch is full
+	 * @param bc color to insert or update
+	 * @throws SQLException
+	 */
+	public void add(BrickColor bc) throws SQLException {
+		
+		colors.add(bc);
+		if (colors.size() >= batchSize)
+			flushColors();
+	}
+	
+	
+	
+	/**
+	 * Writes all queued rows to database
+	 * @throws SQLException
+	 */
+	public void flush() throws SQLException {
+		
+		BrickMapping.lockWrite();
+		try {
+			flushParts();
+			flushColors();
+			PartMapping.refreshIndex();
+			if (colorCount > 0 && !PartMapping.isUpdating())
+				BrickColor.refresh();
+		} finally {
+			BrickMapping.unlockWrite();
+		}
+	}
+	
+	
+	
+	/**
+	 * @return part mappings written to database so far
+	 */
+	public int getPartCount() {
+		return partCount;
+	}
+	
+	
+	
+	/**
+	 * @return color mappings written to database so far
+	 */
+	public int getColorCount() {
+		return colorCount;
+	}
+	
+	
+	
+	private void flushParts() throws SQLException {
+		
+		if (parts.size() == 0)
+			return;
+		long t = Metrics.start();
+		int n = parts.size();
+		boolean local = BrickMapping.beginWrite();
+		try {
+			writeParts();
+			BrickMapping.commitWrite(local);
+			Metrics.imported(n, 0, t);
+		} finally {
+			BrickMapping.endWrite(local);
+		}
+	}
+	
+	
+	
+	private void writeParts() throws SQLException {
+		
+		write(PartMapping.table, PartMapping.insertSQL, PartMapping.updateSQL, parts, 
+				new Binder<PartMapping>() {
+			@Override
+			int mapid(PartMapping row) {
+				return row.getMapid();
+			}
+			@Override
+			void bindInsert(PartMapping row, PreparedStatement ps) throws SQLException {
+				row.bindInsert(ps);
+			}
+			@Override
+			void bindUpdate(PartMapping row, PreparedStatement ps) throws SQLException {
+				row.bindUpdate(ps);
+			}
+		});
+		partCount += parts.size();
+		parts.clear();
+	}
+	
+	
+	
+	private void flushColors() throws SQLException {
+		
+		if (colors.size() == 0)
+			return;
+		long t = Metrics.start();
+		int n = colors.size();
+		boolean local = BrickMapping.beginWrite();
+		try {
+			writeColors();
+			BrickMapping.commitWrite(local);
+			Metrics.imported(0, n, t);
+		} finally {
+			BrickMapping.endWrite(local);
+		}
+	}
+	
+	
+	
+	private void writeColors() throws SQLException {
+		
+		write(BrickColor.table, BrickColor.insertSQL, BrickColor.updateSQL, colors, 
+				new Binder<BrickColor>() {
+			@Override
+			int mapid(BrickColor row) {
+				return row.getMapid();
+			}
+			@Override
+			void bindInsert(BrickColor row, PreparedStatement ps) throws SQLException {
+				row.bindInsert(ps);
+			}
+			@Override
+			void bindUpdate(BrickColor row, PreparedStatement ps) throws SQLException {
+				row.bindUpdate(ps);
+			}
+		});
+		colorCount += colors.size();
+		colors.clear();
+	}
+	
+	
+	
+	/**
+	 * Binds a row of a table to insert and update statements
+	 */
+	private static abstract class Binder<T> {
+		abstract int mapid(T row);
+		abstract void bindInsert(T row, PreparedStatement ps) throws SQLException;
+		abstract void bindUpdate(T row, PreparedStatement ps) throws SQLException;
+	}
+	
+	
+	
+	/**
+	 * Writes a chunk of rows in order, as runs of updates and inserts
+	 * @param table table to write
+	 * @param insertSQL insert query for table
+	 * @param updateSQL update query for table
+	 * @param rows rows to write
+	 * @param b binder for rows
+	 * @throws SQLException
+	 */
+	private static <T> void write(String table, String insertSQL, String updateSQL, 
+			List<T> rows, Binder<T> b) throws SQLException {
+		
+		ArrayList<Integer> ids = new ArrayList<Integer>(rows.size());
+		for (T row : rows) {
+			ids.add(b.mapid(row));
+		}
+		HashSet<Integer> found = existing(table, ids);
+		PreparedStatement ins = StatementPool.get(insertSQL);
+		PreparedStatement upd = StatementPool.get(updateSQL);
+		ArrayList<Integer> updated = new ArrayList<Integer>(found.size());
+		int inserts = 0;
+		// rows inserted by this chunk got mapids in (first,last]
+		int first = -1, last = -1;
+		for (int i = 0; i < rows.size(); i++) {
+			T row = rows.get(i);
+			int id = b.mapid(row);
+			if (found.contains(id) || (id > first && id <= last)) {
+				if (inserts > 0) {
+					if (first < 0) 
+						first = last = ChangeLog.maxMapid(table);
+					last = insertRun(table, ins, last, true);
+					inserts = 0;
+				}
+				b.bindUpdate(row, upd);
+				upd.addBatch();
+				updated.add(id);
+			}
+			else {
+				if (updated.size() > 0) {
+					updateRun(table, upd, updated);
+				}
+				b.bindInsert(row, ins);
+				ins.addBatch();
+				inserts++;
+			}
+		}
+		if (updated.size() > 0) {
+			updateRun(table, upd, updated);
+		}
+		if (inserts > 0) {
+			insertRun(table, ins, first < 0 ? ChangeLog.maxMapid(table) : last, false);
+		}
+	}
+	
+	
+	
+	private static void updateRun(String table, PreparedStatement upd, 
+			List<Integer> updated) throws SQLException {
+		
+		upd.executeBatch();
+		ChangeLog.log(table, updated);
+		updated.clear();
+	}
+	
+	
+	
+	/**
+	 * Sends queued inserts. New rows gets mapids after current max, logged 
+	 * with a single query
+	 * @param lastMapid greater mapid in table before inserts
+	 * @param more true if other rows follow, to return new greater mapid 
+	 * @return greater mapid in table after inserts, or lastMapid if more is false
+	 */
+	private static int insertRun(String table, PreparedStatement ins, int lastMapid, 
+			boolean more) throws SQLException {
+		
+		ins.executeBatch();
+		ChangeLog.logInsertedAfter(table, lastMapid);
+		return more ? ChangeLog.maxMapid(table) : lastMapid;
+	}
+	
+	
+	
+	/**
+	 * Set-based existence check
+	 * @param table table to check
+	 * @param ids mapids to look for
+	 * @return mapids found in table
+	 * @throws SQLException
+	 */
+	private static HashSet<Integer> existing(String table, ArrayList<Integer> ids) throws SQLException {
+		
+		HashSet<Integer> found = new HashSet<Integer>(ids.size()*2);
+		for (int i = 0; i < ids.size(); i += StatementPool.MAXIN) {
+			int n = Math.min(StatementPool.MAXIN, ids.size()-i);
+			int params = StatementPool.inSize(n);
+			PreparedStatement ps = StatementPool.get("SELECT mapid FROM "+table+
+					" WHERE mapid IN "+StatementPool.inList(params));
+			for (int j = 0; j < params; j++) {
+				ps.setInt(j+1, ids.get(i+Math.min(j, n-1)));
+			}
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					found.add(rs.getInt(1));
+				}
+			}
+		}
+		return found;
+	}
+
+}
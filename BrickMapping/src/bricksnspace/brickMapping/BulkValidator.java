@@ -0,0 +1,288 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import bricksnspace.brickMapping.ConflictReport.Conflict;
+
+
+/**
+ * Set-based validation of a batch of pending changes, replacing a 
+ * {@link PartMapping#check()} or {@link BrickColor#check()} for every row.
+ * 
+ * Current rows are read once (from in-memory index when available, else 
+ * with a single query; always from database inside an update transaction, 
+ * where caches don't see changes until commit), then every pending row is checked against hash 
+ * maps of database and batch keys. Rules are the same of check(): 
+ * <ul>
+ * <li>ldd2bl, ldd2dat: unique on designid and decorid</li>
+ * <li>bl2ldd: unique on blid and decorid, dat2ldd: on ldrawid and decorid</li>
+ * <li>bl2dat: unique on blid, dat2bl: on ldrawid</li>
+ * <li>colors: unique ldd (if not 0), bl (if not 0) and ldraw (if not -1)</li>
+ * </ul>
+ * A pending row with mapid of an existing row replaces it, so they 
+ * never conflict. If same mapid is in batch more times, last one wins, 
+ * as in {@link BulkImport}. New rows (mapid 0) are all distinct.
+ * 
+ * Validation doesn't lock database: run it inside a 
+ * PartMapping.prepareUpdate()/endUpdate() transaction to be sure 
+ * nothing changes before batch is written.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class BulkValidator {
+	
+	private static final String FLAGS = 
+			"ldd2bl OR bl2ldd OR ldd2dat OR dat2ldd OR bl2dat OR dat2bl";
+	
+	
+	
+	private BulkValidator() {
+		// static methods only
+	}
+	
+	
+	
+	/**
+	 * Finds all uniqueness conflicts of a batch, against database and 
+	 * inside batch itself
+	 * @param parts pending part mappings, can be null
+	 * @param colors pending colors, can be null
+	 * @return conflict report, empty if batch can be written
+	 * @throws SQLException
+	 */
+	public static ConflictReport validate(Collection<PartMapping> parts, 
+			Collection<BrickColor> colors) throws SQLException {
+		
+		ArrayList<Conflict<PartMapping>> pc = new ArrayList<Conflict<PartMapping>>();
+		ArrayList<Conflict<BrickColor>> cc = new ArrayList<Conflict<BrickColor>>();
+		if (parts != null && !parts.isEmpty())
+			validateParts(parts, pc);
+		if (colors != null && !colors.isEmpty())
+			validateColors(colors, cc);
+		return new ConflictReport(pc, cc);
+	}
+	
+	
+	
+	/**
+	 * Unique key checked for a direction flag, null if row can't conflict
+	 */
+	static String checkKey(MapDirection d, PartMapping pm) {
+		
+		switch (d) {
+		case LDD2BL:
+		case LDD2DAT:
+			return MapDirection.lddKey(pm.getDesignid(), pm.getDecorid());
+		case BL2LDD:
+			return MapDirection.lddKey(pm.getBlid(), pm.getDecorid());
+		case DAT2LDD:
+			return MapDirection.lddKey(pm.getLdrawid(), pm.getDecorid());
+		case BL2DAT:
+			return pm.getBlid();
+		case DAT2BL:
+			return pm.getLdrawid();
+		}
+		return null;
+	}
+	
+	
+	
+	private static Collection<PartMapping> currentParts() throws SQLException {
+		
+		// only rows with a flag can conflict
+		if (PartMapping.isUpdating())
+			return PartMapping.get(FLAGS);
+		CatalogSnapshot cs = BrickMapping.current();
+		if (cs.parts != null)
+			return cs.parts.all();
+		if (cs.file != null)
+			return cs.file.getParts();
+		return PartMapping.get(FLAGS);
+	}
+	
+	
+	
+	private static Collection<BrickColor> currentColors() throws SQLException {
+		
+		if (PartMapping.isUpdating())
+			return BrickColor.get(null);
+		BrickMapping.ensureColors();
+		return BrickMapping.current().colors.colors.values();
+	}
+	
+	
+	
+	private static void validateParts(Collection<PartMapping> parts, 
+			List<Conflict<PartMapping>> out) throws SQLException {
+		
+		List<PartMapping> batch = lastByMapid(parts);
+		HashMap<Integer,PartMapping> replaced = new HashMap<Integer,PartMapping>(batch.size()*2);
+		for (PartMapping pm : batch) {
+			if (pm.getMapid() != 0)
+				replaced.put(pm.getMapid(), pm);
+		}
+		EnumMap<MapDirection,HashMap<String,PartMapping>> db = keyMaps();
+		for (PartMapping pm : currentParts()) {
+			if (replaced.containsKey(pm.getMapid()))
+				continue;
+			for (MapDirection d : MapDirection.values()) {
+				if (!d.isSet(pm))
+					continue;
+				String key = checkKey(d, pm);
+				if (key != null && !db.get(d).containsKey(key))
+					db.get(d).put(key, pm);
+			}
+		}
+		EnumMap<MapDirection,HashMap<String,PartMapping>> seen = keyMaps();
+		for (PartMapping pm : batch) {
+			for (MapDirection d : MapDirection.values()) {
+				if (!d.isSet(pm))
+					continue;
+				String key = checkKey(d, pm);
+				if (key == null)
+					continue;
+				PartMapping other = seen.get(d).get(key);
+				if (other != null) {
+					out.add(new Conflict<PartMapping>(pm, other, d, d.flagColumn(), key, true));
+					continue;
+				}
+				seen.get(d).put(key, pm);
+				other = db.get(d).get(key);
+				if (other != null)
+					out.add(new Conflict<PartMapping>(pm, other, d, d.flagColumn(), key, false));
+			}
+		}
+	}
+	
+	
+	
+	private static void validateColors(Collection<BrickColor> colors, 
+			List<Conflict<BrickColor>> out) throws SQLException {
+		
+		List<BrickColor> batch = lastByMapid(colors);
+		HashMap<Integer,BrickColor> replaced = new HashMap<Integer,BrickColor>(batch.size()*2);
+		for (BrickColor bc : batch) {
+			if (bc.getMapid() != 0)
+				replaced.put(bc.getMapid(), bc);
+		}
+		ColorKeys db = new ColorKeys();
+		for (BrickColor bc : currentColors()) {
+			// color 0 is a placeholder, it isn't in table
+			if (bc.getMapid() == 0 || replaced.containsKey(bc.getMapid()))
+				continue;
+			db.put(bc);
+		}
+		ColorKeys seen = new ColorKeys();
+		for (BrickColor bc : batch) {
+			conflict(bc, bc.getLdd() != 0, "ldd", bc.getLdd(), seen.ldd, db.ldd, out);
+			conflict(bc, bc.getBl() != 0, "bl", bc.getBl(), seen.bl, db.bl, out);
+			conflict(bc, bc.getLdraw() != -1, "ldraw", bc.getLdraw(), seen.ldraw, db.ldraw, out);
+			seen.put(bc);
+		}
+	}
+	
+	
+	
+	private static void conflict(BrickColor bc, boolean unique, String field, int value, 
+			HashMap<Integer,BrickColor> seen, HashMap<Integer,BrickColor> db, 
+			List<Conflict<BrickColor>> out) {
+		
+		if (!unique)
+			return;
+		BrickColor other = seen.get(value);
+		boolean inBatch = other != null;
+		if (other == null)
+			other = db.get(value);
+		if (other != null)
+			out.add(new Conflict<BrickColor>(bc, other, null, field, Integer.toString(value), inBatch));
+	}
+	
+	
+	
+	/**
+	 * Color unique keys, first row wins
+	 */
+	private static class ColorKeys {
+		
+		final HashMap<Integer,BrickColor> ldd = new HashMap<Integer,BrickColor>();
+		final HashMap<Integer,BrickColor> bl = new HashMap<Integer,BrickColor>();
+		final HashMap<Integer,BrickColor> ldraw = new HashMap<Integer,BrickColor>();
+		
+		void put(BrickColor bc) {
+			
+			if (bc.getLdd() != 0 && !ldd.containsKey(bc.getLdd()))
+				ldd.put(bc.getLdd(), bc);
+			if (bc.getBl() != 0 && !bl.containsKey(bc.getBl()))
+				bl.put(bc.getBl(), bc);
+			if (bc.getLdraw() != -1 && !ldraw.containsKey(bc.getLdraw()))
+				ldraw.put(bc.getLdraw(), bc);
+		}
+	}
+	
+	
+	
+	private static EnumMap<MapDirection,HashMap<String,PartMapping>> keyMaps() {
+		
+		EnumMap<MapDirection,HashMap<String,PartMapping>> m = 
+				new EnumMap<MapDirection,HashMap<String,PartMapping>>(MapDirection.class);
+		for (MapDirection d : MapDirection.values()) {
+			m.put(d, new HashMap<String,PartMapping>());
+		}
+		return m;
+	}
+	
+	
+	
+	/**
+	 * Removes rows overwritten later in batch (same mapid), keeping order 
+	 * of last write. Rows with mapid 0 are new and all kept.
+	 */
+	private static <T> List<T> lastByMapid(Collection<T> rows) {
+		
+		LinkedHashMap<Object,T> last = new LinkedHashMap<Object,T>(rows.size()*2);
+		for (T row : rows) {
+			int mapid = row instanceof PartMapping ? ((PartMapping) row).getMapid() 
+					: ((BrickColor) row).getMapid();
+			if (mapid == 0) {
+				// a key of its own
+				last.put(new Object(), row);
+			}
+			else {
+				Integer k = mapid;
+				last.remove(k);
+				last.put(k, row);
+			}
+		}
+		return new ArrayList<T>(last.values());
+	}
+
+}
@@ -0,0 +1,414 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import bricksnspace.brickMapping.AuditReport.Issue;
+import bricksnspace.brickMapping.AuditReport.Kind;
+
+
+/**
+ * Whole catalog consistency audit.
+ * 
+ * Tables are read once (from in-memory index or catalog file when 
+ * available), rows are partitioned by key in a single pass, then checks 
+ * run in parallel on a fork-join pool:
+ * <ul>
+ * <li>duplicated rules: same flag on same key, with uniqueness rules 
+ * of {@link PartMapping#check()}, one task for every key partition</li>
+ * <li>asymmetric rules: a flag without any rule in opposite direction 
+ * for same ID (bl2ldd on blid X, but no ldd2bl giving X)</li>
+ * <li>orphaned masterids: not used as designid or blid by any mapping</li>
+ * <li>untrimmed IDs that {@link PartMapping#cleanup()} would fix</li>
+ * <li>duplicated LDD, BL or LDraw color IDs</li>
+ * </ul>
+ * Audit only reads tables, it doesn't lock database.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class CatalogAudit {
+	
+	// rows checked by a single task
+	private static final int CHUNK = 2048;
+	
+	
+	
+	private CatalogAudit() {
+		// static methods only
+	}
+	
+	
+	
+	/**
+	 * Audits whole catalog with a pool using all processors
+	 * @return audit report
+	 * @throws SQLException
+	 */
+	public static AuditReport run() throws SQLException {
+		
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			return run(pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	
+	
+	/**
+	 * Audits whole catalog
+	 * @param pool pool running audit tasks
+	 * @return audit report
+	 * @throws SQLException
+	 */
+	public static AuditReport run(ForkJoinPool pool) throws SQLException {
+		
+		long t0 = System.nanoTime();
+		CatalogSnapshot cs = BrickMapping.current();
+		Collection<PartMapping> pml = cs.parts != null ? cs.parts.all() : PartMapping.getAll();
+		BrickMapping.ensureColors();
+		ArrayList<BrickColor> colors = new ArrayList<BrickColor>();
+		for (BrickColor bc : BrickMapping.current().colors.colors.values()) {
+			// color 0 is a placeholder, it isn't in table
+			if (bc.getMapid() != 0)
+				colors.add(bc);
+		}
+		return audit(pool, pml, colors, t0);
+	}
+	
+	
+	
+	static AuditReport audit(ForkJoinPool pool, Collection<PartMapping> pml, 
+			List<BrickColor> colors, long t0) {
+		
+		PartMapping[] rows = pml.toArray(new PartMapping[pml.size()]);
+		int shards = Math.max(1, pool.getParallelism()*4);
+		// single pass: ids, keys for reverse lookups, partitions by key
+		HashSet<String> ids = new HashSet<String>(rows.length*4);
+		EnumMap<MapDirection,HashSet<String>> keys = 
+				new EnumMap<MapDirection,HashSet<String>>(MapDirection.class);
+		EnumMap<MapDirection,List<List<PartMapping>>> parts = 
+				new EnumMap<MapDirection,List<List<PartMapping>>>(MapDirection.class);
+		for (MapDirection d : MapDirection.values()) {
+			keys.put(d, new HashSet<String>());
+			List<List<PartMapping>> l = new ArrayList<List<PartMapping>>(shards);
+			for (int i = 0; i < shards; i++) {
+				l.add(new ArrayList<PartMapping>());
+			}
+			parts.put(d, l);
+		}
+		for (PartMapping pm : rows) {
+			addId(ids, pm.getDesignid());
+			addId(ids, pm.getBlid());
+			for (MapDirection d : MapDirection.values()) {
+				if (!d.isSet(pm))
+					continue;
+				String k = d.lookupKey(pm);
+				if (k != null)
+					keys.get(d).add(k);
+				k = BulkValidator.checkKey(d, pm);
+				if (k != null)
+					parts.get(d).get((k.hashCode() & 0x7fffffff) % shards).add(pm);
+			}
+		}
+		// parallel checks
+		ArrayList<RecursiveTask<List<Issue>>> tasks = new ArrayList<RecursiveTask<List<Issue>>>();
+		tasks.add(new RowTask(rows, 0, rows.length, ids, keys));
+		for (MapDirection d : MapDirection.values()) {
+			for (List<PartMapping> shard : parts.get(d)) {
+				if (shard.size() > 1)
+					tasks.add(new DuplicateTask(d, shard));
+			}
+		}
+		tasks.add(new ColorTask(colors));
+		List<Issue> issues = pool.invoke(new AllTask(tasks));
+		Collections.sort(issues, new Comparator<Issue>() {
+			@Override
+			public int compare(Issue a, Issue b) {
+				
+				int c = a.getKind().compareTo(b.getKind());
+				if (c != 0)
+					return c;
+				return Integer.compare(a.firstMapid(), b.firstMapid());
+			}
+		});
+		return new AuditReport(issues, rows.length, colors.size(), System.nanoTime()-t0);
+	}
+	
+	
+	
+	private static void addId(HashSet<String> ids, String id) {
+		
+		if (id == null)
+			return;
+		id = id.trim();
+		if (id.length() > 0)
+			ids.add(id);
+	}
+	
+	
+	
+	/**
+	 * @return true if value has spaces that SQL TRIM() removes
+	 */
+	static boolean untrimmed(String s) {
+		
+		if (s == null || s.length() == 0)
+			return false;
+		return s.charAt(0) == ' ' || s.charAt(s.length()-1) == ' ';
+	}
+	
+	
+	
+	/**
+	 * Runs tasks in parallel, collecting all issues
+	 */
+	private static class AllTask extends RecursiveTask<List<Issue>> {
+		
+		private static final long serialVersionUID = 1L;
+		private final List<RecursiveTask<List<Issue>>> tasks;
+		
+		AllTask(List<RecursiveTask<List<Issue>>> tasks) {
+			this.tasks = tasks;
+		}
+		
+		@Override
+		protected List<Issue> compute() {
+			
+			invokeAll(tasks);
+			ArrayList<Issue> l = new ArrayList<Issue>();
+			for (RecursiveTask<List<Issue>> t : tasks) {
+				l.addAll(t.join());
+			}
+			return l;
+		}
+	}
+	
+	
+	
+	/**
+	 * Per-row checks: asymmetric rules, orphaned masterids, untrimmed IDs. 
+	 * Splits range until it is small enough
+	 */
+	private static class RowTask extends RecursiveTask<List<Issue>> {
+		
+		private static final long serialVersionUID = 1L;
+		private final PartMapping[] rows;
+		private final int from;
+		private final int to;
+		private final HashSet<String> ids;
+		private final EnumMap<MapDirection,HashSet<String>> keys;
+		
+		RowTask(PartMapping[] rows, int from, int to, HashSet<String> ids, 
+				EnumMap<MapDirection,HashSet<String>> keys) {
+			
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+			this.ids = ids;
+			this.keys = keys;
+		}
+		
+		@Override
+		protected List<Issue> compute() {
+			
+			if (to - from > CHUNK) {
+				int mid = (from + to) >>> 1;
+				RowTask left = new RowTask(rows, from, mid, ids, keys);
+				left.fork();
+				List<Issue> l = new RowTask(rows, mid, to, ids, keys).compute();
+				l.addAll(left.join());
+				return l;
+			}
+			ArrayList<Issue> l = new ArrayList<Issue>();
+			for (int i = from; i < to; i++) {
+				check(rows[i], l);
+			}
+			return l;
+		}
+		
+		private void check(PartMapping pm, List<Issue> l) {
+			
+			for (MapDirection d : MapDirection.values()) {
+				if (!d.isSet(pm))
+					continue;
+				MapDirection r = d.reverse();
+				// key that a rule in opposite direction would have for this row
+				String k = r.lookupKey(pm);
+				if (k != null && !keys.get(r).contains(k))
+					l.add(new Issue(Kind.ASYMMETRIC, d, d.flagColumn()+" without "+r.flagColumn(), 
+							k, Collections.singletonList(pm), null));
+			}
+			String master = pm.getMasterid();
+			if (master != null && master.trim().length() > 0 && !ids.contains(master.trim()))
+				l.add(new Issue(Kind.ORPHAN_MASTERID, null, "masterid", master, 
+						Collections.singletonList(pm), null));
+			StringBuilder f = new StringBuilder();
+			field(f, "masterid", pm.getMasterid());
+			field(f, "designid", pm.getDesignid());
+			field(f, "name", pm.getName());
+			field(f, "ldrawid", pm.getLdrawid());
+			field(f, "blid", pm.getBlid());
+			field(f, "decorid", pm.getDecorid());
+			if (f.length() > 0)
+				l.add(new Issue(Kind.UNTRIMMED, null, f.toString(), null, 
+						Collections.singletonList(pm), null));
+		}
+		
+		private static void field(StringBuilder f, String name, String value) {
+			
+			if (!untrimmed(value))
+				return;
+			if (f.length() > 0)
+				f.append(',');
+			f.append(name);
+		}
+	}
+	
+	
+	
+	/**
+	 * Duplicated rules of a direction in a key partition
+	 */
+	private static class DuplicateTask extends RecursiveTask<List<Issue>> {
+		
+		private static final long serialVersionUID = 1L;
+		private final MapDirection dir;
+		private final List<PartMapping> shard;
+		
+		DuplicateTask(MapDirection dir, List<PartMapping> shard) {
+			this.dir = dir;
+			this.shard = shard;
+		}
+		
+		@Override
+		protected List<Issue> compute() {
+			
+			HashMap<String,List<PartMapping>> groups = new HashMap<String,List<PartMapping>>(shard.size()*2);
+			for (PartMapping pm : shard) {
+				String k = BulkValidator.checkKey(dir, pm);
+				List<PartMapping> g = groups.get(k);
+				if (g == null) {
+					g = new ArrayList<PartMapping>(2);
+					groups.put(k, g);
+				}
+				g.add(pm);
+			}
+			ArrayList<Issue> l = new ArrayList<Issue>();
+			for (Map.Entry<String,List<PartMapping>> e : groups.entrySet()) {
+				if (e.getValue().size() < 2)
+					continue;
+				List<PartMapping> g = e.getValue();
+				Collections.sort(g, BY_MAPID);
+				l.add(new Issue(Kind.DUPLICATE, dir, dir.flagColumn(), e.getKey(), g, null));
+			}
+			return l;
+		}
+	}
+	
+	
+	
+	private static final Comparator<PartMapping> BY_MAPID = new Comparator<PartMapping>() {
+		@Override
+		public int compare(PartMapping a, PartMapping b) {
+			return Integer.compare(a.getMapid(), b.getMapid());
+		}
+	};
+	
+	
+	
+	/**
+	 * Duplicated color IDs, color table is small so a task is enough
+	 */
+	private static class ColorTask extends RecursiveTask<List<Issue>> {
+		
+		private static final long serialVersionUID = 1L;
+		private final List<BrickColor> colors;
+		
+		ColorTask(List<BrickColor> colors) {
+			this.colors = colors;
+		}
+		
+		@Override
+		protected List<Issue> compute() {
+			
+			HashMap<Integer,List<BrickColor>> ldd = new HashMap<Integer,List<BrickColor>>();
+			HashMap<Integer,List<BrickColor>> bl = new HashMap<Integer,List<BrickColor>>();
+			HashMap<Integer,List<BrickColor>> ldraw = new HashMap<Integer,List<BrickColor>>();
+			for (BrickColor bc : colors) {
+				if (bc.getLdd() != 0)
+					group(ldd, bc.getLdd(), bc);
+				if (bc.getBl() != 0)
+					group(bl, bc.getBl(), bc);
+				if (bc.getLdraw() != -1)
+					group(ldraw, bc.getLdraw(), bc);
+			}
+			ArrayList<Issue> l = new ArrayList<Issue>();
+			duplicates(l, "ldd", ldd);
+			duplicates(l, "bl", bl);
+			duplicates(l, "ldraw", ldraw);
+			return l;
+		}
+		
+		private static void group(HashMap<Integer,List<BrickColor>> m, int id, BrickColor bc) {
+			
+			List<BrickColor> g = m.get(id);
+			if (g == null) {
+				g = new ArrayList<BrickColor>(2);
+				m.put(id, g);
+			}
+			g.add(bc);
+		}
+		
+		private static void duplicates(List<Issue> l, String field, HashMap<Integer,List<BrickColor>> m) {
+			
+			for (Map.Entry<Integer,List<BrickColor>> e : m.entrySet()) {
+				if (e.getValue().size() < 2)
+					continue;
+				List<BrickColor> g = e.getValue();
+				Collections.sort(g, new Comparator<BrickColor>() {
+					@Override
+					public int compare(BrickColor a, BrickColor b) {
+						return Integer.compare(a.getMapid(), b.getMapid());
+					}
+				});
+				l.add(new Issue(Kind.DUPLICATE_COLOR, null, field, e.getKey().toString(), null, g));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,603 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+
+/**
+ * Compact binary copy of part and color mapping tables, read through 
+ * a memory mapped file.
+ * 
+ * Write it from database with {@link #export(File)}, then use it in other 
+ * processes with {@link BrickMapping#InitReadOnly(File)}: no database, 
+ * no index to load, translations read records directly from mapped file.
+ * 
+ * File layout, big endian:
+ * <pre>
+ * header      magic "BMCF", format, creation time, counts, section offsets
+ * strings     string offsets (count+1 ints), then UTF-8 bytes 
+ * parts       fixed size records sorted by mapid, strings as pool index
+ * colors      fixed size records sorted by mapid
+ * hash        one open addressing table for every {@link MapDirection}:
+ *             size, then (key hash, record+1) slots, 0 is empty
+ * </pre>
+ * 
+ * Instances are immutable and can be used from any thread.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class CatalogFile {
+	
+	/** file format version */
+	public static final int FORMAT = 1;
+	
+	private static final int MAGIC = 0x424d4346;	// "BMCF"
+	private static final Charset UTF8 = StandardCharsets.UTF_8;
+	private static final int NOSTR = -1;		// null string
+	
+	// header
+	private static final int H_MAGIC = 0;
+	private static final int H_FORMAT = 4;
+	private static final int H_CREATED = 8;
+	private static final int H_PARTS = 16;
+	private static final int H_COLORS = 20;
+	private static final int H_STRINGS = 24;
+	private static final int H_STRIDX = 28;
+	private static final int H_STRDATA = 32;
+	private static final int H_PARTOFF = 36;
+	private static final int H_COLOROFF = 40;
+	private static final int H_HASH = 44;		// one offset for every direction
+	private static final int HEADER = H_HASH + 4*MapDirection.values().length;
+	
+	// part record
+	private static final int P_MAPID = 0;
+	private static final int P_MASTERID = 4;
+	private static final int P_DESIGNID = 8;
+	private static final int P_DECORID = 12;
+	private static final int P_BLID = 16;
+	private static final int P_LDRAWID = 20;
+	private static final int P_NAME = 24;
+	private static final int P_FLAGS = 28;		// bit = MapDirection ordinal
+	private static final int P_LASTMOD = 32;
+	private static final int PARTREC = 40;
+	
+	// color record
+	private static final int C_MAPID = 0;
+	private static final int C_LDD = 4;
+	private static final int C_BL = 8;
+	private static final int C_LDRAW = 12;
+	private static final int C_ARGB = 16;
+	private static final int C_FLAGS = 20;		// inuse, metal, transparent, glitter
+	private static final int C_LDDNAME = 24;
+	private static final int C_GROUP = 28;
+	private static final int C_NOTES = 32;
+	private static final int C_LASTMOD = 40;
+	private static final int COLORREC = 48;
+	
+	private static final long NOTIME = Long.MIN_VALUE;
+	
+	private final ByteBuffer buf;
+	private final int parts;
+	private final int colors;
+	private final int strings;
+	private final int strIdx;
+	private final int strData;
+	private final int partOff;
+	private final int colorOff;
+	private final int[] hash;
+	
+	
+	
+	private CatalogFile(ByteBuffer buf) throws IOException {
+		
+		this.buf = buf;
+		if (buf.limit() < HEADER || buf.getInt(H_MAGIC) != MAGIC) 
+			throw new IOException("[BrickMapping] not a catalog file");
+		if (buf.getInt(H_FORMAT) != FORMAT)
+			throw new IOException("[BrickMapping] unsupported catalog file format: "+buf.getInt(H_FORMAT));
+		parts = buf.getInt(H_PARTS);
+		colors = buf.getInt(H_COLORS);
+		strings = buf.getInt(H_STRINGS);
+		strIdx = buf.getInt(H_STRIDX);
+		strData = buf.getInt(H_STRDATA);
+		partOff = buf.getInt(H_PARTOFF);
+		colorOff = buf.getInt(H_COLOROFF);
+		hash = new int[MapDirection.values().length];
+		check(strIdx, 4L*(strings+1));
+		check(strData, buf.getInt(strIdx+4*strings));
+		check(partOff, (long)PARTREC*parts);
+		check(colorOff, (long)COLORREC*colors);
+		for (int i = 0; i < hash.length; i++) {
+			hash[i] = buf.getInt(H_HASH+4*i);
+			check(hash[i], 4);
+			int size = buf.getInt(hash[i]);
+			if (size <= 0 || (size & (size-1)) != 0)
+				throw new IOException("[BrickMapping] corrupted catalog file");
+			check(hash[i], 4+8L*size);
+		}
+	}
+	
+	
+	
+	private void check(int off, long len) throws IOException {
+		
+		if (off < HEADER || len < 0 || off+len > buf.limit())
+			throw new IOException("[BrickMapping] corrupted catalog file");
+	}
+	
+	
+	
+	/**
+	 * Maps a catalog file in memory. File is read on demand by OS, 
+	 * opening cost doesn't depend on catalog size
+	 * @param file catalog file
+	 * @return catalog
+	 * @throws IOException if file isn't a valid catalog
+	 */
+	public static CatalogFile open(File file) throws IOException {
+		
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (fc.size() > Integer.MAX_VALUE)
+				throw new IOException("[BrickMapping] not a catalog file");
+			// mapping stays valid after channel is closed
+			return new CatalogFile(fc.map(MapMode.READ_ONLY, 0, fc.size()));
+		}
+	}
+	
+	
+	
+	/**
+	 * Writes whole part and color mapping tables to a catalog file. 
+	 * File is written to a temporary file and moved in place. On Linux and 
+	 * macOS processes using old file keep reading it, unchanged. On Windows 
+	 * a file can't be replaced while any process has it mapped (until 
+	 * mapping is garbage collected), so export fails with an IOException: 
+	 * export to a new file name and let readers switch to it instead.
+	 * @param file catalog file
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public static void export(File file) throws SQLException, IOException {
+		
+		BrickMapping.checkDatabase();
+		HashMap<Integer,BrickColor> all = BrickColor.getAllColor();
+		// placeholder color isn't in table, it is added on read
+		all.remove(0);
+		write(file, PartMapping.get(null), all.values());
+	}
+	
+	
+	
+	static void write(File file, Collection<PartMapping> pml, Collection<BrickColor> bcl) throws IOException {
+		
+		ArrayList<PartMapping> pms = new ArrayList<PartMapping>(pml);
+		Collections.sort(pms, new Comparator<PartMapping>() {
+			@Override
+			public int compare(PartMapping a, PartMapping b) {
+				return Integer.compare(a.getMapid(), b.getMapid());
+			}
+		});
+		ArrayList<BrickColor> bcs = new ArrayList<BrickColor>(bcl);
+		Collections.sort(bcs, new Comparator<BrickColor>() {
+			@Override
+			public int compare(BrickColor a, BrickColor b) {
+				return Integer.compare(a.getMapid(), b.getMapid());
+			}
+		});
+		
+		// string pool
+		LinkedHashMap<String,Integer> pool = new LinkedHashMap<String,Integer>();
+		int[][] pstr = new int[pms.size()][];
+		for (int i = 0; i < pms.size(); i++) {
+			PartMapping pm = pms.get(i);
+			pstr[i] = new int[] {
+					intern(pool, pm.getMasterid()),
+					intern(pool, pm.getDesignid()),
+					intern(pool, pm.getDecorid()),
+					intern(pool, pm.getBlid()),
+					intern(pool, pm.getLdrawid()),
+					intern(pool, pm.getName())
+			};
+		}
+		int[][] cstr = new int[bcs.size()][];
+		for (int i = 0; i < bcs.size(); i++) {
+			cstr[i] = new int[] {
+					intern(pool, bcs.get(i).getLddName()),
+					intern(pool, bcs.get(i).getNotes())
+			};
+		}
+		ArrayList<byte[]> data = new ArrayList<byte[]>(pool.size());
+		int dataLen = 0;
+		for (String s : pool.keySet()) {
+			byte[] b = s.getBytes(UTF8);
+			data.add(b);
+			dataLen += b.length;
+		}
+		
+		// hash tables
+		MapDirection[] dirs = MapDirection.values();
+		int[][] tables = new int[dirs.length][];
+		for (MapDirection d : dirs) {
+			int n = 0;
+			for (PartMapping pm : pms) {
+				if (d.isSet(pm) && d.lookupKey(pm) != null)
+					n++;
+			}
+			// load factor at most 0.5, always an empty slot
+			int size = 2;
+			while (size < n*2)
+				size <<= 1;
+			int[] t = new int[size*2];
+			for (int i = 0; i < pms.size(); i++) {
+				PartMapping pm = pms.get(i);
+				String key = d.lookupKey(pm);
+				if (!d.isSet(pm) || key == null)
+					continue;
+				int h = mix(key.hashCode());
+				int s = h & (size-1);
+				while (t[2*s+1] != 0) 
+					s = (s+1) & (size-1);
+				t[2*s] = h;
+				t[2*s+1] = i+1;
+			}
+			tables[d.ordinal()] = t;
+		}
+		
+		// layout
+		int strIdx = HEADER;
+		int strData = strIdx + 4*(data.size()+1);
+		int partOff = align(strData + dataLen);
+		int colorOff = partOff + PARTREC*pms.size();
+		int[] hashOff = new int[dirs.length];
+		int end = colorOff + COLORREC*bcs.size();
+		for (int i = 0; i < dirs.length; i++) {
+			hashOff[i] = end;
+			end += 4 + 4*tables[i].length;
+		}
+		
+		ByteBuffer b = ByteBuffer.allocate(end);
+		b.putInt(H_MAGIC, MAGIC);
+		b.putInt(H_FORMAT, FORMAT);
+		b.putLong(H_CREATED, System.currentTimeMillis());
+		b.putInt(H_PARTS, pms.size());
+		b.putInt(H_COLORS, bcs.size());
+		b.putInt(H_STRINGS, data.size());
+		b.putInt(H_STRIDX, strIdx);
+		b.putInt(H_STRDATA, strData);
+		b.putInt(H_PARTOFF, partOff);
+		b.putInt(H_COLOROFF, colorOff);
+		for (int i = 0; i < dirs.length; i++) {
+			b.putInt(H_HASH+4*i, hashOff[i]);
+		}
+		int off = 0;
+		for (int i = 0; i < data.size(); i++) {
+			b.putInt(strIdx+4*i, off);
+			b.position(strData+off);
+			b.put(data.get(i));
+			off += data.get(i).length;
+		}
+		b.putInt(strIdx+4*data.size(), off);
+		for (int i = 0; i < pms.size(); i++) {
+			PartMapping pm = pms.get(i);
+			int r = partOff + PARTREC*i;
+			b.putInt(r+P_MAPID, pm.getMapid());
+			b.putInt(r+P_MASTERID, pstr[i][0]);
+			b.putInt(r+P_DESIGNID, pstr[i][1]);
+			b.putInt(r+P_DECORID, pstr[i][2]);
+			b.putInt(r+P_BLID, pstr[i][3]);
+			b.putInt(r+P_LDRAWID, pstr[i][4]);
+			b.putInt(r+P_NAME, pstr[i][5]);
+			int flags = 0;
+			for (MapDirection d : dirs) {
+				if (d.isSet(pm))
+					flags |= 1 << d.ordinal();
+			}
+			b.put(r+P_FLAGS, (byte) flags);
+			b.putLong(r+P_LASTMOD, pm.getLastmod() == null ? NOTIME : pm.getLastmod().getTime());
+		}
+		for (int i = 0; i < bcs.size(); i++) {
+			BrickColor bc = bcs.get(i);
+			int r = colorOff + COLORREC*i;
+			b.putInt(r+C_MAPID, bc.getMapid());
+			b.putInt(r+C_LDD, bc.getLdd());
+			b.putInt(r+C_BL, bc.getBl());
+			b.putInt(r+C_LDRAW, bc.getLdraw());
+			b.putInt(r+C_ARGB, bc.getColor().getRGB());
+			b.put(r+C_FLAGS, (byte) ((bc.isInProduction() ? 1 : 0) | (bc.isMetallic() ? 2 : 0) |
+					(bc.isTransparent() ? 4 : 0) | (bc.isGlitter() ? 8 : 0)));
+			b.putInt(r+C_LDDNAME, cstr[i][0]);
+			b.putInt(r+C_GROUP, bc.getColorGroup());
+			b.putInt(r+C_NOTES, cstr[i][1]);
+			b.putLong(r+C_LASTMOD, bc.getLastmod() == null ? NOTIME : bc.getLastmod().getTime());
+		}
+		for (int i = 0; i < dirs.length; i++) {
+			b.putInt(hashOff[i], tables[i].length/2);
+			for (int j = 0; j < tables[i].length; j++) {
+				b.putInt(hashOff[i]+4+4*j, tables[i][j]);
+			}
+		}
+		
+		b.clear();
+		Path dest = file.toPath().toAbsolutePath();
+		Path tmp = dest.resolveSibling(dest.getFileName()+".tmp");
+		try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (b.hasRemaining()) 
+				fc.write(b);
+			fc.force(true);
+		}
+		try {
+			Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// i.e. destination mapped by another process on Windows
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+	}
+	
+	
+	
+	private static int intern(LinkedHashMap<String,Integer> pool, String s) {
+		
+		if (s == null)
+			return NOSTR;
+		Integer i = pool.get(s);
+		if (i == null) {
+			i = pool.size();
+			pool.put(s, i);
+		}
+		return i;
+	}
+	
+	
+	
+	private static int align(int off) {
+		return (off + 7) & ~7;
+	}
+	
+	
+	
+	private static int mix(int h) {
+		return h ^ (h >>> 16);
+	}
+	
+	
+	
+	/**
+	 * @return file creation time
+	 */
+	public Timestamp getCreated() {
+		return new Timestamp(buf.getLong(H_CREATED));
+	}
+	
+	
+	
+	/**
+	 * @return number of part mappings in file
+	 */
+	public int getPartCount() {
+		return parts;
+	}
+	
+	
+	
+	/**
+	 * @return number of colors in file
+	 */
+	public int getColorCount() {
+		return colors;
+	}
+	
+	
+	
+	/**
+	 * Same semantic of {@link PartMappingIndex#lookup(MapDirection, String)}
+	 * @param d translation direction
+	 * @param key lookup key, see {@link MapDirection#lookupKey(PartMapping)}
+	 * @return a copy of matching mapping or a new empty mapping if none
+	 * @throws SQLException if there is more than one match
+	 */
+	PartMapping lookup(MapDirection d, String key) throws SQLException {
+		
+		if (key == null)
+			return new PartMapping();
+		int sec = hash[d.ordinal()];
+		int mask = buf.getInt(sec) - 1;
+		int h = mix(key.hashCode());
+		byte[] k = null;
+		int found = -1;
+		for (int s = h & mask; ; s = (s+1) & mask) {
+			int slot = sec + 4 + 8*s;
+			int rec = buf.getInt(slot+4);
+			if (rec == 0)
+				break;
+			if (buf.getInt(slot) != h)
+				continue;
+			if (k == null)
+				k = key.getBytes(UTF8);
+			if (!matches(d, rec-1, k))
+				continue;
+			if (found >= 0)
+				throw new DuplicateMappingException(part(found));
+			found = rec-1;
+		}
+		return found < 0 ? new PartMapping() : part(found);
+	}
+	
+	
+	
+	/**
+	 * Compares lookup key of a record with a key, without decoding strings
+	 */
+	private boolean matches(MapDirection d, int rec, byte[] k) {
+		
+		int r = partOff + PARTREC*rec;
+		switch (d) {
+		case LDD2BL:
+		case LDD2DAT:
+			int p = prefix(buf.getInt(r+P_DESIGNID), k, 0);
+			if (p < 0 || p >= k.length || k[p] != '\t')
+				return false;
+			return prefix(buf.getInt(r+P_DECORID), k, p+1) == k.length;
+		case BL2LDD:
+		case BL2DAT:
+			return prefix(buf.getInt(r+P_BLID), k, 0) == k.length;
+		case DAT2LDD:
+		case DAT2BL:
+			return prefix(buf.getInt(r+P_LDRAWID), k, 0) == k.length;
+		}
+		return false;
+	}
+	
+	
+	
+	/**
+	 * @return position in k after string, -1 if k doesn't contain string at from
+	 */
+	private int prefix(int str, byte[] k, int from) {
+		
+		if (str == NOSTR)
+			return -1;
+		int start = strData + buf.getInt(strIdx+4*str);
+		int len = strData + buf.getInt(strIdx+4*str+4) - start;
+		if (from+len > k.length)
+			return -1;
+		for (int i = 0; i < len; i++) {
+			if (buf.get(start+i) != k[from+i])
+				return -1;
+		}
+		return from+len;
+	}
+	
+	
+	
+	private String string(int str) {
+		
+		if (str == NOSTR)
+			return null;
+		int start = strData + buf.getInt(strIdx+4*str);
+		byte[] b = new byte[strData + buf.getInt(strIdx+4*str+4) - start];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = buf.get(start+i);
+		}
+		return new String(b, UTF8);
+	}
+	
+	
+	
+	private PartMapping part(int rec) {
+		
+		int r = partOff + PARTREC*rec;
+		PartMapping pm = new PartMapping();
+		pm.setMapid(buf.getInt(r+P_MAPID));
+		pm.setMasterid(string(buf.getInt(r+P_MASTERID)));
+		pm.setDesignid(string(buf.getInt(r+P_DESIGNID)));
+		pm.setDecorid(string(buf.getInt(r+P_DECORID)));
+		pm.setBlid(string(buf.getInt(r+P_BLID)));
+		pm.setLdrawid(string(buf.getInt(r+P_LDRAWID)));
+		pm.setName(string(buf.getInt(r+P_NAME)));
+		int flags = buf.get(r+P_FLAGS);
+		pm.setLdd2bl((flags & (1 << MapDirection.LDD2BL.ordinal())) != 0);
+		pm.setBl2ldd((flags & (1 << MapDirection.BL2LDD.ordinal())) != 0);
+		pm.setLdd2dat((flags & (1 << MapDirection.LDD2DAT.ordinal())) != 0);
+		pm.setDat2ldd((flags & (1 << MapDirection.DAT2LDD.ordinal())) != 0);
+		pm.setBl2dat((flags & (1 << MapDirection.BL2DAT.ordinal())) != 0);
+		pm.setDat2bl((flags & (1 << MapDirection.DAT2BL.ordinal())) != 0);
+		long t = buf.getLong(r+P_LASTMOD);
+		pm.setLastmod(t == NOTIME ? null : new Timestamp(t));
+		return pm;
+	}
+	
+	
+	
+	/**
+	 * @return all part mappings in file, decoded
+	 */
+	public List<PartMapping> getParts() {
+		
+		ArrayList<PartMapping> pml = new ArrayList<PartMapping>(parts);
+		for (int i = 0; i < parts; i++) {
+			pml.add(part(i));
+		}
+		return pml;
+	}
+	
+	
+	
+	/**
+	 * Decodes all colors, like {@link BrickColor#getAllColor()}
+	 * @return colors by mapid, with placeholder color 0
+	 */
+	HashMap<Integer,BrickColor> getColors() {
+		
+		HashMap<Integer,BrickColor> all = new HashMap<Integer,BrickColor>(colors*2);
+		for (int i = 0; i < colors; i++) {
+			int r = colorOff + COLORREC*i;
+			BrickColor bc = new BrickColor();
+			bc.setMapid(buf.getInt(r+C_MAPID));
+			bc.setLdd(buf.getInt(r+C_LDD));
+			bc.setBl(buf.getInt(r+C_BL));
+			bc.setLdraw(buf.getInt(r+C_LDRAW));
+			bc.setColor(new Color(buf.getInt(r+C_ARGB), true));
+			int flags = buf.get(r+C_FLAGS);
+			bc.setInProduction((flags & 1) != 0);
+			bc.setMetallic((flags & 2) != 0);
+			bc.setTransparent((flags & 4) != 0);
+			bc.setGlitter((flags & 8) != 0);
+			bc.setLddName(string(buf.getInt(r+C_LDDNAME)));
+			bc.setColorGroup(buf.getInt(r+C_GROUP));
+			bc.setNotes(string(buf.getInt(r+C_NOTES)));
+			long t = buf.getLong(r+C_LASTMOD);
+			bc.setLastmod(t == NOTIME ? null : new Timestamp(t));
+			all.put(bc.getMapid(), bc);
+		}
+		BrickColor b = new BrickColor();
+		b.setMapid(0);
+		b.setLddName("Unknown");
+		all.put(0, b);
+		return all;
+	}
+
+}
@@ -0,0 +1,229 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+import java.sql.SQLException;
+
+
+/**
+ * Immutable, versioned snapshot of part and color mappings, used to 
+ * translate IDs without database and without locking.
+ * 
+ * There is always a single current snapshot, published with an atomic 
+ * reference (see {@link BrickMapping#getSnapshot()}). Every change to 
+ * mappings creates a new snapshot with next version and swaps it in: a 
+ * reader holding a snapshot gets consistent answers for all its lookups, 
+ * and can compare versions to know if something changed.
+ * In read-only mode parts are read from a {@link CatalogFile}.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class CatalogSnapshot {
+	
+	static final CatalogSnapshot EMPTY = new CatalogSnapshot(0, null, null, null);
+	
+	private final long version;
+	final PartMappingIndex parts;	// null if part index isn't loaded
+	final ColorTable colors;		// null before library init
+	final CatalogFile file;			// only in read-only mode
+	
+	
+	
+	private CatalogSnapshot(long version, PartMappingIndex parts, ColorTable colors, CatalogFile file) {
+		
+		this.version = version;
+		this.parts = parts;
+		this.colors = colors;
+		this.file = file;
+	}
+	
+	
+	
+	/**
+	 * @param p new part mapping index
+	 * @return a new snapshot with next version
+	 */
+	CatalogSnapshot withParts(PartMappingIndex p) {
+		return new CatalogSnapshot(version+1, p, colors, file);
+	}
+	
+	
+	
+	/**
+	 * @param c new color table
+	 * @return a new snapshot with next version
+	 */
+	CatalogSnapshot withColors(ColorTable c) {
+		return new CatalogSnapshot(version+1, parts, c, file);
+	}
+	
+	
+	
+	/**
+	 * @param f catalog file for read-only mode
+	 * @return a new snapshot with next version
+	 */
+	CatalogSnapshot withFile(CatalogFile f) {
+		return new CatalogSnapshot(version+1, parts, colors, f);
+	}
+	
+	
+	
+	/**
+	 * @return true if part translations are answered without database
+	 */
+	boolean inMemory() {
+		return parts != null || file != null;
+	}
+	
+	
+	
+	/**
+	 * Translation lookup on in-memory index or catalog file
+	 * @param d translation direction
+	 * @param key lookup key, see {@link MapDirection#lookupKey(PartMapping)}
+	 * @return a copy of matching mapping or an empty mapping if none
+	 * @throws SQLException if there is more than one match
+	 */
+	PartMapping lookup(MapDirection d, String key) throws SQLException {
+		
+		if (parts != null)
+			return parts.lookup(d, key);
+		if (file != null)
+			return file.lookup(d, key);
+		throw new IllegalStateException("[BrickMapping] part mapping index isn't loaded");
+	}
+	
+	
+	
+	/**
+	 * @return snapshot version, grows with every change
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	
+	
+	private ColorTable colors() {
+		
+		if (colors == null)
+			throw new IllegalStateException("[BrickMapping] library isn't initialized");
+		return colors;
+	}
+	
+	
+	
+	/**
+	 * @see PartMapping#lddToLDraw(String, String)
+	 */
+	public PartMapping lddToLDraw(String designid, String decorid) throws SQLException {
+		return lookup(MapDirection.LDD2DAT, MapDirection.lddKey(designid, decorid));
+	}
+	
+	
+	
+	/**
+	 * @see PartMapping#lddToBlink(String, String)
+	 */
+	public PartMapping lddToBlink(String designid, String decorid) throws SQLException {
+		return lookup(MapDirection.LDD2BL, MapDirection.lddKey(designid, decorid));
+	}
+	
+	
+	
+	/**
+	 * @see PartMapping#blinkToLdd(String)
+	 */
+	public PartMapping blinkToLdd(String blid) throws SQLException {
+		return lookup(MapDirection.BL2LDD, blid);
+	}
+	
+	
+	
+	/**
+	 * @see PartMapping#blinkToLDraw(String)
+	 */
+	public PartMapping blinkToLDraw(String blid) throws SQLException {
+		return lookup(MapDirection.BL2DAT, blid);
+	}
+	
+	
+	
+	/**
+	 * @see PartMapping#ldrawToLdd(String)
+	 */
+	public PartMapping ldrawToLdd(String ldr) throws SQLException {
+		return lookup(MapDirection.DAT2LDD, ldr);
+	}
+	
+	
+	
+	/**
+	 * @see PartMapping#ldrawToBlink(String)
+	 */
+	public PartMapping ldrawToBlink(String ldr) throws SQLException {
+		return lookup(MapDirection.DAT2BL, ldr);
+	}
+	
+	
+	
+	/**
+	 * @see BrickColor#getMapByLdd(int)
+	 */
+	public int getMapByLdd(int lddid) {
+		
+		int m = colors().byLdd.get(lddid);
+		return m == 0 ? -1 : m;
+	}
+	
+	
+	
+	/**
+	 * @see BrickColor#getMapByBl(int)
+	 */
+	public int getMapByBl(int blcolor) {
+		return colors().byBl.get(blcolor);
+	}
+	
+	
+	
+	/**
+	 * @see BrickColor#getMapByLdr(int)
+	 */
+	public int getMapByLdr(int ldrcolor) {
+		return colors().byLdr.get(ldrcolor);
+	}
+	
+	
+	
+	/**
+	 * @see BrickColor#getColor(int)
+	 */
+	public BrickColor getColor(int mapid) {
+		
+		BrickColor bc = colors().colors.get(mapid);
+		return bc == null ? colors.unknown : bc;
+	}
+
+}
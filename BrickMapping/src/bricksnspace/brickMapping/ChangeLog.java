@@ -0,0 +1,425 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+
+/**
+ * Append-only log of changes to part and color mappings.
+ * 
+ * Every insert or update writes the changed mapid in log, in the same 
+ * transaction, with a monotonically increasing sequence number. A replica 
+ * keeps the last sequence it has seen and asks only for changes after it:
+ * 
+ * <pre>
+ * long seq = 0;
+ * ChangeLog.Page&lt;PartMapping&gt; p;
+ * do {
+ *     p = ChangeLog.getPartChanges(seq, 1000);
+ *     ... apply p.getChanges() ...
+ *     seq = p.getLastSequence();
+ * } while (p.hasMore());
+ * </pre>
+ * 
+ * Sequence doesn't depend on clock, and reads use index on (tbl,seq). 
+ * On log creation all existing rows are logged, so a replica starting 
+ * from sequence 0 gets whole catalog.
+ * 
+ * Log is read on the library database session, so only committed 
+ * changes are returned: reads wait for a single write to end and, while 
+ * an update transaction is open ({@link PartMapping#prepareUpdate()}), 
+ * pages are empty and {@link #getLastSequence()} returns sequence before 
+ * update. Changes of update are returned after {@link PartMapping#endUpdate()}.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class ChangeLog {
+
+	public final static String table = "changelog";
+	private final static String logSQL = "INSERT INTO "+table+" (tbl,mapid) VALUES (?,?)";
+	private static volatile long beforeUpdate = 0;	// last sequence committed before update transaction
+	
+	
+	
+	private ChangeLog() {
+		// static methods only
+	}
+	
+	
+	
+	/**
+	 * A page of changes
+	 * @param <T> changed object, PartMapping or BrickColor
+	 */
+	public static final class Page<T> {
+		
+		private final List<T> changes;
+		private final long lastSeq;
+		private final boolean more;
+		
+		
+		private Page(List<T> changes, long lastSeq, boolean more) {
+			this.changes = Collections.unmodifiableList(changes);
+			this.lastSeq = lastSeq;
+			this.more = more;
+		}
+		
+		
+		/**
+		 * @return changed rows, as they are now in database. A row changed 
+		 * more than once in page is returned once
+		 */
+		public List<T> getChanges() {
+			return changes;
+		}
+		
+		
+		/**
+		 * @return sequence to use for next page
+		 */
+		public long getLastSequence() {
+			return lastSeq;
+		}
+		
+		
+		/**
+		 * @return true if there are other changes after this page
+		 */
+		public boolean hasMore() {
+			return more;
+		}
+	}
+	
+	
+	
+	/**
+	 * Creates log table, if needed, and logs all existing mappings 
+	 * @throws SQLException
+	 */
+	protected static void init() throws SQLException {
+		
+		if (BrickMapping.db.checkTable(table))
+			return;
+		try (Statement st = BrickMapping.statement()) {
+			st.execute("CREATE TABLE IF NOT EXISTS "+table+" (" +
+					"seq BIGINT PRIMARY KEY AUTO_INCREMENT," +
+					"tbl VARCHAR(32)," +
+					"mapid INT)");
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS cl_tblseq ON "+table+"(tbl,seq)");
+			st.executeUpdate("INSERT INTO "+table+" (tbl,mapid) " +
+					"SELECT '"+PartMapping.table+"',mapid FROM "+PartMapping.table+" ORDER BY mapid");
+			st.executeUpdate("INSERT INTO "+table+" (tbl,mapid) " +
+					"SELECT '"+BrickColor.table+"',mapid FROM "+BrickColor.table+" ORDER BY mapid");
+		}
+	}
+	
+	
+	
+	/**
+	 * Logs a changed row. Caller must hold write lock
+	 * @param tbl changed table
+	 * @param mapid changed row
+	 * @throws SQLException
+	 */
+	static void log(String tbl, int mapid) throws SQLException {
+		
+		PreparedStatement ps = StatementPool.get(logSQL);
+		ps.setString(1, tbl);
+		ps.setInt(2, mapid);
+		ps.executeUpdate();
+	}
+	
+	
+	
+	/**
+	 * Logs a list of changed rows with a single batch. Caller must hold 
+	 * write lock
+	 * @param tbl changed table
+	 * @param mapids changed rows
+	 * @throws SQLException
+	 */
+	static void log(String tbl, List<Integer> mapids) throws SQLException {
+		
+		if (mapids.size() == 0)
+			return;
+		PreparedStatement ps = StatementPool.get(logSQL);
+		for (int id : mapids) {
+			ps.setString(1, tbl);
+			ps.setInt(2, id);
+			ps.addBatch();
+		}
+		ps.executeBatch();
+	}
+	
+	
+	
+	/**
+	 * Logs all rows with mapid greater than a value, i.e. rows inserted 
+	 * by a batch. Caller must hold write lock
+	 * @param tbl changed table
+	 * @param lastMapid greater mapid before insert, from {@link #maxMapid(String)}
+	 * @throws SQLException
+	 */
+	static void logInsertedAfter(String tbl, int lastMapid) throws SQLException {
+		
+		PreparedStatement ps = StatementPool.get("INSERT INTO "+table+" (tbl,mapid) " +
+				"SELECT '"+tbl+"',mapid FROM "+tbl+" WHERE mapid>? ORDER BY mapid");
+		ps.setInt(1, lastMapid);
+		ps.executeUpdate();
+	}
+	
+	
+	
+	/**
+	 * @param tbl table to check
+	 * @return greater mapid in table, 0 if table is empty
+	 * @throws SQLException
+	 */
+	static int maxMapid(String tbl) throws SQLException {
+		
+		PreparedStatement ps = StatementPool.get("SELECT MAX(mapid) FROM "+tbl);
+		try (ResultSet rs = ps.executeQuery()) {
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+	
+	
+	
+	/**
+	 * Saves last sequence before an update transaction starts. Caller 
+	 * must hold write lock
+	 * @throws SQLException
+	 */
+	static void updateStarting() throws SQLException {
+		
+		beforeUpdate = maxSeq();
+	}
+	
+	
+	
+	private static long maxSeq() throws SQLException {
+		
+		PreparedStatement ps = StatementPool.get("SELECT MAX(seq) FROM "+table);
+		try (ResultSet rs = ps.executeQuery()) {
+			return rs.next() ? rs.getLong(1) : 0;
+		}
+	}
+	
+	
+	
+	/**
+	 * @return last committed sequence number in log, 0 if log is empty
+	 * @throws SQLException
+	 */
+	public static long getLastSequence() throws SQLException {
+		
+		if (!lockCommitted())
+			return beforeUpdate;
+		try {
+			return maxSeq();
+		} finally {
+			BrickMapping.unlockWrite();
+		}
+	}
+	
+	
+	
+	/**
+	 * Acquires write lock, so a single write is committed or rolled back 
+	 * before log and rows are read
+	 * @return false, without lock, while an update transaction is open
+	 * @throws SQLException
+	 */
+	private static boolean lockCommitted() throws SQLException {
+		
+		if (PartMapping.isUpdating())
+			return false;
+		BrickMapping.lockWrite();
+		// updating thread itself
+		if (PartMapping.isUpdating()) {
+			BrickMapping.unlockWrite();
+			return false;
+		}
+		return true;
+	}
+	
+	
+	
+	/**
+	 * Reads a page of changed part mappings
+	 * @param since last sequence already seen, 0 to read from start
+	 * @param limit max number of log entries to read
+	 * @return changed mappings, in log order. Empty page while an update 
+	 * transaction is open
+	 * @throws SQLException
+	 */
+	public static Page<PartMapping> getPartChanges(long since, int limit) throws SQLException {
+		
+		if (limit <= 0)
+			throw new IllegalArgumentException("[BrickMapping] page limit must be positive");
+		if (!lockCommitted())
+			return new Page<PartMapping>(new ArrayList<PartMapping>(), since, false);
+		try {
+			return readPartChanges(since, limit);
+		} finally {
+			BrickMapping.unlockWrite();
+		}
+	}
+	
+	
+	
+	private static Page<PartMapping> readPartChanges(long since, int limit) throws SQLException {
+		
+		Page<Integer> log = readLog(PartMapping.table, since, limit);
+		List<Integer> ids = log.getChanges();
+		HashMap<Integer,PartMapping> byId = new HashMap<Integer,PartMapping>(ids.size()*2);
+		for (int i = 0; i < ids.size(); i += StatementPool.MAXIN) {
+			int n = Math.min(StatementPool.MAXIN, ids.size()-i);
+			int params = StatementPool.inSize(n);
+			PreparedStatement ps = StatementPool.get("SELECT mapid,"+PartMapping.fieldsOrder+
+					" FROM "+PartMapping.table+" WHERE mapid IN "+StatementPool.inList(params));
+			bindIds(ps, ids, i, n, params);
+			for (PartMapping pm : PartMapping.getPS(ps)) {
+				byId.put(pm.getMapid(), pm);
+			}
+		}
+		// IN query returns rows in table order
+		ArrayList<PartMapping> rows = new ArrayList<PartMapping>(ids.size());
+		for (int id : ids) {
+			PartMapping pm = byId.get(id);
+			if (pm != null)
+				rows.add(pm);
+		}
+		return new Page<PartMapping>(rows, log.getLastSequence(), log.hasMore());
+	}
+	
+	
+	
+	/**
+	 * Reads a page of changed color mappings
+	 * @param since last sequence already seen, 0 to read from start
+	 * @param limit max number of log entries to read
+	 * @return changed colors, in log order. Empty page while an update 
+	 * transaction is open
+	 * @throws SQLException
+	 */
+	public static Page<BrickColor> getColorChanges(long since, int limit) throws SQLException {
+		
+		if (limit <= 0)
+			throw new IllegalArgumentException("[BrickMapping] page limit must be positive");
+		if (!lockCommitted())
+			return new Page<BrickColor>(new ArrayList<BrickColor>(), since, false);
+		try {
+			return readColorChanges(since, limit);
+		} finally {
+			BrickMapping.unlockWrite();
+		}
+	}
+	
+	
+	
+	private static Page<BrickColor> readColorChanges(long since, int limit) throws SQLException {
+		
+		Page<Integer> log = readLog(BrickColor.table, since, limit);
+		List<Integer> ids = log.getChanges();
+		HashMap<Integer,BrickColor> byId = new HashMap<Integer,BrickColor>(ids.size()*2);
+		for (int i = 0; i < ids.size(); i += StatementPool.MAXIN) {
+			int n = Math.min(StatementPool.MAXIN, ids.size()-i);
+			int params = StatementPool.inSize(n);
+			PreparedStatement ps = StatementPool.get("SELECT mapid,"+BrickColor.fieldsOrder+
+					" FROM "+BrickColor.table+" WHERE mapid IN "+StatementPool.inList(params));
+			bindIds(ps, ids, i, n, params);
+			for (BrickColor bc : BrickColor.getPS(ps)) {
+				byId.put(bc.getMapid(), bc);
+			}
+		}
+		ArrayList<BrickColor> rows = new ArrayList<BrickColor>(ids.size());
+		for (int id : ids) {
+			BrickColor bc = byId.get(id);
+			if (bc != null)
+				rows.add(bc);
+		}
+		return new Page<BrickColor>(rows, log.getLastSequence(), log.hasMore());
+	}
+	
+	
+	
+	/**
+	 * Reads a page of log for a table
+	 * @param tbl table 
+	 * @param since last sequence already seen
+	 * @param limit max entries to read
+	 * @return distinct changed mapids, in log order
+	 * @throws SQLException
+	 */
+	private static Page<Integer> readLog(String tbl, long since, int limit) throws SQLException {
+		
+		LinkedHashSet<Integer> ids = new LinkedHashSet<Integer>();
+		long last = since;
+		int read = 0;
+		boolean more = false;
+		
+		// reads one more row to know if there are other pages
+		PreparedStatement ps = StatementPool.get("SELECT seq,mapid FROM "+table+
+				" WHERE tbl=? AND seq>? ORDER BY seq LIMIT ?");
+		ps.setString(1, tbl);
+		ps.setLong(2, since);
+		ps.setInt(3, limit+1);
+		try (ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				if (read == limit) {
+					more = true;
+					break;
+				}
+				last = rs.getLong(1);
+				ids.add(rs.getInt(2));
+				read++;
+			}
+		}
+		return new Page<Integer>(new ArrayList<Integer>(ids), last, more);
+	}
+	
+	
+	
+	/**
+	 * Binds a chunk of mapids to an IN query, padding with last id so 
+	 * pooled statement is reused
+	 */
+	private static void bindIds(PreparedStatement ps, List<Integer> ids, 
+			int from, int n, int params) throws SQLException {
+		
+		for (int j = 0; j < params; j++) {
+			ps.setInt(j+1, ids.get(from+Math.min(j, n-1)));
+		}
+	}
+
+}
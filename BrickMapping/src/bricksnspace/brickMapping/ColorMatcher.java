@@ -0,0 +1,409 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * Finds the brick color nearest to any RGB(A) value.
+ * 
+ * Palette is taken from color cache when matcher is created, optionally 
+ * filtered, and converted to CIE L*a*b* space, where euclidean distance 
+ * is close to perceived difference. Transparency is a fourth coordinate.
+ * Search uses a k-d tree. Solid colors use a precomputed RGB cube 
+ * too: every cube cell holds the few palette colors that can be nearest 
+ * to a point in that cell (about five with 150 colors), so only these 
+ * are compared, and if there is just one no conversion is needed. 
+ * Cube is built on first use.
+ * 
+ * A matcher is immutable and can be shared between threads. It doesn't 
+ * follow changes in colors: create a new one if 
+ * {@link BrickColor#getColorVersion()} changes.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class ColorMatcher {
+	
+	// weight of transparency in distance, full transparency is like 
+	// a 60 unit difference in L*a*b* 
+	private static final double ALPHA_WEIGHT = 60.0;
+	// sRGB gamma expansion for every 8-bit channel value
+	private static final double[] linear = new double[256];
+	
+	private final int[] mapid;		// palette color mapid, in tree order
+	private final double[][] pos;	// palette color coordinates, in tree order
+	private final long version;		// color cache version used
+	// candidates cube for solid colors, CUBEBITS per channel
+	private static final int CUBEBITS = 5;
+	private static final int SPLIT = 4;			// cell is split in SPLIT^3 parts to bound distances
+	private volatile int[] cellStart = null;	// first candidate of cell, one more for end
+	private int[] cellCand;						// candidate indexes in tree order
+	
+	
+	static {
+		for (int i = 0; i < 256; i++) {
+			double c = i / 255.0;
+			linear[i] = c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+		}
+	}
+	
+	
+	
+	/**
+	 * Matcher on all colors
+	 */
+	public ColorMatcher() {
+		
+		this(null, null, null, -1);
+	}
+	
+	
+	
+	/**
+	 * Matcher on a subset of colors. Every null filter means "any".
+	 * @param inProduction only colors in production (true) or out of production (false)
+	 * @param transparent only transparent (true) or solid (false) colors 
+	 * @param metallic only metallic (true) or non-metallic (false) colors
+	 * @param colorGroup only colors in this group, -1 for any group
+	 */
+	public ColorMatcher(Boolean inProduction, Boolean transparent, Boolean metallic, int colorGroup) {
+		
+		ArrayList<BrickColor> pal = new ArrayList<BrickColor>();
+		version = BrickColor.getColorVersion();
+		for (int id : BrickColor.getColorList()) {
+			BrickColor bc = BrickColor.getColor(id);
+			if (id == 0)
+				continue;
+			if (inProduction != null && bc.isInProduction() != inProduction)
+				continue;
+			if (transparent != null && bc.isTransparent() != transparent)
+				continue;
+			if (metallic != null && bc.isMetallic() != metallic)
+				continue;
+			if (colorGroup >= 0 && bc.getColorGroup() != colorGroup)
+				continue;
+			pal.add(bc);
+		}
+		int n = pal.size();
+		double[][] p = new double[n][];
+		int[] m = new int[n];
+		for (int i = 0; i < n; i++) {
+			Color c = pal.get(i).getColor();
+			p[i] = toLab(c.getRed(), c.getGreen(), c.getBlue(), c.getAlpha());
+			m[i] = pal.get(i).getMapid();
+		}
+		mapid = new int[n];
+		pos = new double[n][];
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		build(order, 0, n, 0, p, m);
+	}
+	
+	
+	
+	/**
+	 * Builds implicit k-d tree: median of every range is the node, 
+	 * left half is before it and right half after it
+	 */
+	private void build(Integer[] order, int from, int to, int depth, 
+			final double[][] p, int[] m) {
+		
+		if (from >= to)
+			return;
+		final int axis = depth % 4;
+		Arrays.sort(order, from, to, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(p[o1][axis], p[o2][axis]);
+			}
+		});
+		int mid = (from + to) >>> 1;
+		pos[mid] = p[order[mid]];
+		mapid[mid] = m[order[mid]];
+		build(order, from, mid, depth+1, p, m);
+		build(order, mid+1, to, depth+1, p, m);
+	}
+	
+	
+	
+	/**
+	 * Converts a sRGB color to L*a*b* (D65) plus transparency
+	 */
+	static double[] toLab(int r, int g, int b, int a) {
+		
+		double[] f = fxyz(r, g, b);
+		return new double[] {
+				116.0 * f[1] - 16.0,
+				500.0 * (f[0] - f[1]),
+				200.0 * (f[1] - f[2]),
+				(255 - (a & 0xff)) / 255.0 * ALPHA_WEIGHT
+		};
+	}
+	
+	
+	
+	/**
+	 * f(X), f(Y), f(Z) of a sRGB color, normalized to D65 white. 
+	 * All grow with every channel.
+	 */
+	private static double[] fxyz(int r, int g, int b) {
+		
+		double lr = linear[r & 0xff];
+		double lg = linear[g & 0xff];
+		double lb = linear[b & 0xff];
+		double x = (0.4124 * lr + 0.3576 * lg + 0.1805 * lb) / 0.95047;
+		double y = (0.2126 * lr + 0.7152 * lg + 0.0722 * lb);
+		double z = (0.0193 * lr + 0.1192 * lg + 0.9505 * lb) / 1.08883;
+		return new double[] { f(x), f(y), f(z) };
+	}
+	
+	
+	
+	private static double f(double t) {
+		
+		return t > 0.008856 ? Math.cbrt(t) : 7.787 * t + 16.0 / 116.0;
+	}
+	
+	
+	
+	/**
+	 * @param r red
+	 * @param g green
+	 * @param b blue
+	 * @param a alpha, 255 is solid
+	 * @return mapid of nearest color, 0 if palette is empty
+	 */
+	public int nearest(int r, int g, int b, int a) {
+		
+		if (mapid.length == 0)
+			return 0;
+		if ((a & 0xff) == 0xff) {
+			int[] start = cellStart;
+			if (start == null)
+				start = buildCube();
+			int sh = 8 - CUBEBITS;
+			int cell = ((r & 0xff) >> sh) << (2*CUBEBITS) | ((g & 0xff) >> sh) << CUBEBITS | ((b & 0xff) >> sh);
+			int from = start[cell], to = start[cell+1];
+			if (to - from == 1)
+				return mapid[cellCand[from]];
+			double[] q = toLab(r, g, b, a);
+			double best = Double.MAX_VALUE;
+			int bestIdx = 0;
+			for (int i = from; i < to; i++) {
+				double d = dist(q, pos[cellCand[i]]);
+				if (d < best) {
+					best = d;
+					bestIdx = cellCand[i];
+				}
+			}
+			return mapid[bestIdx];
+		}
+		double[] q = toLab(r, g, b, a);
+		double[] best = {Double.MAX_VALUE};
+		int[] bestIdx = {0};
+		search(q, 0, mapid.length, 0, best, bestIdx);
+		return mapid[bestIdx[0]];
+	}
+	
+	
+	
+	/**
+	 * @param c color to match (alpha used)
+	 * @return mapid of nearest color, 0 if palette is empty
+	 */
+	public int nearest(Color c) {
+		
+		return nearest(c.getRed(), c.getGreen(), c.getBlue(), c.getAlpha());
+	}
+	
+	
+	
+	/**
+	 * @param argb color as in Color.getRGB() or BufferedImage.getRGB()
+	 * @return mapid of nearest color, 0 if palette is empty
+	 */
+	public int nearest(int argb) {
+		
+		return nearest(argb >> 16, argb >> 8, argb, argb >>> 24);
+	}
+	
+	
+	
+	/**
+	 * Matches a whole image. Repeated pixel values are matched once, 
+	 * using a small direct-mapped cache.
+	 * @param argb pixels as returned by BufferedImage.getRGB(...)
+	 * @return mapid of nearest color for every pixel
+	 */
+	public int[] nearest(int[] argb) {
+		
+		final int CACHE = 1 << 12;
+		int[] ckey = new int[CACHE];
+		int[] cval = new int[CACHE];
+		boolean[] used = new boolean[CACHE];
+		int[] res = new int[argb.length];
+		for (int i = 0; i < argb.length; i++) {
+			int v = argb[i];
+			int h = (v * 0x9E3779B9) >>> 20;
+			if (used[h] && ckey[h] == v) {
+				res[i] = cval[h];
+			}
+			else {
+				res[i] = nearest(v);
+				used[h] = true;
+				ckey[h] = v;
+				cval[h] = res[i];
+			}
+		}
+		return res;
+	}
+	
+	
+	
+	static double dist(double[] q, double[] p) {
+		
+		double d0 = q[0]-p[0], d1 = q[1]-p[1], d2 = q[2]-p[2], d3 = q[3]-p[3];
+		return d0*d0 + d1*d1 + d2*d2 + d3*d3;
+	}
+	
+	
+	
+	/**
+	 * Builds candidates cube. For every cell: if c is cell center, R the 
+	 * max distance from center to a point in cell and dmin the distance 
+	 * from center to nearest palette color, only colors with distance 
+	 * from center up to dmin + 2R can be nearest to a point in cell.
+	 * 
+	 * R comes from L*a*b* formulas, no margin is needed: X, Y, Z and 
+	 * f(X), f(Y), f(Z) grow with every channel, so in a block of RGB 
+	 * values they are between values at lowest and highest corner, and 
+	 * L* = 116 f(Y) - 16, a* = 500 (f(X) - f(Y)), b* = 200 (f(Y) - f(Z)) 
+	 * can't be farther from center than these ranges allow. Cell is 
+	 * split in SPLIT^3 blocks, to keep bound close to real distance.
+	 */
+	private synchronized int[] buildCube() {
+		
+		if (cellStart != null)
+			return cellStart;
+		int side = 1 << CUBEBITS;
+		int step = 256 / side;
+		int sub = step / SPLIT;
+		int cells = side * side * side;
+		int[] start = new int[cells+1];
+		int[] cand = new int[cells*2];
+		int n = 0;
+		double[] dc = new double[pos.length];
+		for (int cell = 0; cell < cells; cell++) {
+			int r0 = (cell >> (2*CUBEBITS)) * step;
+			int g0 = ((cell >> CUBEBITS) & (side-1)) * step;
+			int b0 = (cell & (side-1)) * step;
+			double[] c = toLab(r0 + step/2, g0 + step/2, b0 + step/2, 255);
+			double[] fc = fxyz(r0 + step/2, g0 + step/2, b0 + step/2);
+			double ac = fc[0] - fc[1], bc = fc[1] - fc[2];
+			double rad2 = 0;
+			for (int p = 0; p < SPLIT*SPLIT*SPLIT; p++) {
+				int r = r0 + p / (SPLIT*SPLIT) * sub;
+				int g = g0 + p / SPLIT % SPLIT * sub;
+				int b = b0 + p % SPLIT * sub;
+				double[] lo = fxyz(r, g, b);
+				double[] hi = fxyz(r + sub-1, g + sub-1, b + sub-1);
+				double dl = 116.0 * Math.max(hi[1] - fc[1], fc[1] - lo[1]);
+				double da = 500.0 * Math.max(hi[0] - lo[1] - ac, ac - lo[0] + hi[1]);
+				double db = 200.0 * Math.max(hi[1] - lo[2] - bc, bc - lo[1] + hi[2]);
+				rad2 = Math.max(rad2, dl*dl + da*da + db*db);
+			}
+			double rad = Math.sqrt(rad2);
+			double dmin = Double.MAX_VALUE;
+			for (int i = 0; i < pos.length; i++) {
+				dc[i] = Math.sqrt(dist(c, pos[i]));
+				dmin = Math.min(dmin, dc[i]);
+			}
+			start[cell] = n;
+			for (int i = 0; i < pos.length; i++) {
+				if (dc[i] <= dmin + 2*rad) {
+					if (n == cand.length)
+						cand = Arrays.copyOf(cand, cand.length*2);
+					cand[n++] = i;
+				}
+			}
+		}
+		start[cells] = n;
+		cellCand = Arrays.copyOf(cand, n);
+		// volatile write publishes candidates too
+		cellStart = start;
+		return start;
+	}
+	
+	
+	
+	private void search(double[] q, int from, int to, int depth, double[] best, int[] bestIdx) {
+		
+		if (from >= to)
+			return;
+		int mid = (from + to) >>> 1;
+		double[] p = pos[mid];
+		double d = dist(q, p);
+		if (d < best[0]) {
+			best[0] = d;
+			bestIdx[0] = mid;
+		}
+		int axis = depth % 4;
+		double diff = q[axis] - p[axis];
+		if (diff < 0) {
+			search(q, from, mid, depth+1, best, bestIdx);
+			if (diff*diff < best[0])
+				search(q, mid+1, to, depth+1, best, bestIdx);
+		}
+		else {
+			search(q, mid+1, to, depth+1, best, bestIdx);
+			if (diff*diff < best[0])
+				search(q, from, mid, depth+1, best, bestIdx);
+		}
+	}
+	
+	
+	
+	/**
+	 * @return true if colors didn't change since matcher was created
+	 */
+	public boolean isCurrent() {
+		
+		return version == BrickColor.getColorVersion();
+	}
+	
+	
+	
+	/**
+	 * @return number of colors in palette
+	 */
+	public int size() {
+		return mapid.length;
+	}
+
+}
@@ -0,0 +1,109 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Immutable snapshot of color table, with a version number.
+ * 
+ * A change in colors produces a new snapshot that replaces current 
+ * one, so readers never lock and never see a table half loaded.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class ColorTable {
+	
+	final long version;
+	final Map<Integer,BrickColor> colors;	// mapid -> color, read only
+	final BrickColor unknown;				// color with mapid 0
+	final IntLookup byLdd;					// LDD color -> mapid 
+	final IntLookup byBl;					// BL color -> mapid, 0 if not unique
+	final IntLookup byLdr;					// LDraw color -> mapid, 0 if not unique
+	
+	
+	
+	/**
+	 * @param allColor colors by mapid, must contain color 0 (unknown)
+	 * @param version snapshot version
+	 */
+	ColorTable(HashMap<Integer,BrickColor> allColor, long version) {
+		
+		this.version = version;
+		colors = Collections.unmodifiableMap(allColor);
+		unknown = allColor.get(0);
+		int n = allColor.size();
+		int[] mapid = new int[n];
+		int[] ldd = new int[n];
+		int[] bl = new int[n];
+		int[] ldr = new int[n];
+		HashMap<Integer,Integer> blCount = new HashMap<Integer,Integer>();
+		HashMap<Integer,Integer> ldrCount = new HashMap<Integer,Integer>();
+		int i = 0;
+		for (BrickColor bc : allColor.values()) {
+			// color 0 is a placeholder, it isn't in table
+			if (bc.getMapid() == 0)
+				continue;
+			mapid[i] = bc.getMapid();
+			ldd[i] = bc.getLdd();
+			bl[i] = bc.getBl();
+			ldr[i] = bc.getLdraw();
+			Integer c = blCount.get(bl[i]);
+			blCount.put(bl[i], c == null ? 1 : c+1);
+			c = ldrCount.get(ldr[i]);
+			ldrCount.put(ldr[i], c == null ? 1 : c+1);
+			i++;
+		}
+		n = i;
+		byLdd = new IntLookup(ldd, mapid, n);
+		// BL and LDraw translation needs an unique match
+		int[] v = new int[n];
+		for (i = 0; i < n; i++) {
+			v[i] = blCount.get(bl[i]) == 1 ? mapid[i] : 0;
+		}
+		byBl = new IntLookup(bl, v, n);
+		v = new int[n];
+		for (i = 0; i < n; i++) {
+			v[i] = ldrCount.get(ldr[i]) == 1 ? mapid[i] : 0;
+		}
+		byLdr = new IntLookup(ldr, v, n);
+	}
+	
+	
+	
+	/**
+	 * Returns a new snapshot with a color added or replaced (by mapid)
+	 * @param bc inserted or updated color
+	 * @return new snapshot with next version, current one is unchanged
+	 */
+	ColorTable with(BrickColor bc) {
+		
+		HashMap<Integer,BrickColor> c = new HashMap<Integer,BrickColor>(colors);
+		c.put(bc.getMapid(), bc.clone());
+		return new ColorTable(c, version+1);
+	}
+
+}
@@ -0,0 +1,374 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Compact read-only copy of part mapping table, for cached catalogs.
+ * 
+ * Columns are stored in arrays: strings are interned in a pool shared 
+ * by all columns and referenced by index, six direction flags are 
+ * packed in a byte and last modify time is a long. Pool is a single 
+ * array of UTF-8 bytes, strings are decoded on access. Rows are read 
+ * with a {@link PartMappingView}, created on access.
+ * 
+ * With a full catalog heap used is about a quarter of a list of 
+ * PartMapping from {@link PartMapping#get(String)} (see HeapBench in 
+ * benchmark project). In-memory search index keeps its mappings this way.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class CompactCatalog implements Iterable<PartMappingView> {
+	
+	/** Last modify time for rows without one */
+	public static final long NO_TIME = Long.MIN_VALUE;
+	
+	private final byte[] pool;		// UTF-8 bytes of all strings
+	private final int[] start;		// string i is pool[start[i]..start[i+1]-1]
+	private final int[] mapid;		// sorted
+	private final int[] masterid;
+	private final int[] designid;
+	private final int[] decorid;
+	private final int[] name;
+	private final int[] blid;
+	private final int[] ldrawid;
+	private final byte[] flags;
+	private final long[] lastmod;
+	
+	
+	
+	private CompactCatalog(ArrayList<String> strings, int[] mapid, int[][] cols, byte[] flags, long[] lastmod) {
+		
+		byte[][] b = new byte[strings.size()][];
+		start = new int[strings.size()+1];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+			start[i+1] = start[i] + b[i].length;
+		}
+		pool = new byte[start[b.length]];
+		for (int i = 0; i < b.length; i++) {
+			System.arraycopy(b[i], 0, pool, start[i], b[i].length);
+		}
+		this.mapid = mapid;
+		masterid = cols[0];
+		designid = cols[1];
+		decorid = cols[2];
+		name = cols[3];
+		blid = cols[4];
+		ldrawid = cols[5];
+		this.flags = flags;
+		this.lastmod = lastmod;
+	}
+	
+	
+	
+	/**
+	 * Compact copy of current mapping table (in-memory index or catalog 
+	 * file when available)
+	 * @return compact catalog
+	 * @throws SQLException
+	 */
+	public static CompactCatalog load() throws SQLException {
+		
+		CatalogSnapshot cs = BrickMapping.current();
+		return build(cs.parts != null ? cs.parts.all() : PartMapping.getAll());
+	}
+	
+	
+	
+	/**
+	 * @param pml mappings to copy
+	 * @return compact catalog, ordered by mapid
+	 */
+	public static CompactCatalog build(Collection<PartMapping> pml) {
+		
+		PartMapping[] rows = pml.toArray(new PartMapping[pml.size()]);
+		Arrays.sort(rows, new Comparator<PartMapping>() {
+			@Override
+			public int compare(PartMapping a, PartMapping b) {
+				return Integer.compare(a.getMapid(), b.getMapid());
+			}
+		});
+		HashMap<String,Integer> refs = new HashMap<String,Integer>(rows.length*2);
+		ArrayList<String> strings = new ArrayList<String>(rows.length*2);
+		intern("", refs, strings);
+		int[] mapid = new int[rows.length];
+		int[][] cols = new int[6][rows.length];
+		byte[] flags = new byte[rows.length];
+		long[] lastmod = new long[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			PartMapping pm = rows[i];
+			mapid[i] = pm.getMapid();
+			cols[0][i] = intern(pm.getMasterid(), refs, strings);
+			cols[1][i] = intern(pm.getDesignid(), refs, strings);
+			cols[2][i] = intern(pm.getDecorid(), refs, strings);
+			cols[3][i] = intern(pm.getName(), refs, strings);
+			cols[4][i] = intern(pm.getBlid(), refs, strings);
+			cols[5][i] = intern(pm.getLdrawid(), refs, strings);
+			flags[i] = flags(pm);
+			Timestamp t = pm.getLastmod();
+			lastmod[i] = t == null ? NO_TIME : t.getTime();
+		}
+		return new CompactCatalog(strings, mapid, cols, flags, lastmod);
+	}
+	
+	
+	
+	/**
+	 * Index of string in pool, adding it if missing. Null is stored as -1
+	 */
+	private static int intern(String s, HashMap<String,Integer> refs, ArrayList<String> strings) {
+		
+		if (s == null)
+			return -1;
+		Integer r = refs.get(s);
+		if (r == null) {
+			r = strings.size();
+			strings.add(s);
+			refs.put(s, r);
+		}
+		return r;
+	}
+	
+	
+	
+	/**
+	 * @param pm part mapping
+	 * @return direction flags of mapping, bit (1 &lt;&lt; ordinal) for every direction
+	 */
+	static byte flags(PartMapping pm) {
+		
+		int f = 0;
+		for (MapDirection d : MapDirection.values()) {
+			if (d.isSet(pm))
+				f |= 1 << d.ordinal();
+		}
+		return (byte) f;
+	}
+	
+	
+	
+	/**
+	 * @return number of mappings
+	 */
+	public int size() {
+		return mapid.length;
+	}
+	
+	
+	
+	/**
+	 * @return number of distinct strings in pool
+	 */
+	public int getPoolSize() {
+		return start.length-1;
+	}
+	
+	
+	
+	/**
+	 * @param index row index, 0 to size()-1, rows are ordered by mapid
+	 * @return view of row
+	 */
+	public PartMappingView get(int index) {
+		
+		if (index < 0 || index >= mapid.length)
+			throw new IndexOutOfBoundsException("Row "+index+" of "+mapid.length);
+		return new Row(index);
+	}
+	
+	
+	
+	/**
+	 * @param index row index, 0 to size()-1
+	 * @return mapid of row
+	 */
+	int getMapid(int index) {
+		return mapid[index];
+	}
+	
+	
+	
+	/**
+	 * @param id mapping id
+	 * @return view of mapping, or null if not found
+	 */
+	public PartMappingView find(int id) {
+		
+		int i = Arrays.binarySearch(mapid, id);
+		return i < 0 ? null : new Row(i);
+	}
+	
+	
+	
+	@Override
+	public Iterator<PartMappingView> iterator() {
+		
+		return new Iterator<PartMappingView>() {
+			
+			private int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < mapid.length;
+			}
+
+			@Override
+			public PartMappingView next() {
+				
+				if (i >= mapid.length)
+					throw new NoSuchElementException();
+				return new Row(i++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Catalog is read only");
+			}
+		};
+	}
+	
+	
+	
+	/**
+	 * @return all rows as mutable mappings, ordered by mapid
+	 */
+	public Collection<PartMapping> toPartMappings() {
+		
+		ArrayList<PartMapping> l = new ArrayList<PartMapping>(mapid.length);
+		for (PartMappingView v : this) {
+			l.add(v.toPartMapping());
+		}
+		return Collections.unmodifiableList(l);
+	}
+	
+	
+	
+	private String str(int ref) {
+		return ref < 0 ? null : new String(pool, start[ref], start[ref+1]-start[ref], StandardCharsets.UTF_8);
+	}
+	
+	
+	
+	/**
+	 * View of a row, only an index in catalog arrays
+	 */
+	private final class Row implements PartMappingView {
+		
+		private final int i;
+		
+		Row(int i) {
+			this.i = i;
+		}
+
+		@Override
+		public int getMapid() {
+			return mapid[i];
+		}
+
+		@Override
+		public String getMasterid() {
+			return str(masterid[i]);
+		}
+
+		@Override
+		public String getDesignid() {
+			return str(designid[i]);
+		}
+
+		@Override
+		public String getDecorid() {
+			return str(decorid[i]);
+		}
+
+		@Override
+		public String getName() {
+			return str(name[i]);
+		}
+
+		@Override
+		public String getBlid() {
+			return str(blid[i]);
+		}
+
+		@Override
+		public String getLdrawid() {
+			return str(ldrawid[i]);
+		}
+
+		@Override
+		public byte getFlags() {
+			return flags[i];
+		}
+
+		@Override
+		public boolean isSet(MapDirection d) {
+			return (flags[i] & (1 << d.ordinal())) != 0;
+		}
+
+		@Override
+		public long getLastmod() {
+			return lastmod[i];
+		}
+
+		@Override
+		public PartMapping toPartMapping() {
+			
+			PartMapping pm = new PartMapping();
+			pm.setMapid(getMapid());
+			pm.setMasterid(getMasterid());
+			pm.setDesignid(getDesignid());
+			pm.setDecorid(getDecorid());
+			pm.setName(getName());
+			pm.setBlid(getBlid());
+			pm.setLdrawid(getLdrawid());
+			pm.setLdd2bl(isSet(MapDirection.LDD2BL));
+			pm.setBl2ldd(isSet(MapDirection.BL2LDD));
+			pm.setLdd2dat(isSet(MapDirection.LDD2DAT));
+			pm.setDat2ldd(isSet(MapDirection.DAT2LDD));
+			pm.setBl2dat(isSet(MapDirection.BL2DAT));
+			pm.setDat2bl(isSet(MapDirection.DAT2BL));
+			pm.setLastmod(lastmod[i] == NO_TIME ? null : new Timestamp(lastmod[i]));
+			return pm;
+		}
+		
+		@Override
+		public String toString() {
+			return getMapid()+"-"+getDesignid()+"|"+getBlid()+"|"+getLdrawid()+" - "+getName();
+		}
+	}
+
+}
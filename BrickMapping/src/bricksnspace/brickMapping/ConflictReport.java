@@ -0,0 +1,175 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Uniqueness conflicts found by {@link BulkValidator} in a batch of 
+ * pending part and color changes.
+ * 
+ * Every conflict pairs a pending row with the row it collides with, 
+ * another pending row of same batch or a row already in database.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class ConflictReport {
+	
+	private final List<Conflict<PartMapping>> parts;
+	private final List<Conflict<BrickColor>> colors;
+	
+	
+	
+	/**
+	 * A pending row colliding with another row on a unique key
+	 * @param <T> PartMapping or BrickColor
+	 */
+	public static final class Conflict<T> {
+		
+		private final T pending;
+		private final T existing;
+		private final MapDirection direction;
+		private final String field;
+		private final String key;
+		private final boolean inBatch;
+		
+		
+		Conflict(T pending, T existing, MapDirection direction, String field, String key, boolean inBatch) {
+			
+			this.pending = pending;
+			this.existing = existing;
+			this.direction = direction;
+			this.field = field;
+			this.key = key;
+			this.inBatch = inBatch;
+		}
+
+
+		/** @return row of batch that can't be written */
+		public T getPending() {
+			return pending;
+		}
+
+
+		/** @return row already using key, from batch or database */
+		public T getExisting() {
+			return existing;
+		}
+
+
+		/** @return direction flag in conflict for parts, null for colors */
+		public MapDirection getDirection() {
+			return direction;
+		}
+
+
+		/** @return flag (ldd2bl, bl2ldd...) or color column (ldd, bl, ldraw) in conflict */
+		public String getField() {
+			return field;
+		}
+
+
+		/** @return value of unique key shared by both rows */
+		public String getKey() {
+			return key;
+		}
+
+
+		/** @return true if existing row is in same batch, false if it is in database */
+		public boolean isInBatch() {
+			return inBatch;
+		}
+
+
+		@Override
+		public String toString() {
+			return "Duplicated "+field+" '"+key.replace('\t', '/')+"': "+pending+
+					"\nis already mapped "+(inBatch ? "in batch" : "in database")+" as: "+existing;
+		}
+	}
+	
+	
+	
+	ConflictReport(List<Conflict<PartMapping>> parts, List<Conflict<BrickColor>> colors) {
+		
+		this.parts = Collections.unmodifiableList(new ArrayList<Conflict<PartMapping>>(parts));
+		this.colors = Collections.unmodifiableList(new ArrayList<Conflict<BrickColor>>(colors));
+	}
+	
+	
+	
+	/**
+	 * @return true if batch can be written without conflicts
+	 */
+	public boolean isEmpty() {
+		return parts.isEmpty() && colors.isEmpty();
+	}
+	
+	
+	
+	/**
+	 * @return conflicts on part mappings, in batch order
+	 */
+	public List<Conflict<PartMapping>> getPartConflicts() {
+		return parts;
+	}
+	
+	
+	
+	/**
+	 * @return conflicts on colors, in batch order
+	 */
+	public List<Conflict<BrickColor>> getColorConflicts() {
+		return colors;
+	}
+	
+	
+	
+	/**
+	 * @return total number of conflicts
+	 */
+	public int size() {
+		return parts.size() + colors.size();
+	}
+	
+	
+	
+	@Override
+	public String toString() {
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(size()).append(" conflict(s)\n");
+		for (Conflict<PartMapping> c : parts) {
+			sb.append(c).append('\n');
+		}
+		for (Conflict<BrickColor> c : colors) {
+			sb.append(c).append('\n');
+		}
+		return sb.toString();
+	}
+
+}
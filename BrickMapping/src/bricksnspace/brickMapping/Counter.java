@@ -0,0 +1,89 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A counter that many threads can increment without contention: every 
+ * thread adds to a cell chosen by thread id, cells are on different 
+ * cache lines and are summed only on read.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+final class Counter {
+	
+	static final int STRIPES;
+	private static final int PAD = 8;		// longs in a cache line
+	
+	static {
+		int n = 1;
+		while (n < Runtime.getRuntime().availableProcessors() && n < 64)
+			n <<= 1;
+		STRIPES = n;
+	}
+	
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES*PAD);
+	
+	
+	
+	/**
+	 * @return stripe for current thread
+	 */
+	static int stripe() {
+		return (int) Thread.currentThread().getId() & (STRIPES-1);
+	}
+	
+	
+	
+	void add(long n) {
+		cells.addAndGet(stripe()*PAD, n);
+	}
+	
+	
+	
+	void inc() {
+		cells.incrementAndGet(stripe()*PAD);
+	}
+	
+	
+	
+	long sum() {
+		
+		long s = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			s += cells.get(i*PAD);
+		}
+		return s;
+	}
+	
+	
+	
+	void reset() {
+		
+		for (int i = 0; i < STRIPES; i++) {
+			cells.set(i*PAD, 0);
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import java.sql.SQLException;
+
+
+/**
+ * More than one mapping rule matches a translation: mapping table 
+ * needs a fix, see {@link PartMapping#check()}
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class DuplicateMappingException extends SQLException {
+
+	private static final long serialVersionUID = 3409761562839711724L;
+	
+	
+	
+	/**
+	 * @param pm first of duplicated mappings
+	 */
+	public DuplicateMappingException(PartMapping pm) {
+		
+		super("Internal error: duplicated part mapping in database\n"+pm);
+	}
+
+}
@@ -0,0 +1,143 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Latency histogram with logarithmic buckets: four buckets for every 
+ * power of two, so a value is reported with at most 25% error. 
+ * Recording is a single atomic increment on a per-thread stripe.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+final class Histogram {
+	
+	private static final int BUCKETS = 256;
+	
+	private final AtomicLongArray cells = new AtomicLongArray(Counter.STRIPES*BUCKETS);
+	private final Counter total = new Counter();
+	
+	
+	
+	static int bucket(long v) {
+		
+		if (v < 4)
+			return v < 0 ? 0 : (int) v;
+		int e = 63 - Long.numberOfLeadingZeros(v);
+		return (e-1)*4 + (int) ((v >>> (e-2)) & 3);
+	}
+	
+	
+	
+	/**
+	 * @return greater value in a bucket
+	 */
+	static long upper(int b) {
+		
+		if (b < 4)
+			return b;
+		int e = b/4 + 1;
+		return ((4L + b%4) << (e-2)) + (1L << (e-2)) - 1;
+	}
+	
+	
+	
+	/**
+	 * @param nanos elapsed time
+	 */
+	void record(long nanos) {
+		
+		cells.incrementAndGet(Counter.stripe()*BUCKETS + bucket(nanos));
+		total.add(nanos);
+	}
+	
+	
+	
+	/**
+	 * @return counts by bucket, summed over stripes
+	 */
+	long[] counts() {
+		
+		long[] c = new long[BUCKETS];
+		for (int s = 0; s < Counter.STRIPES; s++) {
+			for (int b = 0; b < BUCKETS; b++) {
+				c[b] += cells.get(s*BUCKETS + b);
+			}
+		}
+		return c;
+	}
+	
+	
+	
+	long total() {
+		return total.sum();
+	}
+	
+	
+	
+	void reset() {
+		
+		for (int i = 0; i < cells.length(); i++) {
+			cells.set(i, 0);
+		}
+		total.reset();
+	}
+	
+	
+	
+	/**
+	 * @return current values as a latency summary
+	 */
+	MetricsSnapshot.Latency summary() {
+		
+		long[] c = counts();
+		long n = 0;
+		int max = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			n += c[b];
+			if (c[b] > 0)
+				max = b;
+		}
+		return new MetricsSnapshot.Latency(n, n == 0 ? 0 : total()/n, 
+				percentile(c, n, 0.5), percentile(c, n, 0.9), 
+				percentile(c, n, 0.99), n == 0 ? 0 : upper(max));
+	}
+	
+	
+	
+	private static long percentile(long[] c, long n, double p) {
+		
+		if (n == 0)
+			return 0;
+		long rank = (long) Math.ceil(n*p);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += c[b];
+			if (seen >= rank)
+				return upper(b);
+		}
+		return upper(BUCKETS-1);
+	}
+
+}
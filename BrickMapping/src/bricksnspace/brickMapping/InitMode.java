@@ -0,0 +1,40 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+/**
+ * How {@link BrickMapping#Init(bricksnspace.dbconnector.DBConnector, boolean, InitMode)} 
+ * runs initialization steps after schema check
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public enum InitMode {
+	
+	/** all steps on caller thread, Init returns when library is ready */
+	EAGER, 
+	/** steps start at once on background threads, in parallel */
+	PARALLEL, 
+	/** every step runs on first use of something that needs it */
+	LAZY
+}
@@ -0,0 +1,113 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.sql.SQLException;
+
+
+/**
+ * A deferred initialization step, executed at most once.
+ * 
+ * Step can be started on a background thread or by first caller that 
+ * needs it; other callers wait until it ends. If step fails it can be 
+ * tried again by next caller.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+abstract class InitStep {
+	
+	final String name;
+	private volatile boolean started = false;
+	private volatile boolean done = false;
+	
+	
+	
+	InitStep(String name) {
+		
+		this.name = name;
+	}
+	
+	
+	
+	/**
+	 * Step work
+	 * @throws SQLException
+	 */
+	abstract void run() throws SQLException;
+	
+	
+	
+	/**
+	 * Runs step if not done yet, or waits for a running step
+	 * @throws SQLException if step fails
+	 */
+	synchronized void ensure() throws SQLException {
+		
+		if (done)
+			return;
+		started = true;
+		long t = System.nanoTime();
+		boolean ok = false;
+		try {
+			run();
+			ok = true;
+		} finally {
+			if (ok) {
+				done = true;
+				BrickMapping.phaseDone(name, System.nanoTime()-t);
+			}
+			else {
+				started = false;
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Marks step as started by a background thread
+	 */
+	void submitted() {
+		started = true;
+	}
+	
+	
+	
+	/**
+	 * @return true if step is running or done
+	 */
+	boolean isStarted() {
+		return started;
+	}
+	
+	
+	
+	/**
+	 * @return true if step ended successfully
+	 */
+	boolean isDone() {
+		return done;
+	}
+
+}
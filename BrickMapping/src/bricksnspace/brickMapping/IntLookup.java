@@ -0,0 +1,126 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Read only int -> int map for color ID translation. 
+ * 
+ * Keys in [0, {@value #DENSE}) are read from a direct-address array, 
+ * any other key from a small open-addressing table. 
+ * No boxing and no allocation on lookup. Value 0 means "not found".
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class IntLookup {
+	
+	static final int DENSE = 1 << 16;
+	private static final int EMPTY = Integer.MIN_VALUE;
+	
+	private final int[] dense;
+	private final int[] keys;		// open addressing, power of two size
+	private final int[] vals;
+	private final int mask;
+	private int emptyKeyVal = 0;	// value for key Integer.MIN_VALUE
+	
+	
+	
+	/**
+	 * Builds a lookup from key/value pairs. Value 0 is "not found".
+	 * @param k keys
+	 * @param v values
+	 * @param n number of pairs
+	 */
+	IntLookup(int[] k, int[] v, int n) {
+		
+		int max = -1;
+		int others = 0;
+		for (int i = 0; i < n; i++) {
+			if (k[i] >= 0 && k[i] < DENSE) {
+				if (k[i] > max)
+					max = k[i];
+			}
+			else {
+				others++;
+			}
+		}
+		dense = new int[max+1];
+		int size = 4;
+		while (size < others*2)
+			size *= 2;
+		keys = new int[size];
+		vals = new int[size];
+		mask = size - 1;
+		Arrays.fill(keys, EMPTY);
+		for (int i = 0; i < n; i++) {
+			if (k[i] >= 0 && k[i] < DENSE) {
+				dense[k[i]] = v[i];
+			}
+			else if (k[i] == EMPTY) {
+				emptyKeyVal = v[i];
+			}
+			else {
+				int h = mix(k[i]) & mask;
+				while (keys[h] != EMPTY && keys[h] != k[i]) {
+					h = (h + 1) & mask;
+				}
+				keys[h] = k[i];
+				vals[h] = v[i];
+			}
+		}
+	}
+	
+	
+	
+	private static int mix(int k) {
+		
+		int h = k * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	
+	
+	/**
+	 * @param key key to look for
+	 * @return value, 0 if not found
+	 */
+	int get(int key) {
+		
+		if (key >= 0 && key < dense.length)
+			return dense[key];
+		if (key >= 0 && key < DENSE)
+			return 0;
+		if (key == EMPTY)
+			return emptyKeyVal;
+		int h = mix(key) & mask;
+		while (keys[h] != EMPTY) {
+			if (keys[h] == key)
+				return vals[h];
+			h = (h + 1) & mask;
+		}
+		return 0;
+	}
+
+}
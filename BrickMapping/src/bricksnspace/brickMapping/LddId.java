@@ -0,0 +1,119 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+/**
+ * An LDD part ID: design ID with optional decoration ID. 
+ * Used as key in bulk translations
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class LddId {
+	
+	private final String designid;
+	private final String decorid;
+	
+	
+	
+	/**
+	 * @param designid LDD design ID
+	 * @param decorid LDD decoration ID, null or empty string if part isn't decorated
+	 */
+	public LddId(String designid, String decorid) {
+		
+		this.designid = designid;
+		this.decorid = decorid == null ? "" : decorid;
+	}
+	
+	
+	
+	/**
+	 * An undecorated LDD part
+	 * @param designid LDD design ID
+	 */
+	public LddId(String designid) {
+		
+		this(designid, "");
+	}
+	
+	
+	
+	/**
+	 * @return the designid
+	 */
+	public String getDesignid() {
+		return designid;
+	}
+	
+	
+	
+	/**
+	 * @return the decorid, empty string if part isn't decorated
+	 */
+	public String getDecorid() {
+		return decorid;
+	}
+	
+	
+	
+	/**
+	 * @return lookup key used by translation index
+	 */
+	String key() {
+		return MapDirection.lddKey(designid, decorid);
+	}
+
+
+
+	@Override
+	public int hashCode() {
+		return (designid == null ? 0 : designid.hashCode()) * 31 + decorid.hashCode();
+	}
+
+
+
+	@Override
+	public boolean equals(Object obj) {
+		
+		if (this == obj)
+			return true;
+		if (!(obj instanceof LddId))
+			return false;
+		LddId other = (LddId) obj;
+		if (designid == null) {
+			if (other.designid != null)
+				return false;
+		}
+		else if (!designid.equals(other.designid))
+			return false;
+		return decorid.equals(other.decorid);
+	}
+
+
+
+	@Override
+	public String toString() {
+		return decorid.length() == 0 ? designid : designid + "/" + decorid;
+	}
+
+}
@@ -0,0 +1,157 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+/**
+ * Translation directions between catalogs, one for every flag in part mapping
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public enum MapDirection {
+	
+	LDD2BL, BL2LDD, LDD2DAT, DAT2LDD, BL2DAT, DAT2BL;
+	
+	
+	
+	/**
+	 * @param pm part mapping to test
+	 * @return true if mapping has flag for this direction
+	 */
+	public boolean isSet(PartMapping pm) {
+		
+		switch (this) {
+		case LDD2BL:
+			return pm.isLdd2bl();
+		case BL2LDD:
+			return pm.isBl2ldd();
+		case LDD2DAT:
+			return pm.isLdd2dat();
+		case DAT2LDD:
+			return pm.isDat2ldd();
+		case BL2DAT:
+			return pm.isBl2dat();
+		case DAT2BL:
+			return pm.isDat2bl();
+		}
+		return false;
+	}
+	
+	
+	
+	/**
+	 * Key used by translation lookup for this direction, same columns
+	 * used in WHERE clause of PartMapping.lddToBlink() and others
+	 * @param pm part mapping
+	 * @return lookup key or null if mapping can't match any lookup
+	 */
+	public String lookupKey(PartMapping pm) {
+		
+		switch (this) {
+		case LDD2BL:
+		case LDD2DAT:
+			if (pm.getDecorid() == null)
+				return null;
+			return lddKey(pm.getDesignid(), pm.getDecorid());
+		case BL2LDD:
+		case BL2DAT:
+			return pm.getBlid();
+		case DAT2LDD:
+		case DAT2BL:
+			return pm.getLdrawid();
+		}
+		return null;
+	}
+	
+	
+	
+	/**
+	 * @return opposite direction (BL2LDD for LDD2BL...)
+	 */
+	public MapDirection reverse() {
+		
+		switch (this) {
+		case LDD2BL:
+			return BL2LDD;
+		case BL2LDD:
+			return LDD2BL;
+		case LDD2DAT:
+			return DAT2LDD;
+		case DAT2LDD:
+			return LDD2DAT;
+		case BL2DAT:
+			return DAT2BL;
+		case DAT2BL:
+			return BL2DAT;
+		}
+		return null;
+	}
+	
+	
+	
+	/**
+	 * @return name of flag column in mapping table for this direction
+	 */
+	public String flagColumn() {
+		return name().toLowerCase();
+	}
+	
+	
+	
+	/**
+	 * @return column in mapping table holding ID to translate from
+	 */
+	public String sourceColumn() {
+		
+		switch (this) {
+		case LDD2BL:
+		case LDD2DAT:
+			return "designid";
+		case BL2LDD:
+		case BL2DAT:
+			return "blid";
+		case DAT2LDD:
+		case DAT2BL:
+			return "ldrawid";
+		}
+		return null;
+	}
+	
+	
+	
+	/**
+	 * Compose a lookup key for LDD parts. 
+	 * A null or empty decorid means "no decoration"
+	 * @param designid LDD design ID
+	 * @param decorid LDD decoration ID
+	 * @return lookup key or null if designid is null
+	 */
+	public static String lddKey(String designid, String decorid) {
+		
+		if (designid == null)
+			return null;
+		if (decorid == null || decorid.length() == 0)
+			return designid + '\t';
+		return designid + '\t' + decorid;
+	}
+
+}
@@ -0,0 +1,349 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * Counters and latency histograms for translations, searches, updates 
+ * and imports.
+ * 
+ * Recording is lock free and striped by thread (see {@link Counter}), 
+ * so metrics can stay enabled under full load; when disabled the only 
+ * cost is a volatile read. Read them with {@link #snapshot()} or 
+ * through JMX ({@link MetricsMXBean}, registered by Init).
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class Metrics {
+	
+	/** JMX name */
+	public static final String OBJECTNAME = "bricksnspace.brickMapping:type=Metrics";
+	
+	private static volatile boolean enabled = true;
+	
+	private static final int DIRS = MapDirection.values().length;
+	static final Counter[] hits = counters(DIRS);
+	static final Counter[] misses = counters(DIRS);
+	static final Counter[] duplicates = counters(DIRS);
+	static final Counter[] errors = counters(DIRS);
+	static final Histogram[] translations = histograms(DIRS);
+	static final Counter[] filtered = counters(DIRS);
+	static final Counter[] falsePositives = counters(DIRS);
+	static final Counter colorHits = new Counter();
+	static final Counter colorMisses = new Counter();
+	static final Histogram fts = new Histogram();
+	static final Histogram search = new Histogram();
+	static final Histogram updates = new Histogram();
+	static final Counter commits = new Counter();
+	static final Counter aborts = new Counter();
+	static final Counter importedParts = new Counter();
+	static final Counter importedColors = new Counter();
+	static final Counter importNanos = new Counter();
+	
+	
+	
+	private Metrics() {
+		// static methods only
+	}
+	
+	
+	
+	private static Counter[] counters(int n) {
+		
+		Counter[] c = new Counter[n];
+		for (int i = 0; i < n; i++) {
+			c[i] = new Counter();
+		}
+		return c;
+	}
+	
+	
+	
+	private static Histogram[] histograms(int n) {
+		
+		Histogram[] h = new Histogram[n];
+		for (int i = 0; i < n; i++) {
+			h[i] = new Histogram();
+		}
+		return h;
+	}
+	
+	
+	
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	
+	
+	/**
+	 * @param on false to stop recording, collected values are kept
+	 */
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+	
+	
+	
+	/**
+	 * Sets all counters and histograms to zero
+	 */
+	public static void reset() {
+		
+		for (int i = 0; i < DIRS; i++) {
+			hits[i].reset();
+			misses[i].reset();
+			duplicates[i].reset();
+			errors[i].reset();
+			translations[i].reset();
+			filtered[i].reset();
+			falsePositives[i].reset();
+		}
+		colorHits.reset();
+		colorMisses.reset();
+		fts.reset();
+		search.reset();
+		updates.reset();
+		commits.reset();
+		aborts.reset();
+		importedParts.reset();
+		importedColors.reset();
+		importNanos.reset();
+	}
+	
+	
+	
+	/**
+	 * Start of a timed operation
+	 * @return start time, 0 if metrics are disabled
+	 */
+	static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+	
+	
+	
+	/**
+	 * Records a translation
+	 * @param d translation direction
+	 * @param start value from {@link #start()}
+	 * @param pm result, mapid 0 is a miss
+	 * @return pm
+	 */
+	static PartMapping translated(MapDirection d, long start, PartMapping pm) {
+		
+		if (start == 0)
+			return pm;
+		translations[d.ordinal()].record(System.nanoTime()-start);
+		if (pm.getMapid() == 0)
+			misses[d.ordinal()].inc();
+		else
+			hits[d.ordinal()].inc();
+		return pm;
+	}
+	
+	
+	
+	/**
+	 * Records a single translation in a bulk request. Bulk requests 
+	 * count hits and misses only.
+	 */
+	static void bulkTranslated(MapDirection d, PartMapping pm) {
+		
+		if (!enabled)
+			return;
+		if (pm.getMapid() == 0)
+			misses[d.ordinal()].inc();
+		else
+			hits[d.ordinal()].inc();
+	}
+	
+	
+	
+	/**
+	 * Records a failed translation
+	 */
+	static void failed(MapDirection d, Exception e) {
+		
+		if (!enabled)
+			return;
+		if (e instanceof DuplicateMappingException)
+			duplicates[d.ordinal()].inc();
+		else
+			errors[d.ordinal()].inc();
+	}
+	
+	
+	
+	/**
+	 * Records IDs answered as misses by filter, without a query
+	 * @param d translation direction
+	 * @param n number of IDs
+	 */
+	static void filtered(MapDirection d, int n) {
+		
+		if (enabled && n > 0)
+			filtered[d.ordinal()].add(n);
+	}
+	
+	
+	
+	/**
+	 * Records IDs that passed filter, but query found no rule
+	 * @param d translation direction
+	 * @param n number of IDs
+	 */
+	static void filterFalsePositives(MapDirection d, int n) {
+		
+		if (enabled && n > 0)
+			falsePositives[d.ordinal()].add(n);
+	}
+	
+	
+	
+	/**
+	 * Records a color lookup
+	 * @param hit true if color was found
+	 */
+	static void color(boolean hit) {
+		
+		if (!enabled)
+			return;
+		if (hit)
+			colorHits.inc();
+		else
+			colorMisses.inc();
+	}
+	
+	
+	
+	static void fts(long start) {
+		
+		if (start != 0)
+			fts.record(System.nanoTime()-start);
+	}
+	
+	
+	
+	static void search(long start) {
+		
+		if (start != 0)
+			search.record(System.nanoTime()-start);
+	}
+	
+	
+	
+	/**
+	 * Records end of an update transaction
+	 * @param start value from {@link #start()} when transaction started
+	 * @param committed false if aborted
+	 */
+	static void update(long start, boolean committed) {
+		
+		if (start == 0)
+			return;
+		updates.record(System.nanoTime()-start);
+		if (committed)
+			commits.inc();
+		else
+			aborts.inc();
+	}
+	
+	
+	
+	/**
+	 * Records imported rows
+	 * @param parts part mappings written
+	 * @param colors colors written
+	 * @param start value from {@link #start()}
+	 */
+	static void imported(int parts, int colors, long start) {
+		
+		if (start == 0)
+			return;
+		importNanos.add(System.nanoTime()-start);
+		importedParts.add(parts);
+		importedColors.add(colors);
+	}
+	
+	
+	
+	/**
+	 * @return current values
+	 */
+	public static MetricsSnapshot snapshot() {
+		return new MetricsSnapshot();
+	}
+	
+	
+	
+	/**
+	 * Registers JMX bean, if not already registered
+	 */
+	static void registerMBean() {
+		
+		try {
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			mbs.registerMBean(new MXBean(), new ObjectName(OBJECTNAME));
+		} catch (InstanceAlreadyExistsException e) {
+			// registered by a previous Init
+		} catch (JMException | SecurityException e) {
+			Logger.getGlobal().log(Level.WARNING, "[BrickMapping] unable to register metrics bean", e);
+		}
+	}
+	
+	
+	
+	private static class MXBean implements MetricsMXBean {
+
+		@Override
+		public Map<String, Long> getMetrics() {
+			return snapshot().toMap();
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return Metrics.isEnabled();
+		}
+
+		@Override
+		public void setEnabled(boolean enabled) {
+			Metrics.setEnabled(enabled);
+		}
+
+		@Override
+		public void reset() {
+			Metrics.reset();
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import java.util.Map;
+
+
+/**
+ * JMX view of {@link Metrics}, registered as 
+ * {@value Metrics#OBJECTNAME}
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public interface MetricsMXBean {
+	
+	/**
+	 * @return all metrics by name, see {@link MetricsSnapshot#toMap()}
+	 */
+	Map<String,Long> getMetrics();
+	
+	boolean isEnabled();
+	
+	void setEnabled(boolean enabled);
+	
+	/**
+	 * Sets all counters and histograms to zero
+	 */
+	void reset();
+
+}
@@ -0,0 +1,294 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Values of {@link Metrics} at a point in time. Times are in nanoseconds.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class MetricsSnapshot {
+	
+	/**
+	 * Latency summary from a histogram. Percentiles are bucket upper 
+	 * bounds, at most 25% over real value
+	 */
+	public static final class Latency {
+		
+		private final long count, mean, p50, p90, p99, max;
+		
+		
+		Latency(long count, long mean, long p50, long p90, long p99, long max) {
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.max = max;
+		}
+		
+		public long getCount() { return count; }
+		public long getMean() { return mean; }
+		public long getP50() { return p50; }
+		public long getP90() { return p90; }
+		public long getP99() { return p99; }
+		public long getMax() { return max; }
+		
+		
+		@Override
+		public String toString() {
+			return "n="+count+" mean="+mean+" p50="+p50+" p90="+p90+" p99="+p99+" max="+max;
+		}
+	}
+	
+	
+	private final long time;
+	private final long[] hits, misses, duplicates, errors;
+	private final long[] filtered, falsePositives;
+	private final Latency[] translations;
+	private final long colorHits, colorMisses;
+	private final Latency fts, search, updates;
+	private final long commits, aborts;
+	private final long importedParts, importedColors, importNanos;
+	
+	
+	
+	MetricsSnapshot() {
+		
+		time = System.currentTimeMillis();
+		int n = MapDirection.values().length;
+		hits = new long[n];
+		misses = new long[n];
+		duplicates = new long[n];
+		errors = new long[n];
+		translations = new Latency[n];
+		filtered = new long[n];
+		falsePositives = new long[n];
+		for (int i = 0; i < n; i++) {
+			hits[i] = Metrics.hits[i].sum();
+			misses[i] = Metrics.misses[i].sum();
+			duplicates[i] = Metrics.duplicates[i].sum();
+			errors[i] = Metrics.errors[i].sum();
+			translations[i] = Metrics.translations[i].summary();
+			filtered[i] = Metrics.filtered[i].sum();
+			falsePositives[i] = Metrics.falsePositives[i].sum();
+		}
+		colorHits = Metrics.colorHits.sum();
+		colorMisses = Metrics.colorMisses.sum();
+		fts = Metrics.fts.summary();
+		search = Metrics.search.summary();
+		updates = Metrics.updates.summary();
+		commits = Metrics.commits.sum();
+		aborts = Metrics.aborts.sum();
+		importedParts = Metrics.importedParts.sum();
+		importedColors = Metrics.importedColors.sum();
+		importNanos = Metrics.importNanos.sum();
+	}
+	
+	
+	
+	/**
+	 * @return snapshot time, as System.currentTimeMillis()
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	
+	public long getHits(MapDirection d) {
+		return hits[d.ordinal()];
+	}
+	
+	
+	public long getMisses(MapDirection d) {
+		return misses[d.ordinal()];
+	}
+	
+	
+	/**
+	 * @return translations failed with {@link DuplicateMappingException}
+	 */
+	public long getDuplicates(MapDirection d) {
+		return duplicates[d.ordinal()];
+	}
+	
+	
+	/**
+	 * @return translations failed with a database error
+	 */
+	public long getErrors(MapDirection d) {
+		return errors[d.ordinal()];
+	}
+	
+	
+	/**
+	 * @return latency of single translations (bulk translations excluded)
+	 */
+	public Latency getTranslationLatency(MapDirection d) {
+		return translations[d.ordinal()];
+	}
+	
+	
+	/**
+	 * @return misses answered by filter without a query (see 
+	 * {@link PartMapping#setMissFilter(boolean)}), included in misses
+	 */
+	public long getFiltered(MapDirection d) {
+		return filtered[d.ordinal()];
+	}
+	
+	
+	/**
+	 * @return IDs without rule that passed filter, so a query was done
+	 */
+	public long getFilterFalsePositives(MapDirection d) {
+		return falsePositives[d.ordinal()];
+	}
+	
+	
+	/**
+	 * @return measured false positive rate of filter: IDs without rule 
+	 * that passed filter over all IDs without rule checked, 0 if none
+	 */
+	public double getFilterFalsePositiveRate(MapDirection d) {
+		
+		long neg = filtered[d.ordinal()] + falsePositives[d.ordinal()];
+		return neg == 0 ? 0 : (double) falsePositives[d.ordinal()] / neg;
+	}
+	
+	
+	public long getColorHits() {
+		return colorHits;
+	}
+	
+	
+	public long getColorMisses() {
+		return colorMisses;
+	}
+	
+	
+	/**
+	 * @return latency of database full text search, getFTS()
+	 */
+	public Latency getFtsLatency() {
+		return fts;
+	}
+	
+	
+	/**
+	 * @return latency of in-memory text search, search()
+	 */
+	public Latency getSearchLatency() {
+		return search;
+	}
+	
+	
+	/**
+	 * @return duration of update transactions, from prepareUpdate() to 
+	 * endUpdate() or abortUpdate()
+	 */
+	public Latency getUpdateLatency() {
+		return updates;
+	}
+	
+	
+	public long getCommits() {
+		return commits;
+	}
+	
+	
+	public long getAborts() {
+		return aborts;
+	}
+	
+	
+	public long getImportedParts() {
+		return importedParts;
+	}
+	
+	
+	public long getImportedColors() {
+		return importedColors;
+	}
+	
+	
+	/**
+	 * @return imported rows for every second spent writing them
+	 */
+	public double getImportRowsPerSecond() {
+		
+		if (importNanos == 0)
+			return 0;
+		return (importedParts+importedColors) * 1e9 / importNanos;
+	}
+	
+	
+	
+	/**
+	 * @return all values with flat names, like "ldd2bl.hits" or "fts.p99"
+	 */
+	public Map<String,Long> toMap() {
+		
+		LinkedHashMap<String,Long> m = new LinkedHashMap<String,Long>();
+		for (MapDirection d : MapDirection.values()) {
+			String n = d.flagColumn();
+			m.put(n+".hits", getHits(d));
+			m.put(n+".misses", getMisses(d));
+			m.put(n+".duplicates", getDuplicates(d));
+			m.put(n+".errors", getErrors(d));
+			m.put(n+".filtered", getFiltered(d));
+			m.put(n+".filterFalsePositives", getFilterFalsePositives(d));
+			// rate as parts per million, values are longs
+			m.put(n+".filterFppm", Math.round(getFilterFalsePositiveRate(d)*1e6));
+			put(m, n, getTranslationLatency(d));
+		}
+		m.put("color.hits", colorHits);
+		m.put("color.misses", colorMisses);
+		put(m, "fts", fts);
+		put(m, "search", search);
+		put(m, "update", updates);
+		m.put("update.commits", commits);
+		m.put("update.aborts", aborts);
+		m.put("import.parts", importedParts);
+		m.put("import.colors", importedColors);
+		m.put("import.rowsPerSecond", (long) getImportRowsPerSecond());
+		return Collections.unmodifiableMap(m);
+	}
+	
+	
+	
+	private static void put(Map<String,Long> m, String name, Latency l) {
+		
+		m.put(name+".count", l.getCount());
+		m.put(name+".mean", l.getMean());
+		m.put(name+".p50", l.getP50());
+		m.put(name+".p90", l.getP90());
+		m.put(name+".p99", l.getP99());
+		m.put(name+".max", l.getMax());
+	}
+
+}
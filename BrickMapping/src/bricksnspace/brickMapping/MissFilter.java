@@ -0,0 +1,199 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Bloom filter of translation keys, one for every direction, to answer 
+ * misses without a query.
+ * 
+ * A negative answer is exact: there is no rule for key. A positive 
+ * answer can be wrong with probability about 1% while filter holds no 
+ * more keys than it was sized for. 
+ * 
+ * Keys can only be added: an updated mapping adds its new keys, old 
+ * ones stay and only raise false positives. When keys added after 
+ * build exceed its size by half, filter reports it is
+ * stale and must be rebuilt.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class MissFilter {
+	
+	// 10 bits for every key and 7 hashes gives about 0.8% false positives
+	private static final int BITS_PER_KEY = 10;
+	private static final int HASHES = 7;
+	private static final int MIN_BITS = 1024;
+	
+	private final AtomicLongArray[] bits;
+	private final int[] mask;
+	private final int[] capacity;
+	private final AtomicInteger[] keys;
+	
+	
+	
+	private MissFilter(int[] counts) {
+		
+		int n = counts.length;
+		bits = new AtomicLongArray[n];
+		mask = new int[n];
+		capacity = new int[n];
+		keys = new AtomicInteger[n];
+		for (int i = 0; i < n; i++) {
+			// power of two, so bit index is a mask of hash
+			int m = MIN_BITS;
+			while (m < counts[i]*BITS_PER_KEY && m < (1 << 30))
+				m <<= 1;
+			bits[i] = new AtomicLongArray(m >>> 6);
+			mask[i] = m - 1;
+			capacity[i] = Math.max(counts[i], m / BITS_PER_KEY);
+			keys[i] = new AtomicInteger();
+		}
+	}
+	
+	
+	
+	/**
+	 * Builds filter sized for rules in mappings
+	 * @param pml mappings, usually whole table
+	 * @return a new filter
+	 */
+	static MissFilter build(Collection<PartMapping> pml) {
+		
+		int[] counts = new int[MapDirection.values().length];
+		for (PartMapping pm : pml) {
+			for (MapDirection d : MapDirection.values()) {
+				if (d.isSet(pm) && d.lookupKey(pm) != null)
+					counts[d.ordinal()]++;
+			}
+		}
+		MissFilter f = new MissFilter(counts);
+		for (PartMapping pm : pml) {
+			f.add(pm);
+		}
+		return f;
+	}
+	
+	
+	
+	/**
+	 * Adds keys of rules in a mapping. Safe with concurrent readers
+	 * @param pm inserted or updated mapping
+	 */
+	void add(PartMapping pm) {
+		
+		for (MapDirection d : MapDirection.values()) {
+			if (!d.isSet(pm))
+				continue;
+			String key = d.lookupKey(pm);
+			if (key == null)
+				continue;
+			int i = d.ordinal();
+			int h1 = key.hashCode();
+			int h2 = mix(h1);
+			for (int k = 0; k < HASHES; k++) {
+				int b = (h1 + k*h2) & mask[i];
+				long bit = 1L << b;
+				long w;
+				do {
+					w = bits[i].get(b >>> 6);
+					if ((w & bit) != 0)
+						break;
+				} while (!bits[i].compareAndSet(b >>> 6, w, w | bit));
+			}
+			keys[i].incrementAndGet();
+		}
+	}
+	
+	
+	
+	/**
+	 * @param d translation direction
+	 * @param key lookup key (see {@link MapDirection#lookupKey(PartMapping)})
+	 * @return false if there is surely no rule for key
+	 */
+	boolean mightContain(MapDirection d, String key) {
+		
+		if (key == null)
+			return false;
+		int i = d.ordinal();
+		int h1 = key.hashCode();
+		int h2 = mix(h1);
+		for (int k = 0; k < HASHES; k++) {
+			int b = (h1 + k*h2) & mask[i];
+			if ((bits[i].get(b >>> 6) & (1L << b)) == 0)
+				return false;
+		}
+		return true;
+	}
+	
+	
+	
+	/**
+	 * @return true if too many keys were added after build
+	 */
+	boolean isStale() {
+		
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i].get() > capacity[i] + capacity[i]/2)
+				return true;
+		}
+		return false;
+	}
+	
+	
+	
+	/**
+	 * Expected false positive rate with current number of keys
+	 * @param d translation direction
+	 * @return probability that an absent key passes filter
+	 */
+	double expectedFpp(MapDirection d) {
+		
+		int i = d.ordinal();
+		double m = mask[i] + 1.0;
+		return Math.pow(1 - Math.exp(-HASHES * keys[i].get() / m), HASHES);
+	}
+	
+	
+	
+	/**
+	 * Second hash for double hashing, from murmur3 finalizer. 
+	 * Always odd, so probes don't repeat
+	 */
+	private static int mix(int h) {
+		
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h | 1;
+	}
+
+}
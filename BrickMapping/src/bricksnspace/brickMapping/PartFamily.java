@@ -0,0 +1,254 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Members of a masterid family (prints, molds and decorations of a part), 
+ * ordered by mapid.
+ * 
+ * Members are stored as parallel arrays of mapids and IDs. A family is 
+ * immutable: a change produces a new family.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class PartFamily {
+	
+	private final String masterid;
+	private final int[] mapid;
+	private final String[][] ids;	// designid, decorid, blid, ldrawid for every member
+	
+	private static final int DESIGNID = 0;
+	private static final int DECORID = 1;
+	private static final int BLID = 2;
+	private static final int LDRAWID = 3;
+	
+	
+	
+	private PartFamily(String masterid, int[] mapid, String[][] ids) {
+		
+		this.masterid = masterid;
+		this.mapid = mapid;
+		this.ids = ids;
+	}
+	
+	
+	
+	/**
+	 * @param masterid family ID
+	 * @return a family without members
+	 */
+	static PartFamily empty(String masterid) {
+		return new PartFamily(masterid, new int[0], new String[0][]);
+	}
+	
+	
+	
+	/**
+	 * Builds a family in a single pass
+	 * @param masterid family ID
+	 * @param members family members, in any order. If a mapid is repeated 
+	 * last one is used
+	 * @return a new family
+	 */
+	static PartFamily of(String masterid, List<PartMapping> members) {
+		
+		PartMapping[] pms = members.toArray(new PartMapping[members.size()]);
+		// stable sort: among same mapids, last one stays last
+		Arrays.sort(pms, new Comparator<PartMapping>() {
+			@Override
+			public int compare(PartMapping a, PartMapping b) {
+				return Integer.compare(a.getMapid(), b.getMapid());
+			}
+		});
+		int n = 0;
+		for (int i = 0; i < pms.length; i++) {
+			if (i+1 < pms.length && pms[i+1].getMapid() == pms[i].getMapid())
+				continue;
+			pms[n++] = pms[i];
+		}
+		int[] nm = new int[n];
+		String[][] ni = new String[n][];
+		for (int i = 0; i < n; i++) {
+			PartMapping pm = pms[i];
+			nm[i] = pm.getMapid();
+			ni[i] = new String[] {pm.getDesignid(), pm.getDecorid(), pm.getBlid(), pm.getLdrawid()};
+		}
+		return new PartFamily(masterid, nm, ni);
+	}
+	
+	
+	
+	/**
+	 * @param pm member to add or replace (by mapid)
+	 * @return a new family
+	 */
+	PartFamily with(PartMapping pm) {
+		
+		String[] row = new String[] {pm.getDesignid(), pm.getDecorid(), pm.getBlid(), pm.getLdrawid()};
+		int p = Arrays.binarySearch(mapid, pm.getMapid());
+		if (p >= 0) {
+			String[][] ni = ids.clone();
+			ni[p] = row;
+			return new PartFamily(masterid, mapid, ni);
+		}
+		p = -p-1;
+		int[] nm = new int[mapid.length+1];
+		String[][] ni = new String[mapid.length+1][];
+		System.arraycopy(mapid, 0, nm, 0, p);
+		System.arraycopy(ids, 0, ni, 0, p);
+		nm[p] = pm.getMapid();
+		ni[p] = row;
+		System.arraycopy(mapid, p, nm, p+1, mapid.length-p);
+		System.arraycopy(ids, p, ni, p+1, mapid.length-p);
+		return new PartFamily(masterid, nm, ni);
+	}
+	
+	
+	
+	/**
+	 * @param id mapid of member to remove
+	 * @return a new family, or this if mapping isn't a member
+	 */
+	PartFamily without(int id) {
+		
+		int p = Arrays.binarySearch(mapid, id);
+		if (p < 0)
+			return this;
+		int[] nm = new int[mapid.length-1];
+		String[][] ni = new String[mapid.length-1][];
+		System.arraycopy(mapid, 0, nm, 0, p);
+		System.arraycopy(ids, 0, ni, 0, p);
+		System.arraycopy(mapid, p+1, nm, p, nm.length-p);
+		System.arraycopy(ids, p+1, ni, p, nm.length-p);
+		return new PartFamily(masterid, nm, ni);
+	}
+	
+	
+	
+	/**
+	 * @return family ID
+	 */
+	public String getMasterid() {
+		return masterid;
+	}
+	
+	
+	
+	/**
+	 * @return number of members
+	 */
+	public int size() {
+		return mapid.length;
+	}
+	
+	
+	
+	/**
+	 * @return true if family has no members
+	 */
+	public boolean isEmpty() {
+		return mapid.length == 0;
+	}
+	
+	
+	
+	/**
+	 * @return mapids of members, ordered
+	 */
+	public int[] getMapids() {
+		return mapid.clone();
+	}
+	
+	
+	
+	/**
+	 * @param i member index, 0 to size()-1
+	 * @return mapid of member
+	 */
+	public int getMapid(int i) {
+		return mapid[i];
+	}
+	
+	
+	
+	/**
+	 * @param i member index, 0 to size()-1
+	 * @return LDD design ID of member
+	 */
+	public String getDesignid(int i) {
+		return ids[i][DESIGNID];
+	}
+	
+	
+	
+	/**
+	 * @param i member index, 0 to size()-1
+	 * @return LDD decoration ID of member
+	 */
+	public String getDecorid(int i) {
+		return ids[i][DECORID];
+	}
+	
+	
+	
+	/**
+	 * @param i member index, 0 to size()-1
+	 * @return BrickLink ID of member
+	 */
+	public String getBlid(int i) {
+		return ids[i][BLID];
+	}
+	
+	
+	
+	/**
+	 * @param i member index, 0 to size()-1
+	 * @return LDraw ID of member
+	 */
+	public String getLdrawid(int i) {
+		return ids[i][LDRAWID];
+	}
+	
+	
+	
+	@Override
+	public String toString() {
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(masterid).append(" [");
+		for (int i = 0; i < mapid.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(mapid[i]).append('-').append(getDesignid(i)).append('|')
+				.append(getBlid(i)).append('|').append(getLdrawid(i));
+		}
+		return sb.append(']').toString();
+	}
+
+}
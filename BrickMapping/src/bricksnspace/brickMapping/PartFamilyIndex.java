@@ -0,0 +1,150 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Masterid family index: every masterid with its members.
+ * 
+ * Index is immutable, a change produces a new index sharing all 
+ * families not involved in change: maps are {@link PersistentHashMap}, 
+ * so a change costs O(log n) plus size of changed family.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class PartFamilyIndex {
+	
+	private final PersistentHashMap<String,PartFamily> families;
+	private final PersistentHashMap<Integer,String> rows;		// mapid -> masterid
+	
+	
+	
+	private PartFamilyIndex(PersistentHashMap<String,PartFamily> families, 
+			PersistentHashMap<Integer,String> rows) {
+		
+		this.families = families;
+		this.rows = rows;
+	}
+	
+	
+	
+	/**
+	 * Builds index, grouping members first so every family is built once
+	 * @param pml mappings to index, usually whole table
+	 * @return a new index
+	 */
+	static PartFamilyIndex build(Collection<PartMapping> pml) {
+		
+		HashMap<String,ArrayList<PartMapping>> groups = new HashMap<String,ArrayList<PartMapping>>();
+		PersistentHashMap.Builder<Integer,String> rows = PersistentHashMap.<Integer,String>empty().builder();
+		for (PartMapping pm : pml) {
+			String m = pm.getMasterid();
+			if (m == null || m.length() == 0)
+				continue;
+			ArrayList<PartMapping> g = groups.get(m);
+			if (g == null) {
+				g = new ArrayList<PartMapping>(4);
+				groups.put(m, g);
+			}
+			g.add(pm);
+			rows.put(pm.getMapid(), m);
+		}
+		PersistentHashMap.Builder<String,PartFamily> families = 
+				PersistentHashMap.<String,PartFamily>empty().builder();
+		for (Map.Entry<String,ArrayList<PartMapping>> e : groups.entrySet()) {
+			families.put(e.getKey(), PartFamily.of(e.getKey(), e.getValue()));
+		}
+		return new PartFamilyIndex(families.build(), rows.build());
+	}
+	
+	
+	
+	/**
+	 * Returns a new index with a mapping added or replaced (by mapid)
+	 * @param pm inserted or updated mapping
+	 * @return a new index, current index is unchanged
+	 */
+	PartFamilyIndex with(PartMapping pm) {
+		
+		PersistentHashMap<String,PartFamily> f = families;
+		PersistentHashMap<Integer,String> r = rows;
+		String old = r.get(pm.getMapid());
+		if (old != null) {
+			PartFamily of = f.get(old).without(pm.getMapid());
+			f = of.isEmpty() ? f.without(old) : f.with(old, of);
+			r = r.without(pm.getMapid());
+		}
+		String m = pm.getMasterid();
+		if (m != null && m.length() > 0) {
+			PartFamily nf = f.get(m);
+			f = f.with(m, (nf == null ? PartFamily.empty(m) : nf).with(pm));
+			r = r.with(pm.getMapid(), m);
+		}
+		return new PartFamilyIndex(f, r);
+	}
+	
+	
+	
+	/**
+	 * @param masterid family ID
+	 * @return family, empty if there is no mapping with masterid
+	 */
+	PartFamily get(String masterid) {
+		
+		PartFamily f = families.get(masterid);
+		return f == null ? PartFamily.empty(masterid) : f;
+	}
+	
+	
+	
+	/**
+	 * @param masterids family IDs
+	 * @return families in same order of masterids, duplicates removed
+	 */
+	Map<String,PartFamily> get(Collection<String> masterids) {
+		
+		LinkedHashMap<String,PartFamily> m = new LinkedHashMap<String,PartFamily>(masterids.size()*2);
+		for (String id : masterids) {
+			if (!m.containsKey(id))
+				m.put(id, get(id));
+		}
+		return m;
+	}
+	
+	
+	
+	/**
+	 * @return number of families
+	 */
+	int size() {
+		return families.size();
+	}
+
+}
@@ -0,0 +1,272 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeMap;
+
+
+/**
+ * Prefix lookup (autocomplete) over part IDs: LDD design ID, 
+ * BrickLink ID and LDraw ID.
+ * 
+ * Every column is a sorted array of distinct IDs, searched with binary 
+ * search, and a persistent map of number of mappings using every ID. 
+ * Index is immutable, a change produces a new index sharing unchanged 
+ * data: new IDs go in a small sorted array, IDs no more used stay in 
+ * column until they are many enough to justify a merge.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class PartIdCompleter {
+	
+	static final int DESIGNID = 0;
+	static final int BLID = 1;
+	static final int LDRAWID = 2;
+	private static final int MAXCHANGES = 256;		// added and unused IDs kept before a merge
+	
+	private final String[][] ids;		// sorted distinct IDs for every column, some unused
+	private final String[][] added;		// sorted IDs added after last merge, not in ids
+	private final int[] unused;			// IDs in ids no more used, for every column
+	private final ArrayList<PersistentHashMap<String,Integer>> refs;	// ID -> number of mappings using it
+	private final PersistentHashMap<Integer,String[]> rows;	// mapid -> IDs in mapping
+	
+	
+	
+	private PartIdCompleter(String[][] ids, String[][] added, int[] unused, 
+			ArrayList<PersistentHashMap<String,Integer>> refs, PersistentHashMap<Integer,String[]> rows) {
+		
+		this.ids = ids;
+		this.added = added;
+		this.unused = unused;
+		this.refs = refs;
+		this.rows = rows;
+	}
+	
+	
+	
+	private static String[] idsOf(PartMapping pm) {
+		
+		return new String[] {pm.getDesignid(), pm.getBlid(), pm.getLdrawid()};
+	}
+	
+	
+	
+	/**
+	 * Builds index
+	 * @param pml mappings to index, usually whole table
+	 * @return a new index
+	 */
+	static PartIdCompleter build(Collection<PartMapping> pml) {
+		
+		PersistentHashMap.Builder<Integer,String[]> rows = PersistentHashMap.<Integer,String[]>empty().builder();
+		ArrayList<TreeMap<String,Integer>> cols = new ArrayList<TreeMap<String,Integer>>(3);
+		for (int c = 0; c < 3; c++) {
+			cols.add(new TreeMap<String,Integer>());
+		}
+		for (PartMapping pm : pml) {
+			String[] r = idsOf(pm);
+			String[] old = rows.get(pm.getMapid());
+			rows.put(pm.getMapid(), r);
+			for (int c = 0; c < 3; c++) {
+				if (old != null && used(old[c])) {
+					int n = cols.get(c).get(old[c]);
+					if (n > 1)
+						cols.get(c).put(old[c], n-1);
+					else
+						cols.get(c).remove(old[c]);
+				}
+				if (!used(r[c]))
+					continue;
+				Integer n = cols.get(c).get(r[c]);
+				cols.get(c).put(r[c], n == null ? 1 : n+1);
+			}
+		}
+		String[][] ids = new String[3][];
+		ArrayList<PersistentHashMap<String,Integer>> refs = new ArrayList<PersistentHashMap<String,Integer>>(3);
+		for (int c = 0; c < 3; c++) {
+			TreeMap<String,Integer> col = cols.get(c);
+			ids[c] = col.keySet().toArray(new String[col.size()]);
+			PersistentHashMap.Builder<String,Integer> b = PersistentHashMap.<String,Integer>empty().builder();
+			for (String id : ids[c]) {
+				b.put(id, col.get(id));
+			}
+			refs.add(b.build());
+		}
+		return new PartIdCompleter(ids, new String[][] {new String[0], new String[0], new String[0]}, 
+				new int[3], refs, rows.build());
+	}
+	
+	
+	
+	/**
+	 * @return true if ID is indexed (not null or empty)
+	 */
+	private static boolean used(String id) {
+		return id != null && id.length() > 0;
+	}
+	
+	
+	
+	/**
+	 * Returns a new index with a mapping added or replaced (by mapid)
+	 * @param pm inserted or updated mapping
+	 * @return a new index, current index is unchanged
+	 */
+	PartIdCompleter with(PartMapping pm) {
+		
+		String[][] ni = ids.clone();
+		String[][] na = added.clone();
+		int[] nu = unused.clone();
+		ArrayList<PersistentHashMap<String,Integer>> nr = new ArrayList<PersistentHashMap<String,Integer>>(refs);
+		String[] old = rows.get(pm.getMapid());
+		String[] cur = idsOf(pm);
+		for (int c = 0; c < 3; c++) {
+			if (old != null && old[c] != null && old[c].equals(cur[c]))
+				continue;
+			PersistentHashMap<String,Integer> r = nr.get(c);
+			if (old != null && used(old[c])) {
+				int n = r.get(old[c]);
+				if (n > 1) {
+					r = r.with(old[c], n-1);
+				}
+				else {
+					// last mapping using this ID
+					r = r.without(old[c]);
+					int p = Arrays.binarySearch(na[c], old[c]);
+					if (p >= 0)
+						na[c] = removeAt(na[c], p);
+					else
+						nu[c]++;
+				}
+			}
+			if (used(cur[c])) {
+				Integer n = r.get(cur[c]);
+				r = r.with(cur[c], n == null ? 1 : n+1);
+				if (n == null) {
+					if (Arrays.binarySearch(ni[c], cur[c]) >= 0) {
+						// unused ID still in column
+						nu[c]--;
+					}
+					else {
+						int p = -Arrays.binarySearch(na[c], cur[c]) - 1;
+						String[] s = new String[na[c].length+1];
+						System.arraycopy(na[c], 0, s, 0, p);
+						s[p] = cur[c];
+						System.arraycopy(na[c], p, s, p+1, na[c].length-p);
+						na[c] = s;
+					}
+				}
+			}
+			nr.set(c, r);
+			if (na[c].length + nu[c] > MAXCHANGES) {
+				ni[c] = merge(ni[c], na[c], r);
+				na[c] = new String[0];
+				nu[c] = 0;
+			}
+		}
+		return new PartIdCompleter(ni, na, nu, nr, rows.with(pm.getMapid(), cur));
+	}
+	
+	
+	
+	/**
+	 * Merges sorted column and added IDs, dropping unused IDs
+	 * @return a new sorted column
+	 */
+	private static String[] merge(String[] col, String[] add, PersistentHashMap<String,Integer> r) {
+		
+		String[] m = new String[r.size()];
+		int i = 0, j = 0, n = 0;
+		while (i < col.length || j < add.length) {
+			String id;
+			if (j >= add.length || (i < col.length && col[i].compareTo(add[j]) < 0))
+				id = col[i++];
+			else
+				id = add[j++];
+			if (r.containsKey(id))
+				m[n++] = id;
+		}
+		return m;
+	}
+	
+	
+	
+	private static String[] removeAt(String[] a, int p) {
+		
+		String[] n = new String[a.length-1];
+		System.arraycopy(a, 0, n, 0, p);
+		System.arraycopy(a, p+1, n, p, a.length-p-1);
+		return n;
+	}
+	
+	
+	
+	/**
+	 * IDs starting with prefix, in ID order
+	 * @param column one of DESIGNID, BLID, LDRAWID
+	 * @param prefix start of ID (case sensitive)
+	 * @param limit max number of IDs returned
+	 * @return matching IDs
+	 */
+	ArrayList<String> complete(int column, String prefix, int limit) {
+		
+		String[] col = ids[column];
+		String[] add = added[column];
+		PersistentHashMap<String,Integer> r = refs.get(column);
+		ArrayList<String> res = new ArrayList<String>(Math.min(Math.max(limit, 0), 64));
+		if (prefix == null)
+			return res;
+		int i = start(col, prefix);
+		int j = start(add, prefix);
+		// merge column and added IDs, skipping unused
+		while (res.size() < limit) {
+			boolean more = i < col.length && col[i].startsWith(prefix);
+			boolean moreAdded = j < add.length && add[j].startsWith(prefix);
+			if (!more && !moreAdded)
+				break;
+			String id;
+			if (!moreAdded || (more && col[i].compareTo(add[j]) < 0))
+				id = col[i++];
+			else
+				id = add[j++];
+			if (unused[column] == 0 || r.containsKey(id))
+				res.add(id);
+		}
+		return res;
+	}
+	
+	
+	
+	/**
+	 * @return position of first ID not before prefix
+	 */
+	private static int start(String[] col, String prefix) {
+		
+		int p = Arrays.binarySearch(col, prefix);
+		return p < 0 ? -p - 1 : p;
+	}
+
+}
@@ -29,6 +29,11 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,8 +68,40 @@ public class PartMapping {
 	public final static String fieldsOrder = "masterid,designid,blid,ldrawid,name,ldd2bl,bl2ldd,ldd2dat,dat2ldd,bl2dat,dat2bl,decorid,lastmod";
 	public final static String table = "partmapping";
 	public final static String FTSfields = "name,masterid,designid,blid,ldrawid,decorid";
-	private static PreparedStatement updatePS = null;
-	private static PreparedStatement insertPS = null;
+	/** 
+	 * Result of translations ruled out by miss filter (see 
+	 * {@link #setMissFilter(boolean)}), shared and read only: setters 
+	 * throw UnsupportedOperationException, use clone() for a mutable copy. 
+	 * Other translations without a rule return a new empty mapping.
+	 */
+	public final static PartMapping EMPTY = new Empty();
+	static final String insertSQL = "INSERT INTO "+table +
+			" ("+fieldsOrder+") " +
+			"VALUES (?,?,?,?,?,?,?,?,?,?,?,?,NOW())";
+	static final String updateSQL = "UPDATE "+table+" SET " +
+			"masterid=?," +
+			"designid=?," +
+			"blid=?," +
+			"ldrawid=?," +
+			"name=?," +
+			"ldd2bl=?," +
+			"bl2ldd=?," +
+			"ldd2dat=?," +
+			"dat2ldd=?," +
+			"bl2dat=?," +
+			"dat2bl=?," +
+			"decorid=?," +
+			"lastmod=NOW() " +
+			"WHERE mapid=?";
+	private static volatile PartSearchIndex search = null;	// in-memory text search index, built on first use
+	private static volatile PartIdCompleter completer = null;	// ID prefix lookup, built on first use
+	private static volatile TranslationGraph graph = null;	// direct and indirect translations, built on first use
+	private static volatile PartFamilyIndex families = null;	// masterid families, built on first use
+	private static volatile MissFilter missFilter = null;	// keys with a rule, database translations only
+	private static volatile boolean missFilterEnabled = false;
+	private static volatile boolean updating = false;	// inside a prepareUpdate/endUpdate transaction
+	private static boolean ftsIncremental = false;	// full text index is kept during update
+	private static long updateStart = 0;	// update transaction start, for metrics
 
     
 	
@@ -186,37 +223,143 @@ public class PartMapping {
      */
 	protected static void init() throws SQLException {
 
-		Statement st = BrickMapping.db.createStatement();
-		st.executeUpdate("CREATE INDEX IF NOT EXISTS pm_mapid ON "+table+"(mapid)");
-		st.executeUpdate("CREATE INDEX IF NOT EXISTS pm_lddid ON "+table+"(designid)");
-		st.executeUpdate("CREATE INDEX IF NOT EXISTS pm_masterid ON "+table+"(masterid)");
-		st.executeUpdate("CREATE INDEX IF NOT EXISTS pm_blid ON "+table+"(blid)");
-		st.executeUpdate("CREATE INDEX IF NOT EXISTS pm_ldrawid ON "+table+"(ldrawid)");
+		try (Statement st = BrickMapping.statement()) {
+			// schema v2: a design ID is shared by all its decorations, 
+			// translations and check() look for both. Other IDs are almost 
+			// unique, indexes with flags too are slower (see SchemaBench)
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS pm_lddecor ON "+table+"(designid,decorid)");
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS pm_masterid ON "+table+"(masterid)");
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS pm_blid ON "+table+"(blid)");
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS pm_ldrawid ON "+table+"(ldrawid)");
+			// schema v2: getNew() and getModifiedAfter()
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS pm_lastmod ON "+table+"(lastmod)");
+		}
 		if (!BrickMapping.db.checkFTS(table,FTSfields)) {
 			BrickMapping.db.createFTS(table, FTSfields);
 			Logger.getGlobal().log(Level.INFO, "Create Full Text index");
 		}
-		insertPS = BrickMapping.db.prepareStatement("INSERT INTO "+table +
-				" ("+fieldsOrder+") " +
-				"VALUES (?,?,?,?,?,?,?,?,?,?,?,?,NOW())",Statement.RETURN_GENERATED_KEYS);
-		updatePS = BrickMapping.db.prepareStatement("UPDATE "+table+" SET " +
-				"masterid=?," +
-				"designid=?," +
-				"blid=?," +
-				"ldrawid=?," +
-				"name=?," +
-				"ldd2bl=?," +
-				"bl2ldd=?," +
-				"ldd2dat=?," +
-				"dat2ldd=?," +
-				"bl2dat=?," +
-				"dat2bl=?," +
-				"decorid=?," +
-				"lastmod=NOW() " +
-				"WHERE mapid=?");
 //		selectPS  = BrickMapping.db.prepareStatement(
 //				"SELECT mapid," + fieldsOrder +
 //				" FROM "+table);
+		BrickMapping.publishParts(null);
+		dropIndexes();
+	}
+	
+	
+	
+	/**
+	 * Drops search, autocomplete, translation graph and family indexes, rebuilt on next use
+	 */
+	static synchronized void dropIndexes() {
+		
+		search = null;
+		completer = null;
+		graph = null;
+		families = null;
+		missFilter = null;
+	}
+	
+	
+	
+	/**
+	 * @return all mappings, from catalog file in read-only mode
+	 * @throws SQLException
+	 */
+	static List<PartMapping> getAll() throws SQLException {
+		
+		CatalogFile f = BrickMapping.current().file;
+		if (f != null)
+			return f.getParts();
+		return get(null);
+	}
+	
+	
+	
+	/**
+	 * Loads whole mapping table in an in-memory translation index.
+	 * All translation methods (lddToBlink, blinkToLdd...) will use index 
+	 * instead of querying database 
+	 * @throws SQLException
+	 */
+	protected static synchronized void buildIndex() throws SQLException {
+		
+		PartMappingIndex index = PartMappingIndex.build(get(null));
+		BrickMapping.publishParts(index);
+		Logger.getGlobal().log(Level.INFO, "Part mapping index: "+index.size()+" mappings");
+	}
+	
+	
+	
+	/**
+	 * Rebuilds in-memory indexes in use after a change to many rows.
+	 * Inside an update transaction indexes are rebuilt on commit/rollback
+	 * @throws SQLException
+	 */
+	static synchronized void refreshIndex() throws SQLException {
+		
+		PartMappingIndex index = BrickMapping.current().parts;
+		if (updating || (index == null && search == null && completer == null && graph == null && families == null 
+				&& missFilter == null))
+			return;
+		ArrayList<PartMapping> all = get(null);
+		if (index != null)
+			BrickMapping.publishParts(PartMappingIndex.build(all));
+		if (search != null)
+			search = PartSearchIndex.build(all);
+		if (completer != null)
+			completer = PartIdCompleter.build(all);
+		if (graph != null)
+			graph = TranslationGraph.build(all);
+		if (families != null)
+			families = PartFamilyIndex.build(all);
+		if (missFilter != null)
+			missFilter = MissFilter.build(all);
+	}
+	
+	
+	
+	/**
+	 * @return true if inside a prepareUpdate()/endUpdate() transaction
+	 */
+	static boolean isUpdating() {
+		return updating;
+	}
+	
+	
+	
+	/**
+	 * @return true if translations are served from in-memory index
+	 */
+	public static boolean isIndexed() {
+		return BrickMapping.current().parts != null;
+	}
+	
+	
+	
+	/**
+	 * Keeps in-memory index aligned with a changed mapping. 
+	 * Inside an update transaction index is rebuilt on commit/rollback 
+	 * @param pm inserted or updated mapping
+	 */
+	private static synchronized void indexChanged(PartMapping pm) {
+		
+		if (updating)
+			return;
+		PartMappingIndex index = BrickMapping.current().parts;
+		if (index != null)
+			BrickMapping.publishParts(index.with(pm));
+		if (search != null)
+			search = search.with(pm);
+		if (completer != null)
+			completer = completer.with(pm);
+		if (graph != null)
+			graph = graph.with(pm);
+		if (families != null)
+			families = families.with(pm);
+		// filter only grows, it is changed in place
+		MissFilter f = missFilter;
+		if (f != null)
+			f.add(pm);
 	}
 	
 	
@@ -224,35 +367,68 @@ public class PartMapping {
 	
 	protected static void createTable() throws SQLException {
 		
-		Statement st;
+		try (Statement st = BrickMapping.statement()) {
+			st.execute("DROP TABLE IF EXISTS "+table+"; " +
+					"CREATE TABLE IF NOT EXISTS "+table+" (" +
+					"mapid INT PRIMARY KEY AUTO_INCREMENT, " +
+					"masterid VARCHAR(64)," +
+					"designid VARCHAR(64)," +
+					"decorid VARCHAR(64)," +
+					"blid VARCHAR(64)," +
+					"ldrawid VARCHAR(64)," +
+					"name VARCHAR(255)," +
+					"ldd2bl BOOL," +
+					"bl2ldd BOOL," +
+					"ldd2dat BOOL," +
+					"dat2ldd BOOL," +
+					"bl2dat BOOL," +
+					"dat2bl BOOL," +
+					"lastmod TIMESTAMP); COMMIT ");
+		}
+	}
+	
+	
+	/**
+	 * Prepare for update. Uses transaction to handle update failures.
+	 * Full text index is dropped and rebuilt at end of update
+	 * @throws SQLException
+	 */
+	public void prepareUpdate() throws SQLException {
 		
-		st = BrickMapping.db.createStatement();
-		st.execute("DROP TABLE IF EXISTS "+table+"; " +
-				"CREATE TABLE IF NOT EXISTS "+table+" (" +
-				"mapid INT PRIMARY KEY AUTO_INCREMENT, " +
-				"masterid VARCHAR(64)," +
-				"designid VARCHAR(64)," +
-				"decorid VARCHAR(64)," +
-				"blid VARCHAR(64)," +
-				"ldrawid VARCHAR(64)," +
-				"name VARCHAR(255)," +
-				"ldd2bl BOOL," +
-				"bl2ldd BOOL," +
-				"ldd2dat BOOL," +
-				"dat2ldd BOOL," +
-				"bl2dat BOOL," +
-				"dat2bl BOOL," +
-				"lastmod TIMESTAMP); COMMIT ");
+		prepareUpdate(false);
 	}
 	
 	
+	
 	/**
 	 * Prepare for update. Uses transaction to handle update failures
+	 * @param incremental if true full text index isn't dropped: database 
+	 * full text triggers updates index only for inserted/updated rows and 
+	 * getFTS() keeps working during update. Use it for small updates, a full 
+	 * catalog import is faster with a rebuild.
+	 * Other threads can't write until endUpdate() or abortUpdate(), that 
+	 * must be called by same thread.
 	 * @throws SQLException
 	 */
-	public void prepareUpdate() throws SQLException {
+	public void prepareUpdate(boolean incremental) throws SQLException {
 		
-		BrickMapping.db.deleteFTS(table);
+		// write lock is held until endUpdate() or abortUpdate()
+		BrickMapping.lockWrite();
+		try {
+			ftsIncremental = incremental;
+			if (incremental) {
+				if (!BrickMapping.db.checkFTS(table,FTSfields)) {
+					BrickMapping.db.createFTS(table, FTSfields);
+				}
+			}
+			else {
+				BrickMapping.db.deleteFTS(table);
+			}
+			ChangeLog.updateStarting();
+		} catch (SQLException e) {
+			BrickMapping.unlockWrite();
+			throw e;
+		}
 //		insertPS = BrickMapping.db.prepareStatement("INSERT INTO "+table +
 //				" ("+fieldsOrder+") " +
 //				"VALUES (?,?,?,?,?,?,?,?,?,?,?,?,NOW())",Statement.RETURN_GENERATED_KEYS);
@@ -273,6 +449,12 @@ public class PartMapping {
 //				"WHERE mapid=?");
 		// NOTE! drop "something" commits an open transaction
 		BrickMapping.db.autocommitDisable();
+		updating = true;
+		updateStart = Metrics.start();
+		// rows written in transaction aren't in filter, rebuilt on next use
+		synchronized (PartMapping.class) {
+			missFilter = null;
+		}
 	}
 	
 	
@@ -283,26 +465,49 @@ public class PartMapping {
 	 */
 	public void endUpdate() throws SQLException {
 		
-		BrickMapping.db.commit();
-		BrickMapping.db.autocommitEnable();
-		BrickMapping.db.createFTS(table, FTSfields);
-//		insertPS.close();
-//		updatePS.close();
+		try {
+			BrickMapping.db.commit();
+			BrickMapping.db.autocommitEnable();
+			updating = false;
+			if (!ftsIncremental)
+				BrickMapping.db.createFTS(table, FTSfields);
+			refreshIndex();
+			BrickColor.refresh();
+//			insertPS.close();
+//			updatePS.close();
+			Metrics.update(updateStart, true);
+		} finally {
+			BrickMapping.unlockWrite();
+		}
 	}
 	
 	
 	
 	/**
-	 * Rollback on failed update
+	 * Rollback on failed update. 
+	 * Full text index is always rebuilt
 	 * @throws SQLException
 	 */
 	public void abortUpdate() throws SQLException {
 		
-		BrickMapping.db.rollback();
-		BrickMapping.db.autocommitEnable();
-//		insertPS.close();
-//		updatePS.close();
-		BrickMapping.db.createFTS(table, FTSfields);
+		try {
+			BrickMapping.db.rollback();
+			BrickMapping.db.autocommitEnable();
+			updating = false;
+			refreshIndex();
+			BrickColor.refresh();
+//			insertPS.close();
+//			updatePS.close();
+			if (ftsIncremental) {
+				// full text index isn't transactional, it may contains 
+				// rows discarded by rollback
+				BrickMapping.db.deleteFTS(table);
+			}
+			BrickMapping.db.createFTS(table, FTSfields);
+			Metrics.update(updateStart, false);
+		} finally {
+			BrickMapping.unlockWrite();
+		}
 	}
 	
 	
@@ -317,7 +522,7 @@ public class PartMapping {
 		@SuppressWarnings("unused")
 		Statement st;
 		
-		st = BrickMapping.db.createStatement();
+		st = BrickMapping.statement();
 		// put code here ----v----
 //		st.execute("INSERT INTO "+table + " (mapid) values (5596)");
 		// end code      ----^----
@@ -325,93 +530,119 @@ public class PartMapping {
 	}
 	
 	
+	/**
+	 * Sets parameters for insert query {@link #insertSQL}
+	 * @param ps statement to fill 
+	 * @throws SQLException
+	 */
+	void bindInsert(PreparedStatement ps) throws SQLException {
+		
+		ps.setString(1, getMasterid());
+		ps.setString(2, getDesignid());
+		ps.setString(3, getBlid());
+		ps.setString(4, getLdrawid());
+		ps.setString(5, getName());
+		ps.setBoolean(6, isLdd2bl());
+		ps.setBoolean(7, isBl2ldd());
+		ps.setBoolean(8, isLdd2dat());
+		ps.setBoolean(9, isDat2ldd());
+		ps.setBoolean(10, isBl2dat());
+		ps.setBoolean(11, isDat2bl());
+		ps.setString(12, getDecorid());
+	}
+	
+	
+	
+	/**
+	 * Sets parameters for update query {@link #updateSQL}
+	 * @param ps statement to fill 
+	 * @throws SQLException
+	 */
+	void bindUpdate(PreparedStatement ps) throws SQLException {
+		
+		bindInsert(ps);
+		ps.setInt(13, getMapid());
+	}
+	
+	
 	public int insert() throws SQLException {
 		
-		ResultSet rs;
+		PreparedStatement insertPS = StatementPool.get(insertSQL, true);
 		
-		insertPS.setString(1, getMasterid());
-		insertPS.setString(2, getDesignid());
-		insertPS.setString(3, getBlid());
-		insertPS.setString(4, getLdrawid());
-		insertPS.setString(5, getName());
-		insertPS.setBoolean(6, isLdd2bl());
-		insertPS.setBoolean(7, isBl2ldd());
-		insertPS.setBoolean(8, isLdd2dat());
-		insertPS.setBoolean(9, isDat2ldd());
-		insertPS.setBoolean(10, isBl2dat());
-		insertPS.setBoolean(11, isDat2bl());
-		insertPS.setString(12, getDecorid());
-		
-		insertPS.executeUpdate();
-		rs = insertPS.getGeneratedKeys();
-		rs.next();
-		setMapid(rs.getInt(1));
+		boolean local = BrickMapping.beginWrite();
+		try {
+			bindInsert(insertPS);
+			insertPS.executeUpdate();
+			try (ResultSet rs = insertPS.getGeneratedKeys()) {
+				rs.next();
+				setMapid(rs.getInt(1));
+			}
+			ChangeLog.log(table, getMapid());
+			BrickMapping.commitWrite(local);
+			indexChanged(this);
+		} finally {
+			BrickMapping.endWrite(local);
+		}
 		return getMapid();
 	}
 	
 	
 	public void update() throws SQLException {
 		
-		updatePS.setString(1, getMasterid());
-		updatePS.setString(2, getDesignid());
-		updatePS.setString(3, getBlid());
-		updatePS.setString(4, getLdrawid());
-		updatePS.setString(5, getName());
-		updatePS.setBoolean(6, isLdd2bl());
-		updatePS.setBoolean(7, isBl2ldd());
-		updatePS.setBoolean(8, isLdd2dat());
-		updatePS.setBoolean(9, isDat2ldd());
-		updatePS.setBoolean(10, isBl2dat());
-		updatePS.setBoolean(11, isDat2bl());
-		updatePS.setString(12, getDecorid());
-		updatePS.setInt(13, getMapid());
+		PreparedStatement updatePS = StatementPool.get(updateSQL);
 		
-		updatePS.executeUpdate();
+		boolean local = BrickMapping.beginWrite();
+		try {
+			bindUpdate(updatePS);
+			updatePS.executeUpdate();
+			ChangeLog.log(table, getMapid());
+			BrickMapping.commitWrite(local);
+			indexChanged(this);
+		} finally {
+			BrickMapping.endWrite(local);
+		}
 	}
 	
 	
 	public static ArrayList<PartMapping> get(String filterExpr) throws SQLException {
 		
-		ArrayList<PartMapping> pml = new ArrayList<PartMapping>();
-		PartMapping pm;
 		ResultSet rs;
 		
-		Statement st = BrickMapping.db.createStatement();
-		if (filterExpr == null)
-			rs = st.executeQuery("SELECT mapid,"+fieldsOrder+" FROM "+table);
-		else {
-			rs = st.executeQuery("SELECT " +
-					"mapid," + fieldsOrder + 
-					" FROM "+table+" where "+filterExpr);
-		}
-		while (rs.next()) {
-			// fetch and assign rows to a PartMapping Array list
-			pm = new PartMapping();
-			pm.setMapid(rs.getInt("mapid"));
-			pm.setMasterid(rs.getString("masterid"));
-			pm.setDesignid(rs.getString("designid"));
-			pm.setBlid(rs.getString("blid"));
-			pm.setLdrawid(rs.getString("ldrawid"));
-			pm.setDecorid(rs.getString("decorid"));
-			pm.setName(rs.getString("name"));
-			pm.setLdd2bl(rs.getBoolean("ldd2bl"));
-			pm.setLdd2dat(rs.getBoolean("ldd2dat"));
-			pm.setBl2ldd(rs.getBoolean("bl2ldd"));
-			pm.setBl2dat(rs.getBoolean("bl2dat"));
-			pm.setDat2bl(rs.getBoolean("dat2bl"));
-			pm.setDat2ldd(rs.getBoolean("dat2ldd"));
-			pm.setLastmod(rs.getTimestamp("lastmod"));
-			pml.add(pm);
+		BrickMapping.checkDatabase();
+		try (Statement st = BrickMapping.statement()) {
+			if (filterExpr == null)
+				rs = st.executeQuery("SELECT mapid,"+fieldsOrder+" FROM "+table);
+			else {
+				rs = st.executeQuery("SELECT " +
+						"mapid," + fieldsOrder + 
+						" FROM "+table+" where "+filterExpr);
+			}
+			// closing statement closes result set too
+			return fetch(rs);
 		}
-		return pml;
 	}
 	
 	
 	
+	/**
+	 * Executes a query and reads all mappings. Result set is closed, 
+	 * statement is left open for reuse
+	 * @param ps query to execute
+	 * @return mappings found
+	 * @throws SQLException
+	 */
 	public static ArrayList<PartMapping> getPS(PreparedStatement ps) throws SQLException {
 		
+		try (ResultSet rs = ps.executeQuery()) {
+			return fetch(rs);
+		}
+	}
+	
+	
+	
+	private static ArrayList<PartMapping> fetch(ResultSet rs) throws SQLException {
+		
 		ArrayList<PartMapping> pml = new ArrayList<PartMapping>();
-		ResultSet rs = ps.executeQuery();
 		while (rs.next()) {
 			// fetch and assign rows to a PartMapping Array list
 			PartMapping pm = new PartMapping();
@@ -439,21 +670,32 @@ public class PartMapping {
 	
 	public static ArrayList<PartMapping> getFTS(String filterExpr,String filter) throws SQLException {
 		
-		PreparedStatement ps;
+		String sql;
+		long t = Metrics.start();
+
+		// full text index is only in database
+		BrickMapping.checkDatabase();
+		// full text index may be still in creation after a lazy init
+		BrickMapping.ensureParts();
 
 		//select b.*,f.score from FTL_SEARCH_DATA('words', 0, 0) f left join blparts b on(f.keys[0]=b.id) 
 		//                 where f.table='BLPARTS';
 
 		if (filterExpr != null) {
 			if (filter == null) {
-				ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM FTL_SEARCH_DATA('"+filterExpr+"',0,0) f " +
-						"LEFT JOIN "+table+" b on (f.keys[0]=b.mapid) WHERE f.table='PARTMAPPING'");
+				sql = "SELECT mapid,"+fieldsOrder+" FROM FTL_SEARCH_DATA('"+filterExpr+"',0,0) f " +
+						"LEFT JOIN "+table+" b on (f.keys[0]=b.mapid) WHERE f.table='PARTMAPPING'";
 			}
 			else {
-				ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM FTL_SEARCH_DATA('"+filterExpr+"',0,0) f " +
-						"LEFT JOIN "+table+" b on (f.keys[0]=b.mapid) WHERE f.table='PARTMAPPING' AND "+filter);
+				sql = "SELECT mapid,"+fieldsOrder+" FROM FTL_SEARCH_DATA('"+filterExpr+"',0,0) f " +
+						"LEFT JOIN "+table+" b on (f.keys[0]=b.mapid) WHERE f.table='PARTMAPPING' AND "+filter;
+			}
+			// query text changes for every search, so it isn't pooled
+			try (PreparedStatement ps = BrickMapping.prepare(sql)) {
+				return getPS(ps);
+			} finally {
+				Metrics.fts(t);
 			}
-			return getPS(ps);
 		}
 		return new ArrayList<PartMapping>(1);
 	}
@@ -463,9 +705,168 @@ public class PartMapping {
 
 	
 	
+	/**
+	 * Ranked text search on {@link #FTSfields} with an in-memory index, 
+	 * built from table on first call and kept aligned with changes. 
+	 * All words must match, last word matches as prefix too: a prefix 
+	 * expands to at most 200 terms, most frequent ones if there are more.
+	 * Doesn't use database after first call.
+	 * @param query words to search
+	 * @param limit max number of results 
+	 * @return matching mappings, best match first
+	 * @throws SQLException
+	 */
+	public static ArrayList<PartMapping> search(String query, int limit) throws SQLException {
+		
+		long t = Metrics.start();
+		PartSearchIndex idx = search;
+		if (idx == null) {
+			synchronized (PartMapping.class) {
+				if (search == null)
+					search = PartSearchIndex.build(getAll());
+				idx = search;
+			}
+		}
+		ArrayList<PartMapping> res = idx.search(query, limit);
+		Metrics.search(t);
+		return res;
+	}
+	
+	
+	
+	/**
+	 * Translation with precomputed graph: if there is no rule for direction, 
+	 * ID is translated through intermediate catalog or masterid family 
+	 * (see {@link TranslationGraph}). Graph is built on first use and 
+	 * kept aligned with changes.
+	 * @param d translation direction
+	 * @param id source ID (design ID for LDD)
+	 * @param decorid LDD decoration ID, used only when translating from LDD
+	 * @return path with rules used, empty if ID can't be translated
+	 * @throws SQLException if there is a duplicated rule for ID
+	 */
+	public static TranslationPath resolve(MapDirection d, String id, String decorid) throws SQLException {
+		
+		TranslationGraph g = graph;
+		if (g == null) {
+			synchronized (PartMapping.class) {
+				if (graph == null)
+					graph = TranslationGraph.build(getAll());
+				g = graph;
+			}
+		}
+		String key;
+		if (d == MapDirection.LDD2BL || d == MapDirection.LDD2DAT)
+			key = MapDirection.lddKey(id, decorid);
+		else
+			key = id;
+		return g.path(d, key);
+	}
+	
+	
+	
+	private static PartFamilyIndex families() throws SQLException {
+		
+		PartFamilyIndex idx = families;
+		if (idx == null) {
+			synchronized (PartMapping.class) {
+				if (families == null)
+					families = PartFamilyIndex.build(getAll());
+				idx = families;
+			}
+		}
+		return idx;
+	}
+	
+	
+	
+	/**
+	 * All variants of a part family, from in-memory index built on first 
+	 * use and kept aligned with changes
+	 * @param masterid family ID
+	 * @return family members, empty family if there is no mapping with masterid
+	 * @throws SQLException
+	 */
+	public static PartFamily getFamily(String masterid) throws SQLException {
+		
+		return families().get(masterid);
+	}
+	
+	
+	
+	/**
+	 * Expands many families at once (see {@link #getFamily(String)})
+	 * @param masterids family IDs
+	 * @return families by masterid, in order of request
+	 * @throws SQLException
+	 */
+	public static Map<String,PartFamily> getFamilies(Collection<String> masterids) throws SQLException {
+		
+		return families().get(masterids);
+	}
+	
+	
+	
+	private static ArrayList<String> complete(int column, String prefix, int limit) throws SQLException {
+		
+		PartIdCompleter idx = completer;
+		if (idx == null) {
+			synchronized (PartMapping.class) {
+				if (completer == null)
+					completer = PartIdCompleter.build(getAll());
+				idx = completer;
+			}
+		}
+		return idx.complete(column, prefix, limit);
+	}
+	
+	
+	
+	/**
+	 * Autocomplete for LDD design IDs. Index is built from table on first 
+	 * call and kept aligned with changes, no query after first call.
+	 * @param prefix start of ID
+	 * @param limit max number of IDs returned
+	 * @return first matching IDs, sorted
+	 * @throws SQLException
+	 */
+	public static ArrayList<String> completeDesignid(String prefix, int limit) throws SQLException {
+		return complete(PartIdCompleter.DESIGNID, prefix, limit);
+	}
+	
+	
+	
+	/**
+	 * Autocomplete for BrickLink IDs. Index is built from table on first 
+	 * call and kept aligned with changes, no query after first call.
+	 * @param prefix start of ID
+	 * @param limit max number of IDs returned
+	 * @return first matching IDs, sorted
+	 * @throws SQLException
+	 */
+	public static ArrayList<String> completeBlid(String prefix, int limit) throws SQLException {
+		return complete(PartIdCompleter.BLID, prefix, limit);
+	}
+	
+	
+	
+	/**
+	 * Autocomplete for LDraw IDs. Index is built from table on first 
+	 * call and kept aligned with changes, no query after first call.
+	 * @param prefix start of ID
+	 * @param limit max number of IDs returned
+	 * @return first matching IDs, sorted
+	 * @throws SQLException
+	 */
+	public static ArrayList<String> completeLdrawid(String prefix, int limit) throws SQLException {
+		return complete(PartIdCompleter.LDRAWID, prefix, limit);
+	}
+	
+	
+	
 	public static ArrayList<PartMapping> getNew() throws SQLException {
 		
-		PreparedStatement ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+
+		PreparedStatement ps = StatementPool.get("SELECT mapid,"+fieldsOrder+
 				" FROM "+table+" where lastmod > TIMESTAMPADD(MINUTE,-15,SELECT MAX(lastmod) from "+table+")");
 		return getPS(ps);
 	}
@@ -475,28 +876,35 @@ public class PartMapping {
 	public static Timestamp[] getLastModifyTime() throws SQLException {
 		
 		PreparedStatement ps;
-		ResultSet rs;
 		final int LIMIT = 20;
 		Timestamp last[] = new Timestamp[LIMIT];
 		
-		ps = BrickMapping.db.prepareStatement("SELECT FORMATDATETIME(lastmod,'yyyy-MM-dd') as datemod "+
+		ps = StatementPool.get("SELECT FORMATDATETIME(lastmod,'yyyy-MM-dd') as datemod "+
 				" FROM "+table+" GROUP BY datemod ORDER BY datemod DESC LIMIT "+LIMIT);
-		rs = ps.executeQuery();
-		int i = 0;
-		while (rs.next()) {
-			last[i] = Timestamp.valueOf(rs.getString("datemod")+" 00:00:00");
-			i++;
-			if (i >= LIMIT)
-				break;
+		try (ResultSet rs = ps.executeQuery()) {
+			int i = 0;
+			while (rs.next()) {
+				last[i] = Timestamp.valueOf(rs.getString("datemod")+" 00:00:00");
+				i++;
+				if (i >= LIMIT)
+					break;
+			}
 		}
 		return last;
 	}
 
 	
+	/**
+	 * Mappings modified after a time. Scans whole table: to keep a copy 
+	 * in sync use {@link ChangeLog#getPartChanges(long, int)}
+	 * @param lastmodified time of last sync
+	 * @return modified mappings
+	 * @throws SQLException
+	 */
 	public static ArrayList<PartMapping> getModifiedAfter(Timestamp lastmodified) throws SQLException {
 		
 		PreparedStatement ps;
-		ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+
+		ps = StatementPool.get("SELECT mapid,"+fieldsOrder+" FROM "+table+
 				" where lastmod>=?");
 		ps.setTimestamp(1, lastmodified);
 		return getPS(ps);
@@ -509,50 +917,14 @@ public class PartMapping {
 
 	public static PartMapping lddToLDraw(String designid, String decorid) throws SQLException {
 		
-		PreparedStatement ps;
-		
-		if (decorid == null || decorid.length() == 0) {
-			ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+" WHERE designid=? and ldd2dat and decorid=''");
-			ps.setString(1, designid);
-		}
-		else {
-			ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+" WHERE designid=? and ldd2dat and decorid=?");
-			ps.setString(1, designid);
-			ps.setString(2, decorid);
-		}
-		ArrayList<PartMapping> pm = getPS(ps);
-		if (pm.size() > 1) {
-			throw new SQLException("Internal error: duplicated part mapping in database\n"+pm.get(0));
-		}
-		else if (pm.size() == 1) {
-			return pm.get(0);
-		}
-		return new PartMapping();
+		return translate(MapDirection.LDD2DAT, designid, decorid);
 	}
 	
 	
 	
 	public static PartMapping lddToBlink(String designid, String decorid) throws SQLException {
 		
-		PreparedStatement ps;
-		
-		if (decorid == null || decorid.length() == 0) {
-			ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+" WHERE designid=? and ldd2bl and decorid=''");
-			ps.setString(1, designid);
-		}
-		else {
-			ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+" WHERE designid=? and ldd2bl and decorid=?");
-			ps.setString(1, designid);
-			ps.setString(2, decorid);
-		}
-		ArrayList<PartMapping> pm = getPS(ps);
-		if (pm.size() > 1) {
-			throw new SQLException("Internal error: duplicated part mapping in database\n"+pm.get(0));
-		}
-		else if (pm.size() == 1) {
-			return pm.get(0);
-		}
-		return new PartMapping();
+		return translate(MapDirection.LDD2BL, designid, decorid);
 	}
 	
 	
@@ -560,16 +932,7 @@ public class PartMapping {
 	public static PartMapping blinkToLdd(String blid) throws SQLException {
 		
 		// gets ldd part equivalence
-		PreparedStatement ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+" WHERE blid=? and bl2ldd");
-		ps.setString(1, blid);
-		ArrayList<PartMapping> pm = getPS(ps);
-		if (pm.size() > 1) {
-			throw new SQLException("Internal error: duplicated part mapping in database\n"+pm.get(0));
-		}
-		else if (pm.size() == 1) {
-			return pm.get(0);
-		}
-		return new PartMapping();
+		return translate(MapDirection.BL2LDD, blid, null);
 	}
 	
 	
@@ -577,16 +940,7 @@ public class PartMapping {
 	public static PartMapping blinkToLDraw(String blid) throws SQLException {
 		
 		// get ldraw part equivalence
-		PreparedStatement ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+" WHERE blid=? and bl2dat");
-		ps.setString(1, blid);
-		ArrayList<PartMapping> pm = getPS(ps);
-		if (pm.size() > 1) {
-			throw new SQLException("Internal error: duplicated part mapping in database\n"+pm.get(0));
-		}
-		else if (pm.size() == 1) {
-			return pm.get(0);
-		}
-		return new PartMapping();
+		return translate(MapDirection.BL2DAT, blid, null);
 	}
 
 	
@@ -594,32 +948,366 @@ public class PartMapping {
 	public static PartMapping ldrawToLdd(String ldr) throws SQLException {
 		
 		// gets ldd part equivalence
-		PreparedStatement ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+" WHERE ldrawid=? and dat2ldd");
-		ps.setString(1, ldr);
-		ArrayList<PartMapping> pm = getPS(ps);
-		if (pm.size() > 1) {
-			throw new SQLException("Internal error: duplicated part mapping in database\n"+pm.get(0));
-		}
-		else if (pm.size() == 1) {
-			return pm.get(0);
-		}
-		return new PartMapping();
+		return translate(MapDirection.DAT2LDD, ldr, null);
 	}
 	
 	
 	public static PartMapping ldrawToBlink(String ldr) throws SQLException {
 	
 		// get BL part equivalence
-		PreparedStatement ps = BrickMapping.db.prepareStatement("SELECT mapid,"+fieldsOrder+" FROM "+table+" WHERE ldrawid=? and dat2bl");
-		ps.setString(1, ldr);
-		ArrayList<PartMapping> pm = getPS(ps);
-		if (pm.size() > 1) {
-			throw new SQLException("Internal error: duplicated part mapping in database\n"+pm.get(0));
+		return translate(MapDirection.DAT2BL, ldr, null);
+	}
+	
+	
+	
+	/**
+	 * Filter for translations from database, built on first use. 
+	 * Not used inside an update transaction
+	 * @return filter or null if disabled
+	 */
+	private static MissFilter missFilter() throws SQLException {
+		
+		if (!missFilterEnabled || updating)
+			return null;
+		MissFilter f = missFilter;
+		if (f == null || f.isStale()) {
+			synchronized (PartMapping.class) {
+				if (updating)
+					return null;
+				if (missFilter == null || missFilter.isStale()) {
+					missFilter = MissFilter.build(get("ldd2bl OR bl2ldd OR ldd2dat OR dat2ldd OR bl2dat OR dat2bl"));
+				}
+				f = missFilter;
+			}
+		}
+		return f;
+	}
+	
+	
+	
+	/**
+	 * Enables or disables filter for translations from database. With filter, 
+	 * IDs without a rule are answered without a query (see {@link MissFilter}). 
+	 * Disabled by default: first translation after enabling loads all rules, 
+	 * and rows written to database by other programs are seen as missing 
+	 * until filter is rebuilt, after a bulk update or a new Init. 
+	 * IDs ruled out by filter get {@link #EMPTY}, that is read only.
+	 * @param on true to use filter, false to disable it (default)
+	 */
+	public static void setMissFilter(boolean on) {
+		
+		missFilterEnabled = on;
+		if (!on) {
+			synchronized (PartMapping.class) {
+				missFilter = null;
+			}
 		}
-		else if (pm.size() == 1) {
-			return pm.get(0);
+	}
+	
+	
+	
+	/**
+	 * @return true if filter for translations from database is enabled
+	 */
+	public static boolean isMissFilter() {
+		return missFilterEnabled;
+	}
+	
+	
+	
+	/**
+	 * Expected false positive rate of filter for translations from database, 
+	 * from number of keys it holds
+	 * @param d translation direction
+	 * @return probability that an ID without rule passes filter, -1 if filter isn't built
+	 */
+	public static double getMissFilterExpectedFpp(MapDirection d) {
+		
+		MissFilter f = missFilter;
+		return f == null ? -1 : f.expectedFpp(d);
+	}
+	
+	
+	
+	/**
+	 * Single translation, from in-memory index or catalog file if 
+	 * available, else from database. Recorded in {@link Metrics}
+	 * @param d translation direction
+	 * @param id ID to translate, in source catalog
+	 * @param decorid LDD decoration, only for LDD directions
+	 * @return mapping found or an empty mapping
+	 * @throws SQLException
+	 */
+	private static PartMapping translate(MapDirection d, String id, String decorid) throws SQLException {
+		
+		long t = Metrics.start();
+		boolean ldd = d == MapDirection.LDD2BL || d == MapDirection.LDD2DAT;
+		try {
+			CatalogSnapshot snap = BrickMapping.forTranslation();
+			if (snap.inMemory()) 
+				return Metrics.translated(d, t, snap.lookup(d, ldd ? MapDirection.lddKey(id, decorid) : id));
+			MissFilter f = missFilter();
+			if (f != null && !f.mightContain(d, ldd ? MapDirection.lddKey(id, decorid) : id)) {
+				Metrics.filtered(d, 1);
+				return Metrics.translated(d, t, EMPTY);
+			}
+			PreparedStatement ps;
+			if (ldd) {
+				ps = StatementPool.get("SELECT mapid,"+fieldsOrder+" FROM "+table+
+						" WHERE designid=? and "+d.flagColumn()+" and decorid=?");
+				ps.setString(1, id);
+				ps.setString(2, decorid == null ? "" : decorid);
+			}
+			else {
+				ps = StatementPool.get("SELECT mapid,"+fieldsOrder+" FROM "+table+
+						" WHERE "+d.sourceColumn()+"=? and "+d.flagColumn());
+				ps.setString(1, id);
+			}
+			ArrayList<PartMapping> pm = getPS(ps);
+			if (pm.size() > 1) {
+				throw new DuplicateMappingException(pm.get(0));
+			}
+			if (pm.size() == 0) {
+				if (f != null)
+					Metrics.filterFalsePositives(d, 1);
+				return Metrics.translated(d, t, new PartMapping());
+			}
+			return Metrics.translated(d, t, pm.get(0));
+		} catch (SQLException e) {
+			Metrics.failed(d, e);
+			throw e;
+		}
+	}
+
+	
+	
+	///////////////////////////////////////////
+	// bulk translations
+	///////////////////////////////////////////
+	
+	
+	/**
+	 * Max number of IDs in a single IN (...) query
+	 */
+	private static final int BULKCHUNK = StatementPool.MAXIN;
+	
+	
+	/**
+	 * Translates a list of IDs in a single pass, probing in-memory 
+	 * index if enabled, or with a single IN (...) query for every 
+	 * {@value #BULKCHUNK} IDs
+	 * @param d translation direction
+	 * @param srcIds IDs to look for in source column
+	 * @param keys lookup keys requested 
+	 * @return map lookup key -> mapping, an empty mapping if there isn't a rule  
+	 * @throws SQLException on duplicated mapping rule for a requested key
+	 */
+	private static HashMap<String,PartMapping> translate(MapDirection d, 
+			Collection<String> srcIds, Collection<String> keys) throws SQLException {
+		
+		HashMap<String,PartMapping> res;
+		try {
+			res = lookupAll(d, srcIds, keys);
+		} catch (SQLException e) {
+			Metrics.failed(d, e);
+			throw e;
+		}
+		if (Metrics.isEnabled()) {
+			for (PartMapping pm : res.values()) {
+				Metrics.bulkTranslated(d, pm);
+			}
+		}
+		return res;
+	}
+	
+	
+	
+	private static HashMap<String,PartMapping> lookupAll(MapDirection d, 
+			Collection<String> srcIds, Collection<String> keys) throws SQLException {
+		
+		HashMap<String,PartMapping> res = new HashMap<String,PartMapping>(keys.size()*2);
+		CatalogSnapshot snap = BrickMapping.forTranslation();
+		
+		if (snap.inMemory()) {
+			for (String k : keys) {
+				res.put(k, snap.lookup(d, k));
+			}
+			return res;
+		}
+		MissFilter f = missFilter();
+		HashSet<String> passed = null;
+		if (f != null) {
+			// query only IDs that can have a rule
+			boolean ldd = d == MapDirection.LDD2BL || d == MapDirection.LDD2DAT;
+			passed = new HashSet<String>(keys.size()*2);
+			HashSet<String> probe = new HashSet<String>(keys.size()*2);
+			for (String k : keys) {
+				if (!f.mightContain(d, k))
+					continue;
+				passed.add(k);
+				probe.add(ldd ? k.substring(0, k.indexOf('\t')) : k);
+			}
+			Metrics.filtered(d, new HashSet<String>(keys).size()-passed.size());
+			srcIds = probe;
+		}
+		HashMap<String,ArrayList<PartMapping>> found = new HashMap<String,ArrayList<PartMapping>>();
+		ArrayList<String> ids = new ArrayList<String>(new HashSet<String>(srcIds));
+		for (int i = 0; i < ids.size(); i += BULKCHUNK) {
+			List<String> chunk = ids.subList(i, Math.min(i+BULKCHUNK, ids.size()));
+			// extra parameters repeats last ID
+			int params = StatementPool.inSize(chunk.size());
+			PreparedStatement ps = StatementPool.get("SELECT mapid,"+fieldsOrder+" FROM "+table+
+					" WHERE "+d.flagColumn()+" AND "+d.sourceColumn()+" IN "+StatementPool.inList(params));
+			for (int j = 0; j < params; j++) {
+				ps.setString(j+1, chunk.get(Math.min(j, chunk.size()-1)));
+			}
+			for (PartMapping pm : getPS(ps)) {
+				String k = d.lookupKey(pm);
+				if (k == null)
+					continue;
+				ArrayList<PartMapping> l = found.get(k);
+				if (l == null) {
+					l = new ArrayList<PartMapping>(1);
+					found.put(k, l);
+				}
+				l.add(pm);
+			}
+		}
+		int falsePositives = 0;
+		for (String k : keys) {
+			ArrayList<PartMapping> pm = found.get(k);
+			if (pm == null) {
+				if (passed != null && !passed.contains(k)) {
+					// ruled out by filter
+					res.put(k, EMPTY);
+				}
+				else {
+					if (passed != null && !res.containsKey(k))
+						falsePositives++;
+					res.put(k, new PartMapping());
+				}
+			}
+			else if (pm.size() > 1) {
+				throw new DuplicateMappingException(pm.get(0));
+			}
+			else {
+				res.put(k, pm.get(0));
+			}
+		}
+		if (falsePositives > 0)
+			Metrics.filterFalsePositives(d, falsePositives);
+		return res;
+	}
+	
+	
+	
+	private static Map<LddId,PartMapping> translateLdd(MapDirection d, Collection<LddId> ids) throws SQLException {
+		
+		ArrayList<String> srcIds = new ArrayList<String>(ids.size());
+		ArrayList<String> keys = new ArrayList<String>(ids.size());
+		for (LddId id : ids) {
+			if (id.getDesignid() == null)
+				continue;
+			srcIds.add(id.getDesignid());
+			keys.add(id.key());
+		}
+		HashMap<String,PartMapping> t = translate(d, srcIds, keys);
+		HashMap<LddId,PartMapping> res = new HashMap<LddId,PartMapping>(ids.size()*2);
+		for (LddId id : ids) {
+			PartMapping pm = id.getDesignid() == null ? null : t.get(id.key());
+			res.put(id, pm == null ? new PartMapping() : pm);
+		}
+		return res;
+	}
+	
+	
+	
+	private static Map<String,PartMapping> translateIds(MapDirection d, Collection<String> ids) throws SQLException {
+		
+		ArrayList<String> keys = new ArrayList<String>(ids.size());
+		boolean hasNull = false;
+		for (String id : ids) {
+			if (id == null)
+				hasNull = true;
+			else
+				keys.add(id);
 		}
-		return new PartMapping();
+		HashMap<String,PartMapping> res = translate(d, keys, keys);
+		if (hasNull)
+			res.put(null, new PartMapping());
+		return res;
+	}
+	
+	
+	
+	/**
+	 * Bulk version of {@link #lddToLDraw(String, String)}
+	 * @param ids LDD parts to translate
+	 * @return map LDD part -> mapping, an empty mapping if there is no rule 
+	 * @throws SQLException
+	 */
+	public static Map<LddId,PartMapping> lddToLDraw(Collection<LddId> ids) throws SQLException {
+		return translateLdd(MapDirection.LDD2DAT, ids);
+	}
+	
+	
+	
+	/**
+	 * Bulk version of {@link #lddToBlink(String, String)}
+	 * @param ids LDD parts to translate
+	 * @return map LDD part -> mapping, an empty mapping if there is no rule 
+	 * @throws SQLException
+	 */
+	public static Map<LddId,PartMapping> lddToBlink(Collection<LddId> ids) throws SQLException {
+		return translateLdd(MapDirection.LDD2BL, ids);
+	}
+	
+	
+	
+	/**
+	 * Bulk version of {@link #blinkToLdd(String)}
+	 * @param blids BrickLink IDs to translate
+	 * @return map BrickLink ID -> mapping, an empty mapping if there is no rule
+	 * @throws SQLException
+	 */
+	public static Map<String,PartMapping> blinkToLdd(Collection<String> blids) throws SQLException {
+		return translateIds(MapDirection.BL2LDD, blids);
+	}
+	
+	
+	
+	/**
+	 * Bulk version of {@link #blinkToLDraw(String)}
+	 * @param blids BrickLink IDs to translate
+	 * @return map BrickLink ID -> mapping, an empty mapping if there is no rule
+	 * @throws SQLException
+	 */
+	public static Map<String,PartMapping> blinkToLDraw(Collection<String> blids) throws SQLException {
+		return translateIds(MapDirection.BL2DAT, blids);
+	}
+	
+	
+	
+	/**
+	 * Bulk version of {@link #ldrawToLdd(String)}
+	 * @param ldrids LDraw IDs to translate
+	 * @return map LDraw ID -> mapping, an empty mapping if there is no rule
+	 * @throws SQLException
+	 */
+	public static Map<String,PartMapping> ldrawToLdd(Collection<String> ldrids) throws SQLException {
+		return translateIds(MapDirection.DAT2LDD, ldrids);
+	}
+	
+	
+	
+	/**
+	 * Bulk version of {@link #ldrawToBlink(String)}
+	 * @param ldrids LDraw IDs to translate
+	 * @return map LDraw ID -> mapping, an empty mapping if there is no rule
+	 * @throws SQLException
+	 */
+	public static Map<String,PartMapping> ldrawToBlink(Collection<String> ldrids) throws SQLException {
+		return translateIds(MapDirection.DAT2BL, ldrids);
 	}
 
 	
@@ -633,7 +1321,7 @@ public class PartMapping {
 //		
 //		Statement st;
 //		
-//		st = BrickMapping.db.createStatement();
+//		st = BrickMapping.statement();
 //		st.execute("UPDATE "+table+" set name=CONCAT(name,' ##bldelete') " +
 //				"WHERE blid != '' and blid NOT IN (SELECT blid from blparts WHERE NOT deleted)");
 //		st.execute("UPDATE "+table+" set name=CONCAT(name,' ##ldrdelete') " +
@@ -646,150 +1334,152 @@ public class PartMapping {
 	
 	public static void cleanup() throws SQLException {
 		
-		Statement st;
-		
-		st = BrickMapping.db.createStatement();
-		// cleanup ##ldrawnew tag
-		//st.execute("UPDATE "+table+" set name=REPLACE(name,'##ldrawnew')");
-		//st.execute("UPDATE "+table+" set name=REPLACE(name,'##ldrdelete')");
-		//st.execute("UPDATE "+table+" set name=REPLACE(name,'##bldelete')");
-		st.execute("UPDATE "+table+" set masterid=TRIM(masterid),designid=TRIM(designid),name=TRIM(name)");
-		st.execute("UPDATE "+table+" set ldrawid=TRIM(ldrawid),blid=TRIM(blid),decorid=TRIM(decorid)");
+		boolean local = BrickMapping.beginWrite();
+		try (Statement st = BrickMapping.statement()) {
+			// cleanup ##ldrawnew tag
+			//st.execute("UPDATE "+table+" set name=REPLACE(name,'##ldrawnew')");
+			//st.execute("UPDATE "+table+" set name=REPLACE(name,'##ldrdelete')");
+			//st.execute("UPDATE "+table+" set name=REPLACE(name,'##bldelete')");
+			// logs only rows really changed by trim
+			st.execute("INSERT INTO "+ChangeLog.table+" (tbl,mapid) SELECT '"+table+"',mapid FROM "+table+
+					" WHERE masterid<>TRIM(masterid) OR designid<>TRIM(designid) OR name<>TRIM(name)" +
+					" OR ldrawid<>TRIM(ldrawid) OR blid<>TRIM(blid) OR decorid<>TRIM(decorid) ORDER BY mapid");
+			st.execute("UPDATE "+table+" set masterid=TRIM(masterid),designid=TRIM(designid),name=TRIM(name)");
+			st.execute("UPDATE "+table+" set ldrawid=TRIM(ldrawid),blid=TRIM(blid),decorid=TRIM(decorid)");
+			BrickMapping.commitWrite(local);
+			refreshIndex();
+		} finally {
+			BrickMapping.endWrite(local);
+		}
 	}
 	
 	
 	
+	/**
+	 * Checks this mapping against database for duplicated translations. 
+	 * For many rows use {@link BulkValidator}
+	 * @throws SQLException if mapping is a duplicate
+	 */
 	public void check() throws SQLException {
 		
-		Statement st;
-		ResultSet rs;
+		PreparedStatement ps;
 		
 		if (isLdd2bl()) {
 			// it is a ldd to Bricklink mapping, must be unique
-			st = BrickMapping.db.createStatement();
-			rs = st.executeQuery("SELECT * FROM "+table+
-					" WHERE designid = '"+getDesignid()+"' " +
-							"AND " +
-					"decorid = '"+getDecorid()+"' " +
-							"AND " +
-					"ldd2bl " +
-					"AND " +
-					"mapid != "+Integer.toString(getMapid()));
-			if (rs.next()) {
-				String lddid = rs.getString("designid");
-				String bl = rs.getString("blid");
-				throw new SQLException("Duplicated part\n"+
-						"Design ID: "+getDesignid()+"->"+
-						"BLink ID:  "+getBlid()+"\n"+
-						"is already mapped as\n"+
-						"Design ID: "+lddid+"->"+
-						"BLink ID:  "+bl);
+			ps = StatementPool.get("SELECT designid,blid,ldrawid FROM "+table+
+					" WHERE designid=? AND decorid=? AND ldd2bl AND mapid!=?");
+			ps.setString(1, getDesignid());
+			ps.setString(2, getDecorid());
+			ps.setInt(3, getMapid());
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					String lddid = rs.getString("designid");
+					String bl = rs.getString("blid");
+					throw new SQLException("Duplicated part\n"+
+							"Design ID: "+getDesignid()+"->"+
+							"BLink ID:  "+getBlid()+"\n"+
+							"is already mapped as\n"+
+							"Design ID: "+lddid+"->"+
+							"BLink ID:  "+bl);
+				}
 			}
 		}
 		if (isLdd2dat()) {
 			// it is a ldd to LDraw mapping, must be unique
-			st = BrickMapping.db.createStatement();
-			rs = st.executeQuery("SELECT * FROM "+table+
-					" WHERE designid = '"+getDesignid()+"' " +
-							"AND " +
-					"decorid = '"+getDecorid()+"' " +
-							"AND " +
-					"ldd2dat " +
-					"AND " +
-					"mapid != "+Integer.toString(getMapid()));
-			if (rs.next()) {
-				String lddid = rs.getString("designid");
-				String ldraw = rs.getString("ldrawid");
-				throw new SQLException("Duplicated part\n"+
-						"Design ID: "+getDesignid()+"->"+
-						"LDraw ID:  "+getLdrawid()+"\n"+
-						"is already mapped as\n"+
-						"Design ID: "+lddid+"->"+
-						"LDraw ID:  "+ldraw);
+			ps = StatementPool.get("SELECT designid,blid,ldrawid FROM "+table+
+					" WHERE designid=? AND decorid=? AND ldd2dat AND mapid!=?");
+			ps.setString(1, getDesignid());
+			ps.setString(2, getDecorid());
+			ps.setInt(3, getMapid());
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					String lddid = rs.getString("designid");
+					String ldraw = rs.getString("ldrawid");
+					throw new SQLException("Duplicated part\n"+
+							"Design ID: "+getDesignid()+"->"+
+							"LDraw ID:  "+getLdrawid()+"\n"+
+							"is already mapped as\n"+
+							"Design ID: "+lddid+"->"+
+							"LDraw ID:  "+ldraw);
+				}
 			}
 		}
 		if (isBl2ldd()) {
 			// it is a BL to ldd mapping
-			st = BrickMapping.db.createStatement();
-			rs = st.executeQuery("SELECT * FROM "+table+
-					" WHERE blid = '"+getBlid()+"' " +
-							"AND " +
-					"decorid = '"+getDecorid()+"' " +
-							"AND " +
-					"bl2ldd " +
-					"AND " +
-					"mapid != "+Integer.toString(getMapid()));
-			if (rs.next()) {
-				String lddid = rs.getString("designid");
-				String bl = rs.getString("blid");
-				throw new SQLException("Duplicated part\n"+
-						"BLink ID: "+getBlid()+"->"+
-						"Design ID:  "+getDesignid()+"\n"+
-						"is already mapped as\n"+
-						"BLink ID: "+bl+"\n"+
-						"Design ID:  "+lddid);
+			ps = StatementPool.get("SELECT designid,blid,ldrawid FROM "+table+
+					" WHERE blid=? AND decorid=? AND bl2ldd AND mapid!=?");
+			ps.setString(1, getBlid());
+			ps.setString(2, getDecorid());
+			ps.setInt(3, getMapid());
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					String lddid = rs.getString("designid");
+					String bl = rs.getString("blid");
+					throw new SQLException("Duplicated part\n"+
+							"BLink ID: "+getBlid()+"->"+
+							"Design ID:  "+getDesignid()+"\n"+
+							"is already mapped as\n"+
+							"BLink ID: "+bl+"\n"+
+							"Design ID:  "+lddid);
+				}
 			}
 		}
 		if (isDat2ldd()) {
 			// it is a LDraw to ldd mapping
-			st = BrickMapping.db.createStatement();
-			rs = st.executeQuery("SELECT * FROM "+table+
-					" WHERE ldrawid = '"+getLdrawid()+"' " +
-							"AND " +
-					"decorid = '"+getDecorid()+"' " +
-							"AND " +
-					"dat2ldd " +
-					"AND " +
-					"mapid != "+Integer.toString(getMapid()));
-			if (rs.next()) {
-				String lddid = rs.getString("designid");
-				String ldraw = rs.getString("ldrawid");
-				throw new SQLException("Duplicated part\n"+
-						"LDRaw ID: "+getLdrawid()+"->"+
-						"Design ID:  "+getDesignid()+"\n"+
-						"is already mapped as\n"+
-						"LDraw ID: "+ldraw+"->"+
-						"Design ID:  "+lddid);
+			ps = StatementPool.get("SELECT designid,blid,ldrawid FROM "+table+
+					" WHERE ldrawid=? AND decorid=? AND dat2ldd AND mapid!=?");
+			ps.setString(1, getLdrawid());
+			ps.setString(2, getDecorid());
+			ps.setInt(3, getMapid());
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					String lddid = rs.getString("designid");
+					String ldraw = rs.getString("ldrawid");
+					throw new SQLException("Duplicated part\n"+
+							"LDRaw ID: "+getLdrawid()+"->"+
+							"Design ID:  "+getDesignid()+"\n"+
+							"is already mapped as\n"+
+							"LDraw ID: "+ldraw+"->"+
+							"Design ID:  "+lddid);
+				}
 			}
 		}
 		if (isBl2dat()) {
 			// it is a BL to ldraw mapping
-			st = BrickMapping.db.createStatement();
-			rs = st.executeQuery("SELECT * FROM "+table+
-					" WHERE blid = '"+getBlid()+"' " +
-							"AND " +
-					"bl2dat " +
-					"AND " +
-					"mapid != "+Integer.toString(getMapid()));
-			if (rs.next()) {
-				String ldraw = rs.getString("ldrawid");
-				String bl = rs.getString("blid");
-				throw new SQLException("Duplicated part\n"+
-						"BLink ID: "+getBlid()+"->"+
-						"LDraw ID:  "+getLdrawid()+"\n"+
-						"is already mapped as\n"+
-						"BLink ID: "+bl+"\n"+
-						"LDraw ID:  "+ldraw);
+			ps = StatementPool.get("SELECT designid,blid,ldrawid FROM "+table+
+					" WHERE blid=? AND bl2dat AND mapid!=?");
+			ps.setString(1, getBlid());
+			ps.setInt(2, getMapid());
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					String ldraw = rs.getString("ldrawid");
+					String bl = rs.getString("blid");
+					throw new SQLException("Duplicated part\n"+
+							"BLink ID: "+getBlid()+"->"+
+							"LDraw ID:  "+getLdrawid()+"\n"+
+							"is already mapped as\n"+
+							"BLink ID: "+bl+"\n"+
+							"LDraw ID:  "+ldraw);
+				}
 			}
 		}
 		if (isDat2bl()) {
 			// it is a LDraw to bl mapping
-			st = BrickMapping.db.createStatement();
-			rs = st.executeQuery("SELECT * FROM "+table+
-					" WHERE ldrawid = '"+getLdrawid()+"' " +
-							"AND " +
-					"dat2bl " +
-					"AND " +
-					"mapid != "+Integer.toString(getMapid()));
-			if (rs.next()) {
-				String bl = rs.getString("blid");
-				String ldraw = rs.getString("ldrawid");
-				throw new SQLException("Duplicated part\n"+
-						"LDRaw ID: "+getLdrawid()+"->"+
-						"BLink ID:  "+getBlid()+"\n"+
-						"is already mapped as\n"+
-						"LDraw ID: "+ldraw+"->"+
-						"BLink ID:  "+bl);
+			ps = StatementPool.get("SELECT designid,blid,ldrawid FROM "+table+
+					" WHERE ldrawid=? AND dat2bl AND mapid!=?");
+			ps.setString(1, getLdrawid());
+			ps.setInt(2, getMapid());
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					String bl = rs.getString("blid");
+					String ldraw = rs.getString("ldrawid");
+					throw new SQLException("Duplicated part\n"+
+							"LDRaw ID: "+getLdrawid()+"->"+
+							"BLink ID:  "+getBlid()+"\n"+
+							"is already mapped as\n"+
+							"LDraw ID: "+ldraw+"->"+
+							"BLink ID:  "+bl);
+				}
 			}
 		}
 		
@@ -802,13 +1492,9 @@ public class PartMapping {
 	
 	public static int countRules() {
 
-		Statement st;
-		ResultSet rs;
-		
-		try {
-			st = BrickMapping.db.createStatement();
-			rs = st.executeQuery("SELECT COUNT(*) FROM " + table +
-					" WHERE ldd2bl OR ldd2dat OR bl2dat OR bl2ldd OR dat2bl OR dat2ldd");
+		try (Statement st = BrickMapping.statement();
+				ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + table +
+						" WHERE ldd2bl OR ldd2dat OR bl2dat OR bl2ldd OR dat2bl OR dat2ldd")) {
 			rs.next();
 			return rs.getInt(1);
 		} catch (SQLException e) {
@@ -848,16 +1534,26 @@ public class PartMapping {
 	public void updateMapping() throws SQLException {
 		
 		PreparedStatement ps;
-		ResultSet rs;
+		boolean exists;
 		
-		ps = BrickMapping.db.prepareStatement("SELECT * FROM "+table+" where mapid=?");
+		long t = Metrics.start();
+		ps = StatementPool.get("SELECT mapid FROM "+table+" where mapid=?");
 		ps.setInt(1, getMapid());
-		rs = ps.executeQuery();
-		if (rs.next()) {
-			update();
-		}
-		else {
-			insert();
+		// no other writer between check and insert/update
+		BrickMapping.lockWrite();
+		try {
+			try (ResultSet rs = ps.executeQuery()) {
+				exists = rs.next();
+			}
+			if (exists) {
+				update();
+			}
+			else {
+				insert();
+			}
+			Metrics.imported(1, 0, t);
+		} finally {
+			BrickMapping.unlockWrite();
 		}
 	}
 
@@ -1091,4 +1787,124 @@ public class PartMapping {
 	}
 	
 
+	
+	
+	/**
+	 * Read only empty mapping, see {@link PartMapping#EMPTY}
+	 */
+	private static final class Empty extends PartMapping {
+		
+		// false while superclass constructor sets default values
+		private final boolean frozen;
+		
+		Empty() {
+			super();
+			frozen = true;
+		}
+		
+		private void frozen() {
+			if (frozen)
+				throw new UnsupportedOperationException("PartMapping.EMPTY is read only, use clone()");
+		}
+		
+		@Override
+		public void setMapid(int mapid) {
+			frozen();
+			super.setMapid(mapid);
+		}
+		
+		@Override
+		public void setMasterid(String masterid) {
+			frozen();
+			super.setMasterid(masterid);
+		}
+		
+		@Override
+		public void setDesignid(String designid) {
+			frozen();
+			super.setDesignid(designid);
+		}
+		
+		@Override
+		public void setDecorid(String decorid) {
+			frozen();
+			super.setDecorid(decorid);
+		}
+		
+		@Override
+		public void setName(String name) {
+			frozen();
+			super.setName(name);
+		}
+		
+		@Override
+		public void setBlid(String blid) {
+			frozen();
+			super.setBlid(blid);
+		}
+		
+		@Override
+		public void setLdrawid(String ldrawid) {
+			frozen();
+			super.setLdrawid(ldrawid);
+		}
+		
+		@Override
+		public void setLastmod(Timestamp lastmod) {
+			frozen();
+			super.setLastmod(lastmod);
+		}
+		
+		@Override
+		public boolean setLdd2bl(boolean ldd2bl) {
+			frozen();
+			return super.setLdd2bl(ldd2bl);
+		}
+		
+		@Override
+		public boolean setBl2ldd(boolean bl2ldd) {
+			frozen();
+			return super.setBl2ldd(bl2ldd);
+		}
+		
+		@Override
+		public boolean setLdd2dat(boolean ldd2dat) {
+			frozen();
+			return super.setLdd2dat(ldd2dat);
+		}
+		
+		@Override
+		public boolean setDat2ldd(boolean dat2ldd) {
+			frozen();
+			return super.setDat2ldd(dat2ldd);
+		}
+		
+		@Override
+		public void setBl2dat(boolean bl2dat) {
+			frozen();
+			super.setBl2dat(bl2dat);
+		}
+		
+		@Override
+		public boolean setDat2bl(boolean dat2bl) {
+			frozen();
+			return super.setDat2bl(dat2bl);
+		}
+		
+		@Override
+		public int insert() throws SQLException {
+			throw new UnsupportedOperationException("PartMapping.EMPTY is read only, use clone()");
+		}
+		
+		@Override
+		public void update() throws SQLException {
+			throw new UnsupportedOperationException("PartMapping.EMPTY is read only, use clone()");
+		}
+		
+		@Override
+		public void updateMapping() throws SQLException {
+			throw new UnsupportedOperationException("PartMapping.EMPTY is read only, use clone()");
+		}
+	}
+
 }
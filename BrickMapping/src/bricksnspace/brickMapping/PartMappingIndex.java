@@ -0,0 +1,247 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.EnumMap;
+
+
+/**
+ * In-memory translation index for part mapping table.
+ * 
+ * One hash map for every direction, filtered by direction flag. 
+ * Index is immutable: a change produces a new index, so it can be 
+ * read from any thread without locking. Maps are 
+ * {@link PersistentHashMap}, so new index shares all unchanged 
+ * entries with old one and a change costs O(log n), not a copy.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class PartMappingIndex {
+	
+	private final PersistentHashMap<Integer,PartMapping> rows;
+	private final EnumMap<MapDirection,PersistentHashMap<String,PartMapping[]>> dirs;
+	
+	
+	
+	private PartMappingIndex(PersistentHashMap<Integer,PartMapping> rows,
+			EnumMap<MapDirection,PersistentHashMap<String,PartMapping[]>> dirs) {
+		
+		this.rows = rows;
+		this.dirs = dirs;
+	}
+	
+	
+	
+	/**
+	 * Builds index from a list of mappings, usually the whole table
+	 * @param pml mappings to index
+	 * @return a new index
+	 */
+	static PartMappingIndex build(Collection<PartMapping> pml) {
+		
+		EnumMap<MapDirection,PersistentHashMap<String,PartMapping[]>> dirs = 
+				new EnumMap<MapDirection,PersistentHashMap<String,PartMapping[]>>(MapDirection.class);
+		for (MapDirection d : MapDirection.values()) {
+			dirs.put(d, PersistentHashMap.<String,PartMapping[]>empty());
+		}
+		Editor e = new PartMappingIndex(PersistentHashMap.<Integer,PartMapping>empty(), dirs).edit();
+		for (PartMapping pm : pml) {
+			e.add(pm.clone());
+		}
+		return e.build();
+	}
+	
+	
+	
+	/**
+	 * Returns a new index with a mapping added or replaced (by mapid)
+	 * @param pm inserted or updated mapping
+	 * @return a new index, current index is unchanged
+	 */
+	PartMappingIndex with(PartMapping pm) {
+		
+		Editor e = edit();
+		e.remove(pm.getMapid());
+		e.add(pm.clone());
+		return e.build();
+	}
+	
+	
+	
+	private Editor edit() {
+		return new Editor();
+	}
+	
+	
+	
+	/**
+	 * Changes to a new index, used only before publishing it
+	 */
+	private final class Editor {
+		
+		private final PersistentHashMap.Builder<Integer,PartMapping> r = rows.builder();
+		private final EnumMap<MapDirection,PersistentHashMap.Builder<String,PartMapping[]>> m = 
+				new EnumMap<MapDirection,PersistentHashMap.Builder<String,PartMapping[]>>(MapDirection.class);
+		
+		
+		Editor() {
+			for (MapDirection d : MapDirection.values()) {
+				m.put(d, dirs.get(d).builder());
+			}
+		}
+		
+		
+		void add(PartMapping pm) {
+			
+			r.put(pm.getMapid(), pm);
+			for (MapDirection d : MapDirection.values()) {
+				if (!d.isSet(pm))
+					continue;
+				String key = d.lookupKey(pm);
+				if (key == null)
+					continue;
+				PersistentHashMap.Builder<String,PartMapping[]> b = m.get(d);
+				PartMapping[] old = b.get(key);
+				if (old == null) {
+					b.put(key, new PartMapping[] {pm});
+				}
+				else {
+					PartMapping[] n = new PartMapping[old.length+1];
+					System.arraycopy(old, 0, n, 0, old.length);
+					n[old.length] = pm;
+					b.put(key, n);
+				}
+			}
+		}
+		
+		
+		void remove(int mapid) {
+			
+			PartMapping pm = r.get(mapid);
+			if (pm == null)
+				return;
+			r.remove(mapid);
+			for (MapDirection d : MapDirection.values()) {
+				if (!d.isSet(pm))
+					continue;
+				String key = d.lookupKey(pm);
+				if (key == null)
+					continue;
+				PersistentHashMap.Builder<String,PartMapping[]> b = m.get(d);
+				PartMapping[] old = b.get(key);
+				if (old == null)
+					continue;
+				if (old.length == 1) {
+					b.remove(key);
+					continue;
+				}
+				PartMapping[] n = new PartMapping[old.length-1];
+				int j = 0;
+				for (PartMapping p : old) {
+					if (p != pm && j < n.length)
+						n[j++] = p;
+				}
+				b.put(key, n);
+			}
+		}
+		
+		
+		PartMappingIndex build() {
+			
+			EnumMap<MapDirection,PersistentHashMap<String,PartMapping[]>> d = 
+					new EnumMap<MapDirection,PersistentHashMap<String,PartMapping[]>>(MapDirection.class);
+			for (MapDirection dir : MapDirection.values()) {
+				d.put(dir, m.get(dir).build());
+			}
+			return new PartMappingIndex(r.build(), d);
+		}
+	}
+	
+	
+	
+	/**
+	 * Translation lookup, same semantic of database query: 
+	 * no match returns an empty mapping, more than one match is an error
+	 * @param d translation direction
+	 * @param key lookup key (see {@link MapDirection#lookupKey(PartMapping)})
+	 * @return a copy of found mapping or a new empty mapping
+	 * @throws SQLException if there is a duplicated mapping for key
+	 */
+	PartMapping lookup(MapDirection d, String key) throws SQLException {
+		
+		if (key == null)
+			return new PartMapping();
+		PartMapping[] pm = dirs.get(d).get(key);
+		if (pm == null)
+			return new PartMapping();
+		if (pm.length > 1)
+			throw new DuplicateMappingException(pm[0]);
+		return pm[0].clone();
+	}
+	
+	
+	
+	/**
+	 * @param d translation direction
+	 * @param key lookup key
+	 * @return indexed mappings for key, not copied, or null if none
+	 */
+	PartMapping[] rules(MapDirection d, String key) {
+		
+		if (key == null)
+			return null;
+		return dirs.get(d).get(key);
+	}
+	
+	
+	
+	/**
+	 * @param mapid mapping id
+	 * @return indexed mapping, not copied, or null
+	 */
+	PartMapping row(int mapid) {
+		return rows.get(mapid);
+	}
+	
+	
+	
+	/**
+	 * @return all indexed mappings, read only and not copied: callers 
+	 * must not change them
+	 */
+	Collection<PartMapping> all() {
+		return rows.values();
+	}
+	
+	
+	
+	/**
+	 * @return number of indexed mappings
+	 */
+	int size() {
+		return rows.size();
+	}
+
+}
@@ -0,0 +1,69 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+/**
+ * Read-only view of a part mapping, used by compact in-memory 
+ * catalogs (see {@link CompactCatalog})
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public interface PartMappingView {
+	
+	int getMapid();
+	
+	String getMasterid();
+	
+	String getDesignid();
+	
+	String getDecorid();
+	
+	String getName();
+	
+	String getBlid();
+	
+	String getLdrawid();
+	
+	/**
+	 * @return direction flags, bit (1 &lt;&lt; ordinal) for every {@link MapDirection}
+	 */
+	byte getFlags();
+	
+	/**
+	 * @param d translation direction
+	 * @return true if mapping has flag for direction
+	 */
+	boolean isSet(MapDirection d);
+	
+	/**
+	 * @return last modify time in milliseconds, {@link CompactCatalog#NO_TIME} if unknown
+	 */
+	long getLastmod();
+	
+	/**
+	 * @return a new mutable copy of mapping
+	 */
+	PartMapping toPartMapping();
+
+}
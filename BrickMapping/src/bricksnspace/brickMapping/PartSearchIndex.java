@@ -0,0 +1,592 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+
+/**
+ * In-memory inverted index for text search on part mappings, 
+ * over the same fields of database full text index ({@link PartMapping#FTSfields}).
+ * 
+ * Index is immutable. Changed mappings are kept in a small list searched 
+ * by scanning, until list is big enough to justify a full rebuild.
+ * 
+ * Tokens are lower case. Part IDs are indexed as a whole ("973pb001c01") 
+ * and split on punctuation ("3001.dat" gives "3001" and "dat"), 
+ * names are split in words. Last word of query matches as prefix, so 
+ * search works while user types. A prefix expands to at most 200 terms: 
+ * if there are more, terms found in more mappings are used, so a very 
+ * short prefix can miss mappings matched only by a rare term.
+ * 
+ * Scores are summed in small tables made for every query and sized to 
+ * postings of its terms, so a query touches only mappings in those 
+ * postings and nothing is kept between queries.
+ * 
+ * Indexed mappings are kept as a {@link CompactCatalog}, results are 
+ * copied from it.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class PartSearchIndex {
+	
+	// field weights for ranking 
+	private static final float W_ID = 4.0f;			// designid, blid, ldrawid 
+	private static final float W_MASTER = 2.0f;		// masterid
+	private static final float W_IDPART = 1.5f;		// a piece of an ID
+	private static final float W_DECOR = 1.0f;		// decorid
+	private static final float W_NAME = 1.0f;		// a word in name
+	private static final float PREFIX = 0.5f;		// weight factor for a prefix match
+	private static final int MAXPREFIX = 200;		// max terms expanded by a prefix, most frequent first
+	private static final int MAXCHANGES = 256;		// changes kept before a rebuild
+	
+	private final CompactCatalog docs;
+	private final TreeMap<String,Posting> terms;
+	private final HashMap<Integer,PartMapping> changed;	// mapid -> changed mapping 
+	
+	
+	/**
+	 * Documents containing a term, with term weight in document
+	 */
+	private static class Posting {
+		int[] docs;
+		float[] weights;
+		int size;
+		
+		Posting() {
+			docs = new int[2];
+			weights = new float[2];
+		}
+		
+		void add(int doc, float w) {
+			
+			if (size > 0 && docs[size-1] == doc) {
+				weights[size-1] += w;
+				return;
+			}
+			if (size == docs.length) {
+				docs = Arrays.copyOf(docs, size*2);
+				weights = Arrays.copyOf(weights, size*2);
+			}
+			docs[size] = doc;
+			weights[size] = w;
+			size++;
+		}
+	}
+	
+	
+	
+	/**
+	 * A search result with its score
+	 */
+	private static class Hit {
+		final float score;
+		final int doc;			// indexed mapping
+		final PartMapping pm;	// or changed mapping, if doc < 0
+		
+		Hit(float score, int doc, PartMapping pm) {
+			this.score = score;
+			this.doc = doc;
+			this.pm = pm;
+		}
+	}
+	
+	
+	private static final Comparator<Hit> byScore = new Comparator<Hit>() {
+		@Override
+		public int compare(Hit o1, Hit o2) {
+			return Float.compare(o1.score, o2.score);
+		}
+	};
+	
+	private static final Comparator<Posting> bySize = new Comparator<Posting>() {
+		@Override
+		public int compare(Posting o1, Posting o2) {
+			return Integer.compare(o1.size, o2.size);
+		}
+	};
+	
+	
+	/**
+	 * Docs matching first word of a query, numbered in order of first match. 
+	 * A hash table sized to docs expected, or an array indexed by doc 
+	 * if they are a good part of index.
+	 */
+	private static class DocTable {
+		private final int[] slots;		// hash table of doc+1, 0 if free, or position+1 by doc
+		private final int[] pos;		// position of doc in slot
+		private final int mask;
+		final int[] docs;				// docs by position
+		int size;
+		
+		DocTable(int expected, int ndocs) {
+			
+			docs = new int[expected];
+			if (expected * 32 >= ndocs) {
+				slots = new int[ndocs];
+				pos = null;
+				mask = 0;
+				return;
+			}
+			int cap = Integer.highestOneBit(Math.max(expected, 2) * 2 - 1) << 1;
+			slots = new int[cap];
+			pos = new int[cap];
+			mask = cap - 1;
+		}
+		
+		private int slot(int doc) {
+			
+			int h = doc * 0x9E3779B9;
+			int i = (h ^ (h >>> 16)) & mask;
+			while (slots[i] != 0 && slots[i] != doc+1) {
+				i = (i+1) & mask;
+			}
+			return i;
+		}
+		
+		/**
+		 * @return position of doc, added if new
+		 */
+		int add(int doc) {
+			
+			if (pos == null) {
+				if (slots[doc] == 0) {
+					docs[size] = doc;
+					slots[doc] = ++size;
+				}
+				return slots[doc]-1;
+			}
+			int i = slot(doc);
+			if (slots[i] == 0) {
+				slots[i] = doc+1;
+				pos[i] = size;
+				docs[size++] = doc;
+			}
+			return pos[i];
+		}
+		
+	}
+	
+	
+	
+	private PartSearchIndex(CompactCatalog docs, TreeMap<String,Posting> terms, 
+			HashMap<Integer,PartMapping> changed) {
+		
+		this.docs = docs;
+		this.terms = terms;
+		this.changed = changed;
+	}
+	
+	
+	
+	/**
+	 * Builds index
+	 * @param pml mappings to index, usually whole table
+	 * @return a new index
+	 */
+	static PartSearchIndex build(Collection<PartMapping> pml) {
+		
+		CompactCatalog docs = CompactCatalog.build(pml);
+		TreeMap<String,Posting> terms = new TreeMap<String,Posting>();
+		int i = 0;
+		for (PartMappingView v : docs) {
+			HashMap<String,Float> t = tokens(v.getName(), v.getDecorid(), v.getMasterid(), 
+					v.getDesignid(), v.getBlid(), v.getLdrawid());
+			for (Map.Entry<String,Float> e : t.entrySet()) {
+				Posting p = terms.get(e.getKey());
+				if (p == null) {
+					p = new Posting();
+					terms.put(e.getKey(), p);
+				}
+				p.add(i, e.getValue());
+			}
+			i++;
+		}
+		return new PartSearchIndex(docs, terms, new HashMap<Integer,PartMapping>());
+	}
+	
+	
+	
+	/**
+	 * Returns a new index with a mapping added or replaced (by mapid)
+	 * @param pm inserted or updated mapping
+	 * @return a new index, current index is unchanged
+	 */
+	PartSearchIndex with(PartMapping pm) {
+		
+		HashMap<Integer,PartMapping> c = new HashMap<Integer,PartMapping>(changed);
+		c.put(pm.getMapid(), pm.clone());
+		if (c.size() > MAXCHANGES) {
+			// too many changes, merge them with a rebuild 
+			HashMap<Integer,PartMapping> all = new HashMap<Integer,PartMapping>(docs.size()*2);
+			for (PartMappingView d : docs) {
+				all.put(d.getMapid(), d.toPartMapping());
+			}
+			all.putAll(c);
+			return build(all.values());
+		}
+		return new PartSearchIndex(docs, terms, c);
+	}
+	
+	
+	
+	/**
+	 * Splits a string in lower case tokens, on every char that isn't 
+	 * a letter or a digit
+	 * @param s string to split
+	 * @return tokens, never null
+	 */
+	static ArrayList<String> split(String s) {
+		
+		ArrayList<String> t = new ArrayList<String>();
+		if (s == null)
+			return t;
+		int start = -1;
+		for (int i = 0; i <= s.length(); i++) {
+			if (i < s.length() && Character.isLetterOrDigit(s.charAt(i))) {
+				if (start < 0)
+					start = i;
+			}
+			else if (start >= 0) {
+				t.add(s.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return t;
+	}
+	
+	
+	
+	private static void addId(HashMap<String,Float> t, String id, float w) {
+		
+		if (id == null || id.length() == 0)
+			return;
+		String full = id.trim().toLowerCase();
+		if (full.length() == 0)
+			return;
+		addTerm(t, full, w);
+		for (String p : split(full)) {
+			if (!p.equals(full))
+				addTerm(t, p, W_IDPART);
+		}
+	}
+	
+	
+	
+	private static void addTerm(HashMap<String,Float> t, String term, float w) {
+		
+		Float old = t.get(term);
+		// a term found in more fields takes best weight
+		if (old == null || old < w)
+			t.put(term, w);
+	}
+	
+	
+	
+	/**
+	 * @param pm mapping
+	 * @return all terms in mapping, with weight
+	 */
+	private static HashMap<String,Float> tokens(PartMapping pm) {
+		return tokens(pm.getName(), pm.getDecorid(), pm.getMasterid(), 
+				pm.getDesignid(), pm.getBlid(), pm.getLdrawid());
+	}
+	
+	
+	
+	/**
+	 * @return all terms in mapping fields, with weight
+	 */
+	private static HashMap<String,Float> tokens(String name, String decorid, String masterid, 
+			String designid, String blid, String ldrawid) {
+		
+		HashMap<String,Float> t = new HashMap<String,Float>();
+		for (String w : split(name)) {
+			addTerm(t, w, W_NAME);
+		}
+		addId(t, decorid, W_DECOR);
+		addId(t, masterid, W_MASTER);
+		addId(t, designid, W_ID);
+		addId(t, blid, W_ID);
+		addId(t, ldrawid, W_ID);
+		return t;
+	}
+	
+	
+	
+	/**
+	 * Ranked search. All words in query must match, last one as prefix.
+	 * @param query words to search
+	 * @param limit max number of results
+	 * @return matching mappings, best first
+	 */
+	ArrayList<PartMapping> search(String query, int limit) {
+		
+		ArrayList<String> words = split(query);
+		ArrayList<PartMapping> res = new ArrayList<PartMapping>();
+		if (words.size() == 0 || limit <= 0)
+			return res;
+		int[] cand = new int[0];		// docs matching all words so far
+		float[] score = new float[0];	// total score of candidates
+		int nc = 0;
+		boolean sorted = true;			// candidates in doc order
+		for (int w = 0; w < words.size(); w++) {
+			String word = words.get(w);
+			boolean last = w == words.size()-1;
+			ArrayList<Posting> pl = new ArrayList<Posting>();
+			ArrayList<Float> idfs = new ArrayList<Float>();
+			Posting p = terms.get(word);
+			if (p != null) {
+				pl.add(p);
+				idfs.add(idf(p));
+			}
+			if (last) {
+				for (Posting pp : prefix(word)) {
+					pl.add(pp);
+					idfs.add(idf(pp) * PREFIX);
+				}
+			}
+			float[] s;			// best score of terms matching word
+			if (w == 0 && pl.size() == 1) {
+				// just one term, a posting has no repeated docs
+				Posting pp = pl.get(0);
+				float idf = idfs.get(0);
+				nc = pp.size;
+				cand = Arrays.copyOf(pp.docs, nc);
+				score = new float[nc];
+				for (int i = 0; i < nc; i++) {
+					score[i] = pp.weights[i] * idf;
+				}
+			}
+			else if (w == 0) {
+				int n = 0;
+				for (Posting pp : pl) {
+					n += pp.size;
+				}
+				DocTable t = new DocTable(Math.min(n, docs.size()), docs.size());
+				s = new float[t.docs.length];
+				for (int j = 0; j < pl.size(); j++) {
+					Posting pp = pl.get(j);
+					float idf = idfs.get(j);
+					for (int i = 0; i < pp.size; i++) {
+						int k = t.add(pp.docs[i]);
+						float v = pp.weights[i] * idf;
+						if (v > s[k])
+							s[k] = v;
+					}
+				}
+				cand = t.docs;
+				score = s;
+				nc = t.size;
+				sorted = false;
+			}
+			else if (pl.size() == 0) {
+				nc = 0;
+			}
+			else {
+				// only candidates can still match: candidates in doc order 
+				// are intersected with postings, skipping ahead on both
+				int[] cd = cand;		// candidate docs in doc order
+				int[] cp = null;		// and their positions, if not in order
+				if (!sorted) {
+					long[] byDoc = new long[nc];
+					for (int i = 0; i < nc; i++) {
+						byDoc[i] = ((long) cand[i] << 32) | i;
+					}
+					Arrays.sort(byDoc);
+					cd = new int[nc];
+					cp = new int[nc];
+					for (int i = 0; i < nc; i++) {
+						cd[i] = (int) (byDoc[i] >>> 32);
+						cp[i] = (int) byDoc[i];
+					}
+				}
+				s = new float[nc];
+				for (int j = 0; j < pl.size(); j++) {
+					Posting pp = pl.get(j);
+					float idf = idfs.get(j);
+					int c = 0;
+					int i = 0;
+					while (c < nc && i < pp.size) {
+						if (pp.docs[i] < cd[c]) {
+							i = seek(pp.docs, i, pp.size, cd[c]);
+						}
+						else if (cd[c] < pp.docs[i]) {
+							c = seek(cd, c, nc, pp.docs[i]);
+						}
+						else {
+							int k = cp == null ? c : cp[c];
+							float v = pp.weights[i] * idf;
+							if (v > s[k])
+								s[k] = v;
+							c++;
+							i++;
+						}
+					}
+				}
+				// keep candidates matching this word too
+				int k = 0;
+				for (int i = 0; i < nc; i++) {
+					if (s[i] > 0) {
+						score[k] = score[i] + s[i];
+						cand[k++] = cand[i];
+					}
+				}
+				nc = k;
+			}
+			if (nc == 0 && changed.size() == 0)
+				return res;
+		}
+		PriorityQueue<Hit> top = new PriorityQueue<Hit>(limit+1, byScore);
+		for (int i = 0; i < nc; i++) {
+			int d = cand[i];
+			if (!changed.containsKey(docs.getMapid(d))) 
+				offer(top, score[i], d, null, limit);
+		}
+		for (PartMapping pm : changed.values()) {
+			float sc = scoreDoc(pm, words);
+			if (sc > 0)
+				offer(top, sc, -1, pm, limit);
+		}
+		while (!top.isEmpty()) {
+			Hit h = top.poll();
+			res.add(h.doc >= 0 ? docs.get(h.doc).toPartMapping() : h.pm.clone());
+		}
+		// queue gives worst first
+		Collections.reverse(res);
+		return res;
+	}
+	
+	
+	
+	/**
+	 * Galloping search in sorted docs
+	 * @return first position from start with doc not less than key, size if none
+	 */
+	private static int seek(int[] docs, int start, int size, int key) {
+		
+		int lo = start;
+		int hi = start;
+		int step = 1;
+		while (hi < size && docs[hi] < key) {
+			lo = hi+1;
+			hi += step;
+			step <<= 1;
+		}
+		if (hi > size)
+			hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (docs[mid] < key)
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	
+	
+	/**
+	 * Terms starting with a prefix, prefix excluded. If there are more than 
+	 * {@link #MAXPREFIX}, only terms found in more mappings
+	 * @param prefix word typed so far
+	 * @return postings of expanded terms
+	 */
+	private Collection<Posting> prefix(String prefix) {
+		
+		PriorityQueue<Posting> top = new PriorityQueue<Posting>(MAXPREFIX+1, bySize);
+		for (Posting p : terms.subMap(prefix, false, prefix+Character.MAX_VALUE, false).values()) {
+			if (top.size() < MAXPREFIX) {
+				top.add(p);
+			}
+			// on same size first terms in order are kept
+			else if (top.peek().size < p.size) {
+				top.poll();
+				top.add(p);
+			}
+		}
+		return top;
+	}
+	
+	
+	
+	private static void offer(PriorityQueue<Hit> top, float score, int doc, PartMapping pm, int limit) {
+		
+		if (top.size() < limit) {
+			top.add(new Hit(score, doc, pm));
+		}
+		else if (top.peek().score < score) {
+			top.poll();
+			top.add(new Hit(score, doc, pm));
+		}
+	}
+	
+	
+	
+	/**
+	 * Scores a changed mapping not yet in inverted index
+	 * @return score, 0 if mapping doesn't match all words
+	 */
+	private float scoreDoc(PartMapping pm, ArrayList<String> words) {
+		
+		HashMap<String,Float> t = tokens(pm);
+		float total = 0;
+		for (int w = 0; w < words.size(); w++) {
+			String word = words.get(w);
+			boolean last = w == words.size()-1;
+			float best = 0;
+			for (Map.Entry<String,Float> e : t.entrySet()) {
+				Posting p = terms.get(e.getKey());
+				float idf = p == null ? idf(null) : idf(p);
+				if (e.getKey().equals(word)) {
+					best = Math.max(best, e.getValue() * idf);
+				}
+				else if (last && e.getKey().startsWith(word)) {
+					best = Math.max(best, e.getValue() * idf * PREFIX);
+				}
+			}
+			if (best == 0)
+				return 0;
+			total += best;
+		}
+		return total;
+	}
+	
+	
+	
+	private float idf(Posting p) {
+		
+		int df = p == null ? 1 : p.size;
+		return (float) Math.log(1.0 + (double)(docs.size()+1) / df);
+	}
+
+}
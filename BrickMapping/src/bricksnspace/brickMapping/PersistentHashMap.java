@@ -0,0 +1,570 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Immutable hash map with structural sharing (hash array mapped trie), 
+ * for indexes changed one row at a time.
+ * 
+ * A change returns a new map that shares all untouched nodes with old 
+ * one, so it costs O(log n) and not a copy of whole map. Old map is 
+ * unchanged and can be read from any thread without locking.
+ * 
+ * Every node holds up to 32 slots, selected by 5 bits of key hash: a 
+ * slot is a key and its value, or a child node for next 5 bits. Keys 
+ * with same hash are in a collision node. A {@link Builder} changes 
+ * nodes it created in place, to load many keys without copies.
+ * 
+ * Keys must not be null, values can't be null.
+ * 
+ * @author Mario Pascucci
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+final class PersistentHashMap<K,V> {
+	
+	private static final PersistentHashMap<Object,Object> EMPTY = 
+			new PersistentHashMap<Object,Object>(null, 0);
+	
+	private final Node root;
+	private final int size;
+	
+	
+	
+	private PersistentHashMap(Node root, int size) {
+		
+		this.root = root;
+		this.size = size;
+	}
+	
+	
+	
+	/**
+	 * @return empty map
+	 */
+	@SuppressWarnings("unchecked")
+	static <K,V> PersistentHashMap<K,V> empty() {
+		return (PersistentHashMap<K,V>) EMPTY;
+	}
+	
+	
+	
+	/**
+	 * A trie node. Slots are in array as (key, value) pairs, a null key 
+	 * marks a child node in value. Node can be changed in place only by 
+	 * builder that created it (same edit token)
+	 */
+	private static final class Node {
+		
+		Object edit;
+		int bitmap;
+		Object[] array;
+		// keys with same hash, no bitmap
+		final boolean collision;
+		final int hash;
+		
+		
+		Node(Object edit, int bitmap, Object[] array) {
+			this.edit = edit;
+			this.bitmap = bitmap;
+			this.array = array;
+			collision = false;
+			hash = 0;
+		}
+		
+		
+		Node(Object edit, int hash, Object[] array, boolean collision) {
+			this.edit = edit;
+			this.array = array;
+			this.collision = collision;
+			this.hash = hash;
+		}
+		
+		
+		Object get(int shift, int h, Object key) {
+			
+			if (collision) {
+				int i = find(key);
+				return i < 0 ? null : array[i+1];
+			}
+			int bit = 1 << ((h >>> shift) & 31);
+			if ((bitmap & bit) == 0)
+				return null;
+			int i = 2*Integer.bitCount(bitmap & (bit-1));
+			Object k = array[i];
+			if (k == null)
+				return ((Node) array[i+1]).get(shift+5, h, key);
+			return key.equals(k) ? array[i+1] : null;
+		}
+		
+		
+		Node put(Object edit, int shift, int h, Object key, Object val, boolean[] added) {
+			
+			if (collision) {
+				if (h != hash) {
+					// different hash in same path: push down this node
+					Node n = new Node(edit, 1 << ((hash >>> shift) & 31), new Object[] {null, this});
+					return n.put(edit, shift, h, key, val, added);
+				}
+				int i = find(key);
+				if (i >= 0) 
+					return array[i+1] == val ? this : set(edit, i+1, val);
+				added[0] = true;
+				Object[] a = new Object[array.length+2];
+				System.arraycopy(array, 0, a, 0, array.length);
+				a[array.length] = key;
+				a[array.length+1] = val;
+				return replace(edit, bitmap, a);
+			}
+			int bit = 1 << ((h >>> shift) & 31);
+			int i = 2*Integer.bitCount(bitmap & (bit-1));
+			if ((bitmap & bit) != 0) {
+				Object k = array[i];
+				Object v = array[i+1];
+				if (k == null) {
+					Node c = (Node) v;
+					Node nc = c.put(edit, shift+5, h, key, val, added);
+					return nc == c ? this : set(edit, i+1, nc);
+				}
+				if (key.equals(k)) 
+					return v == val ? this : set(edit, i+1, val);
+				added[0] = true;
+				Node c = pair(edit, shift+5, hash(k), k, v, h, key, val);
+				Node n = set(edit, i+1, c);
+				n.array[i] = null;
+				return n;
+			}
+			added[0] = true;
+			Object[] a = new Object[array.length+2];
+			System.arraycopy(array, 0, a, 0, i);
+			a[i] = key;
+			a[i+1] = val;
+			System.arraycopy(array, i, a, i+2, array.length-i);
+			return replace(edit, bitmap | bit, a);
+		}
+		
+		
+		/**
+		 * @return node without key, same node if key isn't there, 
+		 * null if node is now empty
+		 */
+		Node remove(Object edit, int shift, int h, Object key, boolean[] removed) {
+			
+			if (collision) {
+				int i = find(key);
+				if (i < 0)
+					return this;
+				removed[0] = true;
+				if (array.length == 2)
+					return null;
+				return replace(edit, bitmap, cut(array, i));
+			}
+			int bit = 1 << ((h >>> shift) & 31);
+			if ((bitmap & bit) == 0)
+				return this;
+			int i = 2*Integer.bitCount(bitmap & (bit-1));
+			Object k = array[i];
+			if (k == null) {
+				Node c = (Node) array[i+1];
+				Node nc = c.remove(edit, shift+5, h, key, removed);
+				if (nc == c)
+					return this;
+				if (nc != null) {
+					if (nc.array.length == 2 && nc.array[0] != null) {
+						// child with a single key: move key up
+						Node n = set(edit, i+1, nc.array[1]);
+						n.array[i] = nc.array[0];
+						return n;
+					}
+					return set(edit, i+1, nc);
+				}
+			}
+			else if (!key.equals(k)) 
+				return this;
+			else 
+				removed[0] = true;
+			if (bitmap == bit)
+				return null;
+			return replace(edit, bitmap ^ bit, cut(array, i));
+		}
+		
+		
+		private int find(Object key) {
+			
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i]))
+					return i;
+			}
+			return -1;
+		}
+		
+		
+		private Node set(Object edit, int i, Object val) {
+			
+			if (edit != null && this.edit == edit) {
+				array[i] = val;
+				return this;
+			}
+			Object[] a = array.clone();
+			a[i] = val;
+			return collision ? new Node(edit, hash, a, true) : new Node(edit, bitmap, a);
+		}
+		
+		
+		private Node replace(Object edit, int bitmap, Object[] a) {
+			
+			if (edit != null && this.edit == edit) {
+				this.bitmap = bitmap;
+				array = a;
+				return this;
+			}
+			return collision ? new Node(edit, hash, a, true) : new Node(edit, bitmap, a);
+		}
+	}
+	
+	
+	
+	private static int hash(Object key) {
+		
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+	
+	
+	
+	/**
+	 * Node with two keys, from given level down
+	 */
+	private static Node pair(Object edit, int shift, int h1, Object k1, Object v1, 
+			int h2, Object k2, Object v2) {
+		
+		if (h1 == h2)
+			return new Node(edit, h1, new Object[] {k1, v1, k2, v2}, true);
+		int b1 = (h1 >>> shift) & 31;
+		int b2 = (h2 >>> shift) & 31;
+		if (b1 == b2) 
+			return new Node(edit, 1 << b1, 
+					new Object[] {null, pair(edit, shift+5, h1, k1, v1, h2, k2, v2)});
+		if (b1 < b2)
+			return new Node(edit, (1 << b1) | (1 << b2), new Object[] {k1, v1, k2, v2});
+		return new Node(edit, (1 << b1) | (1 << b2), new Object[] {k2, v2, k1, v1});
+	}
+	
+	
+	
+	private static Object[] cut(Object[] array, int i) {
+		
+		Object[] a = new Object[array.length-2];
+		System.arraycopy(array, 0, a, 0, i);
+		System.arraycopy(array, i+2, a, i, a.length-i);
+		return a;
+	}
+	
+	
+	
+	/**
+	 * @param key key to look for
+	 * @return value for key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	V get(Object key) {
+		
+		if (root == null)
+			return null;
+		return (V) root.get(0, hash(key), key);
+	}
+	
+	
+	
+	boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+	
+	
+	
+	/**
+	 * @return a new map with key set to value, this map is unchanged
+	 */
+	PersistentHashMap<K,V> with(K key, V value) {
+		
+		boolean[] added = new boolean[1];
+		Node r = root == null ? 
+				new Node(null, 0, new Object[0]).put(null, 0, hash(key), key, value, added) :
+				root.put(null, 0, hash(key), key, value, added);
+		if (r == root)
+			return this;
+		return new PersistentHashMap<K,V>(r, added[0] ? size+1 : size);
+	}
+	
+	
+	
+	/**
+	 * @return a new map without key, this map is unchanged
+	 */
+	PersistentHashMap<K,V> without(Object key) {
+		
+		if (root == null)
+			return this;
+		boolean[] removed = new boolean[1];
+		Node r = root.remove(null, 0, hash(key), key, removed);
+		if (r == root)
+			return this;
+		return r == null ? PersistentHashMap.<K,V>empty() : new PersistentHashMap<K,V>(r, size-1);
+	}
+	
+	
+	
+	int size() {
+		return size;
+	}
+	
+	
+	
+	boolean isEmpty() {
+		return size == 0;
+	}
+	
+	
+	
+	/**
+	 * @return a builder starting from this map, this map is unchanged
+	 */
+	Builder<K,V> builder() {
+		return new Builder<K,V>(root, size);
+	}
+	
+	
+	
+	/**
+	 * @return all values, read only view
+	 */
+	Collection<V> values() {
+		
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				return new Walker<V>(root) {
+					@SuppressWarnings("unchecked")
+					@Override
+					V item(Object k, Object v) {
+						return (V) v;
+					}
+				};
+			}
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+	
+	
+	
+	/**
+	 * @return all keys, read only view
+	 */
+	Collection<K> keys() {
+		
+		return new AbstractCollection<K>() {
+			@Override
+			public Iterator<K> iterator() {
+				return new Walker<K>(root) {
+					@SuppressWarnings("unchecked")
+					@Override
+					K item(Object k, Object v) {
+						return (K) k;
+					}
+				};
+			}
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+	
+	
+	
+	/**
+	 * Depth first visit of all slots with a key
+	 */
+	private static abstract class Walker<T> implements Iterator<T> {
+		
+		// 7 levels of 5 bits, 1 of 2 bits, then collision nodes
+		private final Object[][] arrays = new Object[10][];
+		private final int[] pos = new int[10];
+		private int top = -1;
+		private Object nextKey;
+		private Object nextValue;
+		
+		
+		Walker(Node root) {
+			if (root != null) {
+				arrays[++top] = root.array;
+			}
+			advance();
+		}
+		
+		
+		abstract T item(Object k, Object v);
+		
+		
+		private void advance() {
+			
+			nextKey = null;
+			while (top >= 0) {
+				Object[] a = arrays[top];
+				int i = pos[top];
+				if (i >= a.length) {
+					arrays[top--] = null;
+					continue;
+				}
+				pos[top] = i+2;
+				if (a[i] == null) {
+					arrays[++top] = ((Node) a[i+1]).array;
+					pos[top] = 0;
+					continue;
+				}
+				nextKey = a[i];
+				nextValue = a[i+1];
+				return;
+			}
+		}
+		
+		
+		@Override
+		public boolean hasNext() {
+			return nextKey != null;
+		}
+		
+		
+		@Override
+		public T next() {
+			
+			if (nextKey == null)
+				throw new NoSuchElementException();
+			T t = item(nextKey, nextValue);
+			advance();
+			return t;
+		}
+		
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("[PersistentHashMap] map is read only");
+		}
+	}
+	
+	
+	
+	/**
+	 * Mutable view for many changes: nodes created by builder are changed 
+	 * in place, nodes shared with source map are copied on first change. 
+	 * Must be used by a single thread, and not after {@link #build()}.
+	 */
+	static final class Builder<K,V> {
+		
+		private Object edit = new Object();
+		private Node root;
+		private int size;
+		
+		
+		private Builder(Node root, int size) {
+			this.root = root;
+			this.size = size;
+		}
+		
+		
+		@SuppressWarnings("unchecked")
+		V get(Object key) {
+			
+			if (root == null)
+				return null;
+			return (V) root.get(0, hash(key), key);
+		}
+		
+		
+		void put(K key, V value) {
+			
+			check();
+			boolean[] added = new boolean[1];
+			if (root == null)
+				root = new Node(edit, 0, new Object[0]);
+			root = root.put(edit, 0, hash(key), key, value, added);
+			if (added[0])
+				size++;
+		}
+		
+		
+		void remove(Object key) {
+			
+			check();
+			if (root == null)
+				return;
+			boolean[] removed = new boolean[1];
+			root = root.remove(edit, 0, hash(key), key, removed);
+			if (removed[0])
+				size--;
+		}
+		
+		
+		int size() {
+			return size;
+		}
+		
+		
+		/**
+		 * @return keys in builder, valid until next change
+		 */
+		Collection<K> keys() {
+			return new PersistentHashMap<K,V>(root, size).keys();
+		}
+		
+		
+		/**
+		 * @return map with all changes, builder can't be used anymore
+		 */
+		PersistentHashMap<K,V> build() {
+			
+			check();
+			// nodes are shared from now on: no more changes in place
+			edit = null;
+			return root == null ? PersistentHashMap.<K,V>empty() : new PersistentHashMap<K,V>(root, size);
+		}
+		
+		
+		private void check() {
+			
+			if (edit == null)
+				throw new IllegalStateException("[PersistentHashMap] builder already used");
+		}
+	}
+
+}
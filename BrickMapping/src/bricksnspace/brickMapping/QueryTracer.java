@@ -0,0 +1,471 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+
+/**
+ * Tracing of slow queries issued by library.
+ * 
+ * When enabled, statements from {@link StatementPool} and from 
+ * {@link BrickMapping#statement()} are wrapped so every execution records 
+ * query shape (literals and IN lists collapsed), bound parameters, rows 
+ * returned (or updated) and elapsed time. Queries slower than threshold 
+ * goes in a bounded ring buffer, oldest are overwritten; read it with 
+ * {@link #dump()}.
+ * 
+ * Elapsed time for a query includes fetch of results, up to last row or 
+ * result set close. When disabled statements are not wrapped at all, 
+ * only cost is a volatile read. Enabled, every call on a statement goes 
+ * through a dynamic proxy, so keep it for investigations.
+ * 
+ * Queries executed by DBConnector itself are not traced.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class QueryTracer {
+	
+	/** Default slow query threshold, in milliseconds */
+	public static final long DEFAULT_THRESHOLD = 50;
+	
+	/** Default number of slow queries retained */
+	public static final int DEFAULT_CAPACITY = 128;
+	
+	private static volatile boolean enabled = false;
+	private static volatile long thresholdNanos = DEFAULT_THRESHOLD * 1000000L;
+	private static volatile AtomicReferenceArray<SlowQuery> ring = 
+			new AtomicReferenceArray<SlowQuery>(DEFAULT_CAPACITY);
+	private static final AtomicLong seq = new AtomicLong();
+	private static final AtomicLong traced = new AtomicLong();
+	private static final AtomicLong slow = new AtomicLong();
+	
+	private static final Pattern STRING = Pattern.compile("'([^']|'')*'");
+	private static final Pattern NUMBER = Pattern.compile("(?<![\\w.])-?\\d+(\\.\\d+)?\\b");
+	private static final Pattern INLIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+	private static final Pattern SPACES = Pattern.compile("\\s+");
+	
+	
+	
+	/**
+	 * A query slower than threshold
+	 */
+	public static final class SlowQuery {
+		
+		private final long seq;
+		private final long time;
+		private final String sql;
+		private final int binds;
+		private final long rows;
+		private final long nanos;
+		private final String thread;
+		
+		
+		SlowQuery(long seq, String sql, int binds, long rows, long nanos) {
+			
+			this.seq = seq;
+			time = System.currentTimeMillis();
+			this.sql = sql;
+			this.binds = binds;
+			this.rows = rows;
+			this.nanos = nanos;
+			thread = Thread.currentThread().getName();
+		}
+
+
+		/** @return completion time, as System.currentTimeMillis() */
+		public long getTime() {
+			return time;
+		}
+
+
+		/** @return query shape, with literals replaced by '?' */
+		public String getSql() {
+			return sql;
+		}
+
+
+		/** @return number of parameters bound (summed on batches) */
+		public int getBinds() {
+			return binds;
+		}
+
+
+		/** @return rows fetched for queries, rows changed for updates, -1 if unknown */
+		public long getRows() {
+			return rows;
+		}
+
+
+		/** @return elapsed time in nanoseconds */
+		public long getNanos() {
+			return nanos;
+		}
+
+
+		/** @return name of thread that executed query */
+		public String getThread() {
+			return thread;
+		}
+
+
+		@Override
+		public String toString() {
+			return String.format("%.3f ms, %d rows, %d binds [%s]: %s", 
+					nanos/1e6, rows, binds, thread, sql);
+		}
+	}
+	
+	
+	
+	private QueryTracer() {
+		// static methods only
+	}
+	
+	
+	
+	/**
+	 * @return true if queries are traced
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	
+	
+	/**
+	 * Enables or disables tracing. Statements already obtained keep 
+	 * their state until next use from pool
+	 * @param on true to trace queries
+	 */
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+	
+	
+	
+	/**
+	 * @return slow query threshold in milliseconds
+	 */
+	public static long getThreshold() {
+		return thresholdNanos / 1000000L;
+	}
+	
+	
+	
+	/**
+	 * Sets slow query threshold
+	 * @param millis queries taking at least this time are retained, 0 to retain all
+	 */
+	public static void setThreshold(long millis) {
+		
+		if (millis < 0)
+			throw new IllegalArgumentException("Threshold must be >= 0");
+		thresholdNanos = millis * 1000000L;
+	}
+	
+	
+	
+	/**
+	 * @return max number of slow queries retained
+	 */
+	public static int getCapacity() {
+		return ring.length();
+	}
+	
+	
+	
+	/**
+	 * Sets max number of slow queries retained, clearing buffer
+	 * @param n buffer size
+	 */
+	public static void setCapacity(int n) {
+		
+		if (n <= 0)
+			throw new IllegalArgumentException("Capacity must be > 0");
+		ring = new AtomicReferenceArray<SlowQuery>(n);
+	}
+	
+	
+	
+	/**
+	 * Empties slow query buffer and resets counters
+	 */
+	public static void clear() {
+		
+		ring = new AtomicReferenceArray<SlowQuery>(ring.length());
+		traced.set(0);
+		slow.set(0);
+	}
+	
+	
+	
+	/**
+	 * @return number of query executions traced since last clear
+	 */
+	public static long getTraced() {
+		return traced.get();
+	}
+	
+	
+	
+	/**
+	 * @return number of slow queries found since last clear, also the ones 
+	 * no more in buffer
+	 */
+	public static long getSlow() {
+		return slow.get();
+	}
+	
+	
+	
+	/**
+	 * @return slow queries in buffer, oldest first
+	 */
+	public static List<SlowQuery> dump() {
+		
+		AtomicReferenceArray<SlowQuery> r = ring;
+		ArrayList<SlowQuery> l = new ArrayList<SlowQuery>(r.length());
+		for (int i = 0; i < r.length(); i++) {
+			SlowQuery q = r.get(i);
+			if (q != null)
+				l.add(q);
+		}
+		Collections.sort(l, new Comparator<SlowQuery>() {
+			@Override
+			public int compare(SlowQuery a, SlowQuery b) {
+				return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+			}
+		});
+		return l;
+	}
+	
+	
+	
+	/**
+	 * Query shape: string and number literals replaced by ?, parameter 
+	 * lists of IN clauses collapsed to (?...), white space normalized
+	 * @param sql query text
+	 * @return shape of query
+	 */
+	static String shape(String sql) {
+		
+		if (sql == null)
+			return "?";
+		String s = STRING.matcher(sql).replaceAll("?");
+		s = NUMBER.matcher(s).replaceAll("?");
+		s = INLIST.matcher(s).replaceAll("(?...)");
+		return SPACES.matcher(s).replaceAll(" ").trim();
+	}
+	
+	
+	
+	private static void record(String sql, int binds, long rows, long nanos) {
+		
+		traced.incrementAndGet();
+		if (nanos < thresholdNanos)
+			return;
+		slow.incrementAndGet();
+		long n = seq.getAndIncrement();
+		AtomicReferenceArray<SlowQuery> r = ring;
+		r.set((int)(n % r.length()), new SlowQuery(n, shape(sql), binds, rows, nanos));
+	}
+	
+	
+	
+	/**
+	 * Wraps a prepared statement for tracing, if enabled
+	 * @param ps statement to wrap
+	 * @param sql text of statement
+	 * @return traced statement, or ps itself if tracing is disabled
+	 */
+	static PreparedStatement wrap(PreparedStatement ps, String sql) {
+		
+		if (!enabled)
+			return ps;
+		return (PreparedStatement) Proxy.newProxyInstance(QueryTracer.class.getClassLoader(), 
+				new Class<?>[] {PreparedStatement.class}, new StatementTrace(ps, sql));
+	}
+	
+	
+	
+	/**
+	 * Wraps a statement for tracing, if enabled
+	 * @param st statement to wrap
+	 * @return traced statement, or st itself if tracing is disabled
+	 */
+	static Statement wrap(Statement st) {
+		
+		if (!enabled)
+			return st;
+		return (Statement) Proxy.newProxyInstance(QueryTracer.class.getClassLoader(), 
+				new Class<?>[] {Statement.class}, new StatementTrace(st, null));
+	}
+	
+	
+	
+	private static Object call(Object target, Method m, Object[] args) throws Throwable {
+		
+		try {
+			return m.invoke(target, args);
+		}
+		catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+	
+	
+	
+	/**
+	 * Traces executions of a statement, counting parameters bound 
+	 * since last execution
+	 */
+	private static class StatementTrace implements InvocationHandler {
+		
+		private final Statement target;
+		private final String sql;
+		private int binds = 0;
+		
+		
+		StatementTrace(Statement target, String sql) {
+			this.target = target;
+			this.sql = sql;
+		}
+		
+		
+		@Override
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			
+			String name = m.getName();
+			if (name.startsWith("set") && args != null && args.length >= 2 
+					&& m.getDeclaringClass() == PreparedStatement.class) {
+				binds++;
+				return call(target, m, args);
+			}
+			if (name.equals("clearParameters")) {
+				binds = 0;
+				return call(target, m, args);
+			}
+			if (!name.startsWith("execute")) {
+				return call(target, m, args);
+			}
+			String q = sql;
+			if (args != null && args.length > 0 && args[0] instanceof String)
+				q = (String) args[0];
+			int b = binds;
+			binds = 0;
+			long t0 = System.nanoTime();
+			Object r;
+			try {
+				r = call(target, m, args);
+			}
+			catch (Throwable e) {
+				record(q, b, -1, System.nanoTime()-t0);
+				throw e;
+			}
+			if (r instanceof ResultSet) {
+				// completed when results are consumed
+				return Proxy.newProxyInstance(QueryTracer.class.getClassLoader(), 
+						new Class<?>[] {ResultSet.class}, new ResultTrace((ResultSet) r, q, b, t0));
+			}
+			long rows = -1;
+			if (r instanceof Number) {
+				rows = ((Number) r).longValue();
+			}
+			else if (r instanceof int[]) {
+				rows = 0;
+				for (int n : (int[]) r) {
+					rows += Math.max(n, 0);
+				}
+			}
+			record(q, b, rows, System.nanoTime()-t0);
+			return r;
+		}
+	}
+	
+	
+	
+	/**
+	 * Counts rows fetched, records query on last row or close
+	 */
+	private static class ResultTrace implements InvocationHandler {
+		
+		private final ResultSet target;
+		private final String sql;
+		private final int binds;
+		private final long start;
+		private long rows = 0;
+		private boolean done = false;
+		
+		
+		ResultTrace(ResultSet target, String sql, int binds, long start) {
+			this.target = target;
+			this.sql = sql;
+			this.binds = binds;
+			this.start = start;
+		}
+		
+		
+		@Override
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			
+			String name = m.getName();
+			if (name.equals("next")) {
+				Object r = call(target, m, args);
+				if (Boolean.TRUE.equals(r)) 
+					rows++;
+				else
+					finish();
+				return r;
+			}
+			if (name.equals("close")) {
+				finish();
+			}
+			return call(target, m, args);
+		}
+		
+		
+		private void finish() {
+			
+			if (done)
+				return;
+			done = true;
+			record(sql, binds, rows, System.nanoTime()-start);
+		}
+	}
+
+}
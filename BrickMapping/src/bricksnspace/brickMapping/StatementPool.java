@@ -0,0 +1,306 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+package bricksnspace.brickMapping;
+
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Pool of prepared statements for lookup queries on current database connection.
+ * 
+ * Statements are prepared once for every distinct SQL string and reused, 
+ * so only queries with fixed text must go through pool. 
+ * Pool is closed and emptied when library is initialized on a new connection.
+ * 
+ * Every thread has its own statements, so bound parameters of a thread 
+ * are never overwritten by another thread. All statements are on the 
+ * same connection: queries of different threads still run one at a 
+ * time, see {@link BrickMapping}. A thread that stops using 
+ * library (i.e. a worker thread going to end) can close its statements 
+ * with {@link #releaseThread()}. Statements of threads that ended without 
+ * releasing them are closed when a new thread starts using pool, so pool 
+ * never holds more statements than live threads use.
+ * 
+ * Statements are wrapped by {@link QueryTracer} on every get, while 
+ * tracing is enabled.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class StatementPool {
+	
+	/**
+	 * Max number of parameters in an IN (...) list
+	 */
+	static final int MAXIN = 512;
+	
+	/**
+	 * Statements of a thread, valid only for pool generation
+	 */
+	private static class ThreadPool {
+		final long generation;
+		// owner thread, weak so an ended thread can be collected
+		final WeakReference<Thread> owner;
+		final HashMap<String,PreparedStatement> stmts = new HashMap<String,PreparedStatement>();
+		
+		ThreadPool(long generation) {
+			this.generation = generation;
+			owner = new WeakReference<Thread>(Thread.currentThread());
+		}
+		
+		boolean isDead() {
+			Thread t = owner.get();
+			return t == null || !t.isAlive();
+		}
+	}
+	
+	private static final ThreadLocal<ThreadPool> pool = new ThreadLocal<ThreadPool>();
+	// pools of all threads, to close statements on reset or when owner ends
+	private static final ArrayList<ThreadPool> all = new ArrayList<ThreadPool>();
+	private static volatile long generation = 0;
+	private static final AtomicLong created = new AtomicLong();
+	private static final AtomicLong reused = new AtomicLong();
+	
+	
+	
+	private StatementPool() {
+		
+	}
+	
+	
+	
+	/**
+	 * Gets a prepared statement for query, preparing it on first use
+	 * @param sql query text
+	 * @return pooled statement for current thread, must not be closed by caller
+	 * @throws SQLException
+	 */
+	static PreparedStatement get(String sql) throws SQLException {
+		
+		return get(sql, false);
+	}
+	
+	
+	
+	/**
+	 * Gets a prepared statement for query, preparing it on first use
+	 * @param sql query text
+	 * @param generatedKeys true if statement must return generated keys
+	 * @return pooled statement for current thread, must not be closed by caller
+	 * @throws SQLException
+	 */
+	static PreparedStatement get(String sql, boolean generatedKeys) throws SQLException {
+		
+		ThreadPool tp = pool.get();
+		if (tp == null || tp.generation != generation) {
+			// first use in this thread, or pool reset after a new Init
+			synchronized (all) {
+				closeDead();
+				tp = new ThreadPool(generation);
+				all.add(tp);
+			}
+			pool.set(tp);
+		}
+		String key = generatedKeys ? "K:"+sql : sql;
+		PreparedStatement ps = tp.stmts.get(key);
+		if (ps == null) {
+			BrickMapping.checkDatabase();
+			if (generatedKeys) 
+				ps = BrickMapping.db.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			else
+				ps = BrickMapping.db.prepareStatement(sql);
+			synchronized (all) {
+				// map is read by other threads only while closing under lock
+				tp.stmts.put(key, ps);
+			}
+			created.incrementAndGet();
+		}
+		else {
+			reused.incrementAndGet();
+		}
+		return QueryTracer.wrap(ps, sql);
+	}
+	
+	
+	
+	/**
+	 * Parameters count for an IN (...) list with n values, rounded to a power 
+	 * of two so only few distinct queries goes in pool. 
+	 * Extra parameters must be filled repeating a value
+	 * @param n number of values
+	 * @return number of parameters to use
+	 */
+	static int inSize(int n) {
+		
+		int params = 8;
+		while (params < n)
+			params *= 2;
+		return params;
+	}
+	
+	
+	
+	/**
+	 * @param params number of parameters
+	 * @return parameter list for an IN clause, like "(?,?,?)"
+	 */
+	static String inList(int params) {
+		
+		StringBuilder sb = new StringBuilder(params*2+2);
+		sb.append('(');
+		for (int j = 0; j < params; j++) {
+			sb.append(j == 0 ? "?" : ",?");
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+	
+	
+	
+	/**
+	 * Closes and removes all pooled statements, for all threads
+	 */
+	static void reset() {
+		
+		synchronized (all) {
+			generation++;
+			for (ThreadPool tp : all) {
+				closeAll(tp);
+			}
+			all.clear();
+		}
+		pool.remove();
+	}
+	
+	
+	
+	/**
+	 * Closes statements of threads ended without releasing them.
+	 * Must be called holding lock on {@link #all}
+	 */
+	private static void closeDead() {
+		
+		Iterator<ThreadPool> i = all.iterator();
+		while (i.hasNext()) {
+			ThreadPool tp = i.next();
+			if (tp.isDead()) {
+				closeAll(tp);
+				i.remove();
+			}
+		}
+	}
+	
+	
+	
+	private static void closeAll(ThreadPool tp) {
+		
+		for (PreparedStatement ps : tp.stmts.values()) {
+			close(ps);
+		}
+		tp.stmts.clear();
+	}
+	
+	
+	
+	/**
+	 * Closes all pooled statements of current thread
+	 */
+	public static void releaseThread() {
+		
+		ThreadPool tp = pool.get();
+		pool.remove();
+		if (tp == null) 
+			return;
+		synchronized (all) {
+			// if not in list, it was already closed by a reset
+			if (all.remove(tp))
+				closeAll(tp);
+		}
+	}
+	
+	
+	
+	private static void close(PreparedStatement ps) {
+		
+		try {
+			ps.close();
+		} catch (SQLException e) {
+			Logger.getGlobal().log(Level.WARNING, "Unable to close pooled statement", e);
+		}
+	}
+	
+	
+	
+	/**
+	 * @return number of statements prepared by pool since start
+	 */
+	public static long getCreated() {
+		return created.get();
+	}
+	
+	
+	
+	/**
+	 * @return number of times a pooled statement was reused since start
+	 */
+	public static long getReused() {
+		return reused.get();
+	}
+	
+	
+	
+	/**
+	 * @return number of statements currently open in pool, all threads
+	 */
+	public static int size() {
+		
+		synchronized (all) {
+			int n = 0;
+			for (ThreadPool tp : all) {
+				n += tp.stmts.size();
+			}
+			return n;
+		}
+	}
+	
+	
+	
+	/**
+	 * @return number of threads with statements currently open in pool
+	 */
+	public static int getThreads() {
+		
+		synchronized (all) {
+			return all.size();
+		}
+	}
+
+}
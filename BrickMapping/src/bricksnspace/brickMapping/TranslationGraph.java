@@ -0,0 +1,465 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+
+
+/**
+ * Precomputed translation graph between LDD, BrickLink and LDraw IDs.
+ * 
+ * When there is no rule for a direction, a translation is resolved 
+ * through intermediate catalog (BL to LDD, then LDD to LDraw for 
+ * BL2DAT), else through masterid family: if all mappings with source 
+ * ID belong to same family, and rules of that family for requested 
+ * direction agree on target ID. Ambiguous steps (duplicated rules, 
+ * more families, different targets) give no path.
+ * 
+ * Indirect paths are computed when graph is built, so every lookup 
+ * is a single hash lookup. Graph is immutable: a changed mapping 
+ * produces a new graph where only paths depending on that mapping 
+ * are computed again.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class TranslationGraph {
+	
+	// catalogs
+	private static final int LDD = 0;
+	private static final int BL = 1;
+	private static final int DAT = 2;
+	private static final MapDirection[][] DIRS = {
+		{null, MapDirection.LDD2BL, MapDirection.LDD2DAT},
+		{MapDirection.BL2LDD, null, MapDirection.BL2DAT},
+		{MapDirection.DAT2LDD, MapDirection.DAT2BL, null}
+	};
+	
+	private final PartMappingIndex direct;
+	private final List<PersistentHashMap<String,PartMapping[]>> ids;	// for every catalog: ID -> mappings using it
+	private final PersistentHashMap<String,PartMapping[]> families;		// masterid -> mappings
+	private final EnumMap<MapDirection,PersistentHashMap<String,TranslationPath>> paths;	// indirect paths only
+	
+	
+	
+	private TranslationGraph(PartMappingIndex direct, List<PersistentHashMap<String,PartMapping[]>> ids,
+			PersistentHashMap<String,PartMapping[]> families, 
+			EnumMap<MapDirection,PersistentHashMap<String,TranslationPath>> paths) {
+		
+		this.direct = direct;
+		this.ids = ids;
+		this.families = families;
+		this.paths = paths;
+	}
+	
+	
+	
+	/**
+	 * Builds graph
+	 * @param pml mappings, usually whole table
+	 * @return a new graph
+	 */
+	static TranslationGraph build(Collection<PartMapping> pml) {
+		
+		List<PersistentHashMap<String,PartMapping[]>> ids = new ArrayList<PersistentHashMap<String,PartMapping[]>>(3);
+		for (int c = LDD; c <= DAT; c++) {
+			ids.add(PersistentHashMap.<String,PartMapping[]>empty());
+		}
+		EnumMap<MapDirection,PersistentHashMap<String,TranslationPath>> paths = 
+				new EnumMap<MapDirection,PersistentHashMap<String,TranslationPath>>(MapDirection.class);
+		for (MapDirection d : MapDirection.values()) {
+			paths.put(d, PersistentHashMap.<String,TranslationPath>empty());
+		}
+		TranslationGraph empty = new TranslationGraph(null, ids, 
+				PersistentHashMap.<String,PartMapping[]>empty(), paths);
+		Editor e = empty.new Editor(PartMappingIndex.build(pml));
+		for (PartMapping pm : e.direct.all()) {
+			e.add(pm);
+		}
+		for (int s = LDD; s <= DAT; s++) {
+			for (String key : e.ids.get(s).keys()) {
+				e.update(s, key);
+			}
+		}
+		return e.build();
+	}
+	
+	
+	
+	/**
+	 * Returns a new graph with a mapping added or replaced (by mapid). 
+	 * New graph shares all unchanged maps entries with this one, so 
+	 * cost depends only on paths changed by mapping
+	 * @param pm inserted or updated mapping
+	 * @return a new graph, current graph is unchanged
+	 */
+	TranslationGraph with(PartMapping pm) {
+		
+		PartMapping old = direct.row(pm.getMapid());
+		Editor e = new Editor(direct.with(pm));
+		PartMapping cur = e.direct.row(pm.getMapid());
+		if (old != null)
+			e.remove(old);
+		e.add(cur);
+		List<HashSet<String>> affected = new ArrayList<HashSet<String>>(3);
+		for (int c = LDD; c <= DAT; c++) {
+			affected.add(new HashSet<String>());
+		}
+		e.affected(old, affected);
+		e.affected(cur, affected);
+		for (int s = LDD; s <= DAT; s++) {
+			for (String key : affected.get(s)) {
+				e.update(s, key);
+			}
+		}
+		return e.build();
+	}
+	
+	
+	
+	/**
+	 * Translation path for a source key
+	 * @param d translation direction
+	 * @param key lookup key (see {@link MapDirection#lookupKey(PartMapping)})
+	 * @return path found, or an empty path
+	 * @throws SQLException if there is a duplicated direct rule for key
+	 */
+	TranslationPath path(MapDirection d, String key) throws SQLException {
+		
+		if (key == null)
+			return TranslationPath.NONE;
+		PartMapping[] r = direct.rules(d, key);
+		if (r != null) {
+			if (r.length > 1)
+				throw new DuplicateMappingException(r[0]);
+			return new TranslationPath(d, Collections.singletonList(hop(d, r[0])), false);
+		}
+		TranslationPath p = paths.get(d).get(key);
+		return p == null ? TranslationPath.NONE : p;
+	}
+	
+	
+	
+	/**
+	 * @return number of indirect paths, all directions
+	 */
+	int indirectCount() {
+		
+		int n = 0;
+		for (PersistentHashMap<String,TranslationPath> m : paths.values()) {
+			n += m.size();
+		}
+		return n;
+	}
+	
+	
+	
+	private static int source(MapDirection d) {
+		
+		for (int s = LDD; s <= DAT; s++) {
+			for (int t = LDD; t <= DAT; t++) {
+				if (DIRS[s][t] == d)
+					return s;
+			}
+		}
+		return -1;
+	}
+	
+	
+	
+	private static int target(MapDirection d) {
+		
+		for (int s = LDD; s <= DAT; s++) {
+			for (int t = LDD; t <= DAT; t++) {
+				if (DIRS[s][t] == d)
+					return t;
+			}
+		}
+		return -1;
+	}
+	
+	
+	
+	/**
+	 * ID of a mapping in a catalog, as lookup key. Empty IDs are null
+	 */
+	private static String key(int catalog, PartMapping pm) {
+		
+		String id;
+		switch (catalog) {
+		case LDD:
+			id = pm.getDesignid();
+			if (id == null || id.length() == 0 || pm.getDecorid() == null)
+				return null;
+			return MapDirection.lddKey(id, pm.getDecorid());
+		case BL:
+			id = pm.getBlid();
+			break;
+		default:
+			id = pm.getLdrawid();
+		}
+		return id == null || id.length() == 0 ? null : id;
+	}
+	
+	
+	
+	private static TranslationPath.Hop hop(MapDirection d, PartMapping rule) {
+		
+		String from = key(source(d), rule);
+		String to = key(target(d), rule);
+		return new TranslationPath.Hop(d, rule, from == null ? "" : from, to == null ? "" : to);
+	}
+	
+	
+	
+	/**
+	 * Changes to a new graph, used only before publishing it. Maps are 
+	 * builders over maps of source graph, copied only where they change
+	 */
+	private final class Editor {
+		
+		final PartMappingIndex direct;
+		final List<PersistentHashMap.Builder<String,PartMapping[]>> ids = 
+				new ArrayList<PersistentHashMap.Builder<String,PartMapping[]>>(3);
+		final PersistentHashMap.Builder<String,PartMapping[]> families = 
+				TranslationGraph.this.families.builder();
+		final EnumMap<MapDirection,PersistentHashMap.Builder<String,TranslationPath>> paths = 
+				new EnumMap<MapDirection,PersistentHashMap.Builder<String,TranslationPath>>(MapDirection.class);
+		
+		
+		Editor(PartMappingIndex direct) {
+			
+			this.direct = direct;
+			for (PersistentHashMap<String,PartMapping[]> m : TranslationGraph.this.ids) {
+				ids.add(m.builder());
+			}
+			for (MapDirection d : MapDirection.values()) {
+				paths.put(d, TranslationGraph.this.paths.get(d).builder());
+			}
+		}
+		
+		
+		TranslationGraph build() {
+			
+			List<PersistentHashMap<String,PartMapping[]>> ni = new ArrayList<PersistentHashMap<String,PartMapping[]>>(3);
+			for (PersistentHashMap.Builder<String,PartMapping[]> b : ids) {
+				ni.add(b.build());
+			}
+			EnumMap<MapDirection,PersistentHashMap<String,TranslationPath>> np = 
+					new EnumMap<MapDirection,PersistentHashMap<String,TranslationPath>>(MapDirection.class);
+			for (MapDirection d : MapDirection.values()) {
+				np.put(d, paths.get(d).build());
+			}
+			return new TranslationGraph(direct, ni, families.build(), np);
+		}
+		
+		
+		/**
+		 * Computes indirect path for a source key in all directions from its catalog
+		 */
+		void update(int s, String key) {
+			
+			for (int t = LDD; t <= DAT; t++) {
+				if (t == s)
+					continue;
+				MapDirection d = DIRS[s][t];
+				TranslationPath p = resolve(s, t, key);
+				if (p == null)
+					paths.get(d).remove(key);
+				else
+					paths.get(d).put(key, p);
+			}
+		}
+		
+		
+		/**
+		 * @return indirect path, or null if there is a direct rule or no path
+		 */
+		TranslationPath resolve(int s, int t, String key) {
+			
+			MapDirection d = DIRS[s][t];
+			if (direct.rules(d, key) != null)
+				return null;
+			// through intermediate catalog
+			int y = 3 - s - t;
+			PartMapping[] h1 = direct.rules(DIRS[s][y], key);
+			if (h1 != null && h1.length == 1) {
+				PartMapping[] h2 = direct.rules(DIRS[y][t], key(y, h1[0]));
+				if (h2 != null && h2.length == 1) {
+					return new TranslationPath(d, Arrays.asList(hop(DIRS[s][y], h1[0]), 
+							hop(DIRS[y][t], h2[0])), false);
+				}
+			}
+			// through masterid family
+			PartMapping[] src = ids.get(s).get(key);
+			if (src == null)
+				return null;
+			String master = null;
+			for (PartMapping pm : src) {
+				String m = pm.getMasterid();
+				if (m == null || m.length() == 0)
+					continue;
+				if (master == null)
+					master = m;
+				else if (!master.equals(m))
+					return null;
+			}
+			if (master == null)
+				return null;
+			PartMapping found = null;
+			String to = null;
+			for (PartMapping pm : families.get(master)) {
+				if (!d.isSet(pm))
+					continue;
+				String k = key(t, pm);
+				if (k == null)
+					continue;
+				if (found == null) {
+					found = pm;
+					to = k;
+				}
+				else if (!to.equals(k)) {
+					return null;
+				}
+			}
+			if (found == null)
+				return null;
+			return new TranslationPath(d, Arrays.asList(new TranslationPath.Hop(null, null, key, master), 
+					hop(d, found)), true);
+		}
+		
+		
+		/**
+		 * Collects source keys whose paths can use a mapping
+		 */
+		void affected(PartMapping pm, List<HashSet<String>> affected) {
+			
+			if (pm == null)
+				return;
+			for (int s = LDD; s <= DAT; s++) {
+				String k = key(s, pm);
+				if (k != null)
+					affected.get(s).add(k);
+			}
+			// mapping as second step: sources with a first step landing on it
+			for (MapDirection d : MapDirection.values()) {
+				if (!d.isSet(pm))
+					continue;
+				int y = source(d);
+				String k = key(y, pm);
+				PartMapping[] mid = k == null ? null : ids.get(y).get(k);
+				if (mid == null)
+					continue;
+				for (PartMapping r : mid) {
+					for (int s = LDD; s <= DAT; s++) {
+						if (s != y && DIRS[s][y].isSet(r)) {
+							String sk = key(s, r);
+							if (sk != null)
+								affected.get(s).add(sk);
+						}
+					}
+				}
+			}
+			// family members
+			String m = pm.getMasterid();
+			PartMapping[] fam = m == null || m.length() == 0 ? null : families.get(m);
+			if (fam != null) {
+				for (PartMapping r : fam) {
+					for (int s = LDD; s <= DAT; s++) {
+						String k = key(s, r);
+						if (k != null)
+							affected.get(s).add(k);
+					}
+				}
+			}
+		}
+		
+		
+		void add(PartMapping pm) {
+			
+			for (int c = LDD; c <= DAT; c++) {
+				append(ids.get(c), key(c, pm), pm);
+			}
+			String m = pm.getMasterid();
+			if (m != null && m.length() > 0)
+				append(families, m, pm);
+		}
+		
+		
+		void remove(PartMapping pm) {
+			
+			for (int c = LDD; c <= DAT; c++) {
+				delete(ids.get(c), key(c, pm), pm);
+			}
+			String m = pm.getMasterid();
+			if (m != null && m.length() > 0)
+				delete(families, m, pm);
+		}
+		
+		
+		private void append(PersistentHashMap.Builder<String,PartMapping[]> m, String key, PartMapping pm) {
+			
+			if (key == null)
+				return;
+			PartMapping[] old = m.get(key);
+			if (old == null) {
+				m.put(key, new PartMapping[] {pm});
+				return;
+			}
+			PartMapping[] n = Arrays.copyOf(old, old.length+1);
+			n[old.length] = pm;
+			m.put(key, n);
+		}
+		
+		
+		private void delete(PersistentHashMap.Builder<String,PartMapping[]> m, String key, PartMapping pm) {
+			
+			if (key == null)
+				return;
+			PartMapping[] old = m.get(key);
+			if (old == null)
+				return;
+			int i = 0;
+			while (i < old.length && old[i] != pm)
+				i++;
+			if (i == old.length)
+				return;
+			if (old.length == 1) {
+				m.remove(key);
+				return;
+			}
+			PartMapping[] n = new PartMapping[old.length-1];
+			System.arraycopy(old, 0, n, 0, i);
+			System.arraycopy(old, i+1, n, i, n.length-i);
+			m.put(key, n);
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,188 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+
+
+package bricksnspace.brickMapping;
+
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Result of a translation through the translation graph (see 
+ * {@link PartMapping#resolve(MapDirection, String, String)}), with 
+ * rules used to reach target ID.
+ * 
+ * A path can be direct (a single rule), go through intermediate 
+ * catalog (BL to LDD to LDraw...) or through a masterid family, when 
+ * a mapping of same family has a rule for requested direction.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public final class TranslationPath {
+	
+	/**
+	 * A step in path
+	 */
+	public static final class Hop {
+		
+		private final MapDirection direction;
+		private final PartMapping rule;
+		private final String from;
+		private final String to;
+		
+		
+		Hop(MapDirection direction, PartMapping rule, String from, String to) {
+			
+			this.direction = direction;
+			this.rule = rule;
+			this.from = from;
+			this.to = to;
+		}
+
+
+		/** @return direction of rule used, null for a step to masterid family */
+		public MapDirection getDirection() {
+			return direction;
+		}
+
+
+		/** @return a copy of rule used, empty mapping for a step to family */
+		public PartMapping getRule() {
+			return rule == null ? new PartMapping() : rule.clone();
+		}
+
+
+		/** @return source ID (LDD IDs as designid and decorid, tab separated) */
+		public String getFrom() {
+			return from;
+		}
+
+
+		/** @return target ID, or masterid for a step to family */
+		public String getTo() {
+			return to;
+		}
+		
+		
+		@Override
+		public String toString() {
+			return from.replace('\t', '/')+" -"+(direction == null ? "masterid" : direction.flagColumn())+
+					"-> "+to.replace('\t', '/');
+		}
+	}
+	
+	
+	
+	/** Path for an ID that can't be translated */
+	static final TranslationPath NONE = new TranslationPath(null, Collections.<Hop>emptyList(), false);
+	
+	private final MapDirection direction;
+	private final List<Hop> hops;
+	private final boolean family;
+	
+	
+	
+	TranslationPath(MapDirection direction, List<Hop> hops, boolean family) {
+		
+		this.direction = direction;
+		this.hops = Collections.unmodifiableList(hops);
+		this.family = family;
+	}
+	
+	
+	
+	/**
+	 * @return true if ID can't be translated
+	 */
+	public boolean isEmpty() {
+		return hops.isEmpty();
+	}
+	
+	
+	
+	/**
+	 * @return true if translation is a single rule
+	 */
+	public boolean isDirect() {
+		return hops.size() == 1;
+	}
+	
+	
+	
+	/**
+	 * @return true if path goes through a masterid family
+	 */
+	public boolean isFamily() {
+		return family;
+	}
+	
+	
+	
+	/**
+	 * @return requested direction, null for an empty path
+	 */
+	public MapDirection getDirection() {
+		return direction;
+	}
+	
+	
+	
+	/**
+	 * @return steps from source to target ID
+	 */
+	public List<Hop> getHops() {
+		return hops;
+	}
+	
+	
+	
+	/**
+	 * Mapping with target ID, like the one returned by direct translation 
+	 * methods (lddToBlink()...). For indirect paths it is the last rule 
+	 * in path
+	 * @return a copy of last rule, or an empty mapping
+	 */
+	public PartMapping getResult() {
+		
+		if (hops.isEmpty())
+			return new PartMapping();
+		return hops.get(hops.size()-1).getRule();
+	}
+	
+	
+	
+	@Override
+	public String toString() {
+		
+		if (hops.isEmpty())
+			return "(no path)";
+		StringBuilder sb = new StringBuilder();
+		sb.append(hops.get(0).getFrom().replace('\t', '/'));
+		for (Hop h : hops) {
+			sb.append(" -").append(h.getDirection() == null ? "masterid" : h.getDirection().flagColumn())
+				.append("-> ").append(h.getTo().replace('\t', '/'));
+		}
+		return sb.toString();
+	}
+
+}
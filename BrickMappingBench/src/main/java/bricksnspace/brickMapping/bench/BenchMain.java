@@ -0,0 +1,55 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping.bench;
+
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs benchmarks with allocation profiler. Throughput and latency 
+ * percentiles (sample mode) come from benchmark modes, allocation rate 
+ * from gc profiler (gc.alloc.rate.norm is bytes per operation).
+ * Results are written to bench-result.json too.
+ * 
+ * Usage: java -jar benchmarks.jar [regexp of benchmarks to run]
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class BenchMain {
+
+	public static void main(String[] args) throws RunnerException {
+		
+		Options opt = new OptionsBuilder()
+				.include(args.length > 0 ? args[0] : ".*Bench.*")
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("bench-result.json")
+				.build();
+		new Runner(opt).run();
+	}
+
+}
@@ -0,0 +1,218 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping.bench;
+
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import bricksnspace.brickMapping.BrickColor;
+import bricksnspace.brickMapping.BrickMapping;
+import bricksnspace.brickMapping.BulkImport;
+import bricksnspace.brickMapping.PartMapping;
+import bricksnspace.dbconnector.DBConnector;
+
+
+/**
+ * Embedded H2 database with a synthetic catalog, shared by all benchmarks.
+ * 
+ * Catalog looks like the real one: numeric design IDs, BrickLink IDs 
+ * equal to design ID or with a suffix, printed variants with decoration 
+ * ID, LDraw IDs with ".dat", names built from common part words. 
+ * About 10% of lookup keys don't exist, to measure misses too.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@State(Scope.Benchmark)
+public class Catalog {
+	
+	private static final String[] SHAPES = { "Brick", "Plate", "Tile", "Slope", "Technic Beam", 
+			"Technic Axle", "Panel", "Wedge", "Bracket", "Hinge", "Minifig Torso", "Cone" };
+	private static final String[] SIZES = { "1 x 1", "1 x 2", "1 x 4", "2 x 2", "2 x 4", 
+			"1 x 6", "2 x 6", "4 x 4", "6 x 6", "1 x 8" };
+	private static final String[] EXTRAS = { "", "", "", "with Groove", "Round", "Curved", 
+			"with Pin Hole", "Inverted", "with Clip", "Modified" };
+	
+	/** number of part mappings */
+	@Param({"20000"})
+	public int parts;
+	
+	/** translations from in-memory index or from database */
+	@Param({"false", "true"})
+	public boolean useIndex;
+	
+	public static final int COLORS = 180;
+	public static final int KEYS = 4096;	// power of 2
+	
+	private File dir;
+	private DBConnector db;
+	
+	// lookup keys, ~10% missing
+	public String[] designid = new String[KEYS];
+	public String[] decorid = new String[KEYS];
+	public String[] blid = new String[KEYS];
+	public String[] ldrawid = new String[KEYS];
+	public int[] blColor = new int[KEYS];
+	public int[] ldrColor = new int[KEYS];
+	public int[] colorId = new int[KEYS];
+	public String[] fts = new String[KEYS];
+	
+	
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		
+		dir = Files.createTempDirectory("bmbench").toFile();
+		db = open(dir);
+		BrickMapping.Init(db, useIndex);
+		Random r = new Random(17);
+		ArrayList<PartMapping> rows = new ArrayList<PartMapping>(parts);
+		BulkImport bi = new BulkImport(BulkImport.DEFAULT_BATCH);
+		for (int i = 0; i < parts; i++) {
+			PartMapping pm = part(i, r);
+			rows.add(pm);
+			bi.add(pm);
+		}
+		for (int i = 1; i <= COLORS; i++) {
+			bi.add(color(i, r));
+		}
+		bi.flush();
+		
+		for (int i = 0; i < KEYS; i++) {
+			PartMapping pm = rows.get(r.nextInt(parts));
+			boolean miss = r.nextInt(10) == 0;
+			designid[i] = miss ? "99"+pm.getDesignid() : pm.getDesignid();
+			decorid[i] = pm.getDecorid();
+			blid[i] = miss ? pm.getBlid()+"zz" : pm.getBlid();
+			ldrawid[i] = miss ? "u"+pm.getLdrawid() : pm.getLdrawid();
+			blColor[i] = miss ? 9000+i : 1+r.nextInt(COLORS);
+			ldrColor[i] = miss ? 9000+i : 2*(1+r.nextInt(COLORS));
+			colorId[i] = miss ? 9000+i : 1+r.nextInt(COLORS);
+			String[] w = pm.getName().split(" ");
+			fts[i] = r.nextBoolean() ? w[0] : w[0]+" "+w[1];
+		}
+	}
+	
+	
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+	
+	
+	
+	/**
+	 * @return connector to benchmark database
+	 */
+	DBConnector getDb() {
+		return db;
+	}
+	
+	
+	
+	/**
+	 * Opens an H2 database through DBConnector, as application does
+	 * @param dir database directory
+	 * @return connector
+	 * @throws Exception
+	 */
+	static DBConnector open(File dir) throws Exception {
+		
+		return new DBConnector(new File(dir, "catalog").getPath(), "sa", "");
+	}
+	
+	
+	
+	/**
+	 * Synthetic part mapping number i
+	 */
+	static PartMapping part(int i, Random r) {
+		
+		PartMapping pm = new PartMapping();
+		String design = Integer.toString(3000+i);
+		boolean printed = r.nextInt(10) == 0;
+		pm.setMapid(i+1);
+		pm.setDesignid(design);
+		pm.setMasterid(design);
+		pm.setDecorid(printed ? Integer.toString(100000+i) : "");
+		switch (r.nextInt(4)) {
+		case 0:
+			pm.setBlid(design+"b");
+			break;
+		case 1:
+			pm.setBlid("x"+design);
+			break;
+		default:
+			pm.setBlid(design);
+		}
+		if (printed) 
+			pm.setBlid(pm.getBlid()+"pb"+(i%1000));
+		pm.setLdrawid(design+(printed ? "p"+(i%100) : "")+".dat");
+		pm.setName((SHAPES[r.nextInt(SHAPES.length)]+" "+SIZES[r.nextInt(SIZES.length)]+" "+
+				EXTRAS[r.nextInt(EXTRAS.length)]).trim());
+		pm.setLdd2bl(true);
+		pm.setBl2ldd(true);
+		pm.setLdd2dat(r.nextInt(10) != 0);
+		pm.setDat2ldd(pm.isLdd2dat());
+		pm.setBl2dat(r.nextInt(10) != 0);
+		pm.setDat2bl(pm.isBl2dat());
+		return pm;
+	}
+	
+	
+	
+	/**
+	 * Synthetic color number i
+	 */
+	static BrickColor color(int i, Random r) {
+		
+		BrickColor bc = new BrickColor();
+		bc.setMapid(i);
+		bc.setLdd(i);
+		bc.setBl(i);
+		bc.setLdraw(2*i);
+		bc.setColor(new java.awt.Color(r.nextInt(256), r.nextInt(256), r.nextInt(256), 
+				r.nextInt(4) == 0 ? 128 : 255));
+		bc.setInProduction(r.nextBoolean());
+		bc.setTransparent(bc.getColor().getAlpha() < 255);
+		bc.setLddName("Color "+i);
+		bc.setColorGroup(r.nextInt(8));
+		return bc;
+	}
+
+}
@@ -0,0 +1,48 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping.bench;
+
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Per-thread position in lookup keys of {@link Catalog}
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@State(Scope.Thread)
+public class Cursor {
+	
+	private int i = 0;
+	
+	
+	/**
+	 * @return next key index
+	 */
+	public int next() {
+		
+		i = (i + 1) & (Catalog.KEYS - 1);
+		return i;
+	}
+
+}
@@ -0,0 +1,122 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping.bench;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bricksnspace.brickMapping.BrickColor;
+import bricksnspace.brickMapping.PartMapping;
+
+
+/**
+ * XML export of whole catalog, read from database and written to a 
+ * discarding stream
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBench {
+	
+	@State(Scope.Thread)
+	public static class Sink {
+		
+		XMLOutputFactory factory;
+		OutputStream out;
+		
+		
+		@Setup(Level.Trial)
+		public void setup() {
+			
+			factory = XMLOutputFactory.newInstance();
+			out = new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					// discard
+				}
+				
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					// discard
+				}
+			};
+		}
+	}
+	
+	
+	@Benchmark
+	public void xmlWriteParts(Catalog c, Sink s) throws SQLException, XMLStreamException {
+		
+		ArrayList<PartMapping> pml = PartMapping.get(null);
+		XMLStreamWriter xsw = s.factory.createXMLStreamWriter(s.out, "UTF-8");
+		xsw.writeStartDocument();
+		xsw.writeStartElement("parts");
+		for (PartMapping pm : pml) {
+			pm.XMLWrite(xsw);
+		}
+		xsw.writeEndElement();
+		xsw.writeEndDocument();
+		xsw.close();
+	}
+	
+	
+	@Benchmark
+	public void xmlWriteColors(Catalog c, Sink s) throws SQLException, XMLStreamException {
+		
+		Collection<BrickColor> bcl = BrickColor.getAllColor().values();
+		XMLStreamWriter xsw = s.factory.createXMLStreamWriter(s.out, "UTF-8");
+		xsw.writeStartDocument();
+		xsw.writeStartElement("colors");
+		for (BrickColor bc : bcl) {
+			if (bc.getMapid() != 0)
+				bc.XMLWrite(xsw);
+		}
+		xsw.writeEndElement();
+		xsw.writeEndDocument();
+		xsw.close();
+	}
+
+}
@@ -0,0 +1,101 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping.bench;
+
+
+import java.util.ArrayList;
+
+import bricksnspace.brickMapping.CompactCatalog;
+import bricksnspace.brickMapping.PartMapping;
+
+
+/**
+ * Heap retained by a whole catalog: list of PartMapping from 
+ * {@link PartMapping#get(String)} against {@link CompactCatalog}.
+ * JMH doesn't measure retained heap, so this one runs on its own, 
+ * with the same synthetic catalog of benchmarks.
+ * 
+ * Catalog must be bigger than database cache: if all rows are in cache, 
+ * strings in list are shared with cache and only PartMapping objects 
+ * are counted. With 60000 parts list takes about 270 bytes per part, 
+ * compact catalog 67 (4x).
+ * 
+ * Usage: java -cp benchmarks.jar bricksnspace.brickMapping.bench.HeapBench [parts, default 60000]
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class HeapBench {
+	
+	private static final int ROUNDS = 3;
+	
+	
+	
+	public static void main(String[] args) throws Exception {
+		
+		Catalog c = new Catalog();
+		c.parts = args.length > 0 ? Integer.parseInt(args[0]) : 60000;
+		c.useIndex = false;
+		c.setup();
+		try {
+			// fills database cache, so it isn't counted in measures
+			PartMapping.get(null);
+			long list = 0, compact = 0;
+			for (int i = 0; i < ROUNDS; i++) {
+				long base = used();
+				ArrayList<PartMapping> pml = PartMapping.get(null);
+				list += used() - base;
+				CompactCatalog cc = CompactCatalog.build(pml);
+				pml = null;
+				compact += used() - base;
+				// keeps catalog reachable until measured
+				if (cc.size() != c.parts)
+					throw new IllegalStateException("Catalog has "+cc.size()+" rows, expected "+c.parts);
+			}
+			list /= ROUNDS;
+			compact /= ROUNDS;
+			System.out.printf("%d parts%n", c.parts);
+			System.out.printf("ArrayList<PartMapping>  %10d bytes  %6.1f bytes/part%n", list, (double)list/c.parts);
+			System.out.printf("CompactCatalog          %10d bytes  %6.1f bytes/part%n", compact, (double)compact/c.parts);
+			System.out.printf("ratio                   %10.2f%n", (double)list/compact);
+		}
+		finally {
+			c.tearDown();
+		}
+	}
+	
+	
+	
+	/**
+	 * @return heap used after a full collection
+	 */
+	private static long used() throws InterruptedException {
+		
+		Runtime rt = Runtime.getRuntime();
+		long u = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(50);
+			u = Math.min(u, rt.totalMemory() - rt.freeMemory());
+		}
+		return u;
+	}
+
+}
@@ -0,0 +1,107 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping.bench;
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bricksnspace.brickMapping.BulkImport;
+import bricksnspace.brickMapping.PartMapping;
+
+
+/**
+ * Update file import: row by row with updateMapping() and with BulkImport. 
+ * Every invocation imports {@value #ROWS} rows, 90% updates and 10% new 
+ * rows; scores are per row.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImportBench {
+	
+	static final int ROWS = 200;
+	
+	
+	@State(Scope.Thread)
+	public static class Batch {
+		
+		ArrayList<PartMapping> rows = new ArrayList<PartMapping>(ROWS);
+		private final Random r = new Random(5);
+		private int next = 10000000;
+		
+		
+		@Setup(Level.Invocation)
+		public void setup(Catalog c) {
+			
+			rows.clear();
+			for (int i = 0; i < ROWS; i++) {
+				boolean insert = r.nextInt(10) == 0;
+				PartMapping pm = Catalog.part(insert ? next++ : r.nextInt(c.parts), r);
+				if (insert) 
+					pm.setMapid(0);
+				rows.add(pm);
+			}
+		}
+	}
+	
+	
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void updateMapping(Batch b) throws SQLException {
+		
+		for (PartMapping pm : b.rows) {
+			pm.updateMapping();
+		}
+	}
+	
+	
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void bulkImport(Batch b) throws SQLException {
+		
+		BulkImport bi = new BulkImport(BulkImport.DEFAULT_BATCH);
+		for (PartMapping pm : b.rows) {
+			bi.add(pm);
+		}
+		bi.flush();
+	}
+
+}
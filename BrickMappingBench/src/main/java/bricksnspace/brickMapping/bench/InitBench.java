@@ -0,0 +1,131 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping.bench;
+
+
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import bricksnspace.brickMapping.BrickMapping;
+import bricksnspace.brickMapping.InitMode;
+import bricksnspace.brickMapping.PartMapping;
+import bricksnspace.dbconnector.DBConnector;
+
+
+/**
+ * Init time by phase with {@link InitMode#EAGER} and {@link InitMode#PARALLEL}, 
+ * with in-memory index, on synthetic catalog of benchmarks. Wall time 
+ * is from Init to end of {@link BrickMapping#awaitInit()}.
+ * 
+ * Two cases: a database with table indexes (usual start) and a 
+ * database where table indexes must be created (first start after an 
+ * upgrade). All steps use the same database session, so only Java side 
+ * of steps (reading rows into in-memory index) overlaps database work. 
+ * With 60000 parts on a single CPU wall time is the same in both modes 
+ * (1.5 s, 4.1 s creating table indexes): steps in parallel wait for 
+ * each other and their own times add up to more than wall time.
+ * 
+ * Usage: java -cp benchmarks.jar bricksnspace.brickMapping.bench.InitBench [parts, default 60000]
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class InitBench {
+	
+	private static final int ROUNDS = 5;
+	private static final String[] INDEXES = { "pm_lddecor", "pm_masterid", "pm_blid", 
+			"pm_ldrawid", "pm_lastmod" };
+	
+	
+	
+	public static void main(String[] args) throws Exception {
+		
+		Catalog c = new Catalog();
+		c.parts = args.length > 0 ? Integer.parseInt(args[0]) : 60000;
+		c.useIndex = true;
+		c.setup();
+		try {
+			DBConnector db = c.getDb();
+			System.out.printf("%d parts, %d rounds, ms%n", c.parts, ROUNDS);
+			for (boolean newIndexes : new boolean[] {false, true}) {
+				System.out.println(newIndexes ? "table indexes created on init" : "table indexes exist");
+				// warm up
+				init(db, InitMode.EAGER, newIndexes, null);
+				init(db, InitMode.PARALLEL, newIndexes, null);
+				Map<String,Long> eager = new LinkedHashMap<String,Long>();
+				Map<String,Long> parallel = new LinkedHashMap<String,Long>();
+				for (int i = 0; i < ROUNDS; i++) {
+					init(db, InitMode.EAGER, newIndexes, eager);
+					init(db, InitMode.PARALLEL, newIndexes, parallel);
+				}
+				System.out.printf("  %-10s %10s %10s%n", "phase", "EAGER", "PARALLEL");
+				for (String phase : eager.keySet()) {
+					System.out.printf("  %-10s %10.1f %10.1f%n", phase, 
+							eager.get(phase)/1e6/ROUNDS, parallel.get(phase)/1e6/ROUNDS);
+				}
+			}
+		}
+		finally {
+			c.tearDown();
+		}
+	}
+	
+	
+	
+	/**
+	 * Runs an Init and adds its phase timings to totals
+	 */
+	private static void init(DBConnector db, InitMode mode, boolean newIndexes, 
+			Map<String,Long> totals) throws Exception {
+		
+		if (newIndexes) {
+			try (Statement st = db.createStatement()) {
+				for (String idx : INDEXES) {
+					st.executeUpdate("DROP INDEX IF EXISTS "+idx);
+				}
+			}
+		}
+		System.gc();
+		long t = System.nanoTime();
+		BrickMapping.Init(db, true, mode);
+		BrickMapping.awaitInit();
+		long wall = System.nanoTime() - t;
+		// index is really built
+		if (PartMapping.lddToBlink("3000", "").getMapid() == 0)
+			throw new IllegalStateException("Part 3000 not found");
+		if (totals == null)
+			return;
+		Map<String,Long> phases = new LinkedHashMap<String,Long>();
+		long sum = 0;
+		for (String p : new String[] {"schema", "parts", "colors", "changelog", "index"}) {
+			Long n = BrickMapping.getInitTimings().get(p);
+			phases.put(p, n == null ? 0 : n);
+			sum += n == null ? 0 : n;
+		}
+		phases.put("sum", sum);
+		phases.put("wall", wall);
+		for (Map.Entry<String,Long> e : phases.entrySet()) {
+			Long old = totals.get(e.getKey());
+			totals.put(e.getKey(), e.getValue() + (old == null ? 0 : old));
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping.bench;
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bricksnspace.brickMapping.BrickColor;
+import bricksnspace.brickMapping.PartMapping;
+import bricksnspace.brickMapping.StatementPool;
+
+
+/**
+ * Throughput of lookups with 1, 2, 4 and all available threads, part 
+ * translations from database or from in-memory index and color lookups, 
+ * on synthetic catalog of benchmarks. Every operation is a translation 
+ * of each kind (LDD, BrickLink, LDraw) and a BrickLink and LDraw color 
+ * lookup.
+ * 
+ * All threads share library database session, where H2 runs one 
+ * statement at a time, so translations from database don't scale with 
+ * threads. In-memory index and color cache scale up to number of CPU.
+ * 
+ * Usage: java -cp benchmarks.jar bricksnspace.brickMapping.bench.ScalingBench [parts, default 20000]
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class ScalingBench {
+	
+	private static final long WARMUP = 5000;	// ms
+	private static final long MEASURE = 3000;	// ms
+	
+	
+	
+	public static void main(String[] args) throws Exception {
+		
+		TreeSet<Integer> threads = new TreeSet<Integer>();
+		threads.add(1);
+		threads.add(2);
+		threads.add(4);
+		threads.add(Runtime.getRuntime().availableProcessors());
+		System.out.printf("%d CPU%n", Runtime.getRuntime().availableProcessors());
+		for (boolean useIndex : new boolean[] {false, true}) {
+			Catalog c = new Catalog();
+			c.parts = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+			c.useIndex = useIndex;
+			c.setup();
+			try {
+				System.out.println(useIndex ? "in-memory index" : "database");
+				System.out.printf("  %-8s %12s %8s%n", "threads", "ops/ms", "speedup");
+				// warms up all thread counts first, so first one isn't slower
+				for (int n : threads) {
+					run(c, n, WARMUP);
+				}
+				double single = 0;
+				for (int n : threads) {
+					double ops = run(c, n, MEASURE) / (double) MEASURE;
+					if (n == 1)
+						single = ops;
+					System.out.printf("  %-8d %12.1f %8.2f%n", n, ops, ops/single);
+				}
+			}
+			finally {
+				c.tearDown();
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Runs lookups on n threads for some time
+	 * @return operations done
+	 */
+	private static long run(final Catalog c, int n, long millis) throws Exception {
+		
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final AtomicLong ops = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+		ArrayList<Thread> tl = new ArrayList<Thread>();
+		for (int t = 0; t < n; t++) {
+			final int first = t * (Catalog.KEYS / n);
+			Thread th = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long done = 0;
+					try {
+						start.await();
+						int i = first;
+						while (!stop.get()) {
+							lookup(c, i);
+							i = (i+1) & (Catalog.KEYS-1);
+							done++;
+						}
+					} catch (InterruptedException | SQLException | RuntimeException e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					} finally {
+						ops.addAndGet(done);
+						StatementPool.releaseThread();
+					}
+				}
+			});
+			th.start();
+			tl.add(th);
+		}
+		start.countDown();
+		Thread.sleep(millis);
+		stop.set(true);
+		for (Thread th : tl) {
+			th.join();
+		}
+		if (!errors.isEmpty())
+			throw new IllegalStateException("Lookup failed: "+errors.get(0), errors.get(0));
+		return ops.get();
+	}
+	
+	
+	
+	private static void lookup(Catalog c, int i) throws SQLException {
+		
+		PartMapping.lddToBlink(c.designid[i], c.decorid[i]);
+		PartMapping.blinkToLDraw(c.blid[i]);
+		PartMapping.ldrawToLdd(c.ldrawid[i]);
+		BrickColor.getMapByBl(c.blColor[i]);
+		BrickColor.getMapByLdr(c.ldrColor[i]);
+	}
+
+}
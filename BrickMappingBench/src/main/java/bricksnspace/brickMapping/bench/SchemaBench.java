@@ -0,0 +1,272 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping.bench;
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Random;
+
+import bricksnspace.brickMapping.BrickColor;
+import bricksnspace.brickMapping.BulkImport;
+import bricksnspace.brickMapping.PartMapping;
+import bricksnspace.dbconnector.DBConnector;
+
+
+/**
+ * Query plans and timings of translation, check and sync queries with 
+ * index layouts of schema version 1, of schema version 2 and with 
+ * composite indexes on ID, decoration and direction flags.
+ * 
+ * Synthetic catalog of benchmarks is used, plus families of decorated 
+ * parts sharing a design ID, as minifig torsos or printed tiles.
+ * 
+ * Usage: java -cp benchmarks.jar bricksnspace.brickMapping.bench.SchemaBench [parts, default 60000]
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class SchemaBench {
+	
+	private static final int ROUNDS = 5;
+	private static final int FAMILIES = 50;		// decorated design IDs
+	private static final int PRINTS = 300;		// decorations for every design ID
+	private static final int SYNCKEYS = 8;		// sync queries without index scan whole table
+	
+	private static final String PARTS = "SELECT mapid,"+PartMapping.fieldsOrder+" FROM "+PartMapping.table;
+	private static final String CHECK = "SELECT designid,blid,ldrawid FROM "+PartMapping.table;
+	
+	// lookup keys
+	private static final int PLAIN = 0;
+	private static final int PRINTED = 1;
+	private static final int SYNC = 2;
+	
+	/** queries as in PartMapping and BrickColor: name, keys, SQL */
+	private static final Object[][] QUERIES = {
+		{ "ldd2bl", PLAIN, PARTS+" WHERE designid=? and ldd2bl and decorid=?" },
+		{ "ldd2bl print", PRINTED, PARTS+" WHERE designid=? and ldd2bl and decorid=?" },
+		{ "bl2ldd", PLAIN, PARTS+" WHERE blid=? and bl2ldd" },
+		{ "dat2bl", PLAIN, PARTS+" WHERE ldrawid=? and dat2bl" },
+		{ "check ldd2bl", PLAIN, CHECK+" WHERE designid=? AND decorid=? AND ldd2bl AND mapid!=?" },
+		{ "check ldd2bl print", PRINTED, CHECK+" WHERE designid=? AND decorid=? AND ldd2bl AND mapid!=?" },
+		{ "check bl2ldd", PLAIN, CHECK+" WHERE blid=? AND decorid=? AND bl2ldd AND mapid!=?" },
+		{ "check dat2ldd", PLAIN, CHECK+" WHERE ldrawid=? AND decorid=? AND dat2ldd AND mapid!=?" },
+		{ "parts modified", SYNC, PARTS+" WHERE lastmod>=?" },
+		{ "colors modified", SYNC, "SELECT mapid,"+BrickColor.fieldsOrder+" FROM "+BrickColor.table+" WHERE lastmod>=?" },
+	};
+	
+	/** all indexes created by layouts, dropped before switching */
+	private static final String[] INDEXES = { "pm_mapid", "pm_lddid", "pm_lddecor", "pm_blid", "pm_ldrawid", 
+			"pm_lddmap", "pm_blmap", "pm_ldrmap", "pm_lastmod", "color_lastmod" };
+	
+	/** index layouts: name, indexes */
+	private static final String[][] LAYOUTS = {
+		{ "v1",
+			"pm_mapid ON "+PartMapping.table+"(mapid)",
+			"pm_lddid ON "+PartMapping.table+"(designid)",
+			"pm_blid ON "+PartMapping.table+"(blid)",
+			"pm_ldrawid ON "+PartMapping.table+"(ldrawid)" },
+		{ "composite",
+			"pm_lddmap ON "+PartMapping.table+"(designid,decorid,ldd2bl,ldd2dat)",
+			"pm_blmap ON "+PartMapping.table+"(blid,decorid,bl2ldd,bl2dat)",
+			"pm_ldrmap ON "+PartMapping.table+"(ldrawid,decorid,dat2ldd,dat2bl)",
+			"pm_lastmod ON "+PartMapping.table+"(lastmod)",
+			"color_lastmod ON "+BrickColor.table+"(lastmod)" },
+		{ "v2",
+			"pm_lddecor ON "+PartMapping.table+"(designid,decorid)",
+			"pm_blid ON "+PartMapping.table+"(blid)",
+			"pm_ldrawid ON "+PartMapping.table+"(ldrawid)",
+			"pm_lastmod ON "+PartMapping.table+"(lastmod)",
+			"color_lastmod ON "+BrickColor.table+"(lastmod)" },
+	};
+	
+	
+	
+	public static void main(String[] args) throws Exception {
+		
+		Catalog c = new Catalog();
+		c.parts = args.length > 0 ? Integer.parseInt(args[0]) : 60000;
+		c.useIndex = false;
+		c.setup();
+		try {
+			DBConnector db = c.getDb();
+			addPrinted(c.parts);
+			long[][] ns = new long[LAYOUTS.length][QUERIES.length];
+			// first pass warms up
+			for (int p = 0; p < 2; p++) {
+				for (int l = 0; l < LAYOUTS.length; l++) {
+					layout(db, l);
+					if (p > 0)
+						System.out.println("==== "+LAYOUTS[l][0]);
+					for (int q = 0; q < QUERIES.length; q++) {
+						if (p > 0)
+							System.out.println(QUERIES[q][0]+": "+plan(db, q, c));
+						ns[l][q] = time(db, q, c);
+					}
+				}
+			}
+			System.out.println("==== ns per query");
+			System.out.printf("%-20s", "query");
+			for (String[] l : LAYOUTS) {
+				System.out.printf(" %12s", l[0]);
+			}
+			System.out.println();
+			for (int q = 0; q < QUERIES.length; q++) {
+				System.out.printf("%-20s", QUERIES[q][0]);
+				for (int l = 0; l < LAYOUTS.length; l++) {
+					System.out.printf(" %12d", ns[l][q]);
+				}
+				System.out.println();
+			}
+		}
+		finally {
+			c.tearDown();
+		}
+	}
+	
+	
+	
+	/**
+	 * Adds decorated parts: design ID "97"+family, decoration ID family*1000+print
+	 */
+	private static void addPrinted(int parts) throws SQLException {
+		
+		BulkImport bi = new BulkImport(BulkImport.DEFAULT_BATCH);
+		int mapid = parts;
+		for (int f = 0; f < FAMILIES; f++) {
+			for (int i = 0; i < PRINTS; i++) {
+				PartMapping pm = new PartMapping();
+				pm.setMapid(++mapid);
+				pm.setDesignid("97"+f);
+				pm.setMasterid("97"+f);
+				pm.setDecorid(Integer.toString(f*1000+i));
+				pm.setBlid("97"+f+"pb"+i);
+				pm.setLdrawid("97"+f+"p"+i+".dat");
+				pm.setName("Minifig Torso Pattern "+i);
+				pm.setLdd2bl(true);
+				pm.setBl2ldd(true);
+				pm.setLdd2dat(true);
+				pm.setDat2ldd(true);
+				bi.add(pm);
+			}
+		}
+		bi.flush();
+	}
+	
+	
+	
+	/**
+	 * Drops all benchmarked indexes and creates indexes of layout l
+	 */
+	private static void layout(DBConnector db, int l) throws SQLException {
+		
+		try (Statement st = db.createStatement()) {
+			for (String i : INDEXES) {
+				st.executeUpdate("DROP INDEX IF EXISTS "+i);
+			}
+			for (int i = 1; i < LAYOUTS[l].length; i++) {
+				st.executeUpdate("CREATE INDEX "+LAYOUTS[l][i]);
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Binds parameters of query q with lookup key k
+	 */
+	private static void bind(PreparedStatement ps, int q, Catalog c, int k) throws SQLException {
+		
+		String sql = (String) QUERIES[q][2];
+		switch ((Integer) QUERIES[q][1]) {
+		case SYNC:
+			// changed every time, or database reuses last result. 
+			// A sync that finds nothing new, the common case
+			ps.setTimestamp(1, new Timestamp(System.currentTimeMillis()+1000+k));
+			return;
+		case PRINTED:
+			Random r = new Random(k);
+			int f = r.nextInt(FAMILIES);
+			ps.setString(1, "97"+f);
+			ps.setString(2, Integer.toString(f*1000+r.nextInt(PRINTS)));
+			break;
+		default:
+			if (sql.contains("designid=?")) {
+				ps.setString(1, c.designid[k]);
+				ps.setString(2, c.decorid[k]);
+			}
+			else if (sql.contains("blid=?")) {
+				ps.setString(1, c.blid[k]);
+			}
+			else {
+				ps.setString(1, c.ldrawid[k]);
+			}
+			if (sql.startsWith(CHECK) && !sql.contains("designid=?"))
+				ps.setString(2, c.decorid[k]);
+		}
+		if (sql.startsWith(CHECK))
+			ps.setInt(3, 0);
+	}
+	
+	
+	
+	/**
+	 * @return query plan from EXPLAIN, on a single line
+	 */
+	private static String plan(DBConnector db, int q, Catalog c) throws SQLException {
+		
+		try (PreparedStatement ps = db.prepareStatement("EXPLAIN "+QUERIES[q][2])) {
+			bind(ps, q, c, 0);
+			try (ResultSet rs = ps.executeQuery()) {
+				rs.next();
+				return rs.getString(1).replaceAll("\\s+", " ");
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * @return best average time of query q over lookup keys, in nanoseconds
+	 */
+	private static long time(DBConnector db, int q, Catalog c) throws SQLException {
+		
+		long best = Long.MAX_VALUE;
+		int keys = (Integer) QUERIES[q][1] == SYNC ? SYNCKEYS : Catalog.KEYS;
+		try (PreparedStatement ps = db.prepareStatement((String) QUERIES[q][2])) {
+			for (int r = 0; r < ROUNDS; r++) {
+				long t = System.nanoTime();
+				for (int k = 0; k < keys; k++) {
+					bind(ps, q, c, k);
+					try (ResultSet rs = ps.executeQuery()) {
+						while (rs.next())
+							;
+					}
+				}
+				best = Math.min(best, (System.nanoTime()-t) / keys);
+			}
+		}
+		return best;
+	}
+
+}
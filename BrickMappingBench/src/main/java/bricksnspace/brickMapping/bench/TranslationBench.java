@@ -0,0 +1,87 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping.bench;
+
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bricksnspace.brickMapping.PartMapping;
+
+
+/**
+ * The six part translations, from database or in-memory index
+ * 
+ * @author Mario Pascucci
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranslationBench {
+
+	@Benchmark
+	public PartMapping lddToBlink(Catalog c, Cursor k) throws SQLException {
+		int i = k.next();
+		return PartMapping.lddToBlink(c.designid[i], c.decorid[i]);
+	}
+	
+	
+	@Benchmark
+	public PartMapping lddToLDraw(Catalog c, Cursor k) throws SQLException {
+		int i = k.next();
+		return PartMapping.lddToLDraw(c.designid[i], c.decorid[i]);
+	}
+	
+	
+	@Benchmark
+	public PartMapping blinkToLdd(Catalog c, Cursor k) throws SQLException {
+		return PartMapping.blinkToLdd(c.blid[k.next()]);
+	}
+	
+	
+	@Benchmark
+	public PartMapping blinkToLDraw(Catalog c, Cursor k) throws SQLException {
+		return PartMapping.blinkToLDraw(c.blid[k.next()]);
+	}
+	
+	
+	@Benchmark
+	public PartMapping ldrawToLdd(Catalog c, Cursor k) throws SQLException {
+		return PartMapping.ldrawToLdd(c.ldrawid[k.next()]);
+	}
+	
+	
+	@Benchmark
+	public PartMapping ldrawToBlink(Catalog c, Cursor k) throws SQLException {
+		return PartMapping.ldrawToBlink(c.ldrawid[k.next()]);
+	}
+
+}
@@ -0,0 +1,140 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Bulk import must give same rows and same change log of updateMapping() 
+ * called on every row in order, with new and existing rows mixed and 
+ * repeated mapids.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class BulkImportTest {
+	
+	private static final int ROWS = 400;
+	private static final int OLD = 100;
+	
+	
+	
+	private static List<PartMapping> rows(long seed) {
+		
+		Random r = new Random(seed);
+		ArrayList<PartMapping> rows = new ArrayList<PartMapping>(ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			PartMapping pm = new PartMapping();
+			// repeated mapids, of rows in table or not
+			switch (r.nextInt(3)) {
+			case 0:
+				pm.setMapid(0);
+				break;
+			case 1:
+				pm.setMapid(1+r.nextInt(OLD));
+				break;
+			default:
+				pm.setMapid(10000+r.nextInt(OLD));
+			}
+			String id = Integer.toString(3000+i);
+			pm.setDesignid(id);
+			pm.setMasterid(id);
+			pm.setBlid(id+"b");
+			pm.setLdrawid(id+".dat");
+			pm.setName("Part "+i);
+			pm.setLdd2bl(r.nextBoolean());
+			rows.add(pm);
+		}
+		return rows;
+	}
+	
+	
+	
+	private static List<String> table() throws Exception {
+		
+		ArrayList<String> t = new ArrayList<String>();
+		for (PartMapping pm : PartMapping.get(null)) {
+			t.add(pm.getMapid()+" "+pm.getDesignid()+" "+pm.getBlid()+" "+pm.isLdd2bl());
+		}
+		Collections.sort(t);
+		try (Statement st = BrickMapping.statement()) {
+			ResultSet rs = st.executeQuery("SELECT mapid FROM "+ChangeLog.table+
+					" WHERE tbl='"+PartMapping.table+"' ORDER BY seq");
+			while (rs.next()) {
+				t.add("log "+rs.getInt(1));
+			}
+		}
+		return t;
+	}
+	
+	
+	
+	private static List<String> import1(long seed, int batch) throws Exception {
+		
+		TestDb db = new TestDb(false);
+		try {
+			for (int i = 1; i <= OLD; i++) {
+				PartMapping pm = new PartMapping();
+				pm.setDesignid("old"+i);
+				pm.insert();
+			}
+			if (batch == 0) {
+				for (PartMapping pm : rows(seed)) {
+					pm.updateMapping();
+				}
+			}
+			else {
+				BulkImport bi = new BulkImport(batch);
+				for (PartMapping pm : rows(seed)) {
+					bi.add(pm);
+				}
+				bi.flush();
+				assertEquals(ROWS, bi.getPartCount());
+			}
+			return table();
+		} finally {
+			db.delete();
+		}
+	}
+	
+	
+	
+	@Test
+	public void sameAsUpdateMapping() throws Exception {
+		
+		for (long seed = 1; seed <= 3; seed++) {
+			List<String> expected = import1(seed, 0);
+			assertEquals(expected, import1(seed, 1000));
+			assertEquals(expected, import1(seed, 37));
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Validation inside an update transaction must see rows written in it, 
+ * even if in-memory index and color cache aren't updated until commit.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class BulkValidatorTest {
+	
+	private TestDb db;
+	
+	
+	
+	@Before
+	public void setUp() throws Exception {
+		db = new TestDb(true);
+	}
+	
+	
+	
+	@After
+	public void tearDown() {
+		db.delete();
+	}
+	
+	
+	
+	private static PartMapping part(String designid) {
+		
+		PartMapping pm = new PartMapping();
+		pm.setDesignid(designid);
+		pm.setMasterid(designid);
+		pm.setBlid(designid);
+		pm.setLdrawid(designid+".dat");
+		pm.setName("Brick "+designid);
+		pm.setLdd2bl(true);
+		return pm;
+	}
+	
+	
+	
+	private static BrickColor color(int ldd) {
+		
+		BrickColor bc = new BrickColor();
+		bc.setLdd(ldd);
+		bc.setBl(ldd);
+		bc.setLdraw(ldd);
+		bc.setColor(Color.RED);
+		bc.setLddName("Color "+ldd);
+		return bc;
+	}
+	
+	
+	
+	@Test
+	public void seesRowsWrittenInTransaction() throws Exception {
+		
+		part("3001").insert();
+		color(1).insert();
+		PartMapping pm = new PartMapping();
+		pm.prepareUpdate(true);
+		try {
+			part("3002").insert();
+			color(2).insert();
+			ConflictReport r = BulkValidator.validate(
+					Collections.singletonList(part("3002")), 
+					Collections.singletonList(color(2)));
+			assertEquals(1, r.getPartConflicts().size());
+			assertEquals("3002", r.getPartConflicts().get(0).getExisting().getDesignid());
+			// ldd, bl and ldraw
+			assertEquals(3, r.getColorConflicts().size());
+			// rows committed before update are checked too
+			r = BulkValidator.validate(Collections.singletonList(part("3001")), null);
+			assertEquals(1, r.getPartConflicts().size());
+			r = BulkValidator.validate(Collections.singletonList(part("3003")), 
+					Collections.singletonList(color(3)));
+			assertTrue(r.isEmpty());
+		} finally {
+			pm.endUpdate();
+		}
+		// after commit, from index and cache
+		ConflictReport r = BulkValidator.validate(
+				Collections.singletonList(part("3002")), 
+				Collections.singletonList(color(2)));
+		assertEquals(1, r.getPartConflicts().size());
+		assertEquals(3, r.getColorConflicts().size());
+	}
+
+}
@@ -0,0 +1,179 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Change log pages follow log order and never show changes of an 
+ * update transaction not yet committed.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class ChangeLogTest {
+	
+	private TestDb db;
+	private ExecutorService reader;
+	
+	
+	
+	@Before
+	public void setUp() throws Exception {
+		
+		db = new TestDb(false);
+		reader = Executors.newSingleThreadExecutor();
+	}
+	
+	
+	
+	@After
+	public void tearDown() {
+		
+		reader.shutdownNow();
+		db.delete();
+	}
+	
+	
+	
+	private static PartMapping part(String id) {
+		
+		PartMapping pm = new PartMapping();
+		pm.setDesignid(id);
+		pm.setMasterid(id);
+		pm.setBlid(id);
+		pm.setLdrawid(id+".dat");
+		pm.setName("Part "+id);
+		pm.setLdd2bl(true);
+		return pm;
+	}
+	
+	
+	
+	private static List<String> ids(ChangeLog.Page<PartMapping> p) {
+		
+		ArrayList<String> l = new ArrayList<String>();
+		for (PartMapping pm : p.getChanges()) {
+			l.add(pm.getDesignid());
+		}
+		return l;
+	}
+	
+	
+	
+	/**
+	 * Reads last sequence and first page from another thread
+	 */
+	private Object[] readFromOtherThread(final long since) throws Exception {
+		
+		return reader.submit(new Callable<Object[]>() {
+			@Override
+			public Object[] call() throws Exception {
+				return new Object[] {ChangeLog.getLastSequence(), ChangeLog.getPartChanges(since, 100)};
+			}
+		}).get();
+	}
+	
+	
+	
+	@Test
+	public void pageInLogOrder() throws Exception {
+		
+		ArrayList<PartMapping> parts = new ArrayList<PartMapping>();
+		for (String id : new String[] {"3001", "3002", "3003", "3004"}) {
+			PartMapping pm = part(id);
+			pm.insert();
+			parts.add(pm);
+		}
+		long seq = ChangeLog.getLastSequence();
+		for (int i : new int[] {3, 0, 2}) {
+			parts.get(i).setName("Changed");
+			parts.get(i).update();
+		}
+		ChangeLog.Page<PartMapping> p = ChangeLog.getPartChanges(seq, 100);
+		assertEquals(Arrays.asList("3004", "3001", "3003"), ids(p));
+		assertEquals(seq+3, p.getLastSequence());
+	}
+	
+	
+	
+	@Test
+	public void updateVisibleAfterCommit() throws Exception {
+		
+		part("3001").insert();
+		long seq = ChangeLog.getLastSequence();
+		PartMapping pm = part("3002");
+		pm.prepareUpdate(true);
+		try {
+			pm.insert();
+			Object[] r = readFromOtherThread(seq);
+			assertEquals(seq, r[0]);
+			@SuppressWarnings("unchecked")
+			ChangeLog.Page<PartMapping> p = (ChangeLog.Page<PartMapping>) r[1];
+			assertTrue(p.getChanges().isEmpty());
+			assertEquals(seq, p.getLastSequence());
+			// updating thread itself
+			assertEquals(seq, ChangeLog.getLastSequence());
+			assertTrue(ChangeLog.getPartChanges(seq, 100).getChanges().isEmpty());
+		} catch (Exception e) {
+			pm.abortUpdate();
+			throw e;
+		}
+		pm.endUpdate();
+		Object[] r = readFromOtherThread(seq);
+		assertEquals(seq+1, r[0]);
+		@SuppressWarnings("unchecked")
+		ChangeLog.Page<PartMapping> p = (ChangeLog.Page<PartMapping>) r[1];
+		assertEquals(Arrays.asList("3002"), ids(p));
+	}
+	
+	
+	
+	@Test
+	public void abortedUpdateNeverVisible() throws Exception {
+		
+		part("3001").insert();
+		long seq = ChangeLog.getLastSequence();
+		PartMapping pm = part("3002");
+		pm.prepareUpdate(true);
+		pm.insert();
+		assertTrue(ChangeLog.getPartChanges(seq, 100).getChanges().isEmpty());
+		pm.abortUpdate();
+		Object[] r = readFromOtherThread(seq);
+		assertEquals(seq, r[0]);
+		@SuppressWarnings("unchecked")
+		ChangeLog.Page<PartMapping> p = (ChangeLog.Page<PartMapping>) r[1];
+		assertTrue(p.getChanges().isEmpty());
+	}
+
+}
@@ -0,0 +1,135 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Nearest color from matcher must be as near as nearest color found 
+ * scanning palette, for every filter.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class ColorMatcherTest {
+	
+	private static final int COLORS = 120;
+	private static final int SAMPLES = 50000;
+	
+	private TestDb db;
+	
+	
+	
+	@Before
+	public void setUp() throws Exception {
+		
+		db = new TestDb(false);
+		Random r = new Random(3);
+		for (int i = 1; i <= COLORS; i++) {
+			BrickColor bc = new BrickColor();
+			bc.setLdd(i);
+			bc.setBl(i);
+			bc.setLdraw(i);
+			bc.setColor(new Color(r.nextInt(256), r.nextInt(256), r.nextInt(256), 
+					r.nextInt(5) == 0 ? 100+r.nextInt(100) : 255));
+			bc.setTransparent(bc.getColor().getAlpha() < 255);
+			bc.setInProduction(r.nextBoolean());
+			bc.setMetallic(r.nextInt(4) == 0);
+			bc.setColorGroup(r.nextInt(4));
+			bc.setLddName("Color "+i);
+			bc.insert();
+		}
+	}
+	
+	
+	
+	@After
+	public void tearDown() {
+		db.delete();
+	}
+	
+	
+	
+	private static double[] lab(int mapid) {
+		
+		Color c = BrickColor.getColor(mapid).getColor();
+		return ColorMatcher.toLab(c.getRed(), c.getGreen(), c.getBlue(), c.getAlpha());
+	}
+	
+	
+	
+	/**
+	 * Compares matcher with a scan of same palette
+	 */
+	private static void check(ColorMatcher m, Boolean inProduction, Boolean transparent, 
+			Boolean metallic, int colorGroup, Random r) {
+		
+		ArrayList<double[]> pal = new ArrayList<double[]>();
+		for (int id : BrickColor.getColorList()) {
+			BrickColor bc = BrickColor.getColor(id);
+			if (id != 0 && (inProduction == null || bc.isInProduction() == inProduction) &&
+					(transparent == null || bc.isTransparent() == transparent) &&
+					(metallic == null || bc.isMetallic() == metallic) &&
+					(colorGroup < 0 || bc.getColorGroup() == colorGroup))
+				pal.add(lab(id));
+		}
+		assertEquals(pal.size(), m.size());
+		for (int s = 0; s < SAMPLES; s++) {
+			// mostly solid colors, they use candidates cube
+			int argb = r.nextInt(1 << 24) | (r.nextInt(4) == 0 ? r.nextInt(256) : 255) << 24;
+			double[] q = ColorMatcher.toLab(argb >> 16 & 0xff, argb >> 8 & 0xff, argb & 0xff, argb >>> 24);
+			double best = Double.MAX_VALUE;
+			for (double[] p : pal) {
+				best = Math.min(best, ColorMatcher.dist(q, p));
+			}
+			int got = m.nearest(argb);
+			if (pal.isEmpty()) 
+				assertEquals(0, got);
+			else
+				// another color at same distance is right too
+				assertEquals(Integer.toHexString(argb), best, ColorMatcher.dist(q, lab(got)), 0.0);
+		}
+	}
+	
+	
+	
+	@Test
+	public void sameAsScan() {
+		
+		Random r = new Random(7);
+		check(new ColorMatcher(), null, null, null, -1, r);
+		check(new ColorMatcher(true, null, null, -1), true, null, null, -1, r);
+		check(new ColorMatcher(null, false, null, -1), null, false, null, -1, r);
+		check(new ColorMatcher(null, true, null, -1), null, true, null, -1, r);
+		check(new ColorMatcher(null, null, true, -1), null, null, true, -1, r);
+		check(new ColorMatcher(false, false, false, 2), false, false, false, 2, r);
+		check(new ColorMatcher(true, true, true, 3), true, true, true, 3, r);
+	}
+
+}
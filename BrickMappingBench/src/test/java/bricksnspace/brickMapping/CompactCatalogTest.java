@@ -0,0 +1,83 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Mappings read back from compact catalog must be equal to originals.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class CompactCatalogTest {
+	
+	
+	private static String row(PartMapping pm) {
+		
+		return pm.getMapid()+"|"+pm.getMasterid()+"|"+pm.getDesignid()+"|"+pm.getDecorid()+"|"+
+				pm.getName()+"|"+pm.getBlid()+"|"+pm.getLdrawid()+"|"+pm.isLdd2bl()+pm.isBl2ldd()+
+				pm.isLdd2dat()+pm.isDat2ldd()+pm.isBl2dat()+pm.isDat2bl()+"|"+pm.getLastmod();
+	}
+	
+	
+	
+	@Test
+	public void roundTrip() {
+		
+		Random r = new Random(11);
+		ArrayList<PartMapping> pml = new ArrayList<PartMapping>();
+		for (int i = 500; i > 0; i--) {
+			PartMapping pm = PartMappingIndexTest.random(i*2, r);
+			if (i % 7 == 0)
+				pm.setName("Tuile ronde \u00e0 1 \u00d7 1 \u2013 \u8336");
+			if (i % 11 == 0)
+				pm.setBlid(null);
+			pm.setLastmod(i % 3 == 0 ? null : new Timestamp(1500000000000L+i));
+			pml.add(pm);
+		}
+		CompactCatalog cc = CompactCatalog.build(pml);
+		assertEquals(pml.size(), cc.size());
+		int i = 0;
+		for (PartMappingView v : cc) {
+			// ordered by mapid
+			PartMapping pm = pml.get(pml.size()-1-i);
+			assertEquals(row(pm), row(v.toPartMapping()));
+			assertEquals(row(pm), row(cc.get(i).toPartMapping()));
+			assertEquals(CompactCatalog.flags(pm), v.getFlags());
+			for (MapDirection d : MapDirection.values()) {
+				assertEquals(d.isSet(pm), v.isSet(d));
+			}
+			i++;
+		}
+		assertEquals(row(pml.get(0)), row(cc.find(1000).toPartMapping()));
+		assertNull(cc.find(999));
+		assertNull(cc.find(1001));
+	}
+
+}
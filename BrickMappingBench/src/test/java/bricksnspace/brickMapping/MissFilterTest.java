@@ -0,0 +1,96 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Translations without a rule return a new mapping, shared read only 
+ * {@link PartMapping#EMPTY} only when miss filter rules them out.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class MissFilterTest {
+	
+	private TestDb db;
+	
+	
+	
+	@Before
+	public void setUp() throws Exception {
+		
+		db = new TestDb(false);
+		PartMapping pm = new PartMapping();
+		pm.setDesignid("3001");
+		pm.setMasterid("3001");
+		pm.setBlid("3001");
+		pm.setLdrawid("3001.dat");
+		pm.setLdd2bl(true);
+		pm.setBl2ldd(true);
+		pm.insert();
+	}
+	
+	
+	
+	@After
+	public void tearDown() {
+		
+		PartMapping.setMissFilter(false);
+		db.delete();
+	}
+	
+	
+	
+	@Test
+	public void missWithoutFilter() throws Exception {
+		
+		PartMapping miss = PartMapping.blinkToLdd("none");
+		assertNotSame(PartMapping.EMPTY, miss);
+		assertEquals(0, miss.getMapid());
+		// caller can fill in result
+		miss.setBlid("none");
+		Map<String,PartMapping> bulk = PartMapping.blinkToLdd(Arrays.asList("3001", "none"));
+		assertEquals("3001", bulk.get("3001").getDesignid());
+		assertNotSame(PartMapping.EMPTY, bulk.get("none"));
+	}
+	
+	
+	
+	@Test
+	public void missRuledOutByFilter() throws Exception {
+		
+		PartMapping.setMissFilter(true);
+		assertSame(PartMapping.EMPTY, PartMapping.blinkToLdd("none"));
+		assertSame(PartMapping.EMPTY, PartMapping.blinkToLdd(Arrays.asList("3001", "none")).get("none"));
+		assertEquals("3001", PartMapping.blinkToLdd("3001").getDesignid());
+	}
+
+}
@@ -0,0 +1,111 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Family index changed one mapping at a time must be equal to index 
+ * built from same mappings.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class PartFamilyIndexTest {
+	
+	private static final int FAMILIES = 60;
+	
+	
+	
+	private static PartMapping pm(int mapid, String master, String design) {
+		
+		PartMapping p = new PartMapping();
+		p.setMapid(mapid);
+		p.setMasterid(master);
+		p.setDesignid(design);
+		p.setBlid(design+"b");
+		p.setLdrawid(design+".dat");
+		return p;
+	}
+	
+	
+	
+	private static String family(PartFamily f) {
+		
+		StringBuilder sb = new StringBuilder(f.getMasterid());
+		for (int i = 0; i < f.size(); i++) {
+			sb.append(' ').append(f.getMapid(i)).append(':').append(f.getDesignid(i))
+				.append(',').append(f.getBlid(i)).append(',').append(f.getLdrawid(i));
+		}
+		return sb.toString();
+	}
+	
+	
+	
+	@Test
+	public void incrementalEqualsRebuild() {
+		
+		Random r = new Random(5);
+		Map<Integer,PartMapping> cur = new HashMap<Integer,PartMapping>();
+		for (int i = 1; i <= 500; i++) {
+			cur.put(i, pm(i, r.nextInt(4) == 0 ? "" : "M"+r.nextInt(FAMILIES), "d"+i));
+		}
+		PartFamilyIndex first = PartFamilyIndex.build(cur.values());
+		PartFamilyIndex idx = first;
+		String[] before = new String[FAMILIES];
+		for (int m = 0; m < FAMILIES; m++) {
+			before[m] = family(first.get("M"+m));
+		}
+		for (int s = 0; s < 3000; s++) {
+			int mapid = 1+r.nextInt(600);
+			PartMapping p = pm(mapid, r.nextInt(4) == 0 ? "" : "M"+r.nextInt(FAMILIES), "x"+s);
+			cur.put(mapid, p);
+			idx = idx.with(p);
+		}
+		PartFamilyIndex full = PartFamilyIndex.build(cur.values());
+		assertEquals(full.size(), idx.size());
+		for (int m = 0; m < FAMILIES; m++) {
+			assertEquals(family(full.get("M"+m)), family(idx.get("M"+m)));
+			assertEquals(before[m], family(first.get("M"+m)));
+		}
+		assertEquals(Arrays.asList("M3", "M1", "none"), 
+				Arrays.asList(idx.get(Arrays.asList("M3", "M1", "M3", "none")).keySet().toArray()));
+	}
+	
+	
+	
+	@Test
+	public void familySortedByMapid() {
+		
+		PartFamily f = PartFamily.of("M", Arrays.asList(pm(5, "M", "a"), pm(2, "M", "b"), 
+				pm(5, "M", "c"), pm(9, "M", "d")));
+		assertEquals("M 2:b,bb,b.dat 5:c,cb,c.dat 9:d,db,d.dat", family(f));
+	}
+
+}
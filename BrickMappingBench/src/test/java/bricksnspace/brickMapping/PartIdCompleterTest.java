@@ -0,0 +1,105 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Completer changed one row at a time must return same IDs as 
+ * completer built from same rows, also after merges.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class PartIdCompleterTest {
+	
+	private static final int IDS = 1500;
+	
+	
+	
+	private static String id(Random r, String suffix) {
+		
+		return r.nextInt(10) == 0 ? "" : Integer.toString(r.nextInt(IDS))+suffix;
+	}
+	
+	
+	
+	private static PartMapping random(int mapid, Random r) {
+		
+		PartMapping pm = new PartMapping();
+		pm.setMapid(mapid);
+		pm.setDesignid(id(r, ""));
+		pm.setBlid(id(r, "b"));
+		pm.setLdrawid(id(r, ".dat"));
+		return pm;
+	}
+	
+	
+	
+	private static void assertSameCompletions(PartIdCompleter expected, PartIdCompleter idx) {
+		
+		for (int c : new int[] {PartIdCompleter.DESIGNID, PartIdCompleter.BLID, PartIdCompleter.LDRAWID}) {
+			for (String prefix : new String[] {"", "1", "14", "149", "3", "37b", "999", "1000.dat", "x"}) {
+				for (int limit : new int[] {1, 7, 5000}) {
+					assertEquals(c+" "+prefix+" "+limit, expected.complete(c, prefix, limit), 
+							idx.complete(c, prefix, limit));
+				}
+			}
+		}
+	}
+	
+	
+	
+	@Test
+	public void incrementalEqualsRebuild() throws Exception {
+		
+		Random r = new Random(7);
+		HashMap<Integer,PartMapping> rows = new HashMap<Integer,PartMapping>();
+		for (int i = 1; i <= 400; i++) {
+			rows.put(i, random(i, r));
+		}
+		PartIdCompleter idx = PartIdCompleter.build(rows.values());
+		PartIdCompleter first = idx;
+		PartIdCompleter firstCopy = PartIdCompleter.build(rows.values());
+		for (int i = 0; i < 6000; i++) {
+			int mapid = 1+r.nextInt(600);
+			PartMapping pm = random(mapid, r);
+			if (rows.containsKey(mapid) && r.nextInt(3) == 0) {
+				// change only one ID, others stay used
+				pm.setDesignid(rows.get(mapid).getDesignid());
+				pm.setLdrawid(rows.get(mapid).getLdrawid());
+			}
+			rows.put(mapid, pm);
+			idx = idx.with(pm);
+			if (i % 500 == 0) 
+				assertSameCompletions(PartIdCompleter.build(rows.values()), idx);
+		}
+		assertSameCompletions(PartIdCompleter.build(rows.values()), idx);
+		assertSameCompletions(firstCopy, first);
+	}
+
+}
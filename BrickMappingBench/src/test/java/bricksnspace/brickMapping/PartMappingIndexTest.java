@@ -0,0 +1,129 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Index changed one row at a time must be equal to index built from 
+ * same rows, and old index must not change.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class PartMappingIndexTest {
+	
+	private static final int IDS = 60;
+	
+	
+	
+	static PartMapping random(int mapid, Random r) {
+		
+		PartMapping pm = new PartMapping();
+		pm.setMapid(mapid);
+		String id = Integer.toString(3000+r.nextInt(IDS));
+		pm.setDesignid(id);
+		pm.setMasterid(Integer.toString(3000+r.nextInt(IDS)));
+		pm.setDecorid(r.nextInt(5) == 0 ? "1" : "");
+		pm.setBlid(Integer.toString(3000+r.nextInt(IDS))+"b");
+		pm.setLdrawid(Integer.toString(3000+r.nextInt(IDS))+".dat");
+		pm.setName("Part "+mapid);
+		pm.setLdd2bl(r.nextBoolean());
+		pm.setBl2ldd(r.nextBoolean());
+		pm.setLdd2dat(r.nextBoolean());
+		pm.setDat2ldd(r.nextBoolean());
+		pm.setBl2dat(r.nextBoolean());
+		pm.setDat2bl(r.nextBoolean());
+		return pm;
+	}
+	
+	
+	
+	private static String[] keys(PartMapping[] pm) {
+		
+		if (pm == null)
+			return new String[0];
+		String[] k = new String[pm.length];
+		for (int i = 0; i < pm.length; i++) {
+			k[i] = pm[i].getMapid()+" "+pm[i].getName();
+		}
+		Arrays.sort(k);
+		return k;
+	}
+	
+	
+	
+	private static void assertSameIndex(PartMappingIndex expected, PartMappingIndex idx) {
+		
+		assertEquals(expected.size(), idx.size());
+		for (MapDirection d : MapDirection.values()) {
+			for (int i = 0; i < IDS; i++) {
+				String id = Integer.toString(3000+i);
+				for (String key : new String[] { MapDirection.lddKey(id, ""), MapDirection.lddKey(id, "1"), 
+						id+"b", id+".dat", MapDirection.lddKey(id+"b", ""), MapDirection.lddKey(id+".dat", "") }) {
+					assertEquals(d+" "+key, Arrays.asList(keys(expected.rules(d, key))), 
+							Arrays.asList(keys(idx.rules(d, key))));
+				}
+			}
+		}
+		for (PartMapping pm : expected.all()) {
+			assertEquals(pm.getName(), idx.row(pm.getMapid()).getName());
+		}
+	}
+	
+	
+	
+	@Test
+	public void incrementalEqualsRebuild() throws Exception {
+		
+		Random r = new Random(5);
+		HashMap<Integer,PartMapping> rows = new HashMap<Integer,PartMapping>();
+		for (int i = 1; i <= 200; i++) {
+			rows.put(i, random(i, r));
+		}
+		PartMappingIndex idx = PartMappingIndex.build(rows.values());
+		PartMappingIndex first = idx;
+		PartMappingIndex firstCopy = PartMappingIndex.build(rows.values());
+		for (int i = 0; i < 2000; i++) {
+			int mapid = 1+r.nextInt(300);
+			PartMapping pm = random(mapid, r);
+			pm.setName("Part "+mapid+" v"+i);
+			rows.put(mapid, pm);
+			idx = idx.with(pm);
+			if (i % 250 == 0) 
+				assertSameIndex(PartMappingIndex.build(rows.values()), idx);
+		}
+		assertSameIndex(PartMappingIndex.build(rows.values()), idx);
+		assertSameIndex(firstCopy, first);
+		PartMapping miss = idx.lookup(MapDirection.LDD2BL, "none");
+		assertEquals(0, miss.getMapid());
+		// a miss is a new mapping, caller can fill it in
+		miss.setDesignid("none");
+	}
+
+}
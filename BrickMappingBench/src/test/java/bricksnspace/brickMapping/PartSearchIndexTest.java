@@ -0,0 +1,152 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+
+/**
+ * In-memory text search: prefix expansion over its limit keeps most 
+ * frequent terms, reused scoring buffers don't leak between queries.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class PartSearchIndexTest {
+	
+	private static final String[] SHAPES = { "Brick", "Plate", "Tile", "Slope", "Technic Beam", 
+			"Panel", "Wedge", "Hinge", "Cone" };
+	private static final String[] QUERIES = { "brick", "brick 2", "plate 4 x", "tech", "3001", 
+			"30", "ro", "wedge 8 x 1", "zzz", "brick zzz", "dat" };
+	
+	
+	
+	private static PartMapping pm(int mapid, String name) {
+		
+		PartMapping pm = new PartMapping();
+		pm.setMapid(mapid);
+		pm.setDesignid(Integer.toString(3000+mapid));
+		pm.setMasterid(pm.getDesignid());
+		pm.setBlid(pm.getDesignid()+"b");
+		pm.setLdrawid(pm.getDesignid()+".dat");
+		pm.setDecorid("");
+		pm.setName(name);
+		return pm;
+	}
+	
+	
+	
+	private static List<Integer> ids(List<PartMapping> l) {
+		
+		ArrayList<Integer> ids = new ArrayList<Integer>(l.size());
+		for (PartMapping pm : l) {
+			ids.add(pm.getMapid());
+		}
+		return ids;
+	}
+	
+	
+	
+	@Test
+	public void prefixKeepsFrequentTerms() {
+		
+		ArrayList<PartMapping> l = new ArrayList<PartMapping>();
+		// 300 rare terms, each in a single mapping, before common one
+		for (int i = 1; i <= 300; i++) {
+			l.add(pm(i, String.format("Part ab%04d", i)));
+		}
+		for (int i = 301; i <= 350; i++) {
+			l.add(pm(i, "Part abzzz"));
+		}
+		PartSearchIndex idx = PartSearchIndex.build(l);
+		List<Integer> found = ids(idx.search("ab", 400));
+		for (int i = 301; i <= 350; i++) {
+			assertTrue("missing "+i, found.contains(i));
+		}
+		// common term and 199 rare ones fill expansion limit
+		assertEquals(50+199, found.size());
+		// under limit all terms are expanded
+		assertEquals(99, ids(idx.search("part ab00", 400)).size());
+	}
+	
+	
+	
+	@Test
+	public void buffersReused() throws Exception {
+		
+		Random r = new Random(2);
+		ArrayList<PartMapping> l = new ArrayList<PartMapping>();
+		for (int i = 1; i <= 5000; i++) {
+			l.add(pm(i, SHAPES[r.nextInt(SHAPES.length)]+" "+(1+r.nextInt(8))+" x "+
+					(1+r.nextInt(8))+(r.nextInt(5) == 0 ? " Round" : "")));
+		}
+		final PartSearchIndex idx = PartSearchIndex.build(l);
+		final List<List<Integer>> expected = new ArrayList<List<Integer>>();
+		for (String q : QUERIES) {
+			expected.add(ids(idx.search(q, 50)));
+		}
+		// same thread, other order
+		for (int i = QUERIES.length-1; i >= 0; i--) {
+			assertEquals(QUERIES[i], expected.get(i), ids(idx.search(QUERIES[i], 50)));
+		}
+		// a smaller index on same thread, then bigger again
+		PartSearchIndex small = PartSearchIndex.build(l.subList(0, 100));
+		assertEquals(ids(small.search("brick", 50)), ids(small.search("brick", 50)));
+		assertEquals(expected.get(0), ids(idx.search(QUERIES[0], 50)));
+		// many threads at once
+		ExecutorService ex = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> res = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 8; t++) {
+				final int seed = t;
+				res.add(ex.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						Random rr = new Random(seed);
+						for (int i = 0; i < 300; i++) {
+							int q = rr.nextInt(QUERIES.length);
+							if (!expected.get(q).equals(ids(idx.search(QUERIES[q], 50))))
+								return false;
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> f : res) {
+				assertTrue(f.get());
+			}
+		} finally {
+			ex.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Random changes on a persistent map, checked against a HashMap. 
+ * Old versions must not change.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class PersistentHashMapTest {
+	
+	/**
+	 * Key with few distinct hashes, to test collision nodes
+	 */
+	private static final class Key {
+		
+		final int id;
+		
+		Key(int id) {
+			this.id = id;
+		}
+		
+		@Override
+		public int hashCode() {
+			return id % 37;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).id == id;
+		}
+	}
+	
+	
+	
+	private static <K> void check(Map<K,Integer> expected, PersistentHashMap<K,Integer> m, 
+			Iterable<K> keys) {
+		
+		assertEquals(expected.size(), m.size());
+		for (K k : keys) {
+			assertEquals(expected.get(k), m.get(k));
+		}
+		HashSet<K> seen = new HashSet<K>();
+		for (K k : m.keys()) {
+			assertTrue("key twice", seen.add(k));
+			assertTrue(expected.containsKey(k));
+		}
+		assertEquals(expected.size(), seen.size());
+		long sum = 0, esum = 0;
+		for (int v : m.values()) 
+			sum += v;
+		for (int v : expected.values())
+			esum += v;
+		assertEquals(esum, sum);
+	}
+	
+	
+	
+	private static <K> void random(ArrayList<K> keys, long seed) {
+		
+		Random r = new Random(seed);
+		HashMap<K,Integer> expected = new HashMap<K,Integer>();
+		PersistentHashMap<K,Integer> m = PersistentHashMap.empty();
+		ArrayList<HashMap<K,Integer>> oldExpected = new ArrayList<HashMap<K,Integer>>();
+		ArrayList<PersistentHashMap<K,Integer>> old = new ArrayList<PersistentHashMap<K,Integer>>();
+		for (int i = 0; i < 20000; i++) {
+			K k = keys.get(r.nextInt(keys.size()));
+			if (r.nextInt(3) == 0) {
+				expected.remove(k);
+				m = m.without(k);
+			}
+			else {
+				int v = r.nextInt(1000);
+				expected.put(k, v);
+				m = m.with(k, v);
+			}
+			if (i % 2000 == 0) {
+				oldExpected.add(new HashMap<K,Integer>(expected));
+				old.add(m);
+			}
+		}
+		check(expected, m, keys);
+		for (int i = 0; i < old.size(); i++) {
+			check(oldExpected.get(i), old.get(i), keys);
+		}
+		
+		// builder from a shared map
+		PersistentHashMap.Builder<K,Integer> b = m.builder();
+		HashMap<K,Integer> e2 = new HashMap<K,Integer>(expected);
+		for (int i = 0; i < 5000; i++) {
+			K k = keys.get(r.nextInt(keys.size()));
+			if (r.nextBoolean()) {
+				b.remove(k);
+				e2.remove(k);
+			}
+			else {
+				b.put(k, i);
+				e2.put(k, i);
+			}
+		}
+		check(e2, b.build(), keys);
+		check(expected, m, keys);
+	}
+	
+	
+	
+	@Test
+	public void integerKeys() {
+		
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i < 3000; i++) {
+			keys.add(i*7919);
+		}
+		random(keys, 1);
+	}
+	
+	
+	
+	@Test
+	public void collidingKeys() {
+		
+		ArrayList<Key> keys = new ArrayList<Key>();
+		for (int i = 0; i < 500; i++) {
+			keys.add(new Key(i));
+		}
+		random(keys, 2);
+	}
+	
+	
+	
+	@Test
+	public void emptyAfterRemove() {
+		
+		PersistentHashMap<String,Integer> m = PersistentHashMap.empty();
+		m = m.with("a", 1).with("b", 2).without("a").without("b").without("c");
+		assertEquals(0, m.size());
+		assertNull(m.get("a"));
+		assertTrue(m.values().isEmpty());
+	}
+
+}
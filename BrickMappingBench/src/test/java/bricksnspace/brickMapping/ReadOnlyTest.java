@@ -0,0 +1,127 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Read-only mode from a catalog file: translations work, methods that 
+ * need database fail with a clear exception.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class ReadOnlyTest {
+	
+	private TestDb db;
+	private File catalog;
+	
+	
+	
+	@Before
+	public void setUp() throws Exception {
+		
+		db = new TestDb(false);
+		PartMapping pm = new PartMapping();
+		pm.setDesignid("3001");
+		pm.setMasterid("3001");
+		pm.setBlid("3001b");
+		pm.setLdrawid("3001.dat");
+		pm.setName("Brick 2 x 4");
+		pm.setLdd2bl(true);
+		pm.insert();
+		catalog = new File(db.getDir(), "catalog.bmcf");
+		CatalogFile.export(catalog);
+		BrickMapping.InitReadOnly(catalog);
+	}
+	
+	
+	
+	@After
+	public void tearDown() {
+		db.delete();
+	}
+	
+	
+	
+	private static void assertReadOnly(IllegalStateException e) {
+		assertTrue(e.getMessage(), e.getMessage().contains("read-only"));
+	}
+	
+	
+	
+	@Test
+	public void translatesFromFile() throws Exception {
+		
+		assertTrue(BrickMapping.isReadOnly());
+		assertEquals("3001b", PartMapping.lddToBlink("3001", "").getBlid());
+	}
+	
+	
+	
+	@Test
+	public void databaseMethodsFail() throws Exception {
+		
+		try {
+			PartMapping.get(null);
+			fail("get() without database");
+		} catch (IllegalStateException e) {
+			assertReadOnly(e);
+		}
+		try {
+			PartMapping.getFTS("brick", null);
+			fail("getFTS() without database");
+		} catch (IllegalStateException e) {
+			assertReadOnly(e);
+		}
+		try {
+			CatalogFile.export(new File(db.getDir(), "other.bmcf"));
+			fail("export() without database");
+		} catch (IllegalStateException e) {
+			assertReadOnly(e);
+		}
+		try {
+			BrickColor.get(null);
+			fail("color query without database");
+		} catch (IllegalStateException e) {
+			assertReadOnly(e);
+		}
+		try {
+			StatementPool.get("SELECT 1");
+			fail("pooled statement without database");
+		} catch (IllegalStateException e) {
+			assertReadOnly(e);
+		} catch (SQLException e) {
+			fail(e.toString());
+		}
+	}
+
+}
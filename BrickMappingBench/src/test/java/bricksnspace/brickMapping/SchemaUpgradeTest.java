@@ -0,0 +1,104 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * A schema version 1 database is upgraded in place to indexes of 
+ * a new database.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class SchemaUpgradeTest {
+	
+	private static final String VERSION = "MPPMVERSION";
+	
+	private TestDb db;
+	
+	
+	
+	@Before
+	public void setUp() throws Exception {
+		db = new TestDb(false);
+	}
+	
+	
+	
+	@After
+	public void tearDown() {
+		db.delete();
+	}
+	
+	
+	
+	/**
+	 * @return names of indexes on tables of library, without primary keys
+	 */
+	private TreeSet<String> indexes() throws SQLException {
+		
+		TreeSet<String> names = new TreeSet<String>();
+		try (Statement st = db.db.createStatement();
+				ResultSet rs = st.executeQuery("SELECT DISTINCT index_name FROM information_schema.indexes " +
+						"WHERE table_name IN ('PARTMAPPING','COLORS') AND NOT primary_key")) {
+			while (rs.next()) {
+				names.add(rs.getString(1).toLowerCase());
+			}
+		}
+		return names;
+	}
+	
+	
+	
+	@Test
+	public void upgradeFrom1() throws Exception {
+		
+		TreeSet<String> v2 = indexes();
+		assertEquals(2, db.db.getDbVersion(VERSION));
+		// indexes of version 1
+		try (Statement st = db.db.createStatement()) {
+			st.executeUpdate("DROP INDEX pm_lddecor");
+			st.executeUpdate("DROP INDEX pm_lastmod");
+			st.executeUpdate("DROP INDEX color_lastmod");
+			st.executeUpdate("CREATE INDEX pm_mapid ON "+PartMapping.table+"(mapid)");
+			st.executeUpdate("CREATE INDEX pm_lddid ON "+PartMapping.table+"(designid)");
+		}
+		db.db.setDbVersion(VERSION, 1);
+		BrickMapping.Init(db.db, false);
+		assertEquals(2, db.db.getDbVersion(VERSION));
+		assertEquals(v2, indexes());
+		assertTrue(v2.contains("pm_lddecor"));
+		assertTrue(v2.contains("pm_lastmod"));
+		assertTrue(v2.contains("color_lastmod"));
+	}
+
+}
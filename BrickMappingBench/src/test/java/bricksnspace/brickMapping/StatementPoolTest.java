@@ -0,0 +1,146 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Statement pool with many short-lived threads: statements of ended 
+ * threads must be closed, so pool stays bounded by live threads.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class StatementPoolTest {
+	
+	private static final String[] QUERIES = {
+		"SELECT 1", "SELECT 2", "SELECT 3", "SELECT 4"
+	};
+	private static final int ROUNDS = 50;
+	private static final int THREADS = 16;
+	
+	private TestDb db;
+	
+	
+	
+	@Before
+	public void setUp() throws Exception {
+		db = new TestDb(false);
+	}
+	
+	
+	
+	@After
+	public void tearDown() {
+		db.delete();
+	}
+	
+	
+	
+	@Test
+	public void deadThreadsAreClosed() throws Exception {
+		
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		int maxThreads = 0;
+		int maxSize = 0;
+		long created = StatementPool.getCreated();
+		for (int round = 0; round < ROUNDS; round++) {
+			Thread[] t = new Thread[THREADS];
+			for (int i = 0; i < THREADS; i++) {
+				t[i] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							for (String sql : QUERIES) {
+								StatementPool.get(sql).executeQuery().close();
+							}
+						} catch (SQLException e) {
+							synchronized (errors) {
+								errors.add(e);
+							}
+						}
+					}
+				});
+				t[i].start();
+			}
+			for (Thread th : t) {
+				th.join();
+			}
+			maxThreads = Math.max(maxThreads, StatementPool.getThreads());
+			maxSize = Math.max(maxSize, StatementPool.size());
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+		// a round can see pools of previous round only, not older ones
+		assertTrue("pools: "+maxThreads, maxThreads <= 2*THREADS);
+		assertTrue("statements: "+maxSize, maxSize <= 2*THREADS*QUERIES.length);
+		assertEquals(ROUNDS*THREADS*QUERIES.length, StatementPool.getCreated()-created);
+		// next new thread closes all pools left by ended threads
+		Thread last = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					StatementPool.get(QUERIES[0]);
+				} catch (SQLException e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				}
+			}
+		});
+		last.start();
+		last.join();
+		assertEquals(1, StatementPool.getThreads());
+		assertEquals(1, StatementPool.size());
+	}
+	
+	
+	
+	@Test
+	public void releaseAndReset() throws Exception {
+		
+		for (String sql : QUERIES) {
+			StatementPool.get(sql);
+			StatementPool.get(sql);
+		}
+		assertEquals(1, StatementPool.getThreads());
+		assertEquals(QUERIES.length, StatementPool.size());
+		StatementPool.releaseThread();
+		assertEquals(0, StatementPool.getThreads());
+		assertEquals(0, StatementPool.size());
+		StatementPool.get(QUERIES[0]);
+		StatementPool.reset();
+		assertEquals(0, StatementPool.size());
+		// statements of previous generation are prepared again
+		StatementPool.get(QUERIES[0]).executeQuery().close();
+		assertEquals(1, StatementPool.size());
+	}
+
+}
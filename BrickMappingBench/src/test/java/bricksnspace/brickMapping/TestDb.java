@@ -0,0 +1,80 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import java.io.File;
+import java.nio.file.Files;
+
+import bricksnspace.dbconnector.DBConnector;
+
+
+/**
+ * Empty H2 database in a temporary directory, for library tests
+ * 
+ * @author Mario Pascucci
+ *
+ */
+class TestDb {
+	
+	private final File dir;
+	final DBConnector db;
+	
+	
+	
+	/**
+	 * Creates database and inits library on it
+	 * @param useIndex use in-memory translation index
+	 * @throws Exception
+	 */
+	TestDb(boolean useIndex) throws Exception {
+		
+		dir = Files.createTempDirectory("bmtest").toFile();
+		db = new DBConnector(new File(dir, "catalog").getPath(), "sa", "");
+		BrickMapping.Init(db, useIndex);
+	}
+	
+	
+	
+	/**
+	 * @return temporary directory, deleted by {@link #delete()}
+	 */
+	File getDir() {
+		return dir;
+	}
+	
+	
+	
+	/**
+	 * Deletes database files
+	 */
+	void delete() {
+		
+		StatementPool.reset();
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+}
@@ -0,0 +1,165 @@
+/**
+	Copyright 2017 Mario Pascucci <mpascucci@gmail.com>
+	This file is part of BrickMapping
+
+	BrickMapping is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	BrickMapping is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with BrickMapping.  If not, see <http://www.gnu.org/licenses/>.
+ 
+ */
+
+package bricksnspace.brickMapping;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+
+/**
+ * Translation graph changed one mapping at a time must give same paths 
+ * of a graph built from scratch on same mappings.
+ * 
+ * @author Mario Pascucci
+ *
+ */
+public class TranslationGraphTest {
+	
+	// few IDs, so random mappings share IDs and give indirect paths
+	private static final int IDS = 150;
+	private static final int ROWS = 300;
+	
+	
+	
+	private static PartMapping pm(int mapid, String master, String design, String bl, 
+			String ldr, int flags) {
+		
+		PartMapping p = new PartMapping();
+		p.setMapid(mapid);
+		p.setMasterid(master);
+		p.setDesignid(design);
+		p.setBlid(bl);
+		p.setLdrawid(ldr);
+		p.setName("n"+mapid);
+		p.setDecorid("");
+		p.setLdd2bl((flags & 1) != 0);
+		p.setBl2ldd((flags & 2) != 0);
+		p.setLdd2dat((flags & 4) != 0);
+		p.setDat2ldd((flags & 8) != 0);
+		p.setBl2dat((flags & 16) != 0);
+		p.setDat2bl((flags & 32) != 0);
+		return p;
+	}
+	
+	
+	
+	private static PartMapping random(Random r, int mapid) {
+		
+		return pm(mapid, r.nextInt(3) == 0 ? "M"+r.nextInt(5) : "", 
+				Integer.toString(r.nextInt(IDS)), r.nextInt(IDS)+"b", r.nextInt(IDS)+".dat", 
+				r.nextInt(64) & r.nextInt(64));
+	}
+	
+	
+	
+	/**
+	 * All paths for keys, as text
+	 */
+	private static String dump(TranslationGraph g, Set<String> keys) {
+		
+		StringBuilder sb = new StringBuilder();
+		for (MapDirection d : MapDirection.values()) {
+			boolean ldd = d == MapDirection.LDD2BL || d == MapDirection.LDD2DAT;
+			for (String k : keys) {
+				String r;
+				try {
+					r = g.path(d, ldd ? MapDirection.lddKey(k, "") : k).toString();
+				} catch (DuplicateMappingException e) {
+					r = "duplicate";
+				} catch (Exception e) {
+					r = e.toString();
+				}
+				sb.append(d).append(' ').append(k).append(' ').append(r).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+	
+	
+	
+	@Test
+	public void indirectPaths() throws Exception {
+		
+		List<PartMapping> l = new ArrayList<PartMapping>();
+		l.add(pm(1, "", "3001", "3001b", "", 2));			// bl2ldd 3001b -> 3001
+		l.add(pm(2, "", "3001", "", "3001.dat", 4));		// ldd2dat 3001 -> 3001.dat
+		l.add(pm(3, "F", "100", "100b", "", 0));			// family F, no rules
+		l.add(pm(4, "F", "101", "101b", "101.dat", 16));	// bl2dat in family F
+		TranslationGraph g = TranslationGraph.build(l);
+		TranslationPath p = g.path(MapDirection.BL2DAT, "3001b");
+		assertEquals(2, p.getHops().size());
+		assertEquals("3001.dat", p.getResult().getLdrawid());
+		p = g.path(MapDirection.BL2DAT, "100b");
+		assertTrue(p.isFamily());
+		assertEquals("101.dat", p.getResult().getLdrawid());
+		assertTrue(g.path(MapDirection.LDD2BL, MapDirection.lddKey("3001", "")).isEmpty());
+	}
+	
+	
+	
+	@Test
+	public void incrementalEqualsRebuild() {
+		
+		Random r = new Random(3);
+		Map<Integer,PartMapping> cur = new TreeMap<Integer,PartMapping>();
+		for (int i = 1; i <= ROWS; i++) {
+			cur.put(i, random(r, i));
+		}
+		TranslationGraph g = TranslationGraph.build(cur.values());
+		TranslationGraph first = g;
+		Set<String> keys = new TreeSet<String>();
+		for (int i = 0; i < IDS; i++) {
+			keys.add(Integer.toString(i));
+			keys.add(i+"b");
+			keys.add(i+".dat");
+		}
+		String firstDump = dump(first, keys);
+		int checks = 0;
+		for (int step = 0; step < 2000; step++) {
+			int mapid = 1+r.nextInt(ROWS+20);
+			PartMapping p = random(r, mapid);
+			cur.put(mapid, p);
+			g = g.with(p);
+			if (step % 50 == 0) {
+				TranslationGraph full = TranslationGraph.build(cur.values());
+				assertEquals("step "+step, dump(full, keys), dump(g, keys));
+				assertEquals(full.indirectCount(), g.indirectCount());
+				checks++;
+			}
+		}
+		assertEquals(40, checks);
+		// random data must exercise indirect paths
+		assertTrue(g.indirectCount() > 10);
+		// old graph isn't changed by edits
+		assertEquals(firstDump, dump(first, keys));
+	}
+
+}